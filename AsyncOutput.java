@@ -0,0 +1,325 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The AsyncOutput class writes bytes to a stream on a dedicated thread, so
+ * the thread producing output only fills buffers and never waits on the
+ * stream.
+ *
+ * <p>A fixed pool of buffers is passed back and forth: the producer fills the
+ * current buffer and hands it to the writer thread when it is full, taking an
+ * empty one from the pool, and the writer returns each buffer to the pool once
+ * it has been written. If the producer gets ahead of the stream by the whole
+ * pool it waits for a buffer to come back, which bounds the memory used.
+ *
+ * <p>Text is encoded as UTF-8, and chars that cannot be encoded, such as
+ * unpaired surrogates, are replaced with '?', as a PrintStream would do. An
+ * AsyncOutput is used by a single producer thread.
+ *
+ * @author ColinKula
+ */
+
+public class AsyncOutput implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * The size of each buffer, in bytes.
+     */
+    static final int BUFFER_BYTES = 1 << 16;
+
+    /**
+     * The number of buffers in the pool.
+     */
+    static final int BUFFERS = 4;
+
+    /**
+     * The buffer handed to the writer to make it stop.
+     */
+    static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * The buffer handed to the writer to make it flush the stream.
+     */
+    static final ByteBuffer FLUSH = ByteBuffer.allocate(0);
+
+    /**
+     * The stream the bytes are written to.
+     */
+    final OutputStream out;
+
+    /**
+     * Whether the stream is closed along with the output.
+     */
+    final boolean closeStream;
+
+    /**
+     * The empty buffers.
+     */
+    final ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+
+    /**
+     * The filled buffers waiting to be written.
+     */
+    final ArrayBlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+
+    /**
+     * The encoder text is written with.
+     */
+    final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Released by the writer each time it has flushed the stream.
+     */
+    final Semaphore flushed = new Semaphore(0);
+
+    /**
+     * The buffer being filled.
+     */
+    ByteBuffer current;
+
+    /**
+     * The thread writing filled buffers to the stream.
+     */
+    final Thread writer;
+
+    /**
+     * The first error the writer ran into, reported to the producer.
+     */
+    volatile IOException failure;
+
+    // Constructors
+
+    /**
+     * Constructs an AsyncOutput writing to the given stream and starts its
+     * writer thread.
+     *
+     * @param out         The stream to write to.
+     * @param closeStream Whether close also closes the stream.
+     */
+    public AsyncOutput(OutputStream out, boolean closeStream) {
+        this.out = out;
+        this.closeStream = closeStream;
+        for (int i = 0; i < BUFFERS - 1; i++) {
+            free.add(ByteBuffer.allocate(BUFFER_BYTES));
+        }
+        current = ByteBuffer.allocate(BUFFER_BYTES);
+        writer = new Thread(this::writeLoop, "async-output");
+        writer.start();
+    }
+
+    // Methods
+
+    /**
+     * Writes text, encoded as UTF-8.
+     *
+     * @param text The text.
+     * @throws IOException If the writer has failed, or the text cannot be
+     *                     encoded.
+     */
+    public void write(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, current, true)).isOverflow()) {
+            handOff();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (encoder.flush(current).isOverflow()) {
+            handOff();
+        }
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param value The byte.
+     * @throws IOException If the writer has failed.
+     */
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        current.put((byte) value);
+    }
+
+    /**
+     * Writes an int, most significant byte first.
+     *
+     * @param value The int.
+     * @throws IOException If the writer has failed.
+     */
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        current.putInt(value);
+    }
+
+    /**
+     * Writes a long, most significant byte first.
+     *
+     * @param value The long.
+     * @throws IOException If the writer has failed.
+     */
+    public void writeLong(long value) throws IOException {
+        ensure(8);
+        current.putLong(value);
+    }
+
+    /**
+     * Writes a double, as the bits of its IEEE 754 representation.
+     *
+     * @param value The double.
+     * @throws IOException If the writer has failed.
+     */
+    public void writeDouble(double value) throws IOException {
+        ensure(8);
+        current.putDouble(value);
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-16 chars.
+     *
+     * @param text The string.
+     * @throws IOException If the writer has failed.
+     */
+    public void writeChars(CharSequence text) throws IOException {
+        writeInt(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            ensure(2);
+            current.putChar(text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes out everything written so far and flushes the stream, waiting
+     * for the writer thread to do so.
+     *
+     * @throws IOException If the writer has failed or the stream cannot be
+     *                     flushed.
+     */
+    public void flush() throws IOException {
+        if (current.position() > 0) {
+            handOff();
+        }
+        try {
+            filled.put(FLUSH);
+            flushed.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes out everything written so far and stops the writer thread.
+     *
+     * @throws IOException If the writer has failed or the stream cannot be
+     *                     closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (current.position() > 0) {
+            handOff();
+        }
+        try {
+            filled.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+        if (closeStream) {
+            out.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Makes sure the current buffer has room for the given number of bytes.
+     *
+     * @param bytes The number of bytes needed.
+     * @throws IOException If the writer has failed.
+     */
+    private void ensure(int bytes) throws IOException {
+        if (current.remaining() < bytes) {
+            handOff();
+        }
+    }
+
+    /**
+     * Hands the current buffer to the writer and takes an empty one.
+     *
+     * @throws IOException If the writer has failed.
+     */
+    private void handOff() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        try {
+            current.flip();
+            filled.put(current);
+            current = free.take();
+            current.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing", e);
+        }
+    }
+
+    /**
+     * Writes filled buffers to the stream and returns them to the pool, until
+     * the end marker arrives.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = filled.take();
+                if (buffer == END) {
+                    break;
+                }
+                if (buffer == FLUSH) {
+                    if (failure == null) {
+                        try {
+                            out.flush();
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    flushed.release();
+                    continue;
+                }
+                if (failure == null) {
+                    try {
+                        out.write(buffer.array(), 0, buffer.limit());
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.put(buffer);
+            }
+            out.flush();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The BinaryResultSink class writes results in a compact binary format. The
+ * stream starts with a magic number, and each record starts with a tag byte:
+ * an experiment record holds its number, the infix, prefix and postfix
+ * notations as a char count followed by UTF-16 chars, and the evaluation; a
+ * sorted record holds one evaluation; a summary record holds the count, the
+ * smallest and the largest evaluations, and pairs of quantile and value, each
+ * list after its length. Numbers are big-endian and evaluations
+ * are IEEE 754 doubles.
+ *
+ * @author ColinKula
+ */
+
+public class BinaryResultSink implements ResultSink {
+
+    // Fields
+
+    /**
+     * The magic number at the start of the stream ("SRB1").
+     */
+    static final int MAGIC = 0x53524231;
+
+    /**
+     * The tag of an experiment record.
+     */
+    static final byte EXPERIMENT = 1;
+
+    /**
+     * The tag of a sorted evaluation record.
+     */
+    static final byte SORTED = 2;
+
+    /**
+     * The tag of a summary record.
+     */
+    static final byte SUMMARY = 3;
+
+    /**
+     * The output the records are written to.
+     */
+    final AsyncOutput output;
+
+    /**
+     * The buffer the prefix notation is rendered into, reused for every
+     * experiment.
+     */
+    final StringBuilder prefix = new StringBuilder(128);
+
+    // Constructors
+
+    /**
+     * Constructs a BinaryResultSink writing to the given output and writes the
+     * magic number.
+     *
+     * @param output The output to write to.
+     */
+    public BinaryResultSink(AsyncOutput output) {
+        this.output = output;
+        try {
+            output.writeInt(MAGIC);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Methods
+
+    @Override
+    public void experiment(int number, InfixPostfix experiment, ExperimentTree tree, double evaluation)
+            throws IOException {
+        prefix.setLength(0);
+        tree.appendPrefix(prefix);
+        output.writeByte(EXPERIMENT);
+        output.writeInt(number);
+        output.writeChars(experiment.infixPresentation);
+        output.writeChars(prefix);
+        output.writeChars(experiment.postfixRepresentation);
+        output.writeDouble(evaluation);
+    }
+
+    @Override
+    public void sorted(BinarySearchTree tree) throws IOException {
+        try {
+            tree.forEachInorder(value -> {
+                try {
+                    output.writeByte(SORTED);
+                    output.writeDouble(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void summary(EvaluationSummary summary) throws IOException {
+        double[] smallest = summary.smallest();
+        double[] largest = summary.largest();
+        double[] quantiles = EvaluationSummary.reportedQuantiles();
+        output.writeByte(SUMMARY);
+        output.writeLong(summary.count());
+        output.writeInt(smallest.length);
+        for (double value : smallest) {
+            output.writeDouble(value);
+        }
+        output.writeInt(largest.length);
+        for (double value : largest) {
+            output.writeDouble(value);
+        }
+        output.writeInt(quantiles.length);
+        for (double q : quantiles) {
+            output.writeDouble(q);
+            output.writeDouble(summary.quantile(q));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+}
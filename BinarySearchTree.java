@@ -1,3 +1,6 @@
+import java.util.ArrayDeque;
+import java.util.function.DoubleConsumer;
+
 /**
  * The BinarySearchTree class represents a binary search tree (BST) data 
  * structure that stores values in a sorted order. It provides methods for
@@ -36,7 +39,35 @@ public class BinarySearchTree {
      * @param node The BinaryNode to be inserted.
      */
     public void insert(BinaryNode node) {
+        TreeInsertEvent event = new TreeInsertEvent();
+        event.begin();
+        long start = Metrics.start();
         root = insertHelper(root, node);
+        Metrics.stop(Metrics.INSERT, start);
+        if (event.isEnabled()) {
+            event.value = node.value;
+            event.depth = depthOf(node);
+            event.commit();
+        }
+    }
+    
+    /**
+     * Finds the depth of a node in the tree by walking down from the root.
+     * 
+     * @param node The node to find.
+     * @return The depth of the node, where the root has depth 0, or -1 if the
+     *         node is not in the tree.
+     */
+    private int depthOf(BinaryNode node) {
+        BinaryNode current = root;
+        int depth = 0;
+        
+        while (current != null && current != node) {
+            current = node.value < current.value ? current.leftChild : current.rightChild;
+            depth++;
+        }
+        
+        return current == null ? -1 : depth;
     }
     
     /**
@@ -66,20 +97,42 @@ public class BinarySearchTree {
      */
     public void display() {
         System.out.println("\nInorder representation of all evaluations: ");
-        displayHelper(root);
+        System.out.print(appendInorder(new StringBuilder()));
+    }
+    
+    /**
+     * Renders the inorder representation of all evaluations in the tree into
+     * the given buffer, each value followed by a space.
+     * 
+     * @param buffer The buffer to append to.
+     * @return The buffer.
+     */
+    public StringBuilder appendInorder(StringBuilder buffer) {
+        forEachInorder(value -> buffer.append(value).append(' '));
+        return buffer;
     }
     
     /**
-     * Recursively displays the inorder representation of the subtree rooted at
-     * the given node.
+     * Passes every value in the tree to the given action, in order.
      * 
-     * @param root The root of the current subtree.
+     * @param action The action to perform on each value.
      */
-    private void displayHelper(BinaryNode root) {
+    public void forEachInorder(DoubleConsumer action) {
+        forEachHelper(root, action);
+    }
+    
+    /**
+     * Recursively passes the values of the subtree rooted at the given node to
+     * the action, in order.
+     * 
+     * @param root   The root of the current subtree.
+     * @param action The action to perform on each value.
+     */
+    private void forEachHelper(BinaryNode root, DoubleConsumer action) {
         if (root != null) {
-            displayHelper(root.leftChild);
-            System.out.print(root.value + " ");
-            displayHelper(root.rightChild);
+            forEachHelper(root.leftChild, action);
+            action.accept(root.value);
+            forEachHelper(root.rightChild, action);
         } 
     }
     
@@ -184,6 +237,32 @@ public class BinarySearchTree {
         
         return root.value;
     }
-
+    
+    /**
+     * Estimates the heap retained by the tree. The nodes are counted with an
+     * explicit stack, since the tree may be too deep to recurse through.
+     * 
+     * @return The footprint, with one entry per node.
+     */
+    public Footprint footprint() {
+        long nodes = 0;
+        ArrayDeque<BinaryNode> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            BinaryNode node = pending.pop();
+            nodes++;
+            if (node.leftChild != null) {
+                pending.push(node.leftChild);
+            }
+            if (node.rightChild != null) {
+                pending.push(node.rightChild);
+            }
+        }
+        return new Footprint("Binary search tree", nodes)
+                .add("tree", Footprint.object(Footprint.REFERENCE), 1)
+                .add("tree nodes", nodes * Footprint.object(8 + 2 * Footprint.REFERENCE), nodes);
+    }
     
 }
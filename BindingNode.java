@@ -0,0 +1,65 @@
+/**
+ * The BindingNode class represents an immutable node in a chain of variable
+ * bindings used by the ConcurrentHashBasedSet class. Each node stores the
+ * SymbolTable id and name of a variable, its numerical value, and a reference
+ * to the next node.
+ * 
+ * <p>Because nodes never change once they are published, readers can walk a
+ * chain without taking a lock. Writers replace a chain by building a new one.
+ * 
+ * @author ColinKula
+ */
+
+public class BindingNode {
+
+    // Fields
+
+    /**
+     * The SymbolTable id of the variable.
+     */
+    final int symbol;
+
+    /**
+     * The name of the variable.
+     */
+    final String variable;
+
+    /**
+     * The numerical value of the variable.
+     */
+    final int value;
+
+    /**
+     * Reference to the next node in the chain.
+     */
+    final BindingNode next;
+
+    // Constructors
+
+    /**
+     * Constructs a BindingNode with the given contents.
+     *
+     * @param symbol   The SymbolTable id of the variable.
+     * @param variable The name of the variable.
+     * @param value    The numerical value of the variable.
+     * @param next     The next node in the chain, or null.
+     */
+    BindingNode(int symbol, String variable, int value, BindingNode next) {
+        this.symbol = symbol;
+        this.variable = variable;
+        this.value = value;
+        this.next = next;
+    }
+
+    // Methods
+
+    /**
+     * Gets the numerical value stored in the node.
+     *
+     * @return The numerical value stored in the node.
+     */
+    public int getValue() {
+        return value;
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * The BindingVersion class represents one committed version of a variable's
+ * binding in a VersionedBindings store. The versions of a variable form a
+ * chain from the newest to the oldest.
+ * 
+ * @author ColinKula
+ */
+
+public class BindingVersion {
+
+    // Fields
+
+    /**
+     * The version the binding was committed in.
+     */
+    final long version;
+
+    /**
+     * The numerical value of the variable in this version.
+     */
+    final int value;
+
+    /**
+     * Whether the variable is bound in this version; false if this version
+     * removed it.
+     */
+    final boolean present;
+
+    /**
+     * The previous version of the binding, or null once older versions have
+     * been reclaimed.
+     */
+    volatile BindingVersion older;
+
+    // Constructors
+
+    /**
+     * Constructs a BindingVersion with the given contents.
+     *
+     * @param version The version the binding was committed in.
+     * @param value   The numerical value of the variable.
+     * @param present Whether the variable is bound.
+     * @param older   The previous version of the binding, or null.
+     */
+    BindingVersion(long version, int value, boolean present, BindingVersion older) {
+        this.version = version;
+        this.value = value;
+        this.present = present;
+        this.older = older;
+    }
+
+}
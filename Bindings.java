@@ -0,0 +1,58 @@
+/**
+ * The Bindings interface represents a read-only view of variable values that
+ * an ExperimentTree can be evaluated against. Variables can be looked up by
+ * name or by their SymbolTable id.
+ * 
+ * @author ColinKula
+ */
+
+public interface Bindings {
+
+    /**
+     * Checks whether the specified variable has a value.
+     *
+     * @param variable The variable name to check for.
+     * @return true if the variable has a value; false otherwise.
+     */
+    boolean contains(String variable);
+
+    /**
+     * Checks whether the variable with the specified SymbolTable id has a
+     * value.
+     *
+     * @param symbol The id of the variable.
+     * @return true if the variable has a value; false otherwise.
+     */
+    boolean contains(int symbol);
+
+    /**
+     * Retrieves the numerical value of the specified variable.
+     *
+     * @param variable The variable name.
+     * @return The value of the variable, or -1.0 if it has none.
+     */
+    double getValueFor(String variable);
+
+    /**
+     * Retrieves the numerical value of the variable with the specified
+     * SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or -1.0 if it has none.
+     */
+    double getValueFor(int symbol);
+
+    /**
+     * Retrieves the numerical value of the variable with the specified
+     * SymbolTable id in a single lookup, so a concurrent update cannot remove
+     * the variable between checking for it and reading it. Implementations
+     * only accept finite values, so NaN never stands for a value.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or NaN if it has none.
+     */
+    default double valueOrNaN(int symbol) {
+        return contains(symbol) ? getValueFor(symbol) : Double.NaN;
+    }
+
+}
@@ -0,0 +1,569 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+
+/**
+ * The BindingsLog class is an append-only write-ahead log of the updates and
+ * removals made to a HashBasedSet, so that its bindings survive the process.
+ *
+ * <p>Every change is appended as a record holding a sequence number, the
+ * operation, the key and the value, framed by its length and a CRC32
+ * checksum. Appends only copy the record into a buffer; a flusher thread
+ * writes the buffer and forces it to disk with one fsync for the whole batch.
+ * A batch is flushed once its first record has waited for the latency bound,
+ * or sooner when it grows past BATCH_BYTES, so a change is durable at most
+ * about the latency bound after it was appended. append returns a future that
+ * completes when the record is durable, and sync waits for everything
+ * appended so far. Once a batch fails to be written, or the flusher thread
+ * is interrupted, the log stops: the records not yet written fail, and every
+ * later append, sync and close throws the first failure.
+ *
+ * <p>compact writes the full contents of the set to a snapshot file, tagged
+ * with the sequence number of the last change it includes, and empties the
+ * log. replay reads the snapshot and then the log records that come after it.
+ * A record that is cut short or fails its checksum ends the replay, since it
+ * can only be the tail of a write that never completed.
+ *
+ * @author ColinKula
+ */
+
+public class BindingsLog implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * The record operation that updates a key.
+     */
+    static final byte UPDATE = 1;
+
+    /**
+     * The record operation that removes a key.
+     */
+    static final byte REMOVE = 2;
+
+    /**
+     * The magic number at the start of a snapshot file, "SBS1".
+     */
+    static final int SNAPSHOT_MAGIC = 0x53425331;
+
+    /**
+     * The number of buffered bytes that flushes a batch before the latency
+     * bound is reached.
+     */
+    static final int BATCH_BYTES = 1 << 20;
+
+    /**
+     * The path of the log file.
+     */
+    final Path logPath;
+
+    /**
+     * The path of the snapshot file.
+     */
+    final Path snapshotPath;
+
+    /**
+     * The channel the log is appended through.
+     */
+    final FileChannel channel;
+
+    /**
+     * The longest a record waits before its batch is flushed, in nanoseconds.
+     */
+    final long maxLatencyNanos;
+
+    /**
+     * The number of records appended since the last compaction after which
+     * needsCompaction returns true.
+     */
+    final long compactEvery;
+
+    /**
+     * The records appended but not flushed yet.
+     */
+    ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * The future completed when the pending batch is durable.
+     */
+    CompletableFuture<Void> pendingDone = new CompletableFuture<>();
+
+    /**
+     * The future completed when the last batch taken by the flusher is
+     * durable.
+     */
+    CompletableFuture<Void> flushing = CompletableFuture.completedFuture(null);
+
+    /**
+     * The number of records in the pending batch.
+     */
+    int pendingRecords;
+
+    /**
+     * When the first pending record was appended, in nanoseconds, or 0 if
+     * nothing is pending.
+     */
+    long pendingSince;
+
+    /**
+     * The sequence number of the last record appended.
+     */
+    long sequence;
+
+    /**
+     * The number of records appended since the last compaction.
+     */
+    long sinceCompaction;
+
+    /**
+     * The number of batches flushed.
+     */
+    long batches;
+
+    /**
+     * The number of records flushed.
+     */
+    long records;
+
+    /**
+     * The number of bytes taken up by the valid records read by the last
+     * call to apply.
+     */
+    long appliedBytes;
+
+    /**
+     * Whether the log has been closed.
+     */
+    boolean closed;
+
+    /**
+     * The first error that stopped a batch from being written, or null.
+     */
+    IOException failure;
+
+    /**
+     * The thread that flushes batches.
+     */
+    final Thread flusher;
+
+    // Constructors
+
+    /**
+     * Opens the log in the given directory, creating it if needed.
+     *
+     * @param directory       The directory holding the log and snapshot.
+     * @param maxLatencyMillis The longest a record waits before it is flushed.
+     * @param compactEvery    The number of records after which the log should
+     *                        be compacted.
+     * @throws IOException If the log cannot be opened.
+     */
+    public BindingsLog(String directory, long maxLatencyMillis, long compactEvery) throws IOException {
+        Path path = Path.of(directory);
+        Files.createDirectories(path);
+        this.logPath = path.resolve("bindings.log");
+        this.snapshotPath = path.resolve("bindings.snapshot");
+        this.maxLatencyNanos = maxLatencyMillis * 1_000_000;
+        this.compactEvery = compactEvery;
+        this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.flusher = new Thread(this::flushLoop, "bindings-log");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Methods
+
+    /**
+     * Replays the snapshot and the log into the given map, then cuts off any
+     * torn record at the end of the log. Must be called once, before anything
+     * is appended.
+     *
+     * @param map The map to replay into.
+     * @return The number of log records replayed after the snapshot.
+     * @throws IOException If the files cannot be read.
+     */
+    public synchronized int replay(Map<String, Integer> map) throws IOException {
+        long snapshotSequence = 0;
+        if (Files.exists(snapshotPath)) {
+            long size = Files.size(snapshotPath);
+            try (DataInputStream snapshot = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+                if (size < 12 || snapshot.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Corrupt snapshot " + snapshotPath);
+                }
+                snapshotSequence = snapshot.readLong();
+                int valid = apply(snapshot, size - 12, map, 0);
+                if (appliedBytes < size - 12) {
+                    throw new IOException("Corrupt snapshot " + snapshotPath + " after " + valid + " records");
+                }
+            }
+        }
+        sequence = snapshotSequence;
+
+        int replayed;
+        try (DataInputStream log = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(logPath)))) {
+            replayed = apply(log, channel.size(), map, snapshotSequence);
+        }
+        channel.truncate(appliedBytes);
+        channel.position(appliedBytes);
+        sinceCompaction = replayed;
+        return replayed;
+    }
+
+    /**
+     * Appends an update of a key to the log.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return A future completed when the record is durable.
+     */
+    public CompletableFuture<Void> appendUpdate(String key, int value) {
+        return append(UPDATE, key, value);
+    }
+
+    /**
+     * Appends a removal of a key to the log.
+     *
+     * @param key The key.
+     * @return A future completed when the record is durable.
+     */
+    public CompletableFuture<Void> appendRemove(String key) {
+        return append(REMOVE, key, 0);
+    }
+
+    /**
+     * Waits until every record appended so far is durable.
+     *
+     * @throws UncheckedIOException If a batch could not be written.
+     */
+    public void sync() {
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            if (failure != null) {
+                throw failed();
+            }
+            if (pendingRecords == 0) {
+                done = flushing;
+            } else {
+                pendingSince = Long.MIN_VALUE / 2; // Flush without waiting out the bound
+                done = pendingDone;
+                notifyAll();
+            }
+        }
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            synchronized (this) {
+                throw failed();
+            }
+        }
+    }
+
+    /**
+     * Checks whether enough records were appended since the last compaction
+     * that the log should be compacted.
+     *
+     * @return true if compact should be called; false otherwise.
+     */
+    public synchronized boolean needsCompaction() {
+        return sinceCompaction >= compactEvery;
+    }
+
+    /**
+     * Writes the full contents of the set to the snapshot and empties the log.
+     * The map must reflect every record appended so far, and nothing may be
+     * appended while the compaction runs.
+     *
+     * @param map The contents of the set.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void compact(Map<String, Integer> map) throws IOException {
+        sync();
+        synchronized (this) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(sequence);
+            for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                writeRecord(out, sequence, UPDATE, entry.getKey(), entry.getValue());
+            }
+            out.flush();
+
+            Path temporary = snapshotPath.resolveSibling("bindings.snapshot.tmp");
+            try (FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    snapshot.write(buffer);
+                }
+                snapshot.force(true);
+            }
+            Files.move(temporary, snapshotPath, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+            // Records up to the snapshot sequence are skipped on replay, so a
+            // crash before the truncation is harmless
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            sinceCompaction = 0;
+        }
+    }
+
+    /**
+     * Describes how many records and batches were flushed.
+     *
+     * @return The report.
+     */
+    public synchronized String report() {
+        return String.format("Write-ahead log: %d records in %d batches (%.1f records per fsync)",
+                records, batches, batches > 0 ? (double) records / batches : 0.0);
+    }
+
+    /**
+     * Flushes everything appended so far and closes the log. The log is
+     * closed even if a batch could not be written.
+     *
+     * @throws IOException If the log cannot be closed, or a batch could not
+     *                     be written.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failed;
+        try {
+            sync();
+        } catch (UncheckedIOException e) {
+            // Reported below, once the log is closed
+        }
+        synchronized (this) {
+            closed = true;
+            failed = failure;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failed != null) {
+            throw new IOException("Write-ahead log " + logPath + " failed", failed);
+        }
+    }
+
+    /**
+     * Builds the exception thrown once a batch could not be written. Called
+     * while holding the lock.
+     *
+     * @return The exception, caused by the first failure.
+     */
+    private UncheckedIOException failed() {
+        return new UncheckedIOException("Write-ahead log " + logPath + " failed", failure);
+    }
+
+    /**
+     * Appends a record to the pending batch.
+     *
+     * @param operation The operation.
+     * @param key       The key.
+     * @param value     The value.
+     * @return A future completed when the record is durable.
+     * @throws UncheckedIOException If an earlier batch could not be written.
+     */
+    private synchronized CompletableFuture<Void> append(byte operation, String key, int value) {
+        if (closed) {
+            throw new IllegalStateException("Log is closed");
+        }
+        if (failure != null) {
+            throw failed();
+        }
+        try {
+            writeRecord(new DataOutputStream(pending), ++sequence, operation, key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by a ByteArrayOutputStream
+        }
+        sinceCompaction++;
+        if (pendingRecords++ == 0) {
+            pendingSince = System.nanoTime();
+            notifyAll();
+        } else if (pending.size() >= BATCH_BYTES) {
+            notifyAll();
+        }
+        return pendingDone;
+    }
+
+    /**
+     * Flushes batches until the log is closed or a batch fails. A batch is
+     * taken once its first record has waited for the latency bound or it is
+     * large enough, written outside the lock and forced to disk. When a batch
+     * fails, it and every record appended after it fail with the same error.
+     * When the thread is interrupted, the records waiting for it fail with an
+     * InterruptedIOException, since nothing else will write them.
+     */
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            CompletableFuture<Void> done;
+            int count;
+
+            synchronized (this) {
+                try {
+                    while (true) {
+                        if (pendingRecords > 0) {
+                            long wait = pendingSince + maxLatencyNanos - System.nanoTime();
+                            if (wait <= 0 || pending.size() >= BATCH_BYTES || closed) {
+                                break;
+                            }
+                            wait(Math.max(1, (wait + 999_999) / 1_000_000));
+                        } else if (closed) {
+                            return;
+                        } else {
+                            wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    failure = new InterruptedIOException("The flusher of " + logPath + " was interrupted");
+                    pending = new ByteArrayOutputStream();
+                    pendingRecords = 0;
+                    pendingSince = 0;
+                    pendingDone.completeExceptionally(failure);
+                    return;
+                }
+                batch = pending.toByteArray();
+                count = pendingRecords;
+                done = pendingDone;
+                flushing = done;
+                pending = new ByteArrayOutputStream();
+                pendingDone = new CompletableFuture<>();
+                pendingRecords = 0;
+                pendingSince = 0;
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                synchronized (this) {
+                    batches++;
+                    records += count;
+                }
+                done.complete(null);
+            } catch (IOException e) {
+                CompletableFuture<Void> later;
+                synchronized (this) {
+                    failure = e;
+                    later = pendingDone;
+                    pending = new ByteArrayOutputStream();
+                    pendingRecords = 0;
+                    pendingSince = 0;
+                }
+                done.completeExceptionally(e);
+                later.completeExceptionally(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replays the records of a stream into a map, stopping at the first torn
+     * or corrupt record. Records at or before the given sequence number are
+     * skipped. The records are read one at a time, so the stream can be
+     * larger than any buffer. Sets appliedBytes to the length of the valid
+     * records read.
+     *
+     * @param in     The records.
+     * @param length The number of bytes in the stream.
+     * @param map    The map to replay into.
+     * @param after  The sequence number the records must be after.
+     * @return The number of records applied.
+     * @throws IOException If the stream cannot be read.
+     */
+    private int apply(DataInputStream in, long length, Map<String, Integer> map, long after)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        int applied = 0;
+        appliedBytes = 0;
+
+        while (length - appliedBytes >= 8) {
+            int recordLength = in.readInt();
+            int checksum = in.readInt();
+            if (recordLength < 17 || recordLength > length - appliedBytes - 8) {
+                break;
+            }
+            byte[] payload = new byte[recordLength];
+            try {
+                in.readFully(payload);
+            } catch (EOFException e) {
+                break; // The file shrank while it was read
+            }
+            crc.reset();
+            crc.update(payload, 0, recordLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            long recordSequence = record.getLong();
+            byte operation = record.get();
+            int keyLength = record.getInt();
+            String key = new String(payload, record.position(), keyLength, StandardCharsets.UTF_8);
+            record.position(record.position() + keyLength);
+            int value = record.getInt();
+            appliedBytes += 8 + recordLength;
+
+            sequence = Math.max(sequence, recordSequence);
+            if (recordSequence > after) {
+                if (operation == UPDATE) {
+                    map.put(key, value);
+                } else {
+                    map.remove(key);
+                }
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Writes one framed record.
+     *
+     * @param out       The stream to write to.
+     * @param sequence  The sequence number of the record.
+     * @param operation The operation.
+     * @param key       The key.
+     * @param value     The value.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeRecord(DataOutputStream out, long sequence, byte operation,
+            String key, int value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(17 + keyBytes.length);
+        payload.putLong(sequence).put(operation).putInt(keyBytes.length).put(keyBytes).putInt(value);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.capacity());
+        out.writeInt(payload.capacity());
+        out.writeInt((int) crc.getValue());
+        out.write(payload.array());
+    }
+
+}
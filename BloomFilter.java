@@ -0,0 +1,175 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The BloomFilter class answers whether a variable name might be in a set
+ * without storing the names: a "no" is always right, and a "yes" is wrong
+ * only at a small false positive rate chosen when the filter is built. It sits
+ * in front of slower stores, so names that are not defined at all are turned
+ * away without a lookup.
+ *
+ * <p>Each name is hashed once, ignoring case as the Table does, into a 64-bit
+ * value whose halves give the positions of its bits by double hashing. The
+ * number of bits and of positions per name are derived from the expected
+ * number of names and the false positive rate. A filter can be written into a
+ * ByteBuffer and read back, so it can be stored along with the data it guards.
+ *
+ * @author ColinKula
+ */
+
+public class BloomFilter {
+
+    // Fields
+
+    /**
+     * The bits of the filter.
+     */
+    final long[] words;
+
+    /**
+     * The number of bits, a multiple of 64.
+     */
+    final long bitCount;
+
+    /**
+     * The number of bits set for each name.
+     */
+    final int hashCount;
+
+    /**
+     * The number of names added.
+     */
+    long size;
+
+    // Constructors
+
+    /**
+     * Constructs an empty BloomFilter sized for the given number of names and
+     * false positive rate.
+     *
+     * @param expectedNames     The number of names that will be added.
+     * @param falsePositiveRate The rate of wrong "yes" answers wanted once that
+     *                          many names are added, such as 0.01.
+     * @throws IllegalArgumentException If the rate is not between 0 and 1.
+     */
+    public BloomFilter(long expectedNames, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        long n = Math.max(expectedNames, 1);
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.words = new long[(int) Math.max(1, (bits + 63) >>> 6)];
+        this.bitCount = (long) words.length << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * ln2));
+    }
+
+    /**
+     * Constructs a BloomFilter from stored bits.
+     *
+     * @param words     The bits.
+     * @param hashCount The number of bits set for each name.
+     * @param size      The number of names added.
+     */
+    private BloomFilter(long[] words, int hashCount, long size) {
+        this.words = words;
+        this.bitCount = (long) words.length << 6;
+        this.hashCount = hashCount;
+        this.size = size;
+    }
+
+    // Methods
+
+    /**
+     * Adds a name to the filter.
+     *
+     * @param name The name.
+     */
+    public void add(CharSequence name) {
+        long hash = SymbolTable.hash64(name);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    /**
+     * Checks whether a name might have been added to the filter.
+     *
+     * @param name The name.
+     * @return false if the name was certainly not added; true if it probably
+     *         was.
+     */
+    public boolean mightContain(CharSequence name) {
+        long hash = SymbolTable.hash64(name);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the false positive rate for the names added so far.
+     *
+     * @return The expected rate of wrong "yes" answers.
+     */
+    public double falsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * size / bitCount), hashCount);
+    }
+
+    /**
+     * Retrieves the number of bits of the filter per name added.
+     *
+     * @return The bits per name.
+     */
+    public double bitsPerName() {
+        return (double) bitCount / Math.max(size, 1);
+    }
+
+    /**
+     * Retrieves the number of bytes the filter takes when written.
+     *
+     * @return The number of bytes.
+     */
+    public int serializedSize() {
+        return 16 + words.length * 8;
+    }
+
+    /**
+     * Writes the filter at the position of the given buffer.
+     *
+     * @param out The buffer, with serializedSize bytes remaining.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(hashCount);
+        out.putInt(words.length);
+        out.putLong(size);
+        for (long word : words) {
+            out.putLong(word);
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo from the position of the given
+     * buffer.
+     *
+     * @param in The buffer.
+     * @return The filter.
+     */
+    public static BloomFilter readFrom(ByteBuffer in) {
+        int hashCount = in.getInt();
+        long[] words = new long[in.getInt()];
+        long size = in.getLong();
+        in.asLongBuffer().get(words);
+        in.position(in.position() + words.length * 8);
+        return new BloomFilter(words, hashCount, size);
+    }
+
+}
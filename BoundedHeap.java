@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * The BoundedHeap class keeps the k largest or the k smallest of a stream of
+ * values in a binary heap of primitive doubles, so the extremes of any number
+ * of values are found in O(k) memory and O(log k) time per value.
+ *
+ * <p>To keep the largest values, the heap is ordered with the smallest kept
+ * value at the root: a new value replaces the root when it is larger, and is
+ * dropped otherwise. Keeping the smallest values works the other way round.
+ * Values are ordered as by Double.compare; NaN values are ignored. Heaps of
+ * the same kind can be merged, such as those filled by separate threads.
+ *
+ * @author ColinKula
+ */
+
+public class BoundedHeap {
+
+    // Fields
+
+    /**
+     * The kept values, as a binary heap with the value that goes first at the
+     * root.
+     */
+    final double[] heap;
+
+    /**
+     * The number of kept values.
+     */
+    int size;
+
+    /**
+     * Whether the largest values are kept, rather than the smallest.
+     */
+    final boolean keepLargest;
+
+    // Constructors
+
+    /**
+     * Constructs an empty BoundedHeap.
+     *
+     * @param capacity    The number of values to keep.
+     * @param keepLargest Whether to keep the largest values, or else the
+     *                    smallest.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public BoundedHeap(int capacity, boolean keepLargest) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.heap = new double[capacity];
+        this.keepLargest = keepLargest;
+    }
+
+    // Methods
+
+    /**
+     * Offers a value to the heap, which keeps it if it is among the largest or
+     * smallest values seen.
+     *
+     * @param value The value.
+     */
+    public void offer(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (size < heap.length) {
+            heap[size] = value;
+            siftUp(size++);
+        } else if (goesFirst(heap[0], value)) {
+            heap[0] = value;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offers every value kept by another heap of the same kind.
+     *
+     * @param other The heap to merge in.
+     * @throws IllegalArgumentException If the other heap keeps the other end.
+     */
+    public void merge(BoundedHeap other) {
+        if (other.keepLargest != keepLargest) {
+            throw new IllegalArgumentException("Cannot merge heaps keeping opposite ends");
+        }
+        for (int i = 0; i < other.size; i++) {
+            offer(other.heap[i]);
+        }
+    }
+
+    /**
+     * Retrieves the kept values, from the most extreme: largest first when
+     * the largest values are kept, smallest first otherwise.
+     *
+     * @return The kept values.
+     */
+    public double[] values() {
+        double[] values = Arrays.copyOf(heap, size);
+        Arrays.sort(values);
+        if (keepLargest) {
+            for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+                double swap = values[i];
+                values[i] = values[j];
+                values[j] = swap;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Retrieves the number of kept values.
+     *
+     * @return The number of kept values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a value belongs nearer the root than another: for a heap
+     * keeping the largest values, whether it is smaller.
+     *
+     * @param a The first value.
+     * @param b The second value.
+     * @return true if a goes before b.
+     */
+    private boolean goesFirst(double a, double b) {
+        int comparison = Double.compare(a, b);
+        return keepLargest ? comparison < 0 : comparison > 0;
+    }
+
+    /**
+     * Moves the value at the given index up until the heap is in order.
+     *
+     * @param index The index of the value.
+     */
+    private void siftUp(int index) {
+        double value = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!goesFirst(value, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    /**
+     * Moves the value at the given index down until the heap is in order.
+     *
+     * @param index The index of the value.
+     */
+    private void siftDown(int index) {
+        double value = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && goesFirst(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!goesFirst(heap[child], value)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * The BucketNode class represents a node in a BucketTree, the balanced tree a
+ * long slot of a Table is indexed by. Each node refers to the TableNode of one
+ * variable, keeps the full hash code of its name, and references its left and
+ * right children.
+ *
+ * @author ColinKula
+ */
+
+public class BucketNode {
+
+    // Fields
+
+    /**
+     * The table node the node indexes.
+     */
+    TableNode entry;
+
+    /**
+     * The full hash code of the name of the entry.
+     */
+    int hash;
+
+    /**
+     * The height of the subtree rooted at the node, where a leaf has height 1.
+     */
+    int height = 1;
+
+    /**
+     * The left child of the node, holding smaller keys.
+     */
+    BucketNode leftChild;
+
+    /**
+     * The right child of the node, holding larger keys.
+     */
+    BucketNode rightChild;
+
+    // Constructors
+
+    /**
+     * Constructs a leaf BucketNode for a table node.
+     *
+     * @param entry The table node.
+     * @param hash  The full hash code of its name.
+     */
+    BucketNode(TableNode entry, int hash) {
+        this.entry = entry;
+        this.hash = hash;
+    }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * The BucketTree class indexes the nodes of one long slot of a Table in a
+ * balanced binary search tree, so a lookup in a slot of n nodes visits about
+ * log n of them instead of all n.
+ *
+ * <p>The tree is an AVL tree ordered by the full hash code of a name and then
+ * by the name itself, ignoring case as the Table does. It holds one node per
+ * distinct name: the TableNode a walk of the slot's chain would find first.
+ * The chain itself is kept as it is, so the nodes can still be listed in the
+ * order they were added; the tree is only an index over it.
+ *
+ * @author ColinKula
+ */
+
+public class BucketTree {
+
+    // Fields
+
+    /**
+     * The root node of the tree.
+     */
+    BucketNode root;
+
+    /**
+     * The number of nodes in the tree.
+     */
+    int size;
+
+    // Constructors
+
+    /**
+     * Constructs an empty BucketTree.
+     */
+    BucketTree() {
+        root = null;
+    }
+
+    // Methods
+
+    /**
+     * Builds the tree of a slot from its chain. Where a name appears more than
+     * once, the node nearest the head of the chain is indexed.
+     *
+     * @param first        The first node of the chain, after the dummy node.
+     * @param count        The number of nodes in the chain.
+     * @param hashFunction The hash function the nodes were added with.
+     * @return The tree.
+     */
+    static BucketTree of(TableNode first, int count, HashFunction hashFunction) {
+        BucketTree tree = new BucketTree();
+        TableNode ptr = first;
+        for (int j = 0; j < count; j++) {
+            tree.root = tree.insert(tree.root, ptr, hashFunction.fullHash(ptr.expression), false);
+            ptr = ptr.next;
+        }
+        return tree;
+    }
+
+    /**
+     * Orders a key against the key of a node of the tree.
+     *
+     * @param hash The full hash code of the name.
+     * @param name The name.
+     * @param node The node.
+     * @return A negative number, zero or a positive number as the key comes
+     *         before, is the same as, or comes after the key of the node.
+     */
+    static int compare(int hash, String name, BucketNode node) {
+        int order = Integer.compare(hash, node.hash);
+        return order != 0 ? order : name.compareToIgnoreCase(node.entry.expression);
+    }
+
+    /**
+     * Indexes a node that has just been added at the head of the chain, in
+     * place of any node of the same name.
+     *
+     * @param entry The table node.
+     * @param hash  The full hash code of its name.
+     */
+    public void put(TableNode entry, int hash) {
+        root = insert(root, entry, hash, true);
+    }
+
+    /**
+     * Stops indexing the node of a name.
+     *
+     * @param name The name.
+     * @param hash The full hash code of the name.
+     * @return true if the tree held the name; false otherwise.
+     */
+    public boolean remove(String name, int hash) {
+        int before = size;
+        root = delete(root, name, hash);
+        return size < before;
+    }
+
+    /**
+     * Finds the node of a name.
+     *
+     * @param name The name.
+     * @param hash The full hash code of the name.
+     * @return The tree node, or null if the tree does not hold the name.
+     */
+    BucketNode find(String name, int hash) {
+        BucketNode node = root;
+        while (node != null) {
+            int order = compare(hash, name, node);
+            if (order == 0) {
+                return node;
+            }
+            node = order < 0 ? node.leftChild : node.rightChild;
+        }
+        return null;
+    }
+
+    /**
+     * Inserts a node into a subtree and rebalances it.
+     *
+     * @param node    The root of the subtree.
+     * @param entry   The table node.
+     * @param hash    The full hash code of its name.
+     * @param replace Whether a node of the same name already in the tree is
+     *                replaced.
+     * @return The root of the rebalanced subtree.
+     */
+    private BucketNode insert(BucketNode node, TableNode entry, int hash, boolean replace) {
+        if (node == null) {
+            size++;
+            return new BucketNode(entry, hash);
+        }
+
+        int order = compare(hash, entry.expression, node);
+        if (order < 0) {
+            node.leftChild = insert(node.leftChild, entry, hash, replace);
+        } else if (order > 0) {
+            node.rightChild = insert(node.rightChild, entry, hash, replace);
+        } else {
+            if (replace) {
+                node.entry = entry;
+            }
+            return node;
+        }
+
+        return balance(node);
+    }
+
+    /**
+     * Deletes the node of a name from a subtree and rebalances it.
+     *
+     * @param node The root of the subtree.
+     * @param name The name.
+     * @param hash The full hash code of the name.
+     * @return The root of the rebalanced subtree.
+     */
+    private BucketNode delete(BucketNode node, String name, int hash) {
+        if (node == null) {
+            return null;
+        }
+
+        int order = compare(hash, name, node);
+        if (order < 0) {
+            node.leftChild = delete(node.leftChild, name, hash);
+        } else if (order > 0) {
+            node.rightChild = delete(node.rightChild, name, hash);
+        } else {
+            size--;
+            if (node.leftChild == null) {
+                return node.rightChild;
+            }
+            if (node.rightChild == null) {
+                return node.leftChild;
+            }
+            // Put the smallest node of the right subtree in its place
+            BucketNode smallest = node.rightChild;
+            while (smallest.leftChild != null) {
+                smallest = smallest.leftChild;
+            }
+            smallest.rightChild = deleteSmallest(node.rightChild);
+            smallest.leftChild = node.leftChild;
+            node = smallest;
+        }
+
+        return balance(node);
+    }
+
+    /**
+     * Unlinks the smallest node of a subtree and rebalances it.
+     *
+     * @param node The root of the subtree.
+     * @return The root of the rebalanced subtree.
+     */
+    private BucketNode deleteSmallest(BucketNode node) {
+        if (node.leftChild == null) {
+            return node.rightChild;
+        }
+        node.leftChild = deleteSmallest(node.leftChild);
+        return balance(node);
+    }
+
+    /**
+     * Retrieves the height of a subtree.
+     *
+     * @param node The root of the subtree, or null.
+     * @return The height, or 0 for an empty subtree.
+     */
+    private static int height(BucketNode node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Restores the balance of a subtree whose children are balanced and
+     * differ in height by at most two, and updates its height.
+     *
+     * @param node The root of the subtree.
+     * @return The root of the balanced subtree.
+     */
+    private static BucketNode balance(BucketNode node) {
+        int difference = height(node.leftChild) - height(node.rightChild);
+        if (difference > 1) {
+            if (height(node.leftChild.leftChild) < height(node.leftChild.rightChild)) {
+                node.leftChild = rotateLeft(node.leftChild);
+            }
+            return rotateRight(node);
+        }
+        if (difference < -1) {
+            if (height(node.rightChild.rightChild) < height(node.rightChild.leftChild)) {
+                node.rightChild = rotateRight(node.rightChild);
+            }
+            return rotateLeft(node);
+        }
+        updateHeight(node);
+        return node;
+    }
+
+    /**
+     * Rotates a subtree to the left, lifting its right child.
+     *
+     * @param node The root of the subtree.
+     * @return The new root.
+     */
+    private static BucketNode rotateLeft(BucketNode node) {
+        BucketNode lifted = node.rightChild;
+        node.rightChild = lifted.leftChild;
+        lifted.leftChild = node;
+        updateHeight(node);
+        updateHeight(lifted);
+        return lifted;
+    }
+
+    /**
+     * Rotates a subtree to the right, lifting its left child.
+     *
+     * @param node The root of the subtree.
+     * @return The new root.
+     */
+    private static BucketNode rotateRight(BucketNode node) {
+        BucketNode lifted = node.leftChild;
+        node.leftChild = lifted.rightChild;
+        lifted.rightChild = node;
+        updateHeight(node);
+        updateHeight(lifted);
+        return lifted;
+    }
+
+    /**
+     * Sets the height of a node from the heights of its children.
+     *
+     * @param node The node.
+     */
+    private static void updateHeight(BucketNode node) {
+        node.height = 1 + Math.max(height(node.leftChild), height(node.rightChild));
+    }
+
+    /**
+     * Retrieves the height of the tree.
+     *
+     * @return The height, or 0 if the tree is empty.
+     */
+    public int height() {
+        return height(root);
+    }
+
+}
@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The BucketTreeCheck class checks the BucketTree index of a Table against a
+ * plain walk of its chains. It adds and removes random nodes in a table of a
+ * few slots, so that the slots grow past TREEIFY_THRESHOLD and shrink back
+ * below UNTREEIFY_THRESHOLD many times, with names that differ only in case
+ * and names added more than once. After every change it checks that each
+ * name is found with the value a chain walk finds first, that every tree is
+ * in AVL order and balanced, indexes the first node of each name in its
+ * chain, and that a tree is kept exactly when the chain is long enough. It
+ * exits with status 1 if any check failed. Usage:
+ *
+ * <pre>
+ * java BucketTreeCheck [operations] [seed]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class BucketTreeCheck {
+
+    // Fields
+
+    /**
+     * The number of slots of the table checked.
+     */
+    static final int SLOTS = 4;
+
+    /**
+     * The number of distinct names, ignoring case, the nodes are given.
+     */
+    static final int NAMES = 64;
+
+    /**
+     * The hash function the nodes are added with.
+     */
+    final HashFunction hashFunction = new HashFunction(SLOTS);
+
+    /**
+     * The table checked.
+     */
+    final Table table = new Table(SLOTS, hashFunction);
+
+    /**
+     * The nodes of each slot, newest first, as the chain holds them.
+     */
+    final List<List<TableNode>> chains = new ArrayList<>();
+
+    /**
+     * The number of failures found.
+     */
+    int failures;
+
+    // Main
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        BucketTreeCheck check = new BucketTreeCheck();
+        int treeified = check.run(operations, new Random(seed));
+
+        System.out.println(operations + " operations, " + treeified + " of them on a treeified slot");
+        System.out.println(check.failures == 0 ? "All checks passed" : check.failures + " checks failed");
+        if (check.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Methods
+
+    /**
+     * Applies random adds and removes to the table, checking it after each.
+     * Adds outnumber removes while the table is small and removes outnumber
+     * adds while it is large, so the slots keep growing and shrinking.
+     *
+     * @param operations The number of adds and removes.
+     * @param random     The source of the operations.
+     * @return The number of operations made on a slot that had a tree.
+     */
+    int run(int operations, Random random) {
+        for (int i = 0; i < SLOTS; i++) {
+            chains.add(new ArrayList<>());
+        }
+        int nodes = 0;
+        int treeified = 0;
+
+        for (int operation = 0; operation < operations && failures < 10; operation++) {
+            boolean grow = nodes == 0 || random.nextInt(120) >= nodes;
+            String name = name(random);
+            int index = hashFunction.hash(name);
+            if (!grow) {
+                index = random.nextInt(SLOTS);
+                if (chains.get(index).isEmpty()) {
+                    continue;
+                }
+            }
+            if (table.trees != null && table.trees[index] != null) {
+                treeified++;
+            }
+
+            if (grow) {
+                TableNode node = new TableNode();
+                node.setExpression(name);
+                node.setValue(random.nextInt(1000));
+                table.add(node, index);
+                chains.get(index).add(0, node);
+                nodes++;
+            } else {
+                List<TableNode> chain = chains.get(index);
+                TableNode node = chain.remove(random.nextInt(chain.size()));
+                if (!table.remove(node, index)) {
+                    fail("node " + node.getExpression() + " was not removed from slot " + index);
+                }
+                nodes--;
+            }
+            check(operation);
+        }
+        return treeified;
+    }
+
+    /**
+     * Draws a name from the NAMES names, in a random mix of cases.
+     *
+     * @param random The source of the name.
+     * @return The name.
+     */
+    static String name(Random random) {
+        char[] name = ("v" + random.nextInt(NAMES)).toCharArray();
+        if (random.nextBoolean()) {
+            name[0] = Character.toUpperCase(name[0]);
+        }
+        return new String(name);
+    }
+
+    /**
+     * Checks every lookup and every tree of the table against its chains.
+     *
+     * @param operation The number of the operation just made.
+     */
+    void check(int operation) {
+        for (int i = 0; i < NAMES; i++) {
+            String name = "v" + i;
+            TableNode first = firstOf(name);
+            double expected = first != null ? first.getValue() : -1.0;
+            double actual = table.getValueFor(i % 2 == 0 ? name : name.toUpperCase());
+            if (actual != expected) {
+                fail("after operation " + operation + ", " + name + " is " + actual + " instead of " + expected);
+            }
+        }
+
+        for (int index = 0; index < SLOTS; index++) {
+            List<TableNode> chain = chains.get(index);
+            BucketTree tree = table.trees != null ? table.trees[index] : null;
+            if (table.numberOfNodes[index] != chain.size()) {
+                fail("after operation " + operation + ", slot " + index + " counts "
+                        + table.numberOfNodes[index] + " nodes instead of " + chain.size());
+            }
+            if (tree == null ? chain.size() >= Table.TREEIFY_THRESHOLD : chain.size() <= Table.UNTREEIFY_THRESHOLD) {
+                fail("after operation " + operation + ", slot " + index + " of " + chain.size() + " nodes "
+                        + (tree == null ? "has no tree" : "still has a tree"));
+            }
+            if (tree != null) {
+                checkTree(operation, index, tree, chain);
+            }
+        }
+    }
+
+    /**
+     * Checks that a tree is in AVL order, balanced, of the size it records,
+     * and indexes the first node of each name of its chain.
+     *
+     * @param operation The number of the operation just made.
+     * @param index     The slot of the tree.
+     * @param tree      The tree.
+     * @param chain     The nodes of the slot, newest first.
+     */
+    void checkTree(int operation, int index, BucketTree tree, List<TableNode> chain) {
+        ArrayList<BucketNode> inOrder = new ArrayList<>();
+        if (height(tree.root, inOrder) < 0) {
+            fail("after operation " + operation + ", the tree of slot " + index + " is not balanced");
+        }
+        for (int i = 1; i < inOrder.size(); i++) {
+            BucketNode previous = inOrder.get(i - 1);
+            if (BucketTree.compare(previous.hash, previous.entry.getExpression(), inOrder.get(i)) >= 0) {
+                fail("after operation " + operation + ", the tree of slot " + index + " is out of order");
+                break;
+            }
+        }
+
+        HashSet<String> names = new HashSet<>();
+        for (TableNode node : chain) {
+            names.add(node.getExpression().toLowerCase());
+        }
+        if (inOrder.size() != names.size() || tree.size != names.size()) {
+            fail("after operation " + operation + ", the tree of slot " + index + " holds " + inOrder.size()
+                    + " nodes and counts " + tree.size + " for " + names.size() + " names");
+        }
+        for (BucketNode node : inOrder) {
+            if (node.entry != firstOf(node.entry.getExpression())) {
+                fail("after operation " + operation + ", the tree of slot " + index + " indexes a later "
+                        + node.entry.getExpression());
+            }
+            if (node.hash != hashFunction.fullHash(node.entry.getExpression())) {
+                fail("after operation " + operation + ", the tree of slot " + index + " keeps a wrong hash for "
+                        + node.entry.getExpression());
+            }
+        }
+    }
+
+    /**
+     * Computes the height of a subtree, checking the height each node records
+     * and the balance of each node, and collects its nodes in order.
+     *
+     * @param node    The root of the subtree.
+     * @param inOrder The list the nodes are added to.
+     * @return The height, or -1 if a node is unbalanced or records a wrong
+     *         height.
+     */
+    static int height(BucketNode node, List<BucketNode> inOrder) {
+        if (node == null) {
+            return 0;
+        }
+        int left = height(node.leftChild, inOrder);
+        inOrder.add(node);
+        int right = height(node.rightChild, inOrder);
+        if (left < 0 || right < 0 || Math.abs(left - right) > 1 || node.height != Math.max(left, right) + 1) {
+            return -1;
+        }
+        return node.height;
+    }
+
+    /**
+     * Finds the node of a name a walk of its slot's chain finds first.
+     *
+     * @param name The name.
+     * @return The node, or null if no node has the name.
+     */
+    TableNode firstOf(String name) {
+        for (TableNode node : chains.get(hashFunction.hash(name))) {
+            if (node.getExpression().equalsIgnoreCase(name)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records and prints a failure.
+     *
+     * @param message What failed.
+     */
+    void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+}
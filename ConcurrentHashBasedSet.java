@@ -0,0 +1,331 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The ConcurrentHashBasedSet class is a thread-safe variant of HashBasedSet,
+ * meant for many evaluator threads reading variable values while other
+ * threads keep updating them.
+ *
+ * <p>The bindings are kept in a hash table of immutable BindingNode chains,
+ * indexed by the SymbolTable id of each variable. Reads in contains and
+ * getValueFor take no lock: they read the current chain of a slot and walk it.
+ * Writes are striped: a write locks only the stripe its slot belongs to,
+ * builds a new chain with the change and publishes it, so writers on
+ * different stripes run in parallel. When the table grows, every stripe is
+ * locked while the larger table is built, and readers keep using the old one
+ * until the new one is published.
+ *
+ * <p>Variables are looked up by name through the SymbolTable, whose lookups
+ * take no lock either.
+ *
+ * @author ColinKula
+ */
+
+public class ConcurrentHashBasedSet implements Bindings {
+
+    // Fields
+
+    /**
+     * The number of lock stripes. Must be a power of two.
+     */
+    static final int STRIPES = 64;
+
+    /**
+     * The slots of the table, each holding the head of an immutable chain.
+     */
+    volatile AtomicReferenceArray<BindingNode> table;
+
+    /**
+     * The locks guarding the slots; slot i is guarded by lock i & (STRIPES - 1).
+     */
+    final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    /**
+     * The number of bindings in the set.
+     */
+    final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The symbol table variable names are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    // Constructors
+
+    /**
+     * Constructs an empty ConcurrentHashBasedSet.
+     */
+    public ConcurrentHashBasedSet() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty ConcurrentHashBasedSet with room for the given number
+     * of bindings before it has to grow.
+     *
+     * @param expectedSize The expected number of bindings.
+     */
+    public ConcurrentHashBasedSet(int expectedSize) {
+        table = new AtomicReferenceArray<>(HashFunction.tableSizeFor(Math.max(expectedSize * 4 / 3, STRIPES)));
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    // Methods
+
+    /**
+     * Reads every "name = value" line of the given file into the set.
+     *
+     * @param valuesFile The path of the file holding the variables.
+     */
+    public void createMap(String valuesFile) {
+        try {
+            Scanner in = new Scanner(new File(valuesFile));
+            while (in.hasNextLine()) {
+                update(in.nextLine());
+            }
+            in.close();
+        } catch (FileNotFoundException e) {
+            System.err.println(valuesFile + " was not found");
+        }
+    }
+
+    /**
+     * Updates the binding described by a line in the format of Values.txt,
+     * "name = value".
+     *
+     * @param line The line describing the binding.
+     */
+    public void update(String line) {
+        int i = line.indexOf(' ');
+        int symbol = symbols.intern(line, 0, i);
+        put(symbol, Integer.parseInt(line, i + 3, line.length(), 10));
+    }
+
+    /**
+     * Sets the value of a variable, adding it if it is not in the set yet.
+     *
+     * @param variable The variable name.
+     * @param value    The numerical value of the variable.
+     */
+    public void put(String variable, int value) {
+        put(symbols.intern(variable), value);
+    }
+
+    /**
+     * Sets the value of the variable with the given SymbolTable id, adding it
+     * if it is not in the set yet.
+     *
+     * @param symbol The id of the variable.
+     * @param value  The numerical value of the variable.
+     */
+    public void put(int symbol, int value) {
+        while (true) {
+            AtomicReferenceArray<BindingNode> current = table;
+            int index = indexFor(symbol, current.length());
+            ReentrantLock lock = locks[index & (STRIPES - 1)];
+            lock.lock();
+            try {
+                if (current != table) {
+                    continue; // The table grew while waiting for the lock
+                }
+                BindingNode head = current.get(index);
+                boolean added = find(head, symbol) == null;
+                current.set(index, new BindingNode(symbol, symbols.nameOf(symbol), value,
+                        without(head, symbol)));
+                if (!added || size.incrementAndGet() <= current.length() * 3 / 4) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            grow(current);
+            return;
+        }
+    }
+
+    /**
+     * Removes a variable from the set.
+     *
+     * @param variable The variable name to remove.
+     */
+    public void remove(String variable) {
+        int symbol = symbols.lookup(variable);
+        if (symbol >= 0) {
+            remove(symbol);
+        }
+    }
+
+    /**
+     * Removes the variable with the given SymbolTable id from the set.
+     *
+     * @param symbol The id of the variable.
+     */
+    public void remove(int symbol) {
+        while (true) {
+            AtomicReferenceArray<BindingNode> current = table;
+            int index = indexFor(symbol, current.length());
+            ReentrantLock lock = locks[index & (STRIPES - 1)];
+            lock.lock();
+            try {
+                if (current != table) {
+                    continue; // The table grew while waiting for the lock
+                }
+                BindingNode head = current.get(index);
+                if (find(head, symbol) != null) {
+                    current.set(index, without(head, symbol));
+                    size.decrementAndGet();
+                }
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String variable) {
+        return contains(symbols.lookup(variable));
+    }
+
+    @Override
+    public boolean contains(int symbol) {
+        return symbol >= 0 && find(symbol) != null;
+    }
+
+    @Override
+    public double getValueFor(String variable) {
+        return getValueFor(symbols.lookup(variable));
+    }
+
+    @Override
+    public double getValueFor(int symbol) {
+        BindingNode node = symbol >= 0 ? find(symbol) : null;
+        return node != null ? (double) node.value : -1.0;
+    }
+
+    @Override
+    public double valueOrNaN(int symbol) {
+        BindingNode node = symbol >= 0 ? find(symbol) : null;
+        return node != null ? (double) node.value : Double.NaN;
+    }
+
+    /**
+     * Retrieves the number of bindings in the set.
+     *
+     * @return The number of bindings.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Passes every binding to the given action, without taking a lock.
+     * Bindings changed while the set is walked may or may not be seen.
+     *
+     * @param action The action to run for every variable name and value.
+     */
+    public void forEach(ObjIntConsumer<String> action) {
+        AtomicReferenceArray<BindingNode> current = table;
+        for (int i = 0; i < current.length(); i++) {
+            for (BindingNode node = current.get(i); node != null; node = node.next) {
+                action.accept(node.variable, node.value);
+            }
+        }
+    }
+
+    /**
+     * Finds the node of a variable without taking a lock.
+     *
+     * @param symbol The id of the variable.
+     * @return The node, or null if the variable is not in the set.
+     */
+    private BindingNode find(int symbol) {
+        AtomicReferenceArray<BindingNode> current = table;
+        return find(current.get(indexFor(symbol, current.length())), symbol);
+    }
+
+    /**
+     * Finds the node of a variable in a chain.
+     *
+     * @param head   The head of the chain.
+     * @param symbol The id of the variable.
+     * @return The node, or null if the chain does not hold the variable.
+     */
+    private static BindingNode find(BindingNode head, int symbol) {
+        for (BindingNode node = head; node != null; node = node.next) {
+            if (node.symbol == symbol) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds a copy of a chain without the node of the given variable. The
+     * nodes after that node are shared with the old chain.
+     *
+     * @param head   The head of the chain.
+     * @param symbol The id of the variable to leave out.
+     * @return The head of the new chain.
+     */
+    private static BindingNode without(BindingNode head, int symbol) {
+        if (head == null) {
+            return null;
+        }
+        if (head.symbol == symbol) {
+            return head.next;
+        }
+        BindingNode rest = without(head.next, symbol);
+        return rest == head.next ? head : new BindingNode(head.symbol, head.variable, head.value, rest);
+    }
+
+    /**
+     * Doubles the size of the table, holding every stripe lock while the new
+     * table is built. Does nothing if another thread already grew it.
+     *
+     * @param expected The table that was found to be too full.
+     */
+    private void grow(AtomicReferenceArray<BindingNode> expected) {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            if (table != expected || size.get() <= expected.length() * 3 / 4) {
+                return;
+            }
+            AtomicReferenceArray<BindingNode> grown = new AtomicReferenceArray<>(expected.length() * 2);
+            for (int i = 0; i < expected.length(); i++) {
+                for (BindingNode node = expected.get(i); node != null; node = node.next) {
+                    int index = indexFor(node.symbol, grown.length());
+                    grown.set(index, new BindingNode(node.symbol, node.variable, node.value,
+                            grown.get(index)));
+                }
+            }
+            table = grown;
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Computes the slot of a variable in a table of the given length.
+     *
+     * @param symbol The id of the variable.
+     * @param length The length of the table, a power of two.
+     * @return The slot index.
+     */
+    static int indexFor(int symbol, int length) {
+        int hash = symbol * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * The ConsistentHashRing class assigns variable names to shards so that
+ * adding or removing a shard moves only the names that shard gains or loses,
+ * about 1 / N of them, instead of nearly all of them as a hash modulo N would.
+ *
+ * <p>Every shard is placed at VIRTUAL_NODES points on a ring of 32-bit hash
+ * codes, and a name belongs to the shard at the first point at or after its
+ * own hash code, wrapping around. Names and points are hashed by a
+ * HashFunction, which ignores case as the Table does. The points are kept in
+ * sorted arrays, so finding the shard of a name is a binary search.
+ *
+ * @author ColinKula
+ */
+
+public class ConsistentHashRing {
+
+    // Fields
+
+    /**
+     * The number of points each shard is placed at, which evens out the share
+     * of names each shard gets.
+     */
+    static final int VIRTUAL_NODES = 128;
+
+    /**
+     * The hash function names and points are hashed with.
+     */
+    final HashFunction hashFunction;
+
+    /**
+     * The hash codes of the points, in increasing order.
+     */
+    int[] points = new int[0];
+
+    /**
+     * The shard at each point.
+     */
+    int[] owners = new int[0];
+
+    // Constructors
+
+    /**
+     * Constructs an empty ConsistentHashRing hashing with a MixHashStrategy.
+     */
+    public ConsistentHashRing() {
+        this(new HashFunction(1, new MixHashStrategy()));
+    }
+
+    /**
+     * Constructs an empty ConsistentHashRing hashing with the given function.
+     *
+     * @param hashFunction The hash function; only its full hash code is used.
+     */
+    public ConsistentHashRing(HashFunction hashFunction) {
+        this.hashFunction = hashFunction;
+    }
+
+    // Methods
+
+    /**
+     * Places a shard on the ring.
+     *
+     * @param shard The id of the shard.
+     */
+    public void addShard(int shard) {
+        int count = points.length;
+        int[] newPoints = Arrays.copyOf(points, count + VIRTUAL_NODES);
+        int[] newOwners = Arrays.copyOf(owners, count + VIRTUAL_NODES);
+        for (int v = 0; v < VIRTUAL_NODES; v++) {
+            newPoints[count + v] = hashFunction.fullHash("shard-" + shard + "#" + v);
+            newOwners[count + v] = shard;
+        }
+        sort(newPoints, newOwners);
+    }
+
+    /**
+     * Takes a shard off the ring.
+     *
+     * @param shard The id of the shard.
+     */
+    public void removeShard(int shard) {
+        int[] newPoints = new int[points.length];
+        int[] newOwners = new int[owners.length];
+        int count = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (owners[i] != shard) {
+                newPoints[count] = points[i];
+                newOwners[count++] = owners[i];
+            }
+        }
+        points = Arrays.copyOf(newPoints, count);
+        owners = Arrays.copyOf(newOwners, count);
+    }
+
+    /**
+     * Copies the ring, so a change of shards can be planned before it is
+     * made.
+     *
+     * @return A ring with the same shards and hash function.
+     */
+    public ConsistentHashRing copy() {
+        ConsistentHashRing copy = new ConsistentHashRing(hashFunction);
+        copy.points = points;
+        copy.owners = owners;
+        return copy;
+    }
+
+    /**
+     * Finds the shard a name belongs to.
+     *
+     * @param name The variable name.
+     * @return The id of the shard, or -1 if the ring is empty.
+     */
+    public int shardFor(String name) {
+        if (points.length == 0) {
+            return -1;
+        }
+        int hash = hashFunction.fullHash(name);
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    /**
+     * Retrieves whether any shard is on the ring.
+     *
+     * @return true if the ring has no shard.
+     */
+    public boolean isEmpty() {
+        return points.length == 0;
+    }
+
+    /**
+     * Sorts the points with their owners and installs them. Points of equal
+     * hash code are ordered by owner, so every ring with the same shards
+     * agrees.
+     *
+     * @param newPoints The points.
+     * @param newOwners The owner of each point.
+     */
+    private void sort(int[] newPoints, int[] newOwners) {
+        long[] pairs = new long[newPoints.length];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) newPoints[i] << 32) | (newOwners[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs);
+        for (int i = 0; i < pairs.length; i++) {
+            newPoints[i] = (int) (pairs[i] >> 32);
+            newOwners[i] = (int) pairs[i];
+        }
+        points = newPoints;
+        owners = newOwners;
+    }
+
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The CsvResultSink class writes results as comma-separated values. The first
+ * line is a header, every experiment is an "experiment" row with its number,
+ * notations and evaluation, and every sorted evaluation is a "sorted" row with
+ * its rank and value. A summary is written as "smallest" and "largest" rows with
+ * their ranks and "quantile" rows with their quantiles. Fields holding commas
+ * or quotes are quoted.
+ *
+ * @author ColinKula
+ */
+
+public class CsvResultSink implements ResultSink {
+
+    // Fields
+
+    /**
+     * The header line.
+     */
+    static final String HEADER = "record,number,infix,prefix,postfix,evaluation\n";
+
+    /**
+     * The output the rendered rows are written to.
+     */
+    final AsyncOutput output;
+
+    /**
+     * The buffer each row is rendered into, reused for every row.
+     */
+    final StringBuilder buffer = new StringBuilder(256);
+
+    /**
+     * The buffer the prefix notation is rendered into before it is quoted.
+     */
+    final StringBuilder prefix = new StringBuilder(128);
+
+    /**
+     * Whether the header has been written.
+     */
+    boolean started = false;
+
+    /**
+     * The rank of the next sorted evaluation.
+     */
+    int rank;
+
+    // Constructors
+
+    /**
+     * Constructs a CsvResultSink writing to the given output.
+     *
+     * @param output The output to write to.
+     */
+    public CsvResultSink(AsyncOutput output) {
+        this.output = output;
+    }
+
+    // Methods
+
+    @Override
+    public void experiment(int number, InfixPostfix experiment, ExperimentTree tree, double evaluation)
+            throws IOException {
+        start();
+        prefix.setLength(0);
+        tree.appendPrefix(prefix);
+        buffer.append("experiment,").append(number).append(',');
+        appendField(experiment.infixPresentation).append(',');
+        appendField(prefix).append(',');
+        appendField(experiment.postfixRepresentation).append(',');
+        buffer.append(evaluation).append('\n');
+        output.write(buffer);
+    }
+
+    @Override
+    public void sorted(BinarySearchTree tree) throws IOException {
+        start();
+        rank = 0;
+        try {
+            tree.forEachInorder(value -> {
+                buffer.append("sorted,").append(++rank).append(",,,,").append(value).append('\n');
+                if (buffer.length() >= AsyncOutput.BUFFER_BYTES) {
+                    writeBuffer();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        output.write(buffer);
+    }
+
+    @Override
+    public void summary(EvaluationSummary summary) throws IOException {
+        start();
+        double[] smallest = summary.smallest();
+        for (int i = 0; i < smallest.length; i++) {
+            buffer.append("smallest,").append(i + 1).append(",,,,").append(smallest[i]).append('\n');
+        }
+        double[] largest = summary.largest();
+        for (int i = 0; i < largest.length; i++) {
+            buffer.append("largest,").append(i + 1).append(",,,,").append(largest[i]).append('\n');
+        }
+        for (double q : EvaluationSummary.reportedQuantiles()) {
+            buffer.append("quantile,").append(q).append(",,,,").append(summary.quantile(q)).append('\n');
+        }
+        output.write(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        start();
+        output.write(buffer);
+        output.close();
+    }
+
+    /**
+     * Empties the buffer, putting the header in it if it has not been written.
+     */
+    private void start() {
+        buffer.setLength(0);
+        if (!started) {
+            buffer.append(HEADER);
+            started = true;
+        }
+    }
+
+    /**
+     * Appends a field to the buffer, quoting it if it holds a comma, a quote
+     * or a line break.
+     *
+     * @param field The field.
+     * @return The buffer.
+     */
+    private StringBuilder appendField(CharSequence field) {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return buffer.append(field);
+        }
+        buffer.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                buffer.append('"');
+            }
+            buffer.append(c);
+        }
+        return buffer.append('"');
+    }
+
+    /**
+     * Writes and empties the buffer from inside a traversal.
+     */
+    private void writeBuffer() {
+        try {
+            output.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+    }
+
+}
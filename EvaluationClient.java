@@ -0,0 +1,198 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The EvaluationClient class talks to an EvaluationServer over the loopback
+ * address. Its main method sends the experiments of a file and prints their
+ * evaluations, or, with more than one client, sends them from that many
+ * connections at once and reports the throughput and the batching the server
+ * did. Usage:
+ *
+ * <pre>
+ * java EvaluationClient [-port 7070] [-file Experiments.txt] [-clients 1] [-rounds 1]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class EvaluationClient implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * The connection to the server.
+     */
+    final Socket socket;
+
+    /**
+     * The connection input.
+     */
+    final BufferedReader in;
+
+    /**
+     * The connection output.
+     */
+    final BufferedWriter out;
+
+    // Main
+
+    public static void main(String[] args) throws Exception {
+        int port = EvaluationServer.DEFAULT_PORT;
+        String file = "Experiments.txt";
+        int clients = 1;
+        int rounds = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-file")) {
+                file = args[++i];
+            } else if (args[i].equals("-clients")) {
+                clients = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        List<String> expressions = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(file))) {
+            if (!line.isEmpty()) {
+                expressions.add(line);
+            }
+        }
+
+        if (clients == 1) {
+            try (EvaluationClient client = new EvaluationClient(port)) {
+                List<String> results = client.evaluate(List.of(), expressions);
+                for (int i = 0; i < results.size(); i++) {
+                    System.out.println("Experiment #" + (i + 1) + ": " + expressions.get(i)
+                            + " = " + results.get(i));
+                }
+            }
+            return;
+        }
+
+        int finalPort = port;
+        int finalRounds = rounds;
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            threads[c] = Thread.ofVirtual().start(() -> {
+                try (EvaluationClient client = new EvaluationClient(finalPort)) {
+                    for (int r = 0; r < finalRounds; r++) {
+                        for (String expression : expressions) {
+                            client.evaluate(List.of(), List.of(expression));
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Client failed: " + e.getMessage());
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long sent = (long) clients * rounds * expressions.size();
+        System.out.printf("%d requests from %d clients in %.1f ms (%.0f requests/sec)%n",
+                sent, clients, elapsed / 1e6, sent * 1e9 / elapsed);
+        try (EvaluationClient client = new EvaluationClient(port)) {
+            System.out.println("Server: " + client.command("STATS"));
+        }
+    }
+
+    // Constructors
+
+    /**
+     * Connects to a server on the loopback address.
+     *
+     * @param port The port the server listens on.
+     * @throws IOException If the connection fails.
+     */
+    public EvaluationClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Methods
+
+    /**
+     * Evaluates expressions against the server's variables and the given
+     * bindings.
+     *
+     * @param bindings    Bindings for this request only, as "name = value".
+     * @param expressions The infix expressions.
+     * @return The result of each expression: its evaluation, or a line
+     *         starting with "ERROR".
+     * @throws IOException If the connection fails or the request is rejected.
+     */
+    public List<String> evaluate(List<String> bindings, List<String> expressions) throws IOException {
+        out.write("EVAL " + bindings.size() + " " + expressions.size());
+        for (String binding : bindings) {
+            out.newLine();
+            out.write(binding);
+        }
+        for (String expression : expressions) {
+            out.newLine();
+            out.write(expression);
+        }
+        out.newLine();
+        out.flush();
+
+        String status = in.readLine();
+        if (status == null || !status.startsWith("OK ")) {
+            throw new IOException("Request failed: " + status);
+        }
+        List<String> results = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            results.add(in.readLine());
+        }
+        return results;
+    }
+
+    /**
+     * Sends a single-line command, such as SET or STATS.
+     *
+     * @param command The command.
+     * @return The response line.
+     * @throws IOException If the connection fails.
+     */
+    public String command(String command) throws IOException {
+        out.write(command);
+        out.newLine();
+        out.flush();
+        return in.readLine();
+    }
+
+    /**
+     * Ends the session and closes the connection.
+     *
+     * @throws IOException If the connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write("QUIT");
+            out.newLine();
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+}
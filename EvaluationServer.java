@@ -0,0 +1,605 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The EvaluationServer class is a long-running process that loads the
+ * variables once and evaluates expressions sent to it over a local TCP socket,
+ * so jobs no longer pay for JVM startup and loading Values.txt every time.
+ *
+ * <p>The server listens on the loopback address only. Every connection runs
+ * on its own virtual thread, which reads requests, converts their expressions
+ * and builds their trees. The trees are then queued for a single batcher
+ * thread: requests that arrive within the batch window of each other are
+ * evaluated in one pass against one snapshot of the shared HashBasedSet, and
+ * each connection thread writes its own results back. The protocol is line
+ * based:
+ *
+ * <pre>
+ * EVAL bindings expressions   followed by the binding lines ("name = value")
+ *                             and the infix expression lines; answered by
+ *                             "OK expressions" and one result per line, or
+ *                             "ERROR message" for an expression that failed;
+ *                             either count may be at most MAX_REQUEST_LINES
+ * SET name = value            changes a variable in the shared set; "OK"
+ * STATS                       "OK requests n batches n expressions n", followed
+ *                             by the parse cache hits, misses and evictions
+ * QUIT                        closes the connection
+ * </pre>
+ *
+ * <p>Bindings sent with an EVAL request apply only to that request, on top of
+ * the shared set. Their names are looked up rather than interned, so a client
+ * binding new names does not grow the process's SymbolTable, and their values
+ * must be finite. Expressions are parsed through a ParseCache, so a client
+ * sending the same expressions again does not pay to parse them again. Usage:
+ *
+ * <pre>
+ * java EvaluationServer [-port 7070] [-values Values.txt] [-window 2] [-batch 256]
+ *                       [-parse-cache 10000]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class EvaluationServer implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * The port the server listens on unless told otherwise.
+     */
+    static final int DEFAULT_PORT = 7070;
+
+    /**
+     * The largest number of bindings or of expressions an EVAL request may
+     * send.
+     */
+    static final int MAX_REQUEST_LINES = 1 << 20;
+
+    /**
+     * How long close waits for the connections to write their last response
+     * before closing them, in milliseconds.
+     */
+    static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+    /**
+     * An EVAL request waiting to be evaluated.
+     */
+    static final class Request {
+
+        /**
+         * The expression trees, or null for an expression that could not be
+         * built.
+         */
+        final ExperimentTree[] trees;
+
+        /**
+         * The result line of each expression.
+         */
+        final String[] results;
+
+        /**
+         * The bindings sent with the request.
+         */
+        final RequestBindings bindings;
+
+        /**
+         * Completed once every expression has been evaluated.
+         */
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Request(ExperimentTree[] trees, String[] results, RequestBindings bindings) {
+            this.trees = trees;
+            this.results = results;
+            this.bindings = bindings;
+        }
+    }
+
+    /**
+     * The bindings sent with a request, in front of the shared set.
+     */
+    static final class RequestBindings implements Bindings {
+
+        /**
+         * The values sent with the request, by SymbolTable id.
+         */
+        final HashMap<Integer, Double> values = new HashMap<>();
+
+        /**
+         * The shared bindings the request is evaluated against.
+         */
+        Bindings shared;
+
+        @Override
+        public boolean contains(String variable) {
+            return contains(SymbolTable.global().lookup(variable));
+        }
+
+        @Override
+        public boolean contains(int symbol) {
+            return values.containsKey(symbol) || shared.contains(symbol);
+        }
+
+        @Override
+        public double getValueFor(String variable) {
+            return getValueFor(SymbolTable.global().lookup(variable));
+        }
+
+        @Override
+        public double getValueFor(int symbol) {
+            Double value = values.get(symbol);
+            return value != null ? value : shared.getValueFor(symbol);
+        }
+
+        @Override
+        public double valueOrNaN(int symbol) {
+            Double value = values.get(symbol);
+            return value != null ? value : shared.valueOrNaN(symbol);
+        }
+    }
+
+    /**
+     * The shared variables. Writes are serialized on the set; evaluation
+     * reads snapshots of it.
+     */
+    final HashBasedSet set;
+
+    /**
+     * The socket connections are accepted on.
+     */
+    final ServerSocket serverSocket;
+
+    /**
+     * How long the batcher waits for more requests after the first one of a
+     * batch, in nanoseconds.
+     */
+    final long windowNanos;
+
+    /**
+     * The largest number of requests evaluated in one batch.
+     */
+    final int maxBatch;
+
+    /**
+     * The requests waiting for the batcher.
+     */
+    final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The number of EVAL requests evaluated.
+     */
+    final AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of batches evaluated.
+     */
+    final AtomicLong batches = new AtomicLong();
+
+    /**
+     * The number of expressions evaluated.
+     */
+    final AtomicLong expressions = new AtomicLong();
+
+    /**
+     * The cache repeated expressions are parsed through, or null to parse
+     * every expression.
+     */
+    final ParseCache parseCache;
+
+    /**
+     * The counter used as the map value of lines added with SET, as createMap
+     * numbers the lines of Values.txt.
+     */
+    int setCounter;
+
+    /**
+     * The open connections and the virtual threads serving them.
+     */
+    final ConcurrentHashMap<Socket, Thread> connections = new ConcurrentHashMap<>();
+
+    /**
+     * Whether close has been called. Requests queued after it are failed
+     * instead of evaluated.
+     */
+    volatile boolean closed;
+
+    /**
+     * The thread accepting connections.
+     */
+    final Thread acceptor;
+
+    /**
+     * The thread evaluating batches.
+     */
+    final Thread batcher;
+
+    // Main
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        String valuesFile = "Values.txt";
+        long windowMillis = 2;
+        int maxBatch = 256;
+        int parseCacheEntries = 10000;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-values")) {
+                valuesFile = args[++i];
+            } else if (args[i].equals("-window")) {
+                windowMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-batch")) {
+                maxBatch = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-parse-cache")) {
+                parseCacheEntries = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        HashBasedSet set = new HashBasedSet(valuesFile);
+        set.createMap();
+        EvaluationServer server = new EvaluationServer(set, port, windowMillis, maxBatch,
+                parseCacheEntries > 0 ? new ParseCache(parseCacheEntries) : null);
+        System.out.println("Listening on " + server.serverSocket.getLocalSocketAddress());
+    }
+
+    // Constructors
+
+    /**
+     * Constructs an EvaluationServer over the given set and starts listening
+     * on the loopback address.
+     *
+     * @param set          The shared variables.
+     * @param port         The port to listen on, or 0 for any free port.
+     * @param windowMillis How long a batch waits for more requests.
+     * @param maxBatch     The largest number of requests in one batch.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public EvaluationServer(HashBasedSet set, int port, long windowMillis, int maxBatch) throws IOException {
+        this(set, port, windowMillis, maxBatch, null);
+    }
+
+    /**
+     * Constructs an EvaluationServer over the given set that parses repeated
+     * expressions through a ParseCache, and starts listening on the loopback
+     * address.
+     *
+     * @param set          The shared variables.
+     * @param port         The port to listen on, or 0 for any free port.
+     * @param windowMillis How long a batch waits for more requests.
+     * @param maxBatch     The largest number of requests in one batch.
+     * @param parseCache   The cache to parse expressions through, or null.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public EvaluationServer(HashBasedSet set, int port, long windowMillis, int maxBatch,
+            ParseCache parseCache) throws IOException {
+        this.set = set;
+        this.parseCache = parseCache;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.setCounter = set.map.size();
+        this.batcher = new Thread(this::batchLoop, "evaluation-batcher");
+        this.batcher.start();
+        this.acceptor = new Thread(this::acceptLoop, "evaluation-acceptor");
+        this.acceptor.start();
+    }
+
+    // Methods
+
+    /**
+     * Retrieves the port the server listens on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Shuts the server down: stops accepting connections, stops the batcher,
+     * fails every request still waiting to be evaluated, and then ends every
+     * open connection and waits for the threads serving them. Connections are
+     * shut for input first, so a thread answering a failed request still
+     * writes its error before it reads the end of the stream; a connection
+     * that has not ended within CLOSE_TIMEOUT_MILLIS is closed.
+     *
+     * @throws IOException If the socket cannot be closed, or the wait is
+     *                     interrupted.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        batcher.interrupt();
+        try {
+            acceptor.join();
+            batcher.join();
+            failQueued();
+            for (Socket socket : connections.keySet()) {
+                try {
+                    socket.shutdownInput();
+                } catch (IOException e) {
+                    // Already closed by its thread
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+            for (Thread connection : connections.values()) {
+                connection.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+            for (Map.Entry<Socket, Thread> connection : connections.entrySet()) {
+                connection.getKey().close();
+                connection.getValue().join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the server");
+        }
+    }
+
+    /**
+     * Fails every request left in the queue once the server is closed, so no
+     * connection thread waits for an evaluation that will never come.
+     */
+    private void failQueued() {
+        ArrayList<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Request request : pending) {
+            request.done.completeExceptionally(new IllegalStateException("The server is closed"));
+        }
+    }
+
+    /**
+     * Accepts connections and serves each on a virtual thread.
+     */
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread connection = Thread.ofVirtual().name("evaluation-connection")
+                        .unstarted(() -> serve(socket));
+                connections.put(socket, connection);
+                connection.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Could not accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of one connection until the client quits.
+     *
+     * @param socket The connection.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                        socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("QUIT")) {
+                if (line.startsWith("EVAL ")) {
+                    evaluate(line, in, out);
+                } else if (line.startsWith("SET ")) {
+                    out.write(set(line.substring(4)));
+                } else if (line.equals("STATS")) {
+                    out.write("OK requests " + requests + " batches " + batches
+                            + " expressions " + expressions
+                            + (parseCache == null ? "" : " parseHits " + parseCache.hits()
+                                    + " parseMisses " + parseCache.misses()
+                                    + " parseEvictions " + parseCache.evictions()));
+                } else {
+                    out.write("ERROR unknown command");
+                }
+                out.newLine();
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away, or the server closed the connection
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads an EVAL request, queues it for the batcher and writes its results.
+     *
+     * @param command The EVAL line.
+     * @param in      The connection input.
+     * @param out     The connection output.
+     * @throws IOException If the connection fails.
+     */
+    private void evaluate(String command, BufferedReader in, BufferedWriter out) throws IOException {
+        String[] counts = command.split(" ");
+        int bindingCount;
+        int expressionCount;
+        try {
+            bindingCount = Integer.parseInt(counts[1]);
+            expressionCount = Integer.parseInt(counts[2]);
+        } catch (RuntimeException e) {
+            out.write("ERROR expected EVAL bindings expressions");
+            return;
+        }
+        if (bindingCount < 0 || bindingCount > MAX_REQUEST_LINES
+                || expressionCount < 0 || expressionCount > MAX_REQUEST_LINES) {
+            out.write("ERROR counts must be between 0 and " + MAX_REQUEST_LINES);
+            return;
+        }
+
+        String[] names = new String[bindingCount];
+        double[] values = new double[bindingCount];
+        String error = null;
+        for (int i = 0; i < bindingCount; i++) {
+            String binding = in.readLine();
+            int space = binding != null ? binding.indexOf(" = ") : -1;
+            if (space <= 0) {
+                error = "ERROR invalid binding: " + binding;
+                continue;
+            }
+            try {
+                values[i] = Double.parseDouble(binding.substring(space + 3));
+                names[i] = binding.substring(0, space);
+            } catch (NumberFormatException e) {
+                error = "ERROR invalid binding: " + binding;
+                continue;
+            }
+            // NaN is how valueOrNaN reports an unbound variable, so it cannot
+            // be bound, and neither can the infinities
+            if (!Double.isFinite(values[i])) {
+                error = "ERROR invalid binding: " + binding;
+            }
+        }
+
+        ExperimentTree[] trees = new ExperimentTree[expressionCount];
+        String[] results = new String[expressionCount];
+        for (int i = 0; i < expressionCount; i++) {
+            String infix = in.readLine();
+            try {
+                if (parseCache != null) {
+                    trees[i] = parseCache.parse(infix).tree;
+                } else {
+                    trees[i] = new ExperimentTree(new InfixPostfix(infix).postfixRepresentation);
+                    trees[i].createTree();
+                }
+            } catch (RuntimeException e) {
+                trees[i] = null;
+                results[i] = "ERROR invalid expression";
+            }
+        }
+        if (error != null) {
+            out.write(error);
+            return;
+        }
+
+        // Resolve the bindings without interning them: building the trees
+        // interned every operand, so a name the table does not know is not
+        // used by any expression and can be left out
+        RequestBindings bindings = new RequestBindings();
+        for (int i = 0; i < bindingCount; i++) {
+            int symbol = SymbolTable.global().lookup(names[i]);
+            if (symbol >= 0) {
+                bindings.values.put(symbol, values[i]);
+            }
+        }
+
+        Request request = new Request(trees, results, bindings);
+        queue.add(request);
+        if (closed) {
+            failQueued();
+        }
+        try {
+            request.done.join();
+        } catch (CompletionException e) {
+            out.write("ERROR the server is closed");
+            return;
+        }
+
+        out.write("OK " + expressionCount);
+        for (String result : results) {
+            out.newLine();
+            out.write(result);
+        }
+    }
+
+    /**
+     * Changes a variable in the shared set, replacing any line that bound it
+     * before. The lines to replace are found by scanning every line of the
+     * set, so a SET costs time linear in the number of lines; the table is
+     * then changed in place through applyChanges rather than rebuilt.
+     *
+     * @param binding The binding, "name = value".
+     * @return The response line.
+     */
+    private String set(String binding) {
+        int space = binding.indexOf(" = ");
+        if (space <= 0 || binding.indexOf(' ') != space) {
+            return "ERROR expected SET name = value";
+        }
+        try {
+            Integer.parseInt(binding.substring(space + 3));
+        } catch (NumberFormatException e) {
+            return "ERROR values of the shared set are integers";
+        }
+
+        String prefix = binding.substring(0, space + 3);
+        synchronized (set) {
+            ArrayList<String> replaced = new ArrayList<>();
+            for (String key : set.map.keySet()) {
+                if (key.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                    replaced.add(key);
+                }
+            }
+            set.applyChanges(replaced, Map.of(binding, ++setCounter));
+        }
+        return "OK";
+    }
+
+    /**
+     * Takes requests off the queue in batches and evaluates each batch against
+     * one snapshot of the shared set, until the server is closed.
+     */
+    private void batchLoop() {
+        ArrayList<Request> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                requests.addAndGet(batch.size());
+                batches.incrementAndGet();
+                try (BindingsSnapshot snapshot = set.snapshot()) {
+                    for (Request request : batch) {
+                        request.bindings.shared = snapshot;
+                        for (int i = 0; i < request.trees.length; i++) {
+                            if (request.trees[i] != null) {
+                                try {
+                                    request.results[i] = Double.toString(
+                                            request.trees[i].evaluatePostfix(request.bindings));
+                                } catch (RuntimeException e) {
+                                    request.results[i] = "ERROR " + e;
+                                }
+                            }
+                        }
+                        expressions.addAndGet(request.trees.length);
+                        request.done.complete(null);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            for (Request request : batch) {
+                request.done.completeExceptionally(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The EvaluationServerCheck class runs an EvaluationServer on a free loopback
+ * port and checks it end to end through an EvaluationClient: evaluation with
+ * and without request bindings, SET, STATS, the errors of malformed requests,
+ * and shutting down with a request still waiting to be evaluated. It prints
+ * one line per check and exits with status 1 if any of them failed. Usage:
+ *
+ * <pre>
+ * java EvaluationServerCheck
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class EvaluationServerCheck {
+
+    // Fields
+
+    /**
+     * The number of checks that failed.
+     */
+    int failures;
+
+    // Main
+
+    public static void main(String[] args) throws Exception {
+        EvaluationServerCheck check = new EvaluationServerCheck();
+        Path directory = Files.createTempDirectory("evaluation-server-check");
+        Path values = directory.resolve("Values.txt");
+        Files.write(values, List.of("ab1 = 2", "cd2 = 3"));
+
+        try {
+            check.checkRequests(values.toString());
+            check.checkShutdown(values.toString());
+        } finally {
+            Files.deleteIfExists(values);
+            Files.deleteIfExists(directory);
+        }
+
+        System.out.println(check.failures == 0 ? "All checks passed" : check.failures + " checks failed");
+        if (check.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Methods
+
+    /**
+     * Checks evaluation, request bindings, SET, STATS and the errors of
+     * malformed requests against one server.
+     *
+     * @param valuesFile The path of the file holding the shared variables.
+     * @throws IOException If the server cannot be started or reached.
+     */
+    void checkRequests(String valuesFile) throws IOException {
+        HashBasedSet set = new HashBasedSet(valuesFile);
+        set.createMap();
+
+        try (EvaluationServer server = new EvaluationServer(set, 0, 1, 64, new ParseCache(100));
+                EvaluationClient client = new EvaluationClient(server.getPort())) {
+            check("evaluates against the shared set",
+                    List.of("5.0", "6.0"), client.evaluate(List.of(), List.of("ab1+cd2", "ab1*cd2")));
+            check("request bindings override the shared set",
+                    List.of("13.0"), client.evaluate(List.of("ab1 = 10"), List.of("ab1+cd2")));
+            check("request bindings apply to their request only",
+                    List.of("5.0"), client.evaluate(List.of(), List.of("ab1+cd2")));
+
+            int symbols = SymbolTable.global().size();
+            client.evaluate(List.of("unusedname1 = 1"), List.of("ab1+cd2"));
+            check("request bindings of unused names are not interned",
+                    symbols, SymbolTable.global().size());
+
+            check("SET changes the shared set", "OK", client.command("SET cd2 = 7"));
+            check("a changed variable is evaluated with its new value",
+                    List.of("9.0"), client.evaluate(List.of(), List.of("ab1+cd2")));
+            check("SET adds a new variable", "OK", client.command("SET ef3 = 4"));
+            check("an added variable is evaluated",
+                    List.of("8.0"), client.evaluate(List.of(), List.of("ab1*ef3")));
+
+            String stats = client.command("STATS");
+            check("STATS counts the requests", true,
+                    stats.startsWith("OK requests 6 batches ") && stats.contains(" expressions 7 "));
+            check("STATS reports the parse cache", true, stats.contains(" parseHits "));
+
+            check("an invalid expression fails on its own",
+                    List.of("9.0", "ERROR invalid expression"),
+                    client.evaluate(List.of(), List.of("ab1+cd2", "ab1+")));
+            check("a binding without a value is rejected", "ERROR",
+                    rejection(client, List.of("ab1 ="), List.of("ab1")));
+            check("a binding with a malformed value is rejected", "ERROR",
+                    rejection(client, List.of("ab1 = two"), List.of("ab1")));
+            check("a binding to NaN is rejected", "ERROR",
+                    rejection(client, List.of("ab1 = NaN"), List.of("ab1")));
+            check("a binding to an infinite value is rejected", "ERROR",
+                    rejection(client, List.of("ab1 = 1e999"), List.of("ab1")));
+            check("an EVAL without both counts is rejected", "ERROR expected EVAL bindings expressions",
+                    client.command("EVAL 1"));
+            check("a negative count is rejected", true, client.command("EVAL 0 -1").startsWith("ERROR counts"));
+            check("a SET without a value is rejected", "ERROR expected SET name = value",
+                    client.command("SET cd2"));
+            check("a SET of a value that is not an integer is rejected",
+                    "ERROR values of the shared set are integers", client.command("SET cd2 = 1.5"));
+            check("an unknown command is rejected", "ERROR unknown command", client.command("PING"));
+            check("the connection still works after errors",
+                    List.of("9.0"), client.evaluate(List.of(), List.of("ab1+cd2")));
+        }
+    }
+
+    /**
+     * Checks that closing the server fails a request waiting in the batch
+     * window, disconnects idle clients, waits for every connection thread and
+     * stops accepting connections.
+     *
+     * @param valuesFile The path of the file holding the shared variables.
+     * @throws Exception If the server cannot be started or the check is
+     *                   interrupted.
+     */
+    void checkShutdown(String valuesFile) throws Exception {
+        HashBasedSet set = new HashBasedSet(valuesFile);
+        set.createMap();
+        // A window long enough that the request is still waiting when the
+        // server is closed
+        EvaluationServer server = new EvaluationServer(set, 0, 60_000, 64);
+        EvaluationClient idle = new EvaluationClient(server.getPort());
+        EvaluationClient waiting = new EvaluationClient(server.getPort());
+
+        CompletableFuture<String> pending = CompletableFuture.supplyAsync(() -> {
+            try {
+                return waiting.evaluate(List.of(), List.of("ab1+cd2")).toString();
+            } catch (IOException e) {
+                return e.getMessage();
+            }
+        });
+        // The batcher waits without a timeout for the first request of a batch
+        // and with one for the rest of the window
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.batcher.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closing.get(10, TimeUnit.SECONDS);
+        check("close returns with connections open", true, closing.isDone() && !closing.isCompletedExceptionally());
+        check("a waiting request is failed on close", "Request failed: ERROR the server is closed",
+                pending.get(10, TimeUnit.SECONDS));
+        check("every connection thread has ended", 0, server.connections.size());
+        check("an idle client is disconnected", null, idle.in.readLine());
+
+        boolean refused;
+        try (EvaluationClient late = new EvaluationClient(server.getPort())) {
+            refused = false;
+        } catch (IOException e) {
+            refused = true;
+        }
+        check("no connection is accepted after close", true, refused);
+        idle.socket.close();
+        waiting.socket.close();
+    }
+
+    /**
+     * Sends an EVAL request expected to be rejected as a whole.
+     *
+     * @param client      The client.
+     * @param bindings    The bindings of the request.
+     * @param expressions The expressions of the request.
+     * @return "ERROR" if the request was rejected, or its results otherwise.
+     */
+    static String rejection(EvaluationClient client, List<String> bindings, List<String> expressions) {
+        try {
+            return client.evaluate(bindings, expressions).toString();
+        } catch (IOException e) {
+            return e.getMessage().startsWith("Request failed: ERROR") ? "ERROR" : e.getMessage();
+        }
+    }
+
+    /**
+     * Records and prints the outcome of one check.
+     *
+     * @param name     What is checked.
+     * @param expected The expected value.
+     * @param actual   The actual value.
+     */
+    void check(String name, Object expected, Object actual) {
+        boolean passed = expected == null ? actual == null : expected.equals(actual);
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "PASS " : "FAIL ") + name
+                + (passed ? "" : ": expected " + expected + ", got " + actual));
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * The EvaluationSummary class summarizes a stream of evaluations without
+ * keeping them: it counts them, keeps the k smallest and k largest in
+ * BoundedHeaps and estimates their quantiles with a QuantileSketch. It stands
+ * in for a BinarySearchTree of every evaluation when only the extremes and
+ * the distribution are wanted, in memory that does not grow with the number
+ * of evaluations.
+ *
+ * <p>Summaries built with the same settings can be merged, so each thread
+ * can summarize its own share of the evaluations and the summaries can be
+ * combined at the end.
+ *
+ * @author ColinKula
+ */
+
+public class EvaluationSummary {
+
+    // Fields
+
+    /**
+     * The quantiles included in the report.
+     */
+    static final double[] REPORTED_QUANTILES = {0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99};
+
+    /**
+     * The number of evaluations seen, including NaN ones.
+     */
+    long count;
+
+    /**
+     * The number of evaluations that were NaN.
+     */
+    long nanCount;
+
+    /**
+     * The largest evaluations.
+     */
+    final BoundedHeap largest;
+
+    /**
+     * The smallest evaluations.
+     */
+    final BoundedHeap smallest;
+
+    /**
+     * The sketch of the distribution of the evaluations.
+     */
+    final QuantileSketch sketch;
+
+    // Constructors
+
+    /**
+     * Constructs an empty EvaluationSummary.
+     *
+     * @param extremes The number of smallest and largest evaluations to keep.
+     * @param error    The rank error of the quantiles, such as 0.01.
+     */
+    public EvaluationSummary(int extremes, double error) {
+        largest = new BoundedHeap(extremes, true);
+        smallest = new BoundedHeap(extremes, false);
+        sketch = QuantileSketch.withError(error);
+    }
+
+    // Methods
+
+    /**
+     * Adds an evaluation.
+     *
+     * @param evaluation The evaluation.
+     */
+    public void add(double evaluation) {
+        count++;
+        if (Double.isNaN(evaluation)) {
+            nanCount++;
+            return;
+        }
+        largest.offer(evaluation);
+        smallest.offer(evaluation);
+        sketch.add(evaluation);
+    }
+
+    /**
+     * Adds every evaluation another summary has seen.
+     *
+     * @param other The summary to merge in, built with the same settings.
+     * @throws IllegalArgumentException If the settings differ.
+     */
+    public void merge(EvaluationSummary other) {
+        largest.merge(other.largest);
+        smallest.merge(other.smallest);
+        sketch.merge(other.sketch);
+        count += other.count;
+        nanCount += other.nanCount;
+    }
+
+    /**
+     * Retrieves the number of evaluations seen.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Retrieves the largest evaluations, largest first.
+     *
+     * @return The largest evaluations.
+     */
+    public double[] largest() {
+        return largest.values();
+    }
+
+    /**
+     * Retrieves the smallest evaluations, smallest first.
+     *
+     * @return The smallest evaluations.
+     */
+    public double[] smallest() {
+        return smallest.values();
+    }
+
+    /**
+     * Estimates the evaluation at the given quantile, leaving out NaN ones.
+     *
+     * @param q The quantile, from 0 to 1.
+     * @return The estimated evaluation.
+     */
+    public double quantile(double q) {
+        return sketch.quantile(q);
+    }
+
+    /**
+     * Retrieves the quantiles included in the report.
+     *
+     * @return The quantiles.
+     */
+    public static double[] reportedQuantiles() {
+        return REPORTED_QUANTILES.clone();
+    }
+
+    /**
+     * Renders the summary into the given buffer: the counts, the smallest and
+     * largest evaluations and the reported quantiles, one per line.
+     *
+     * @param buffer  The buffer to append to.
+     * @param newline The line separator.
+     * @return The buffer.
+     */
+    public StringBuilder appendTo(StringBuilder buffer, String newline) {
+        buffer.append("Evaluations: ").append(count).append(" (").append(nanCount).append(" NaN)")
+                .append(newline);
+        buffer.append("Smallest:");
+        for (double value : smallest()) {
+            buffer.append(' ').append(value);
+        }
+        buffer.append(newline).append("Largest:");
+        for (double value : largest()) {
+            buffer.append(' ').append(value);
+        }
+        buffer.append(newline).append(String.format("Quantiles (rank error about %.2f%%):",
+                100 * sketch.error()));
+        for (double q : REPORTED_QUANTILES) {
+            buffer.append(" p").append(Math.round(q * 100)).append('=').append(quantile(q));
+        }
+        return buffer.append(newline);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(), "\n").toString();
+    }
+
+}
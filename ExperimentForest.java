@@ -0,0 +1,337 @@
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.function.IntConsumer;
+
+/**
+ * The ExperimentForest class holds the nodes of many expression trees in one
+ * arena of parallel primitive arrays instead of one ExperimentNode object per
+ * node. A node is an index into the arena, and its parts are stored in four
+ * arrays:
+ *
+ * <ul>
+ * <li>the opcode: OPERAND, or 1 + the index of the operator in
+ * ExperimentTree.OPERATORS;</li>
+ * <li>the SymbolTable id of the operand, or -1 for an operator;</li>
+ * <li>the index of the left child, or -1 for an operand; and</li>
+ * <li>the index of the right child, or -1 for an operand.</li>
+ * </ul>
+ *
+ * <p>The nodes of a tree are added in postfix order, so a tree is a range of
+ * the arena ending at its root, and evaluating it is a single pass over the
+ * range with no pointer to follow. The child indexes are used to print the
+ * prefix form. createTree returns an ExperimentTree viewing a tree of the
+ * forest, which evaluates and prints through the arena, so the trees can be
+ * used wherever ExperimentTree objects are.
+ *
+ * <p>Trees are added by one thread; once they are all added, they can be
+ * evaluated from any number of threads.
+ *
+ * @author ColinKula
+ */
+
+public class ExperimentForest {
+
+    // Fields
+
+    /**
+     * The opcode of an operand node.
+     */
+    static final byte OPERAND = 0;
+
+    /**
+     * The bytes of one node across the four arrays.
+     */
+    static final int NODE_BYTES = 1 + 4 + 4 + 4;
+
+    /**
+     * The opcode of every node.
+     */
+    byte[] opcodes = new byte[1024];
+
+    /**
+     * The SymbolTable id of every node, or -1 for an operator.
+     */
+    int[] symbolIds = new int[1024];
+
+    /**
+     * The index of the left child of every node, or -1 for an operand.
+     */
+    int[] lefts = new int[1024];
+
+    /**
+     * The index of the right child of every node, or -1 for an operand.
+     */
+    int[] rights = new int[1024];
+
+    /**
+     * The number of nodes in the arena.
+     */
+    int nodeCount;
+
+    /**
+     * The index of the first node of every tree; the entry after the last tree
+     * is the number of nodes.
+     */
+    int[] treeStarts = new int[65];
+
+    /**
+     * The deepest the evaluation stack gets for every tree.
+     */
+    int[] stackDepths = new int[64];
+
+    /**
+     * The number of trees in the forest.
+     */
+    int treeCount;
+
+    /**
+     * The symbol table the operands are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    // Methods
+
+    /**
+     * Creates a tree in the forest from a postfix expression.
+     *
+     * @param postfixExpression The postfix expression.
+     * @return An ExperimentTree viewing the new tree.
+     * @throws EmptyStackException If the expression is not well formed.
+     */
+    public ExperimentTree createTree(String postfixExpression) {
+        int start = nodeCount;
+        int[] stack = new int[16];
+        int depth = 0;
+        int deepest = 0;
+
+        for (int i = 0; i < postfixExpression.length(); i++) {
+            char scannedLiteral = postfixExpression.charAt(i);
+            int operator = ExperimentTree.OPERATORS.indexOf(scannedLiteral);
+
+            if (Character.isLetterOrDigit(scannedLiteral)) {
+                int end = ExperimentTree.operandEnd(postfixExpression, i);
+                int symbol = symbols.intern(postfixExpression, i, end);
+                i = end - 1;
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = addNode(OPERAND, symbol, -1, -1);
+                deepest = Math.max(deepest, depth);
+
+            } else if (operator >= 0) {
+                if (depth < 2) {
+                    nodeCount = start;
+                    throw new EmptyStackException();
+                }
+                int right = stack[--depth];
+                int left = stack[--depth];
+                stack[depth++] = addNode((byte) (1 + operator), -1, left, right);
+            }
+        }
+        if (depth == 0) {
+            nodeCount = start;
+            throw new EmptyStackException();
+        }
+        return new ExperimentTree(postfixExpression, this, addTree(start, deepest));
+    }
+
+    /**
+     * Appends a node to the arena, growing the arrays as needed.
+     *
+     * @param opcode The opcode.
+     * @param symbol The SymbolTable id, or -1.
+     * @param left   The index of the left child, or -1.
+     * @param right  The index of the right child, or -1.
+     * @return The index of the node.
+     */
+    private int addNode(byte opcode, int symbol, int left, int right) {
+        if (nodeCount == opcodes.length) {
+            int capacity = nodeCount * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            symbolIds = Arrays.copyOf(symbolIds, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+        }
+        opcodes[nodeCount] = opcode;
+        symbolIds[nodeCount] = symbol;
+        lefts[nodeCount] = left;
+        rights[nodeCount] = right;
+        return nodeCount++;
+    }
+
+    /**
+     * Records a tree whose nodes were just added.
+     *
+     * @param start The index of the first node of the tree.
+     * @param depth The deepest the evaluation stack gets for the tree.
+     * @return The index of the tree.
+     */
+    private int addTree(int start, int depth) {
+        if (treeCount == stackDepths.length) {
+            stackDepths = Arrays.copyOf(stackDepths, treeCount * 2);
+            treeStarts = Arrays.copyOf(treeStarts, treeCount * 2 + 1);
+        }
+        treeStarts[treeCount] = start;
+        treeStarts[treeCount + 1] = nodeCount;
+        stackDepths[treeCount] = depth;
+        return treeCount++;
+    }
+
+    /**
+     * Evaluates a tree of the forest. Operands missing from the set are
+     * skipped, as ExperimentTree skips them.
+     *
+     * @param tree The index of the tree.
+     * @param set  The set containing variable values.
+     * @return The result of the evaluation.
+     * @throws EmptyStackException If too many operands are missing.
+     */
+    public double evaluate(int tree, Bindings set) {
+        double[] stack = new double[stackDepths[tree]];
+        int top = 0;
+
+        for (int node = treeStarts[tree]; node < treeStarts[tree + 1]; node++) {
+            byte opcode = opcodes[node];
+            if (opcode == OPERAND) {
+                double value = set.valueOrNaN(symbolIds[node]);
+                if (!Double.isNaN(value)) {
+                    stack[top++] = value;
+                }
+            } else {
+                if (top < 2) {
+                    throw new EmptyStackException();
+                }
+                double firstPoppedValue = stack[--top];
+                double secondPoppedValue = stack[--top];
+                stack[top++] = combine(firstPoppedValue, secondPoppedValue, opcode);
+            }
+        }
+
+        if (top == 0) {
+            throw new EmptyStackException();
+        }
+        return stack[top - 1];
+    }
+
+    /**
+     * Combines two values with the operator of an opcode.
+     *
+     * @param firstPoppedValue  The first value popped from the stack.
+     * @param secondPoppedValue The second value popped from the stack.
+     * @param opcode            The opcode of the operator.
+     * @return The result of the operation.
+     */
+    private static double combine(double firstPoppedValue, double secondPoppedValue, byte opcode) {
+        switch (opcode) {
+            case 1:
+                return secondPoppedValue + firstPoppedValue;
+            case 2:
+                return secondPoppedValue - firstPoppedValue;
+            case 3:
+                return secondPoppedValue * firstPoppedValue;
+            case 4:
+                return secondPoppedValue / firstPoppedValue;
+            default:
+                return Math.pow(secondPoppedValue, firstPoppedValue);
+        }
+    }
+
+    /**
+     * Renders the prefix form of a tree of the forest into the given buffer.
+     *
+     * @param tree   The index of the tree.
+     * @param buffer The buffer to append to.
+     * @return The buffer.
+     */
+    public StringBuilder appendPrefix(int tree, StringBuilder buffer) {
+        int[] stack = new int[stackDepths[tree] + 2];
+        int top = 0;
+        stack[top++] = treeStarts[tree + 1] - 1;
+        while (top > 0) {
+            int node = stack[--top];
+            if (opcodes[node] == OPERAND) {
+                buffer.append(symbols.nameOf(symbolIds[node]));
+            } else {
+                buffer.append(ExperimentTree.OPERATORS.charAt(opcodes[node] - 1));
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2 + 2);
+                }
+                stack[top++] = rights[node];
+                stack[top++] = lefts[node];
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Passes the SymbolTable id of every operand of a tree of the forest to the
+     * given action, in postfix order.
+     *
+     * @param tree   The index of the tree.
+     * @param action The action to run for every operand.
+     */
+    public void forEachSymbol(int tree, IntConsumer action) {
+        for (int node = treeStarts[tree]; node < treeStarts[tree + 1]; node++) {
+            if (opcodes[node] == OPERAND) {
+                action.accept(symbolIds[node]);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of nodes in a tree of the forest.
+     *
+     * @param tree The index of the tree.
+     * @return The number of nodes.
+     */
+    public int nodeCount(int tree) {
+        return treeStarts[tree + 1] - treeStarts[tree];
+    }
+
+    /**
+     * Retrieves the number of trees in the forest.
+     *
+     * @return The number of trees.
+     */
+    public int size() {
+        return treeCount;
+    }
+
+    /**
+     * Retrieves the bytes the arena takes per node, counting the capacity of
+     * the arrays and the per-tree entries.
+     *
+     * @return The bytes per node.
+     */
+    public double bytesPerNode() {
+        long bytes = (long) NODE_BYTES * opcodes.length + 4L * (treeStarts.length + stackDepths.length);
+        return nodeCount == 0 ? 0 : (double) bytes / nodeCount;
+    }
+
+    /**
+     * Estimates the heap retained by the arena, counting the capacity of its
+     * arrays. The trees viewing it are counted by ExperimentTree.footprint.
+     *
+     * @return The footprint, with one entry per node.
+     */
+    public Footprint footprint() {
+        return new Footprint("Experiment forest", nodeCount)
+                .add("forest", Footprint.object(7 * Footprint.REFERENCE + 2 * 4), 1)
+                .add("forest nodes", Footprint.array(opcodes.length, 1) + Footprint.array(symbolIds.length, 4)
+                        + Footprint.array(lefts.length, 4) + Footprint.array(rights.length, 4), opcodes.length)
+                .add("forest trees", Footprint.array(treeStarts.length, 4)
+                        + Footprint.array(stackDepths.length, 4), stackDepths.length);
+    }
+
+    /**
+     * Describes the size of the forest.
+     *
+     * @return The report.
+     */
+    public String report() {
+        return String.format("Experiment forest: %d trees, %d nodes, %.1f bytes per node "
+                + "(%d in use, about %d as ExperimentNode objects)",
+                treeCount, nodeCount, bytesPerNode(), NODE_BYTES, ParseCache.NODE_BYTES);
+    }
+
+}
@@ -21,6 +21,12 @@ public class ExperimentNode {
      */
     String variable;
     
+    /**
+     * The SymbolTable id of the variable, or -1 if the node represents an
+     * operator.
+     */
+    int symbol = -1;
+    
     /**
      * Indicates whether the node represents an operator or operand.
      */
@@ -46,6 +52,18 @@ public class ExperimentNode {
         isOperator = false;
     }
     
+    /**
+     * Constructs an ExperimentNode object representing an interned operand.
+     * 
+     * @param passedSymbol The SymbolTable id of the variable.
+     * @param symbols      The symbol table the id belongs to.
+     */
+    ExperimentNode(int passedSymbol, SymbolTable symbols) {
+        variable = symbols.nameOf(passedSymbol);
+        symbol = passedSymbol;
+        isOperator = false;
+    }
+    
     /**
      * Constructs an ExperimentNode object representing an operator.
      * 
@@ -1,4 +1,12 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EmptyStackException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.Stack;
+import java.util.function.IntConsumer;
 
 /**
  * The ExperimentTree class represents a binary tree structure used to construct
@@ -6,7 +14,21 @@ import java.util.Stack;
  * utilizes a custom ExperimentNode class and supports operators '+', '-', '*',
  * '/', and '^'. The tree can be created from a postfix expression, and its
  * prefix form can be printed. Additionally, it can evaluate the expression
- * using a provided HashBasedSet.
+ * using a provided HashBasedSet or any other Bindings.
+ * 
+ * <p>When the tree is created, its operands are interned in the SymbolTable
+ * and the expression is also compiled into a program of symbol ids and
+ * operator codes in postfix order. Evaluation runs that program against the
+ * ids in the set, so no operand names are rebuilt, hashed or compared.
+ * 
+ * <p>Building, printing and evaluating a tree all use explicit stacks rather
+ * than recursion, and take time linear in the size of the expression, so
+ * expressions with millions of tokens neither slow down quadratically nor
+ * overflow the thread stack.
+ * 
+ * <p>A tree can also be a view of a tree stored in an ExperimentForest, in
+ * which case it has no nodes of its own and is printed and evaluated through
+ * the forest's arena.
  * 
  * @author ColinKula
  */
@@ -24,6 +46,43 @@ public class ExperimentTree {
      * The postifx expression used to represent the tree.
      */
     public String postfixExpression;
+    
+    /**
+     * The number of nodes in the tree, counted when the tree is created.
+     */
+    public int nodeCount;
+    
+    /**
+     * The compiled postfix program. Operands are stored as their SymbolTable
+     * ids, and operators as -1 - their index in OPERATORS.
+     */
+    int[] program;
+    
+    /**
+     * The deepest the evaluation stack gets while running the program.
+     */
+    int maxStackDepth;
+    
+    /**
+     * The symbol table the operands are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+    
+    /**
+     * The supported operators, in the order used by the program codes.
+     */
+    static final String OPERATORS = "+-*/^";
+    
+    /**
+     * The forest holding the nodes of the tree, or null if the tree has its
+     * own nodes.
+     */
+    final ExperimentForest forest;
+    
+    /**
+     * The index of the tree in its forest.
+     */
+    final int forestIndex;
 
     // Constructors
 
@@ -33,6 +92,23 @@ public class ExperimentTree {
     public ExperimentTree(String postfixExpression) {
         this.postfixExpression = postfixExpression;
         root = null;
+        forest = null;
+        forestIndex = -1;
+    }
+
+    /**
+     * Constructs an ExperimentTree viewing a tree stored in an
+     * ExperimentForest.
+     * 
+     * @param postfixExpression The postfix expression of the tree.
+     * @param forest            The forest holding the tree.
+     * @param forestIndex       The index of the tree in the forest.
+     */
+    ExperimentTree(String postfixExpression, ExperimentForest forest, int forestIndex) {
+        this.postfixExpression = postfixExpression;
+        this.forest = forest;
+        this.forestIndex = forestIndex;
+        nodeCount = forest.nodeCount(forestIndex);
     }
 
     // Methods
@@ -42,29 +118,47 @@ public class ExperimentTree {
      * for efficient construction.
      */
     public void createTree() {
+        TreeBuildEvent event = new TreeBuildEvent();
+        event.begin();
+        long start = Metrics.start();
+        try {
+            buildTree();
+        } catch (RuntimeException e) {
+            Metrics.failed();
+            throw e;
+        }
+        Metrics.stop(Metrics.BUILD, start);
+        if (event.isEnabled()) {
+            event.expressionLength = postfixExpression.length();
+            event.nodeCount = nodeCount;
+            event.commit();
+        }
+    }
+
+    /**
+     * Builds the tree from the postfix expression for createTree.
+     */
+    private void buildTree() {
         Stack<ExperimentNode> stack = new Stack<>();
+        int[] code = new int[postfixExpression.length()];
+        int length = 0;
+        int depth = 0;
+        nodeCount = 0;
+        maxStackDepth = 0;
         char scannedLiteral;
 
         for (int i = 0; i < postfixExpression.length(); i++) {
             scannedLiteral = postfixExpression.charAt(i);
-            String variable = "";
 
             if (isOperand(scannedLiteral)) {
-                boolean digitFound = false;
-                while (i < postfixExpression.length() && Character.isLetterOrDigit(postfixExpression.charAt(i))) {
-                    if (Character.isDigit(postfixExpression.charAt(i))) {
-                        digitFound = true;
-                    }
-
-                    if (digitFound && Character.isLetter(postfixExpression.charAt(i))) {
-                        break;
-                    }
-                    variable += postfixExpression.charAt(i);
-                    i++;
-                }
-                i--;
+                int end = operandEnd(i);
+                int symbol = symbols.intern(postfixExpression, i, end);
+                i = end - 1;
 
-                stack.push(new ExperimentNode(variable));
+                stack.push(new ExperimentNode(symbol, symbols));
+                code[length++] = symbol;
+                maxStackDepth = Math.max(maxStackDepth, ++depth);
+                nodeCount++;
                 
             } else if (isOperator(scannedLiteral)) {
                 ExperimentNode operatorNode = new ExperimentNode(scannedLiteral);
@@ -72,10 +166,126 @@ public class ExperimentTree {
                 operatorNode.rightChild = stack.pop();
                 operatorNode.leftChild = stack.pop();
                 stack.push(operatorNode);
+                code[length++] = -1 - OPERATORS.indexOf(scannedLiteral);
+                depth--;
+                nodeCount++;
             }
         }
 
         root = stack.pop();
+        program = Arrays.copyOf(code, length);
+    }
+
+    /**
+     * Creates the tree from a program compiled earlier, such as one loaded from
+     * an ExpressionCache, instead of scanning the postfix expression.
+     * 
+     * @param compiled The compiled program, with operands as SymbolTable ids.
+     * @throws IllegalArgumentException If the program is not a well-formed
+     *                                  expression.
+     */
+    public void createTree(int[] compiled) {
+        loadProgram(compiled.clone());
+        root = nodesOf(program);
+    }
+
+    /**
+     * Takes a program compiled earlier, such as one loaded from an
+     * ExpressionCache, without creating the nodes of the tree. The tree is
+     * evaluated straight from the program, and its nodes are only created if
+     * it is printed.
+     * 
+     * @param compiled The compiled program, with operands as SymbolTable ids.
+     *                 The tree keeps the array rather than a copy.
+     * @throws IllegalArgumentException If the program is not a well-formed
+     *                                  expression.
+     */
+    public void loadProgram(int[] compiled) {
+        int depth = 0;
+        int deepest = 0;
+
+        for (int code : compiled) {
+            if (code >= 0) {
+                if (code >= symbols.size()) {
+                    throw new IllegalArgumentException("Unknown symbol " + code);
+                }
+                deepest = Math.max(deepest, ++depth);
+            } else {
+                if (depth < 2 || -1 - code >= OPERATORS.length()) {
+                    throw new IllegalArgumentException("Malformed program");
+                }
+                depth--;
+            }
+        }
+        if (depth == 0) {
+            throw new IllegalArgumentException("Malformed program");
+        }
+
+        root = null;
+        program = compiled;
+        maxStackDepth = deepest;
+        nodeCount = compiled.length;
+    }
+
+    /**
+     * Creates the nodes of a well-formed program.
+     * 
+     * @param compiled The program, checked by loadProgram.
+     * @return The root node.
+     */
+    private ExperimentNode nodesOf(int[] compiled) {
+        ExperimentNode[] stack = new ExperimentNode[maxStackDepth];
+        int depth = 0;
+
+        for (int code : compiled) {
+            if (code >= 0) {
+                stack[depth++] = new ExperimentNode(code, symbols);
+            } else {
+                ExperimentNode operatorNode = new ExperimentNode(OPERATORS.charAt(-1 - code));
+                operatorNode.isOperator = true;
+                operatorNode.rightChild = stack[--depth];
+                operatorNode.leftChild = stack[--depth];
+                stack[depth++] = operatorNode;
+            }
+        }
+        return stack[depth - 1];
+    }
+
+    /**
+     * Finds the end of the operand starting at the given index. An operand is
+     * a run of letters and digits that ends before the first letter following
+     * a digit.
+     * 
+     * @param start The index of the first character of the operand.
+     * @return The index after the last character of the operand.
+     */
+    int operandEnd(int start) {
+        return operandEnd(postfixExpression, start);
+    }
+
+    /**
+     * Finds the end of the operand starting at the given index of an
+     * expression.
+     * 
+     * @param expression The expression.
+     * @param start      The index of the first character of the operand.
+     * @return The index after the last character of the operand.
+     */
+    static int operandEnd(CharSequence expression, int start) {
+        boolean digitFound = false;
+        int i = start;
+
+        while (i < expression.length() && Character.isLetterOrDigit(expression.charAt(i))) {
+            if (Character.isDigit(expression.charAt(i))) {
+                digitFound = true;
+            }
+
+            if (digitFound && Character.isLetter(expression.charAt(i))) {
+                break;
+            }
+            i++;
+        }
+        return i;
     }
 
     /**
@@ -103,66 +313,189 @@ public class ExperimentTree {
      * Prints the prefix form of the expression represented by the tree.
      */
     public void printPrefix() {
-        printPrefix(root);
+        System.out.print(appendPrefix(new StringBuilder()));
     }
 
     /**
-     * Recursively prints the prefix form of the expression starting from the
-     * given node.
+     * Renders the prefix form of the expression represented by the tree into
+     * the given buffer, so it can be written out in one piece.
      * 
-     * @param node The current node in the traversal.
+     * @param buffer The buffer to append to.
+     * @return The buffer.
      */
-    private void printPrefix(ExperimentNode node) {
-        if (node != null) {
+    public StringBuilder appendPrefix(StringBuilder buffer) {
+        if (forest != null) {
+            return forest.appendPrefix(forestIndex, buffer);
+        }
+        if (root == null && program != null) {
+            root = nodesOf(program);
+        }
+        // An explicit stack instead of recursion, so a tree as deep as a long
+        // expression cannot overflow the thread stack
+        ArrayDeque<ExperimentNode> stack = new ArrayDeque<>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            ExperimentNode node = stack.pop();
             if (node.isOperator) {
-                System.out.print(node.operator);
+                buffer.append(node.operator);
             } else {
-                System.out.print(node.variable);
+                buffer.append(node.variable);
+            }
+            if (node.rightChild != null) {
+                stack.push(node.rightChild);
+            }
+            if (node.leftChild != null) {
+                stack.push(node.leftChild);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Passes the SymbolTable id of every operand of the tree to the given
+     * action, in postfix order. An operand used more than once is passed each
+     * time.
+     * 
+     * @param action The action to run for every operand.
+     */
+    public void forEachSymbol(IntConsumer action) {
+        if (forest != null) {
+            forest.forEachSymbol(forestIndex, action);
+            return;
+        }
+        if (program == null) {
+            buildTree();
+        }
+        for (int code : program) {
+            if (code >= 0) {
+                action.accept(code);
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap retained by the tree.
+     *
+     * @return The footprint, with one entry per node.
+     */
+    public Footprint footprint() {
+        return footprint(List.of(this));
+    }
+
+    /**
+     * Estimates the heap retained by a list of trees: the tree objects, the
+     * ExperimentNode objects of those that have them, their compiled
+     * programs, and once each the forests
+     * the trees built in one view. The postfix expressions belong to the
+     * InfixPostfix objects the trees were built from.
+     *
+     * @param trees The trees.
+     * @return The footprint, with one entry per node.
+     */
+    public static Footprint footprint(List<ExperimentTree> trees) {
+        long nodes = 0;
+        long treeNodes = 0;
+        long programBytes = 0;
+        long programs = 0;
+        Set<ExperimentForest> forests = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ExperimentTree tree : trees) {
+            nodes += tree.nodeCount;
+            if (tree.forest != null) {
+                forests.add(tree.forest);
+                continue;
+            }
+            if (tree.root != null) {
+                treeNodes += tree.nodeCount;
             }
-            printPrefix(node.leftChild);
-            printPrefix(node.rightChild);
+            if (tree.program != null) {
+                programBytes += Footprint.array(tree.program.length, 4);
+                programs++;
+            }
+        }
+        Footprint footprint = new Footprint("Experiment trees", nodes)
+                .add("trees", trees.size() * Footprint.object(5 * Footprint.REFERENCE + 3 * 4)
+                        + Footprint.array(trees.size(), Footprint.REFERENCE), trees.size())
+                .add("tree nodes", treeNodes * Footprint.object(2 + 4 + 1 + 3 * Footprint.REFERENCE), treeNodes)
+                .add("tree programs", programBytes, programs);
+        for (ExperimentForest forest : forests) {
+            footprint.addAll(forest.footprint());
         }
+        return footprint;
     }
 
     /**
      * Evaluates the postfix expression represented by the tree using the
-     * provided HashBasedSet for variable values.
+     * provided set for variable values. The set can be a HashBasedSet or any
+     * other Bindings, such as a ConcurrentHashBasedSet.
      * 
      * @param set The set containing variable values.
      * @return The result of the evaluation.
      */
-    public double evaluatePostfix(HashBasedSet set) {
-        Stack<Double> stack = new Stack<>();
-
-        char scannedLiteral;
+    public double evaluatePostfix(Bindings set) {
+        TreeEvaluationEvent event = new TreeEvaluationEvent();
+        event.begin();
+        long start = Metrics.start();
+        double result;
+        try {
+            result = evaluate(set);
+        } catch (RuntimeException e) {
+            Metrics.failed();
+            throw e;
+        }
+        Metrics.stop(Metrics.EVALUATE, start);
+        if (Metrics.ENABLED) {
+            Metrics.PROCESSED.increment();
+        }
+        if (event.isEnabled()) {
+            event.expressionLength = postfixExpression.length();
+            event.nodeCount = nodeCount;
+            event.result = result;
+            event.commit();
+        }
+        return result;
+    }
 
-        for (int i = 0; i < postfixExpression.length(); i++) {
-            scannedLiteral = postfixExpression.charAt(i);
-            String variable = "";
+    /**
+     * Evaluates the postfix expression for evaluatePostfix.
+     * 
+     * @param set The set containing variable values.
+     * @return The result of the evaluation.
+     */
+    private double evaluate(Bindings set) {
+        if (forest != null) {
+            return forest.evaluate(forestIndex, set);
+        }
+        if (program == null) {
+            buildTree();
+        }
+        
+        double[] stack = new double[maxStackDepth];
+        int top = 0;
 
-            if (isOperand(scannedLiteral)) {
-                boolean digitFound = false;
-                while (i < postfixExpression.length() && Character.isLetterOrDigit(postfixExpression.charAt(i))) {
-                    if (Character.isDigit(postfixExpression.charAt(i))) {
-                        digitFound = true;
-                    }
-
-                    if (digitFound && Character.isLetter(postfixExpression.charAt(i))) {
-                        break;
-                    }
-                    variable += postfixExpression.charAt(i);
-                    i++;
+        for (int code : program) {
+            if (code >= 0) {
+                // Operands missing from the set are skipped
+                double value = set.valueOrNaN(code);
+                if (!Double.isNaN(value)) {
+                    stack[top++] = value;
                 }
-                i--;
-
-                if (set.table.contains(variable)) {
-                    stack.push(set.table.getValueFor(variable));
+            } else {
+                if (top < 2) {
+                    throw new EmptyStackException();
                 }
-            } else if (isOperator(scannedLiteral)) {
-                stack.push(combineTwoValues(stack.pop(), stack.pop(), scannedLiteral));
+                double firstPoppedValue = stack[--top];
+                double secondPoppedValue = stack[--top];
+                stack[top++] = combineTwoValues(firstPoppedValue, secondPoppedValue,
+                        OPERATORS.charAt(-1 - code));
             }
         }
-        return stack.pop();
+        
+        if (top == 0) {
+            throw new EmptyStackException();
+        }
+        return stack[top - 1];
     }
 
     /**
@@ -0,0 +1,615 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * The ExpressionCache class keeps the compiled form of every expression on
+ * disk, so that a later run can load it instead of converting the infix text
+ * to postfix and building the tree again.
+ *
+ * <p>Entries are keyed by a 64-bit hash of the infix text. Each entry holds
+ * the infix text itself, its postfix form, the compiled program of the
+ * ExperimentTree and the operand names the program refers to, since
+ * SymbolTable ids differ from run to run. An entry is only used if its
+ * stored infix text equals the expression looked up, and the postfix form
+ * matches when the tree is created.
+ *
+ * <p>The file starts with a magic number and a format version; a file with a
+ * different version is stale and ignored as a whole. Opening the cache maps
+ * the file and only indexes where each key's entry starts; an entry is read
+ * the first time its expression is looked up. Every entry carries a CRC32
+ * checksum of its contents, checked when it is read, and an entry whose
+ * checksum or key does not match, or that is cut short, is counted as corrupt
+ * and skipped. Only the entries used or added during a run are written back
+ * by save.
+ *
+ * <p>A reused entry gives a tree that is evaluated straight from its program;
+ * its nodes are only created if it is printed. Each entry also records how
+ * long it took to compile, so the report can tell how much time reusing the
+ * cache saved.
+ *
+ * @author ColinKula
+ */
+
+public class ExpressionCache {
+
+    // Fields
+
+    /**
+     * The magic number at the start of every cache file, "SEC1".
+     */
+    static final int MAGIC = 0x53454331;
+
+    /**
+     * The version of the file format. Changing how expressions are converted
+     * or compiled must change the version, so old entries are not used.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * The state of an indexed entry that has not been read yet.
+     */
+    static final byte UNREAD = 0;
+
+    /**
+     * The state of an indexed entry whose checksum has been checked.
+     */
+    static final byte CHECKED = 1;
+
+    /**
+     * The state of an indexed entry that was reused during this run, and is
+     * copied as it is by save.
+     */
+    static final byte REUSED = 2;
+
+    /**
+     * The state of an indexed entry found to be corrupt.
+     */
+    static final byte CORRUPT = 3;
+
+    /**
+     * A compiled expression as stored in the cache.
+     */
+    static final class Entry {
+
+        /**
+         * The infix text of the expression.
+         */
+        final String infix;
+
+        /**
+         * The postfix form of the expression.
+         */
+        final String postfix;
+
+        /**
+         * The operand names the program refers to.
+         */
+        final String[] names;
+
+        /**
+         * The compiled program, with operands as indices into names.
+         */
+        final int[] program;
+
+        /**
+         * The time it took to convert and compile the expression, in
+         * nanoseconds.
+         */
+        final long compileNanos;
+
+        /**
+         * The slot of the entry in the index of the file, or -1 if it was
+         * compiled during this run.
+         */
+        int slot = -1;
+
+        Entry(String infix, String postfix, String[] names, int[] program, long compileNanos) {
+            this.infix = infix;
+            this.postfix = postfix;
+            this.names = names;
+            this.program = program;
+            this.compileNanos = compileNanos;
+        }
+    }
+
+    /**
+     * The path of the cache file.
+     */
+    final String path;
+
+    /**
+     * The contents of the cache file, mapped into memory, or null if there is
+     * no valid file.
+     */
+    ByteBuffer contents;
+
+    /**
+     * The keys of the entries in the file, in an open-addressed table.
+     */
+    long[] indexKeys = new long[0];
+
+    /**
+     * The offset in the file of the entry of the key in the same slot of
+     * indexKeys, or -1 for an empty slot.
+     */
+    int[] indexOffsets = new int[0];
+
+    /**
+     * The state of the entry in the same slot of indexKeys: UNREAD, CHECKED,
+     * REUSED or CORRUPT.
+     */
+    byte[] indexStates = new byte[0];
+
+    /**
+     * The entries compiled during this run, by key, to be saved.
+     */
+    final LinkedHashMap<Long, Entry> used = new LinkedHashMap<>();
+
+    /**
+     * The time each expression converted during this run took, by infix text,
+     * until its tree is built and the entry can be added.
+     */
+    final HashMap<String, Long> pending = new HashMap<>();
+
+    /**
+     * The checksum entries are checked with as they are read and written.
+     */
+    final CRC32 crc = new CRC32();
+
+    /**
+     * The symbol table operand names are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    /**
+     * The number of expressions taken from the cache.
+     */
+    int reused;
+
+    /**
+     * The number of expressions that had to be compiled.
+     */
+    int compiled;
+
+    /**
+     * The number of entries skipped because they were corrupt.
+     */
+    int corrupt;
+
+    /**
+     * Whether the file was ignored because of a different format version.
+     */
+    boolean stale;
+
+    /**
+     * The time spent indexing the file and reading and rebuilding reused
+     * expressions, in nanoseconds.
+     */
+    long loadNanos;
+
+    /**
+     * The time the reused expressions originally took to compile, in
+     * nanoseconds.
+     */
+    long compileNanosReused;
+
+    // Constructors
+
+    /**
+     * Constructs an ExpressionCache backed by the given file and indexes the
+     * entries it holds. A missing file gives an empty cache.
+     *
+     * @param path The path of the cache file.
+     */
+    public ExpressionCache(String path) {
+        this.path = path;
+        load();
+    }
+
+    // Methods
+
+    /**
+     * Converts an infix expression to postfix, taking the postfix form from
+     * the cache when it holds the expression.
+     *
+     * @param infix The infix expression.
+     * @return The converted expression.
+     */
+    public InfixPostfix experiment(String infix) {
+        long start = System.nanoTime();
+        Entry entry = find(infix);
+        if (entry != null) {
+            InfixPostfix experiment = new InfixPostfix(infix, entry.postfix);
+            loadNanos += System.nanoTime() - start;
+            return experiment;
+        }
+
+        InfixPostfix experiment = new InfixPostfix(infix);
+        pending.put(infix, System.nanoTime() - start);
+        return experiment;
+    }
+
+    /**
+     * Creates the expression tree of an experiment, from the cached program
+     * when the cache holds the expression with the same postfix form, and
+     * otherwise by building it and adding it to the cache.
+     *
+     * @param experiment The converted expression.
+     * @return The expression tree.
+     */
+    public ExperimentTree tree(InfixPostfix experiment) {
+        long start = System.nanoTime();
+        String infix = experiment.infixPresentation;
+        ExperimentTree tree = new ExperimentTree(experiment.postfixRepresentation);
+        Entry entry = find(infix);
+
+        if (entry != null && entry.postfix.equals(experiment.postfixRepresentation)) {
+            int[] ids = new int[entry.names.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = symbols.intern(entry.names[i]);
+            }
+            int[] program = new int[entry.program.length];
+            for (int i = 0; i < program.length; i++) {
+                int code = entry.program[i];
+                program[i] = code >= 0 ? ids[code] : code;
+            }
+            try {
+                tree.loadProgram(program);
+                if (entry.slot >= 0) {
+                    indexStates[entry.slot] = REUSED;
+                }
+                reused++;
+                compileNanosReused += entry.compileNanos;
+                loadNanos += System.nanoTime() - start;
+                return tree;
+            } catch (IllegalArgumentException e) {
+                corrupt++;
+                if (entry.slot >= 0) {
+                    indexStates[entry.slot] = CORRUPT;
+                } else {
+                    used.remove(key(infix));
+                }
+            }
+        }
+
+        tree.createTree();
+        compiled++;
+        Long convertNanos = pending.remove(infix);
+        long nanos = System.nanoTime() - start + (convertNanos != null ? convertNanos : 0);
+        used.put(key(infix), compile(infix, tree, nanos));
+        return tree;
+    }
+
+    /**
+     * Writes the entries reused or compiled during this run to the cache
+     * file. Reused entries are copied from the old file as they are; entries
+     * that were never looked up are dropped.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public void save() throws IOException {
+        File file = new File(path);
+        File temporary = new File(path + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            int count = used.size();
+            for (byte state : indexStates) {
+                count += state == REUSED ? 1 : 0;
+            }
+            out.writeInt(count);
+
+            for (int slot = 0; slot < indexStates.length; slot++) {
+                if (indexStates[slot] == REUSED) {
+                    int offset = indexOffsets[slot];
+                    byte[] raw = new byte[16 + contents.getInt(offset + 8)];
+                    contents.get(offset, raw);
+                    out.write(raw);
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+
+            for (Entry entry : used.values()) {
+                bytes.reset();
+                writeString(payload, entry.infix);
+                writeString(payload, entry.postfix);
+                payload.writeLong(entry.compileNanos);
+                payload.writeInt(entry.names.length);
+                for (String name : entry.names) {
+                    writeString(payload, name);
+                }
+                payload.writeInt(entry.program.length);
+                for (int code : entry.program) {
+                    payload.writeInt(code);
+                }
+                payload.flush();
+
+                crc.reset();
+                crc.update(bytes.toByteArray(), 0, bytes.size());
+                out.writeLong(key(entry.infix));
+                out.writeInt(bytes.size());
+                out.writeInt((int) crc.getValue());
+                bytes.writeTo(out);
+            }
+        }
+
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not replace " + path);
+            }
+        }
+    }
+
+    /**
+     * Describes how much of the run the cache served.
+     *
+     * @return The report.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("Expression cache: ").append(reused).append(" reused, ")
+                .append(compiled).append(" compiled, ").append(corrupt).append(" corrupt");
+        if (stale) {
+            report.append(", stale file ignored");
+        }
+        report.append(String.format("%nLoading took %.1f ms and saved %.1f ms of compiling",
+                loadNanos / 1e6, (compileNanosReused - loadNanos) / 1e6));
+        return report.toString();
+    }
+
+    /**
+     * Maps the cache file and indexes the offset of every entry by its key,
+     * without reading or checking the entries themselves.
+     */
+    private void load() {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.err.println("Could not read " + path + ": too large to map");
+                return;
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                stale = true;
+                return;
+            }
+            int count = in.getInt();
+            if (count < 0) {
+                stale = true;
+                return;
+            }
+            int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+            indexKeys = new long[capacity];
+            indexOffsets = new int[capacity];
+            indexStates = new byte[capacity];
+            Arrays.fill(indexOffsets, -1);
+
+            for (int i = 0; i < count; i++) {
+                int offset = in.position();
+                if (in.remaining() < 16) {
+                    corrupt += count - i;
+                    break;
+                }
+                long key = in.getLong();
+                int length = in.getInt();
+                in.getInt();
+                if (length < 0 || length > in.remaining()) {
+                    corrupt += count - i;
+                    break;
+                }
+                in.position(in.position() + length);
+                index(key, offset);
+            }
+            contents = in;
+        } catch (NoSuchFileException e) {
+            // No cache yet
+        } catch (IOException e) {
+            System.err.println("Could not read " + path + ": " + e.getMessage());
+        } finally {
+            loadNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Adds the offset of an entry to the index, unless an earlier entry has
+     * the same key.
+     *
+     * @param key    The key of the entry.
+     * @param offset The offset of the entry in the file.
+     */
+    private void index(long key, int offset) {
+        int mask = indexKeys.length - 1;
+        int slot = (int) key & mask;
+        while (indexOffsets[slot] >= 0) {
+            if (indexKeys[slot] == key) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        indexKeys[slot] = key;
+        indexOffsets[slot] = offset;
+    }
+
+    /**
+     * Reads the entry of a key from the file, checking its checksum the first
+     * time it is read. The entry is not kept, so a reused entry takes no heap
+     * once its tree is built.
+     *
+     * @param key   The key.
+     * @param infix The infix expression looked up.
+     * @return The entry, or null if the file holds no valid entry for the
+     *         expression.
+     */
+    private Entry readEntry(long key, String infix) {
+        if (indexKeys.length == 0) {
+            return null;
+        }
+        int mask = indexKeys.length - 1;
+        int slot = (int) key & mask;
+        while (indexOffsets[slot] >= 0 && indexKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        int offset = indexOffsets[slot];
+        if (offset < 0 || indexStates[slot] == CORRUPT) {
+            return null;
+        }
+
+        int length = contents.getInt(offset + 8);
+        ByteBuffer bytes = contents.slice(offset + 16, length);
+        if (indexStates[slot] == UNREAD) {
+            crc.reset();
+            crc.update(bytes.duplicate());
+            indexStates[slot] = (int) crc.getValue() == contents.getInt(offset + 12) ? CHECKED : CORRUPT;
+        }
+        Entry entry = indexStates[slot] != CORRUPT ? read(bytes) : null;
+        if (entry == null || key(entry.infix) != key) {
+            indexStates[slot] = CORRUPT;
+            corrupt++;
+            return null;
+        }
+        entry.slot = slot;
+        return entry.infix.equals(infix) ? entry : null;
+    }
+
+    /**
+     * Reads an entry from its checked bytes.
+     *
+     * @param in The bytes of the entry.
+     * @return The entry, or null if the bytes do not hold a valid one.
+     */
+    private static Entry read(ByteBuffer in) {
+        try {
+            String infix = readString(in);
+            String postfix = readString(in);
+            long compileNanos = in.getLong();
+            String[] names = new String[in.getInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(in);
+            }
+            int[] program = new int[in.getInt()];
+            for (int i = 0; i < program.length; i++) {
+                program[i] = in.getInt();
+                if (program[i] >= names.length) {
+                    return null;
+                }
+            }
+            return in.hasRemaining() ? null : new Entry(infix, postfix, names, program, compileNanos);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a string of any length as the length of its UTF-8 encoding
+     * followed by the encoding.
+     *
+     * @param out    The stream to write to.
+     * @param string The string.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param in The buffer to read from.
+     * @return The string.
+     * @throws IllegalArgumentException If the length is invalid.
+     */
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid string length");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the entry of an infix expression, among those compiled during
+     * this run and then in the file.
+     *
+     * @param infix The infix expression.
+     * @return The entry, or null if the cache does not hold the expression.
+     */
+    private Entry find(String infix) {
+        long key = key(infix);
+        Entry entry = used.get(key);
+        if (entry == null) {
+            return readEntry(key, infix);
+        }
+        return entry.infix.equals(infix) ? entry : null;
+    }
+
+    /**
+     * Creates the entry of a freshly built tree, replacing the SymbolTable
+     * ids in its program with indices into its own list of operand names.
+     *
+     * @param infix The infix expression.
+     * @param tree  The built tree.
+     * @param nanos The time it took to convert and compile the expression.
+     * @return The entry.
+     */
+    private Entry compile(String infix, ExperimentTree tree, long nanos) {
+        HashMap<Integer, Integer> indices = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        int[] program = new int[tree.program.length];
+
+        for (int i = 0; i < program.length; i++) {
+            int code = tree.program[i];
+            if (code >= 0) {
+                Integer index = indices.get(code);
+                if (index == null) {
+                    index = names.size();
+                    indices.put(code, index);
+                    names.add(symbols.nameOf(code));
+                }
+                code = index;
+            }
+            program[i] = code;
+        }
+        return new Entry(infix, tree.postfixExpression, names.toArray(new String[0]), program, nanos);
+    }
+
+    /**
+     * Computes the key of an infix expression, a 64-bit hash of its text.
+     * Unlike variable lookups, the key does not ignore case.
+     *
+     * @param infix The infix expression.
+     * @return The key.
+     */
+    static long key(String infix) {
+        long hash = MixHashStrategy.PRIME_2 + infix.length();
+        for (int i = 0; i < infix.length(); i++) {
+            hash = (hash ^ infix.charAt(i)) * MixHashStrategy.PRIME_1;
+        }
+        return MixHashStrategy.avalanche(hash);
+    }
+
+}
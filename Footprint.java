@@ -0,0 +1,279 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * The Footprint class estimates how many bytes of heap a structure retains,
+ * broken down by component, from the layout of its objects and the number
+ * of each, without walking the heap.
+ *
+ * <p>Layouts are those of a 64-bit HotSpot JVM with compressed references:
+ * a 12-byte object header, a 16-byte array header, 4-byte references, and
+ * every object rounded up to a multiple of 8 bytes. Strings are taken to be
+ * Latin-1 when every character fits in a byte. Each structure reports only
+ * what it owns: variable names interned in the SymbolTable, and the postfix
+ * expressions kept by InfixPostfix, are left out. The estimate can be checked
+ * against the heap measured with usedHeap before and after building a copy
+ * of the structure, as PipelineHarness does given "-memory".
+ *
+ * @author ColinKula
+ */
+
+public class Footprint {
+
+    // Fields
+
+    /**
+     * The bytes of an object header.
+     */
+    static final int OBJECT_HEADER = 12;
+
+    /**
+     * The bytes of an array header, including its length.
+     */
+    static final int ARRAY_HEADER = 16;
+
+    /**
+     * The bytes of a reference.
+     */
+    static final int REFERENCE = 4;
+
+    /**
+     * The multiple every object is rounded up to.
+     */
+    static final int ALIGNMENT = 8;
+
+    /**
+     * The bytes of a String object, without its characters: a reference to
+     * the byte array, the cached hash code, the coder and the zero-hash flag.
+     */
+    static final long STRING = object(REFERENCE + 4 + 1 + 1);
+
+    /**
+     * The bytes of a boxed Integer.
+     */
+    static final long INTEGER = object(4);
+
+    /**
+     * The bytes of a HashMap object: four references and four numbers.
+     */
+    static final long HASH_MAP = object(4 * REFERENCE + 4 * 4);
+
+    /**
+     * The bytes of an entry of a HashMap: the hash code and three references.
+     */
+    static final long HASH_MAP_NODE = object(4 + 3 * REFERENCE);
+
+    /**
+     * The name of the structure.
+     */
+    final String name;
+
+    /**
+     * The number of entries the structure holds, which the total is divided
+     * by to give the bytes per entry.
+     */
+    final long entries;
+
+    /**
+     * The names of the components, in the order they were added.
+     */
+    ArrayList<String> components = new ArrayList<>();
+
+    /**
+     * The bytes of each component.
+     */
+    ArrayList<Long> componentBytes = new ArrayList<>();
+
+    /**
+     * The number of objects or elements in each component.
+     */
+    ArrayList<Long> componentCounts = new ArrayList<>();
+
+    // Constructors
+
+    /**
+     * Constructs an empty Footprint.
+     *
+     * @param name    The name of the structure.
+     * @param entries The number of entries the structure holds.
+     */
+    public Footprint(String name, long entries) {
+        this.name = name;
+        this.entries = entries;
+    }
+
+    // Methods
+
+    /**
+     * Rounds a size up to the object alignment.
+     *
+     * @param bytes The size.
+     * @return The aligned size.
+     */
+    static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Estimates the bytes of an object.
+     *
+     * @param fieldBytes The bytes of its fields.
+     * @return The bytes of the object.
+     */
+    static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * Estimates the bytes of an array.
+     *
+     * @param length       The length of the array.
+     * @param elementBytes The bytes of each element.
+     * @return The bytes of the array.
+     */
+    static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * Estimates the bytes of a String and its characters.
+     *
+     * @param string The string.
+     * @return The bytes of the string.
+     */
+    static long string(String string) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return STRING + array(string.length(), bytesPerChar);
+    }
+
+    /**
+     * Estimates the bytes of a boxed Integer, which is nothing for the values
+     * Integer.valueOf caches.
+     *
+     * @param value The value.
+     * @return The bytes of the box.
+     */
+    static long integer(int value) {
+        return value >= -128 && value <= 127 ? 0 : INTEGER;
+    }
+
+    /**
+     * Estimates the capacity of the table of a HashMap grown one put at a
+     * time, which doubles from 16 whenever it is three quarters full.
+     *
+     * @param size The number of entries.
+     * @return The capacity.
+     */
+    static int hashMapCapacity(int size) {
+        int capacity = 16;
+        while (size > capacity * 3L / 4) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Adds a component of the structure.
+     *
+     * @param component The name of the component.
+     * @param bytes     The bytes of the component.
+     * @param count     The number of objects or elements in the component.
+     * @return This footprint.
+     */
+    public Footprint add(String component, long bytes, long count) {
+        components.add(component);
+        componentBytes.add(bytes);
+        componentCounts.add(count);
+        return this;
+    }
+
+    /**
+     * Adds every component of the footprint of a part of the structure.
+     *
+     * @param part The footprint of the part.
+     * @return This footprint.
+     */
+    public Footprint addAll(Footprint part) {
+        for (int i = 0; i < part.components.size(); i++) {
+            add(part.components.get(i), part.componentBytes.get(i), part.componentCounts.get(i));
+        }
+        return this;
+    }
+
+    /**
+     * Retrieves the bytes of the whole structure.
+     *
+     * @return The sum of the bytes of every component.
+     */
+    public long bytes() {
+        long total = 0;
+        for (long bytes : componentBytes) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Retrieves the bytes of the structure per entry it holds.
+     *
+     * @return The bytes per entry, or 0 if it holds none.
+     */
+    public double bytesPerEntry() {
+        return entries == 0 ? 0 : (double) bytes() / entries;
+    }
+
+    /**
+     * Measures the heap in use after collecting the garbage, so the heap
+     * retained by a structure is the difference between two measurements
+     * taken before and after building it. The G1 collector may leave some
+     * dead objects in regions it does not compact, so measurements are
+     * steadiest with -XX:+UseSerialGC.
+     *
+     * @return The bytes of heap in use.
+     */
+    public static long usedHeap() {
+        long used = -1;
+        // Collect until two collections in a row leave the same heap, since
+        // one collection may leave garbage behind, or objects only reclaimed
+        // once their references are processed
+        for (int i = 0; i < 8; i++) {
+            System.gc();
+            long now = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            if (now == used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    /**
+     * Describes the footprint, component by component, with the bytes per
+     * entry and the share of the total of each.
+     *
+     * @return The report.
+     */
+    @Override
+    public String toString() {
+        long total = bytes();
+        StringBuilder report = new StringBuilder(String.format(
+                "%s: %d entries, %.1f KB, %.1f bytes per entry%n", name, entries, total / 1024.0,
+                bytesPerEntry()));
+        report.append(String.format("  %-20s %12s %10s %12s %7s", "Component", "Bytes", "Objects",
+                "Bytes/entry", "Share"));
+        for (int i = 0; i < components.size(); i++) {
+            long bytes = componentBytes.get(i);
+            report.append(String.format("%n  %-20s %12d %10d %12.1f %6.1f%%", components.get(i), bytes,
+                    componentCounts.get(i), entries == 0 ? 0.0 : (double) bytes / entries,
+                    total == 0 ? 0.0 : 100.0 * bytes / total));
+        }
+        return report.toString();
+    }
+
+}
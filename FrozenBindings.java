@@ -0,0 +1,401 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The FrozenBindings class is a read-only copy of the bindings of a Table,
+ * built once the table stops changing, whose lookups never walk a chain.
+ *
+ * <p>Names are placed with a minimal perfect hash in the style of CHD
+ * (compress, hash and displace): every name is hashed once into 64 bits; the
+ * high half picks one of about n / 4 buckets, and the displacement stored for
+ * the bucket is mixed with the hash to pick a slot. The displacements are
+ * found when the bindings are frozen, bucket by bucket from the largest, by
+ * trying 0, 1, 2, ... until every name of the bucket lands in a free slot.
+ * Buckets of one name, placed last when few slots are free, are given a free
+ * slot directly, stored as a negative displacement. There are exactly as many
+ * slots as names, so the values are stored in a dense array. A lookup by name
+ * is one hash, one read of the displacement and a check that the slot holds
+ * that name, which rejects names that are not bound. A lookup by SymbolTable
+ * id reads the slot of the id from a dense array instead.
+ *
+ * @author ColinKula
+ */
+
+public class FrozenBindings implements Bindings {
+
+    // Fields
+
+    /**
+     * The average number of names per bucket.
+     */
+    static final int BUCKET_SIZE = 4;
+
+    /**
+     * The number of displacements tried for a bucket before the build starts
+     * over with another seed.
+     */
+    static final int MAX_DISPLACEMENT = 1 << 24;
+
+    /**
+     * The seed mixed into every hash, changed if a build has to start over.
+     */
+    long seed;
+
+    /**
+     * The displacement of every bucket, or for a bucket of one name the
+     * complement of its slot.
+     */
+    int[] displacements;
+
+    /**
+     * The SymbolTable id of the name in every slot.
+     */
+    int[] keys;
+
+    /**
+     * The value in every slot.
+     */
+    int[] values;
+
+    /**
+     * The slot of every SymbolTable id, or -1 for ids that are not bound.
+     */
+    int[] slotBySymbol;
+
+    /**
+     * The symbol table the names are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    /**
+     * The time the build took, in nanoseconds.
+     */
+    long buildNanos;
+
+    /**
+     * The number of times the build started over with another seed.
+     */
+    int restarts;
+
+    // Constructors
+
+    /**
+     * Constructs FrozenBindings holding the given bindings.
+     *
+     * @param symbolIds   The SymbolTable id of every bound name, with no
+     *                    repeats.
+     * @param boundValues The value of every name.
+     */
+    FrozenBindings(int[] symbolIds, int[] boundValues) {
+        long start = System.nanoTime();
+        long[] hashes = new long[symbolIds.length];
+        for (int i = 0; i < symbolIds.length; i++) {
+            hashes[i] = SymbolTable.hash64(symbols.nameOf(symbolIds[i]));
+        }
+        while (!build(symbolIds, boundValues, hashes)) {
+            seed++;
+            restarts++;
+        }
+
+        int maxSymbol = -1;
+        for (int symbol : symbolIds) {
+            maxSymbol = Math.max(maxSymbol, symbol);
+        }
+        slotBySymbol = new int[maxSymbol + 1];
+        Arrays.fill(slotBySymbol, -1);
+        for (int slot = 0; slot < keys.length; slot++) {
+            slotBySymbol[keys[slot]] = slot;
+        }
+        buildNanos = System.nanoTime() - start;
+    }
+
+    // Methods
+
+    /**
+     * Freezes the bindings of a Table. A variable held by more than one node
+     * is bound to the value its SymbolTable id maps to.
+     *
+     * @param table The table.
+     * @return The frozen bindings.
+     */
+    public static FrozenBindings of(Table table) {
+        SymbolTable symbols = SymbolTable.global();
+        ArrayList<TableNode> nodes = new ArrayList<>();
+        boolean[] seen = new boolean[symbols.size()];
+        for (int i = 0; i < table.size; i++) {
+            TableNode ptr = table.table[i].next; // Skip the dummy node
+            for (int j = 0; j < table.numberOfNodes[i]; j++) {
+                TableNode node = ptr.symbol >= 0 ? table.bySymbol[ptr.symbol] : ptr;
+                int symbol = node.symbol >= 0 ? node.symbol : symbols.intern(node.expression);
+                if (symbol >= seen.length) {
+                    seen = Arrays.copyOf(seen, Math.max(symbol + 1, seen.length * 2));
+                }
+                if (!seen[symbol]) {
+                    seen[symbol] = true;
+                    nodes.add(node);
+                }
+                ptr = ptr.next;
+            }
+        }
+
+        int[] symbolIds = new int[nodes.size()];
+        int[] boundValues = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            TableNode node = nodes.get(i);
+            symbolIds[i] = node.symbol >= 0 ? node.symbol : symbols.intern(node.expression);
+            boundValues[i] = node.getValue();
+        }
+        return new FrozenBindings(symbolIds, boundValues);
+    }
+
+    /**
+     * Tries to find a displacement for every bucket with the current seed.
+     *
+     * @param symbolIds   The ids of the names.
+     * @param boundValues The values of the names.
+     * @param hashes      The hashes of the names.
+     * @return true if every bucket was placed; false if one could not be.
+     */
+    private boolean build(int[] symbolIds, int[] boundValues, long[] hashes) {
+        int n = symbolIds.length;
+        int bucketCount = Math.max(1, (n + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        displacements = new int[bucketCount];
+        keys = new int[n];
+        values = new int[n];
+
+        // Group the names by bucket
+        int[] bucketStarts = new int[bucketCount + 1];
+        int[] bucketOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            bucketOf[i] = bucket(hashes[i] ^ seed, bucketCount);
+            bucketStarts[bucketOf[i] + 1]++;
+        }
+        int largest = 0;
+        for (int b = 0; b < bucketCount; b++) {
+            largest = Math.max(largest, bucketStarts[b + 1]);
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        int[] members = new int[n];
+        int[] next = Arrays.copyOf(bucketStarts, bucketCount);
+        for (int i = 0; i < n; i++) {
+            members[next[bucketOf[i]]++] = i;
+        }
+
+        // Order the buckets from the largest, which are hardest to place
+        int[] sizeStarts = new int[largest + 2];
+        for (int b = 0; b < bucketCount; b++) {
+            sizeStarts[largest - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+        }
+        for (int s = 0; s <= largest; s++) {
+            sizeStarts[s + 1] += sizeStarts[s];
+        }
+        int[] order = new int[bucketCount];
+        for (int b = 0; b < bucketCount; b++) {
+            order[sizeStarts[largest - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+        }
+
+        boolean[] taken = new boolean[n];
+        int[] slots = new int[largest];
+        int free = 0;
+        for (int b : order) {
+            int from = bucketStarts[b];
+            int size = bucketStarts[b + 1] - from;
+            if (size == 0) {
+                break;
+            }
+            if (size == 1) {
+                while (taken[free]) {
+                    free++;
+                }
+                int i = members[from];
+                displacements[b] = ~free;
+                taken[free] = true;
+                keys[free] = symbolIds[i];
+                values[free] = boundValues[i];
+                continue;
+            }
+            int displacement = 0;
+            while (!fits(members, from, size, hashes, displacement, taken, slots)) {
+                if (++displacement == MAX_DISPLACEMENT) {
+                    return false;
+                }
+            }
+            displacements[b] = displacement;
+            for (int j = 0; j < size; j++) {
+                int i = members[from + j];
+                taken[slots[j]] = true;
+                keys[slots[j]] = symbolIds[i];
+                values[slots[j]] = boundValues[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether every name of a bucket lands in a distinct free slot with
+     * the given displacement, and records the slots.
+     *
+     * @param members      The names, grouped by bucket.
+     * @param from         The index of the bucket's first name in members.
+     * @param size         The number of names in the bucket.
+     * @param hashes       The hashes of the names.
+     * @param displacement The displacement to try.
+     * @param taken        Which slots are taken.
+     * @param slots        Receives the slot of each name of the bucket.
+     * @return true if the bucket fits.
+     */
+    private boolean fits(int[] members, int from, int size, long[] hashes, int displacement,
+            boolean[] taken, int[] slots) {
+        for (int j = 0; j < size; j++) {
+            int slot = slot(hashes[members[from + j]] ^ seed, displacement, taken.length);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int k = 0; k < j; k++) {
+                if (slots[k] == slot) {
+                    return false;
+                }
+            }
+            slots[j] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Picks the bucket of a hash.
+     *
+     * @param hash        The hash, mixed with the seed.
+     * @param bucketCount The number of buckets.
+     * @return The bucket.
+     */
+    private static int bucket(long hash, int bucketCount) {
+        return (int) (((hash >>> 32) * bucketCount) >>> 32);
+    }
+
+    /**
+     * Picks the slot of a hash under a displacement.
+     *
+     * @param hash         The hash, mixed with the seed.
+     * @param displacement The displacement of the hash's bucket.
+     * @param slotCount    The number of slots.
+     * @return The slot.
+     */
+    private static int slot(long hash, int displacement, int slotCount) {
+        long mixed = MixHashStrategy.avalanche(hash + displacement * MixHashStrategy.PRIME_1);
+        return (int) (((mixed & 0xFFFFFFFFL) * slotCount) >>> 32);
+    }
+
+    /**
+     * Finds the slot of a name.
+     *
+     * @param variable The name.
+     * @return The slot, or -1 if the name is not bound.
+     */
+    private int slotOf(String variable) {
+        if (keys.length == 0) {
+            return -1;
+        }
+        long hash = SymbolTable.hash64(variable) ^ seed;
+        int displacement = displacements[bucket(hash, displacements.length)];
+        int slot = displacement < 0 ? ~displacement : slot(hash, displacement, keys.length);
+        String name = symbols.nameOf(keys[slot]);
+        return SymbolTable.matches(name, variable, 0, variable.length()) ? slot : -1;
+    }
+
+    /**
+     * Finds the slot of a SymbolTable id.
+     *
+     * @param symbol The id.
+     * @return The slot, or -1 if the id is not bound.
+     */
+    private int slotOf(int symbol) {
+        return symbol >= 0 && symbol < slotBySymbol.length ? slotBySymbol[symbol] : -1;
+    }
+
+    @Override
+    public boolean contains(String variable) {
+        return slotOf(variable) >= 0;
+    }
+
+    @Override
+    public boolean contains(int symbol) {
+        return slotOf(symbol) >= 0;
+    }
+
+    /**
+     * Retrieves the value of the specified variable.
+     *
+     * @param variable The variable name.
+     * @return The value of the variable, or -1.0 if it is not bound.
+     */
+    @Override
+    public double getValueFor(String variable) {
+        int slot = slotOf(variable);
+        return slot >= 0 ? values[slot] : -1.0;
+    }
+
+    /**
+     * Retrieves the value of the variable with the specified SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or -1.0 if it is not bound.
+     */
+    @Override
+    public double getValueFor(int symbol) {
+        int slot = slotOf(symbol);
+        return slot >= 0 ? values[slot] : -1.0;
+    }
+
+    @Override
+    public double valueOrNaN(int symbol) {
+        int slot = slotOf(symbol);
+        return slot >= 0 ? values[slot] : Double.NaN;
+    }
+
+    /**
+     * Retrieves the number of bound names.
+     *
+     * @return The number of names.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Retrieves the number of bits per name taken by the perfect hash itself,
+     * which is the displacements.
+     *
+     * @return The bits per name.
+     */
+    public double bitsPerKey() {
+        return keys.length == 0 ? 0 : 32.0 * displacements.length / keys.length;
+    }
+
+    /**
+     * Estimates the heap retained by the frozen bindings.
+     *
+     * @return The footprint, with one entry per name.
+     */
+    public Footprint footprint() {
+        return new Footprint("Frozen bindings", keys.length)
+                .add("frozen", Footprint.object(5 * Footprint.REFERENCE + 8 + 8 + 4), 1)
+                .add("displacements", Footprint.array(displacements.length, 4), displacements.length)
+                .add("keys", Footprint.array(keys.length, 4), keys.length)
+                .add("values", Footprint.array(values.length, 4), values.length)
+                .add("slots by symbol", Footprint.array(slotBySymbol.length, 4), slotBySymbol.length);
+    }
+
+    /**
+     * Describes the build and the size of the frozen bindings.
+     *
+     * @return The report.
+     */
+    public String report() {
+        long bytes = 4L * (displacements.length + keys.length + values.length + slotBySymbol.length);
+        return String.format("Frozen bindings: %d names, built in %.1f ms (%d restarts), "
+                + "%.1f bits per key for the perfect hash, %.1f bytes per name in all",
+                keys.length, buildNanos / 1e6, restarts, bitsPerKey(),
+                keys.length == 0 ? 0.0 : (double) bytes / keys.length);
+    }
+
+}
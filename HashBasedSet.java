@@ -1,7 +1,13 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The HashBasedSet class represents a set using a hash map for efficient
@@ -28,7 +34,7 @@ import java.util.Scanner;
  * @author ColinKula
  */
 
-public class HashBasedSet {
+public class HashBasedSet implements Bindings {
 
     // Fields
     
@@ -50,6 +56,57 @@ public class HashBasedSet {
      */
     Table table;
     
+    /**
+     * The path of the file the variables are read from.
+     */
+    String valuesFile = "Values.txt";
+    
+    /**
+     * The strategy used to compute the hash codes of the variables, which the
+     * table compresses with a bit mask.
+     */
+    HashStrategy hashStrategy = new MixHashStrategy();
+    
+    /**
+     * The live statistics of the table, kept across rebuilds of the table.
+     */
+    final TableStatistics statistics = new TableStatistics();
+    
+    /**
+     * The symbol table variable names are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+    
+    /**
+     * The committed versions of the bindings, read by snapshots. Every change
+     * to the table commits the bindings it changed as a new version.
+     */
+    final VersionedBindings versions = new VersionedBindings(symbols);
+    
+    /**
+     * The write-ahead log changes are appended to, or null if the set is not
+     * persisted.
+     */
+    BindingsLog log;
+
+    /**
+     * The future completed when the last change appended to the log is
+     * durable.
+     */
+    CompletableFuture<Void> logged = CompletableFuture.completedFuture(null);
+    
+    /**
+     * The tiered store the bindings were moved into by spillToDisk, or null
+     * while they are held in the table.
+     */
+    TieredBindings tiered;
+    
+    /**
+     * The frozen bindings built by freeze, or null if the set changed since
+     * or was never frozen.
+     */
+    FrozenBindings frozen;
+    
     
     // Constructors
 
@@ -58,17 +115,56 @@ public class HashBasedSet {
      * table.
      */
     public HashBasedSet() {
-        this.map = new HashMap();
-        this.size = getTextSize();
-        this.table = new Table(size);
+        this("Values.txt");
     }
-    
+
+    /**
+     * Constructs a HashBasedSet object that reads its variables from the given
+     * file instead of "Values.txt".
+     *
+     * @param valuesFile The path of the file holding the variables.
+     */
+    public HashBasedSet(String valuesFile) {
+        this.valuesFile = valuesFile;
+        this.map = new HashMap<>();
+        this.size = countLines(valuesFile);
+        this.table = newTable();
+    }
+
+    /**
+     * Constructs a HashBasedSet object that reads its variables from the given
+     * file and hashes them with the given strategy.
+     *
+     * @param valuesFile   The path of the file holding the variables.
+     * @param hashStrategy The strategy used to compute hash codes.
+     */
+    public HashBasedSet(String valuesFile, HashStrategy hashStrategy) {
+        this(valuesFile);
+        this.hashStrategy = hashStrategy;
+        this.table = newTable();
+    }
+
+    /**
+     * Constructs a HashBasedSet object with a fixed table size instead of
+     * counting the lines in "Values.txt". Used when the set is filled
+     * programmatically, such as by the benchmarks.
+     *
+     * @param size The number of slots in the table.
+     */
+    public HashBasedSet(int size) {
+        this.map = new HashMap<>();
+        this.size = Math.max(size, 1);
+        this.table = newTable();
+    }
+
     // Methods
 
     /**
      * Reads values from "Values.txt" and creates a hash map with expressions as
      * keys and values as integers. The key-value pairs are updated in the
-     * internal map.
+     * internal map, and the table is built and committed once they all are.
+     * With a log open, only the pairs that differ from what the log replayed
+     * are appended to it.
      *
      * @return The hash map containing expressions as keys and corresponding
      *         integer values.
@@ -78,14 +174,26 @@ public class HashBasedSet {
         int value = 1;
         
         try {
-            Scanner in = new Scanner(new File("Values.txt"));
+            Scanner in = new Scanner(new File(valuesFile));
             while (in.hasNextLine()) {
                 String key = in.nextLine();
-                update(key, value++);
+                if (tiered != null) {
+                    update(key, value++);
+                    continue;
+                }
+                Integer replayed = map.get(key);
+                if (log != null && (replayed == null || replayed != value)) {
+                    logged = log.appendUpdate(key, value);
+                }
+                updateInMap(key, value++);
             }
             in.close();
         } catch (FileNotFoundException e) {
-            System.err.println("Values.txt was not found");
+            System.err.println(valuesFile + " was not found");
+        }
+        if (tiered == null) {
+            mapToTable();
+            compactLog();
         }
         
         return valuesMap;
@@ -98,16 +206,26 @@ public class HashBasedSet {
      * @return The size of the set.
      */
     public int getTextSize() {
+        return countLines(valuesFile);
+    }
+
+    /**
+     * Counts the lines of a file.
+     *
+     * @param file The path of the file.
+     * @return The number of lines, or 0 if the file was not found.
+     */
+    private static int countLines(String file) {
         int size = 0;
         try {
-            Scanner in = new Scanner(new File("Values.txt"));
+            Scanner in = new Scanner(new File(file));
             while (in.hasNextLine()) {
                 size++;
                 in.nextLine();
             }
             in.close();
         } catch (FileNotFoundException e) {
-            System.err.println("Values.txt was not found");
+            System.err.println(file + " was not found");
         }
 
         return size;
@@ -143,10 +261,25 @@ public class HashBasedSet {
      *
      * @param key   The expression (string) key.
      * @param value The integer value associated with the key.
+     * @throws IllegalArgumentException If the set is tiered and the key is not
+     *                                  a "name = value" line.
      */
     public void update(String key, int value) {
+        if (tiered != null) {
+            int i = key.indexOf(" = ");
+            if (i <= 0) {
+                throw new IllegalArgumentException("Expected name = value: " + key);
+            }
+            tiered.put(key.substring(0, i), Integer.parseInt(key, i + 3, key.length(), 10));
+            return;
+        }
+        if (log != null) {
+            logged = log.appendUpdate(key, value);
+        }
         updateInMap(key, value);
-        mapToTable();
+        rebuildTable();
+        versions.commit(symbolOf(key), table);
+        compactLog();
     }
     
     /**
@@ -156,39 +289,442 @@ public class HashBasedSet {
      * @param key The expression (string) key to be removed.
      */
     public void remove(String key) {
+        if (tiered != null) {
+            int i = key.indexOf(" = ");
+            tiered.remove(i >= 0 ? key.substring(0, i) : key);
+            return;
+        }
+        if (log != null) {
+            logged = log.appendRemove(key);
+        }
         map.remove(key);
+        rebuildTable();
+        versions.commit(symbolOf(key), table);
+        compactLog();
+    }
+
+    /**
+     * Finds the variable an expression binds, so that only its binding is
+     * committed after the table is rebuilt for a change to that expression.
+     *
+     * @param expression The expression, such as "x = 5".
+     * @return The SymbolTable id of the variable, as the only bit set.
+     */
+    private BitSet symbolOf(String expression) {
+        int i = expression.indexOf(' ');
+        BitSet symbol = new BitSet();
+        symbol.set(symbols.intern(expression, 0, i >= 0 ? i : expression.length()));
+        return symbol;
+    }
+    
+    /**
+     * Applies a batch of removed and added expressions to the set in place,
+     * changing only the table nodes of those expressions rather than
+     * rebuilding the table, so the cost grows with the size of the batch and
+     * a ValuesWatcher can apply an edit of Values.txt cheaply. The table is
+     * rebuilt only when it has grown to twice the size it was built for.
+     *
+     * @param removed The expressions to remove, such as "x = 5".
+     * @param added   The expressions to add, each with its value in the map.
+     * @return The SymbolTable ids of the variables whose binding changed.
+     * @throws IllegalStateException If the set has been spilled to disk.
+     */
+    public BitSet applyChanges(Collection<String> removed, Map<String, Integer> added) {
+        if (tiered != null) {
+            throw new IllegalStateException("Changes cannot be applied in place once the set is tiered");
+        }
+        BitSet changed = new BitSet();
+        HashFunction hashObject = table.hashFunction;
+        frozen = null;
+
+        for (String expression : removed) {
+            if (map.remove(expression) == null) {
+                continue;
+            }
+            if (log != null) {
+                logged = log.appendRemove(expression);
+            }
+            int i = expression.indexOf(' ');
+            int symbol = symbols.intern(expression, 0, i);
+            int index = hashObject.hash(symbols.nameOf(symbol));
+            TableNode node = table.findNode(index, symbol,
+                    Integer.parseInt(expression, i + 3, expression.length(), 10));
+            if (node != null) {
+                table.remove(node, index);
+                changed.set(symbol);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : added.entrySet()) {
+            String expression = entry.getKey();
+            if (map.put(expression, entry.getValue()) != null) {
+                continue;
+            }
+            if (log != null) {
+                logged = log.appendUpdate(expression, entry.getValue());
+            }
+            int i = expression.indexOf(' ');
+            int symbol = symbols.intern(expression, 0, i);
+            String variable = symbols.nameOf(symbol);
+            TableNode node = new TableNode();
+            node.setExpression(variable);
+            node.setSymbol(symbol);
+            node.setValue(Integer.parseInt(expression, i + 3, expression.length(), 10));
+            table.add(node, hashObject.hash(variable));
+            changed.set(symbol);
+        }
+
+        if (map.size() > 2 * size) {
+            size = map.size();
+            rebuildTable();
+        }
+        // One version for the whole batch, so no snapshot sees half an edit
+        versions.commit(changed, table);
+        compactLog();
+        return changed;
+    }
+
+    /**
+     * Opens the write-ahead log in the given directory and restores the set
+     * from it. From then on every update and removal is appended to the log
+     * before it is applied; it becomes durable within the latency bound. If
+     * the log fails to write a change, every later change throws an
+     * UncheckedIOException instead of being applied.
+     *
+     * @param directory        The directory holding the log and its snapshot.
+     * @param maxLatencyMillis The longest a change waits before it is forced
+     *                         to disk.
+     * @param compactEvery     The number of changes after which the log is
+     *                         compacted into a snapshot.
+     * @return The number of changes replayed from the log after the snapshot.
+     * @throws IOException If the log cannot be opened or read.
+     */
+    public int openLog(String directory, long maxLatencyMillis, long compactEvery) throws IOException {
+        if (tiered != null) {
+            throw new IllegalStateException("The log cannot be used once the set is tiered");
+        }
+        log = new BindingsLog(directory, maxLatencyMillis, compactEvery);
+        int replayed = log.replay(map);
+        mapToTable();
+        return replayed;
+    }
+    
+    /**
+     * Retrieves a future completed when every change made so far is durable
+     * in the write-ahead log. It completes exceptionally if the log failed to
+     * write one of them.
+     *
+     * @return The future; already completed if no log is open.
+     */
+    public CompletableFuture<Void> durable() {
+        return logged;
+    }
+
+    /**
+     * Forces every change made so far to disk and closes the write-ahead log.
+     *
+     * @throws IOException If the log cannot be closed, or failed to write a
+     *                     change.
+     */
+    public void closeLog() throws IOException {
+        if (log != null) {
+            BindingsLog closing = log;
+            log = null;
+            closing.close();
+        }
+    }
+    
+    /**
+     * Compacts the write-ahead log into a snapshot of the map if enough
+     * changes were appended since the last compaction.
+     */
+    private void compactLog() {
+        if (log != null && log.needsCompaction()) {
+            try {
+                log.compact(map);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    
+    /**
+     * Moves the bindings out of memory into a tiered store: they are written
+     * to a SortedBindingsFile, the map and the table are emptied, and lookups
+     * go through a hot tier of the given size and a BloomFilter to the file.
+     * From then on updates and removals go to the tiers as well.
+     *
+     * @param path        The path of the file to write.
+     * @param hotCapacity The largest number of bindings kept in memory.
+     * @return The number of bindings written.
+     * @throws IOException If the file cannot be written or opened.
+     * @throws IllegalStateException If the write-ahead log is open.
+     */
+    public int spillToDisk(String path, int hotCapacity) throws IOException {
+        if (log != null) {
+            throw new IllegalStateException("Close the log before spilling the set to disk");
+        }
+        int written = SortedBindingsFile.write(table, path);
+        tiered = TieredBindings.open(path, hotCapacity);
+        map.clear();
+        size = 1;
+        table = newTable();
+        return written;
+    }
+    
+    /**
+     * Opens a set over a SortedBindingsFile written by spillToDisk, without
+     * reading Values.txt.
+     *
+     * @param path        The path of the file.
+     * @param hotCapacity The largest number of bindings kept in memory.
+     * @return The set, with its bindings in the tiered store.
+     * @throws IOException If the file cannot be read or is not valid.
+     */
+    public static HashBasedSet openTiered(String path, int hotCapacity) throws IOException {
+        HashBasedSet set = new HashBasedSet(1);
+        set.tiered = TieredBindings.open(path, hotCapacity);
+        return set;
+    }
+    
+    /**
+     * Retrieves the tiered store the bindings were moved into.
+     *
+     * @return The tiered store, or null while the bindings are in the table.
+     */
+    public TieredBindings getTiered() {
+        return tiered;
+    }
+    
+    /**
+     * Freezes the current bindings into a minimal perfect hash, which answers
+     * lookups until the set is next changed. The values sit in a dense array,
+     * so a lookup is one hash and one array read instead of a walk along a
+     * chain.
+     *
+     * @return The frozen bindings, whose report gives the build time and the
+     *         bits per key.
+     * @throws IllegalStateException If the set has been spilled to disk.
+     */
+    public FrozenBindings freeze() {
+        if (tiered != null) {
+            throw new IllegalStateException("A tiered set cannot be frozen");
+        }
+        frozen = FrozenBindings.of(table);
+        return frozen;
+    }
+    
+    /**
+     * Retrieves the frozen bindings.
+     *
+     * @return The frozen bindings, or null if the set is not frozen.
+     */
+    public FrozenBindings getFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Estimates the heap retained by the set: the hash map of lines with its
+     * keys and boxed values, the table and its nodes, the version chains and
+     * the frozen bindings if there are any. The bindings held by a tiered
+     * store are on disk and are not counted.
+     *
+     * @return The footprint, with one entry per line of the map.
+     */
+    public Footprint footprint() {
+        long keyBytes = 0;
+        long valueBytes = 0;
+        long boxes = 0;
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            keyBytes += Footprint.string(entry.getKey());
+            long box = Footprint.integer(entry.getValue());
+            valueBytes += box;
+            boxes += box > 0 ? 1 : 0;
+        }
+        int capacity = Footprint.hashMapCapacity(map.size());
+        Footprint footprint = new Footprint("HashBasedSet", map.size())
+                .add("set", Footprint.object(10 * Footprint.REFERENCE + 4) + Footprint.string(valuesFile), 1)
+                .add("map", Footprint.HASH_MAP + Footprint.array(capacity, Footprint.REFERENCE)
+                        + map.size() * Footprint.HASH_MAP_NODE, map.size())
+                .add("map keys", keyBytes, map.size())
+                .add("map values", valueBytes, boxes)
+                .addAll(table.footprint())
+                .addAll(versions.footprint());
+        if (frozen != null) {
+            footprint.addAll(frozen.footprint());
+        }
+        return footprint;
+    }
+
+    /**
+     * Changes the strategy used to compute hash codes and rebuilds the table
+     * with it.
+     *
+     * @param hashStrategy The new hash strategy.
+     */
+    public void setHashStrategy(HashStrategy hashStrategy) {
+        this.hashStrategy = hashStrategy;
         mapToTable();
     }
     
+    /**
+     * Creates an empty table for the current size and hash strategy. The
+     * number of slots is the set size rounded up to a power of two.
+     *
+     * @return The empty table.
+     */
+    private Table newTable() {
+        int tableSize = HashFunction.tableSizeFor(size);
+        return Table.withStatistics(tableSize, new HashFunction(tableSize, hashStrategy), statistics);
+    }
+    
     /**
      * Converts the elements in the hash map to a table representation based on
-     * their hash codes. Synchronizes the internal table with the hash map.
+     * their hash codes. Synchronizes the internal table with the hash map and
+     * commits every binding that changed as a new version.
      */
-    public void mapToTable() { 
-        table = new Table(size);
-        HashFunction hashObject = new HashFunction(size);
-        hashObject.setExpression(null);
+    public void mapToTable() {
+        rebuildTable();
+        versions.commit(table);
+    }
+
+    /**
+     * Rebuilds the table from the hash map and drops the frozen bindings,
+     * without committing a version.
+     */
+    private void rebuildTable() {
+        TableRebuildEvent event = new TableRebuildEvent();
+        event.begin();
+        frozen = null;
+        table = newTable();
+        HashFunction hashObject = table.hashFunction;
         TableNode node;
 
         for (String expression : map.keySet()) {
-            String variable = "";
-            int i = 0;
-            while (expression.charAt(i) != ' ') {
-                variable += expression.charAt(i);
-                i++;
-            }
+            int i = expression.indexOf(' ');
+            int symbol = symbols.intern(expression, 0, i);
+            String variable = symbols.nameOf(symbol);
             hashObject.setExpression(variable);
             node = new TableNode();
             node.setExpression(variable);
-            node.setValue(Integer.parseInt(expression.substring(i + 3)));  
+            node.setSymbol(symbol);
+            node.setValue(Integer.parseInt(expression, i + 3, expression.length(), 10));
             table.add(node, hashObject.hash());
-        }        
+        }
+        
+        if (event.isEnabled()) {
+            TableStatisticsSnapshot snapshot = statistics.snapshot();
+            event.entries = (int) snapshot.entries;
+            event.slots = snapshot.slots;
+            event.maxChainLength = snapshot.maxChainLength;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Checks whether the set contains the specified variable.
+     *
+     * @param variable The variable name to check for.
+     * @return true if the variable is in the set; false otherwise.
+     */
+    @Override
+    public boolean contains(String variable) {
+        if (frozen != null) {
+            return frozen.contains(variable);
+        }
+        return tiered != null ? tiered.contains(variable) : table.contains(variable);
+    }
+    
+    /**
+     * Checks whether the set contains the variable with the specified
+     * SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return true if the variable is in the set; false otherwise.
+     */
+    @Override
+    public boolean contains(int symbol) {
+        if (frozen != null) {
+            return frozen.contains(symbol);
+        }
+        return tiered != null ? tiered.contains(symbol) : table.contains(symbol);
+    }
+    
+    /**
+     * Retrieves the numerical value of the specified variable.
+     *
+     * @param variable The variable name.
+     * @return The value of the variable, or -1.0 if it is not in the set.
+     */
+    @Override
+    public double getValueFor(String variable) {
+        if (frozen != null) {
+            return frozen.getValueFor(variable);
+        }
+        return tiered != null ? tiered.getValueFor(variable) : table.getValueFor(variable);
+    }
+    
+    /**
+     * Retrieves the numerical value of the variable with the specified
+     * SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or -1.0 if it is not in the set.
+     */
+    @Override
+    public double getValueFor(int symbol) {
+        if (frozen != null) {
+            return frozen.getValueFor(symbol);
+        }
+        return tiered != null ? tiered.getValueFor(symbol) : table.getValueFor(symbol);
+    }
+
+    @Override
+    public double valueOrNaN(int symbol) {
+        if (frozen != null) {
+            return frozen.valueOrNaN(symbol);
+        }
+        return tiered != null ? tiered.valueOrNaN(symbol) : table.valueOrNaN(symbol);
+    }
+    
+    /**
+     * Opens an immutable view of the bindings as of the latest version. Later
+     * updates to the set are not seen by the view, so a batch of experiments
+     * can be evaluated against one consistent set of values while the set
+     * keeps being updated. The view must be closed once the evaluation using
+     * it is done, so that later updates can prune the older versions. Lookups
+     * through the view are recorded in the statistics of the set.
+     *
+     * @return The snapshot of the bindings.
+     * @throws IllegalStateException If the set has been spilled to disk.
+     */
+    public BindingsSnapshot snapshot() {
+        if (tiered != null) {
+            throw new IllegalStateException("Snapshots are not kept once the set is tiered");
+        }
+        return versions.snapshot(statistics);
+    }
+    
+    /**
+     * Retrieves the live statistics of the internal table. They can be read
+     * with TableStatistics.snapshot or registered with JMX.
+     *
+     * @return The table statistics.
+     */
+    public TableStatistics getStatistics() {
+        return statistics;
     }
     
     /**
      * Displays the contents of the set using the internal table structure.
      */
     public void show() {
+        if (tiered != null) {
+            System.out.println(tiered.report());
+            return;
+        }
+        if (frozen != null) {
+            System.out.println(frozen.report());
+        }
         table.show();
     }
 
@@ -4,6 +4,10 @@
  * specified modulo. It is designed to be used in conjunction with the
  * HashBasedSet class.
  * 
+ * <p>The hash code itself is computed by a HashStrategy. When the modulo is a
+ * power of two, the hash code is compressed with a bit mask instead of a
+ * remainder.
+ * 
  * @author ColinKula
  */
 
@@ -21,16 +25,39 @@ public class HashFunction {
      */
     int modulo;
     
+    /**
+     * The bit mask used for compressing the hash code when the modulo is a
+     * power of two, or -1 when the remainder has to be used.
+     */
+    int mask;
+    
+    /**
+     * The strategy used to compute the hash code.
+     */
+    HashStrategy strategy;
+    
     // Constructors
     
     /**
-     * Constructs a HashFunction with the specified modulo, ensuring that
-     * modulo is at least 1.
+     * Constructs a HashFunction with the specified modulo, using the original
+     * polynomial hash.
      * 
      * @param modulo The modulo value for compressing the hash code.
      */
     public HashFunction(int modulo) {
+        this(modulo, new PolynomialHashStrategy());
+    }
+    
+    /**
+     * Constructs a HashFunction with the specified modulo and hash strategy.
+     * 
+     * @param modulo   The modulo value for compressing the hash code.
+     * @param strategy The strategy used to compute the hash code.
+     */
+    public HashFunction(int modulo, HashStrategy strategy) {
         this.modulo = modulo;
+        this.mask = (modulo > 0 && (modulo & (modulo - 1)) == 0) ? modulo - 1 : -1;
+        this.strategy = strategy;
     }
     
     // Methods
@@ -45,21 +72,14 @@ public class HashFunction {
     }
     
     /**
-     * Computes the hash code for the current expression using a custom
-     * hashing algorithm.
+     * Computes the hash code for the current expression using the hash
+     * strategy.
      * 
      * @return The computed hash code.
      */
     @Override
     public int hashCode() {
-        int hash = 0;
-        final int primeMultiplier = 31;
-                 
-        for (int i = 0; i < expression.length(); i++) {             
-            hash += hash * primeMultiplier + expression.charAt(i);
-        }
-        
-        return hash;       
+        return strategy.hashCode(expression);
     }
     
     /**
@@ -70,6 +90,10 @@ public class HashFunction {
      */
 
     public int compress(int hash) {
+        if (mask >= 0) {
+            return hash & mask;
+        }
+        
         int newHash = hash % modulo;
        
         if (newHash < 0) {
@@ -89,5 +113,41 @@ public class HashFunction {
         return compress(hashCode());
     }
     
+    /**
+     * Computes the final hash code for the given expression without changing
+     * the current expression.
+     * 
+     * @param expression The expression to be hashed.
+     * @return The final hash code.
+     */
+    public int hash(String expression) {
+        return compress(strategy.hashCode(expression));
+    }
+    
+    /**
+     * Computes the hash code for the given expression without compressing
+     * it, for callers that place expressions on a range of their own.
+     * 
+     * @param expression The expression to be hashed.
+     * @return The full hash code.
+     */
+    public int fullHash(String expression) {
+        return strategy.hashCode(expression);
+    }
+    
+    /**
+     * Rounds the given size up to the next power of two, so that tables of
+     * that size can be indexed with a bit mask.
+     * 
+     * @param size The requested size.
+     * @return The smallest power of two that is at least size and at least 1.
+     */
+    public static int tableSizeFor(int size) {
+        if (size <= 1) {
+            return 1;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+    
 
 }
@@ -0,0 +1,183 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * The HashQualityReport class compares how well the hash functions spread
+ * variable names over the slots of a Table. It reports, for every key set and
+ * hash function:
+ *
+ * <ul>
+ * <li>the number of keys and table slots,</li>
+ * <li>the share of slots left empty and the longest chain,</li>
+ * <li>the average number of nodes visited by a successful lookup, next to the
+ * number expected from a perfectly random hash,</li>
+ * <li>the number of keys whose full 32-bit hash code collides with an earlier
+ * key, and</li>
+ * <li>the time taken to hash one key.</li>
+ * </ul>
+ *
+ * <p>The original function is the polynomial hash compressed with a remainder
+ * over the set size; the new one is MixHashStrategy compressed with a bit mask
+ * over the size rounded up to a power of two. The key sets are the names in
+ * Values.txt, the names in any files given as arguments (in the same
+ * "name = value" format), and generated sets of sequential names, names that
+ * share a long suffix, and names as written by WorkloadGenerator. Usage:
+ *
+ * <pre>
+ * java HashQualityReport [values files...]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class HashQualityReport {
+
+    // Main
+
+    public static void main(String[] args) {
+        ArrayList<String> labels = new ArrayList<>();
+        ArrayList<String[]> keySets = new ArrayList<>();
+
+        String[] files = args.length > 0 ? args : new String[] {"Values.txt"};
+        for (String file : files) {
+            String[] names = readNames(file);
+            if (names.length > 0) {
+                labels.add(file);
+                keySets.add(names);
+            }
+        }
+
+        Random random = new Random(7);
+        for (int count : new int[] {1000, 100000}) {
+            labels.add("sequential " + count);
+            keySets.add(StructureBenchmark.names(count, "sequential", random));
+            labels.add("suffix " + count);
+            keySets.add(StructureBenchmark.names(count, "suffix", random));
+            labels.add("workload " + count);
+            WorkloadGenerator generator = new WorkloadGenerator();
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = generator.name(i);
+            }
+            keySets.add(names);
+        }
+
+        System.out.printf("%-22s %-18s %8s %8s %7s %6s %8s %8s %9s %8s%n",
+                "Keys", "Function", "Count", "Slots", "Empty", "Max",
+                "Probes", "Random", "Full-hash", "ns/key");
+
+        for (int i = 0; i < keySets.size(); i++) {
+            String[] keys = keySets.get(i);
+            int powerOfTwo = HashFunction.tableSizeFor(keys.length);
+            report(labels.get(i), "polynomial % n",
+                    new HashFunction(keys.length, new PolynomialHashStrategy()), keys);
+            report(labels.get(i), "polynomial & mask",
+                    new HashFunction(powerOfTwo, new PolynomialHashStrategy()), keys);
+            report(labels.get(i), "mix & mask",
+                    new HashFunction(powerOfTwo, new MixHashStrategy()), keys);
+        }
+    }
+
+    // Methods
+
+    /**
+     * Hashes every key into a table of the hash function's size and prints
+     * one line of statistics about the resulting chains.
+     *
+     * @param label        The name of the key set.
+     * @param function     The name of the hash function.
+     * @param hashFunction The hash function to measure.
+     * @param keys         The keys to hash.
+     */
+    static void report(String label, String function, HashFunction hashFunction, String[] keys) {
+        int slots = hashFunction.modulo;
+        int[] chains = new int[slots];
+        HashSet<Integer> fullHashes = new HashSet<>();
+        int fullCollisions = 0;
+
+        for (String key : keys) {
+            chains[hashFunction.hash(key)]++;
+            if (!fullHashes.add(hashFunction.strategy.hashCode(key))) {
+                fullCollisions++;
+            }
+        }
+
+        int empty = 0;
+        int longest = 0;
+        long probes = 0;
+        for (int chain : chains) {
+            if (chain == 0) {
+                empty++;
+            }
+            longest = Math.max(longest, chain);
+            probes += (long) chain * (chain + 1) / 2;
+        }
+
+        double expected = 1 + (keys.length - 1) / (2.0 * slots);
+
+        System.out.printf("%-22s %-18s %8d %8d %6.1f%% %6d %8.2f %8.2f %9d %8.1f%n",
+                label, function, keys.length, slots, 100.0 * empty / slots, longest,
+                (double) probes / keys.length, expected, fullCollisions,
+                nanosPerKey(hashFunction, keys));
+    }
+
+    /**
+     * Measures the time needed to hash one key, after warming up.
+     *
+     * @param hashFunction The hash function to measure.
+     * @param keys         The keys to hash.
+     * @return The average time per key, in nanoseconds.
+     */
+    static double nanosPerKey(HashFunction hashFunction, String[] keys) {
+        int rounds = Math.max(1, 2_000_000 / keys.length);
+        long sum = 0;
+
+        for (int r = 0; r < rounds; r++) {
+            for (String key : keys) {
+                sum += hashFunction.hash(key);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String key : keys) {
+                sum += hashFunction.hash(key);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        StructureBenchmark.sink = sum;
+
+        return (double) elapsed / ((long) rounds * keys.length);
+    }
+
+    /**
+     * Reads the variable names from a file of "name = value" lines.
+     *
+     * @param file The path of the file.
+     * @return The variable names, or an empty array if the file is missing.
+     */
+    static String[] readNames(String file) {
+        ArrayList<String> names = new ArrayList<>();
+
+        try {
+            Scanner in = new Scanner(new File(file));
+            while (in.hasNextLine()) {
+                String line = in.nextLine();
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    names.add(line.substring(0, space));
+                }
+            }
+            in.close();
+        } catch (FileNotFoundException e) {
+            System.err.println(file + " was not found");
+        }
+
+        return names.toArray(new String[0]);
+    }
+
+}
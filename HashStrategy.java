@@ -0,0 +1,37 @@
+/**
+ * The HashStrategy interface represents an algorithm for turning an expression
+ * (variable name) into a hash code. It lets a HashBasedSet choose how its keys
+ * are spread over the slots of its Table.
+ *
+ * <p>The Table compares variable names with equalsIgnoreCase, so an
+ * implementation must return the same hash code for two names that only
+ * differ in the case of their letters.
+ *
+ * @author ColinKula
+ */
+
+public interface HashStrategy {
+
+    /**
+     * Computes the hash code of the given expression.
+     *
+     * @param expression The expression to be hashed.
+     * @return The computed hash code.
+     */
+    int hashCode(String expression);
+
+    /**
+     * Folds a character to the case used for hashing, so that names which
+     * are equal ignoring case hash the same.
+     *
+     * @param c The character to fold.
+     * @return The folded character.
+     */
+    static char fold(char c) {
+        if (c < 128) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+}
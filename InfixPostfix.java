@@ -7,6 +7,10 @@ import java.util.Stack;
  * performing the conversion from infix to postfix. The program handles
  * parentheses and supports operators '+', '-', '*', '/', and '^'.
  * 
+ * <p>The postfix expression is built in a StringBuilder and turned into a
+ * string once at the end, so conversion takes time linear in the length of
+ * the expression, however long it is.
+ * 
  * @author ColinKula
  */
 
@@ -31,7 +35,20 @@ public class InfixPostfix {
      */
     public InfixPostfix(String passedInfix) {
         infixPresentation = passedInfix;
-        infixToPostfix();
+        convertAndRecord();
+    }
+
+    /**
+     * Constructs a InfixPostfix object from an infix expression and its
+     * postfix form converted earlier, such as one loaded from an
+     * ExpressionCache, without converting it again.
+     *
+     * @param passedInfix   The infix expression.
+     * @param passedPostfix The postfix form of the expression.
+     */
+    InfixPostfix(String passedInfix, String passedPostfix) {
+        infixPresentation = passedInfix;
+        postfixRepresentation = passedPostfix;
     }
 
     // Methods
@@ -54,6 +71,17 @@ public class InfixPostfix {
      * @return true if the character is an operand; false otherwise.
      */
     public boolean isOperand(char literal) {
+        return operand(literal);
+    }
+
+    /**
+     * Checks if the provided literal is an operand, for conversions run from
+     * the constructor.
+     * 
+     * @param literal The character to be checked.
+     * @return true if the character is an operand; false otherwise.
+     */
+    private static boolean operand(char literal) {
         return (Character.isLetterOrDigit(literal));
     }
 
@@ -64,6 +92,17 @@ public class InfixPostfix {
      * @return The precedence value of the operator.
      */
     public int precedence(char operator) {
+        return rank(operator);
+    }
+
+    /**
+     * Determines the precedence of an operator, for conversions run from the
+     * constructor.
+     * 
+     * @param operator The operator to be evaluated.
+     * @return The precedence value of the operator.
+     */
+    private static int rank(char operator) {
         int returnValue = 0;
         if (operator == '^') {
             returnValue = 3;
@@ -86,9 +125,39 @@ public class InfixPostfix {
      * @param passedInfix The infix expression to be converted.
      */
     public void infixToPostfix() {
+        convertAndRecord();
+    }
+
+    /**
+     * Converts the infix expression and records the conversion in the
+     * metrics and a JFR event.
+     */
+    private void convertAndRecord() {
+        InfixToPostfixEvent event = new InfixToPostfixEvent();
+        event.begin();
+        long start = Metrics.start();
+        try {
+            convert();
+        } catch (RuntimeException e) {
+            Metrics.failed();
+            throw e;
+        }
+        Metrics.stop(Metrics.CONVERT, start);
+        if (event.isEnabled()) {
+            event.infixLength = infixPresentation.length();
+            event.postfixLength = postfixRepresentation.length();
+            event.commit();
+        }
+    }
+
+    /**
+     * Performs the conversion from infix to postfix for infixToPostfix.
+     */
+    private void convert() {
         String infix = infixPresentation;
         Stack<Character> operatorStack = new Stack<Character>();
         char scannedLiteral;
+        StringBuilder output = new StringBuilder(infix.length());
 
         // Loop the length of the infix expression and evaluate each character.
         for (int i = 0; i < infix.length(); ++i) {
@@ -96,19 +165,20 @@ public class InfixPostfix {
 
             // If the scanned literal is a operand, add it to the postfix
             // expression.
-            if (isOperand(scannedLiteral)) {
-                postfixRepresentation += infix.charAt(i);
+            if (operand(scannedLiteral)) {
+                output.append(scannedLiteral);
                 // If the scanned literal is a '(', push it to the operator
                 // stack.
             } else if (scannedLiteral == '(') {
                 operatorStack.push(scannedLiteral);
             } else if (scannedLiteral == ')') {
-                endParenthesisLoop(operatorStack);
+                popToParenthesis(operatorStack, output);
             } else {
-                operatorLoop(operatorStack, scannedLiteral);
+                popByPrecedence(operatorStack, scannedLiteral, output);
             }
         }
-        emptyStackLoop(operatorStack);
+        popAll(operatorStack, output);
+        postfixRepresentation = output.toString();
     }
 
     /**
@@ -118,11 +188,9 @@ public class InfixPostfix {
      * @param operatorStack The stack containing operators.
      */
     public void endParenthesisLoop(Stack<Character> operatorStack) {
-        while (!operatorStack.isEmpty() && operatorStack.peek() != '(') {
-            postfixRepresentation += operatorStack.peek();
-            operatorStack.pop();
-        }
-        operatorStack.pop();
+        StringBuilder postfix = new StringBuilder(postfixRepresentation);
+        popToParenthesis(operatorStack, postfix);
+        postfixRepresentation = postfix.toString();
     }
 
     /**
@@ -133,32 +201,71 @@ public class InfixPostfix {
      * @param scannedLiteral The current character in the infix expression.
      */
     public void operatorLoop(Stack<Character> operatorStack, char scannedLiteral) {
-        while (!operatorStack.isEmpty() && precedence(scannedLiteral) <= precedence(operatorStack.peek())) {
+        StringBuilder postfix = new StringBuilder(postfixRepresentation);
+        popByPrecedence(operatorStack, scannedLiteral, postfix);
+        postfixRepresentation = postfix.toString();
+    }
+
+    /**
+     * Handles the process after scanning all characters from the infix
+     * expression. Pops any remaining operators from the stack.
+     * 
+     * @param operatorStack The stack containing operators.
+     */
+    public void emptyStackLoop(Stack<Character> operatorStack) {
+        StringBuilder postfix = new StringBuilder(postfixRepresentation);
+        popAll(operatorStack, postfix);
+        postfixRepresentation = postfix.toString();
+    }
+
+    /**
+     * Pops operators from the stack into the postfix expression until a '('
+     * is encountered, and pops the '('.
+     * 
+     * @param operatorStack The stack containing operators.
+     * @param postfix       The postfix expression being built.
+     */
+    private static void popToParenthesis(Stack<Character> operatorStack, StringBuilder postfix) {
+        while (!operatorStack.isEmpty() && operatorStack.peek() != '(') {
+            postfix.append(operatorStack.pop().charValue());
+        }
+        operatorStack.pop();
+    }
+
+    /**
+     * Pops the operators that bind at least as tightly as the scanned one
+     * into the postfix expression, and pushes the scanned one.
+     * 
+     * @param operatorStack  The stack containing operators.
+     * @param scannedLiteral The current character in the infix expression.
+     * @param postfix        The postfix expression being built.
+     */
+    private static void popByPrecedence(Stack<Character> operatorStack, char scannedLiteral,
+            StringBuilder postfix) {
+        while (!operatorStack.isEmpty() && rank(scannedLiteral) <= rank(operatorStack.peek())) {
             if (scannedLiteral == '^' && operatorStack.peek() == '^') {
-                operatorStack.push(scannedLiteral);
-                return;
+                break;
             }
-            postfixRepresentation += operatorStack.peek();
-            operatorStack.pop();
+            postfix.append(operatorStack.pop().charValue());
         }
         operatorStack.push(scannedLiteral);
     }
 
     /**
-     * Handles the process after scanning all characters from the infix
-     * expression. Pops any remaining operators from the stack.
+     * Pops every remaining operator into the postfix expression, replacing it
+     * with an error message if a '(' was left unmatched.
      * 
      * @param operatorStack The stack containing operators.
+     * @param postfix       The postfix expression being built.
      */
-    public void emptyStackLoop(Stack<Character> operatorStack) {
+    private static void popAll(Stack<Character> operatorStack, StringBuilder postfix) {
         while (!operatorStack.isEmpty()) {
             if (operatorStack.peek() == '(') {
-                postfixRepresentation = "Infix expression is invalid.";
+                postfix.setLength(0);
+                postfix.append("Infix expression is invalid.");
             }
-            postfixRepresentation += operatorStack.peek();
-            operatorStack.pop();
+            postfix.append(operatorStack.pop().charValue());
         }
-
     }
 
 }
@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The InfixToPostfixEvent class is a Java Flight Recorder event emitted for
+ * every conversion made by InfixPostfix.infixToPostfix.
+ * 
+ * @author ColinKula
+ */
+
+@Name("structures.InfixToPostfix")
+@Label("Infix To Postfix")
+@Category({"Structures", "Expressions"})
+@Description("Conversion of an infix expression to postfix")
+public class InfixToPostfixEvent extends Event {
+
+    // Fields
+
+    /**
+     * The number of characters in the infix expression.
+     */
+    @Label("Infix Length")
+    int infixLength;
+
+    /**
+     * The number of characters in the resulting postfix expression.
+     */
+    @Label("Postfix Length")
+    int postfixLength;
+
+}
@@ -0,0 +1,196 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records latencies in nanoseconds into
+ * logarithmic buckets, in the style of an HDR histogram. Every power of two is
+ * split into 32 linear sub-buckets, so any recorded value is known to within
+ * about 3% while the whole range of a long fits in under two thousand
+ * counters.
+ * 
+ * <p>Recording is a few atomic additions, and the histogram can be read by
+ * another thread at any time, so it can be reported on while the job is still
+ * running.
+ * 
+ * @author ColinKula
+ */
+
+public class LatencyHistogram {
+
+    // Fields
+
+    /**
+     * The number of bits of each value kept below its leading one bit.
+     */
+    static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The number of sub-buckets each power of two is split into.
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The name of the histogram, used in reports.
+     */
+    final String name;
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+    /**
+     * The number of values recorded.
+     */
+    final LongAdder count = new LongAdder();
+
+    /**
+     * The sum of the values recorded, used for the mean.
+     */
+    final LongAdder sum = new LongAdder();
+
+    /**
+     * The largest value recorded.
+     */
+    final AtomicLong max = new AtomicLong();
+
+    // Constructors
+
+    /**
+     * Constructs an empty LatencyHistogram with the given name.
+     *
+     * @param name The name of the histogram.
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    // Methods
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketFor(nanos));
+        count.increment();
+        sum.add(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Records the time passed since the given start time.
+     *
+     * @param startNanos The start time, as returned by System.nanoTime.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Finds the bucket that holds the given value.
+     *
+     * @param value The value, at least zero.
+     * @return The index of the bucket.
+     */
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Finds the largest value that falls into the given bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The largest value of the bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + width - 1;
+    }
+
+    /**
+     * Retrieves the number of values recorded.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Retrieves the largest value recorded.
+     *
+     * @return The maximum in nanoseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Computes the mean of the values recorded.
+     *
+     * @return The mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Computes the value below which the given percentage of the recorded
+     * values fall. The result is the top of the bucket the percentile falls
+     * into, capped at the maximum.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+}
@@ -1,5 +1,6 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Scanner;
 
@@ -12,10 +13,26 @@ import java.util.Scanner;
  */
 public class Main {
 
-    public static void main(String[] args) {
+    /**
+     * The number of smallest and largest evaluations to summarize in place of
+     * sorting every evaluation into a binary search tree, set with
+     * -Dstructures.summary=k; 0 sorts them.
+     */
+    static final int SUMMARY_EXTREMES = Integer.getInteger("structures.summary", 0);
+
+    /**
+     * The rank error of the quantiles of the summary, set with
+     * -Dstructures.summary.error.
+     */
+    static final double SUMMARY_ERROR = Double.parseDouble(
+            System.getProperty("structures.summary.error", "0.01"));
+
+    public static void main(String[] args) throws IOException {
         
         // Initialize and display a hash-based set
+        Metrics.register();
         HashBasedSet set = new HashBasedSet();
+        set.getStatistics().register("variables");
         set.createMap();
         set.show();
         
@@ -24,21 +41,37 @@ public class Main {
         ArrayList<ExperimentTree> experimentTrees = makeExperimentTrees(experiments);
         ArrayList<Double> experimentEvaluations = new ArrayList<Double>();
         
-        // Perform experiments and display results
-        for (int i = 0; i < experimentTrees.size(); i++) {
-            System.out.println("\nExperiment #" + (i + 1) + ":");
-            System.out.println("Infix Notation: " + experiments.get(i).infixPresentation);
-            System.out.print("Prefix Notation: "); experimentTrees.get(i).printPrefix();
-            System.out.println("\nPostfix Notation: " + experiments.get(i).postfixRepresentation);
+        // Perform experiments against one snapshot of the variables and write the results
+        // through a sink that renders and prints them on its own thread
+        try (BindingsSnapshot bindings = set.snapshot();
+                ResultSink sink = ResultSink.open("text", System.out, false)) {
+            EvaluationSummary summary = SUMMARY_EXTREMES > 0
+                    ? new EvaluationSummary(SUMMARY_EXTREMES, SUMMARY_ERROR) : null;
+            for (int i = 0; i < experimentTrees.size(); i++) {
+                double evaluation = experimentTrees.get(i).evaluatePostfix(bindings);
+                if (summary != null) {
+                    summary.add(evaluation);
+                } else {
+                    experimentEvaluations.add(evaluation);
+                }
+                sink.experiment(i + 1, experiments.get(i), experimentTrees.get(i), evaluation);
+            }
             
-            // Evaluate the expression and display the result
-            experimentEvaluations.add(experimentTrees.get(i).evaluatePostfix(set));
-            System.out.println("Evaluation = " + experimentTrees.get(i).evaluatePostfix(set));
+            if (summary != null) {
+                // Summarize the evaluations when exact ordering is not needed
+                sink.summary(summary);
+            } else {
+                // Create and display a binary search tree based on experiment evaluations
+                BinarySearchTree binarySearchTree = makeBinarySearchTree(experimentEvaluations,
+                        experiments.size());
+                sink.sorted(binarySearchTree);
+            }
         }
         
-        // Create and display a binary search tree based on experiment evaluations
-        BinarySearchTree binarySearchTree = makeBinarySearchTree(experimentEvaluations, experiments.size());
-        binarySearchTree.display();
+        // Report the time spent in each stage when metrics are turned on
+        if (Metrics.ENABLED) {
+            System.out.println("\n\n" + Metrics.report());
+        }
     }
     
     /**
@@ -47,21 +80,46 @@ public class Main {
      * @return ArrayList of InfixPostfix objects representing mathematical expressions.
      */
     public static ArrayList<InfixPostfix> makeExperiments() {
+        return makeExperiments("Experiments.txt");
+    }
+    
+    /**
+     * Reads experiments from the given file and creates a list of
+     * InfixPostfix objects.
+     *
+     * @param experimentsFile The path of the file holding the experiments.
+     * @return ArrayList of InfixPostfix objects representing mathematical expressions.
+     */
+    public static ArrayList<InfixPostfix> makeExperiments(String experimentsFile) {
+        return makeExperiments(experimentsFile, null);
+    }
+    
+    /**
+     * Reads experiments from the given file and creates a list of
+     * InfixPostfix objects, taking the postfix forms from the cache when it
+     * holds them.
+     *
+     * @param experimentsFile The path of the file holding the experiments.
+     * @param cache           The cache of compiled expressions, or null.
+     * @return ArrayList of InfixPostfix objects representing mathematical expressions.
+     */
+    public static ArrayList<InfixPostfix> makeExperiments(String experimentsFile, ExpressionCache cache) {
 
         ArrayList<InfixPostfix> experiments = new ArrayList<InfixPostfix>() ;       
         try {
-            Scanner in = new Scanner(new File("Experiments.txt"));
+            Scanner in = new Scanner(new File(experimentsFile));
             while (in.hasNextLine()) {
                 String currentLine = in.nextLine();
                 if (currentLine != "") {
-                    InfixPostfix experiment = new InfixPostfix(currentLine);
+                    InfixPostfix experiment = cache != null ? cache.experiment(currentLine)
+                            : new InfixPostfix(currentLine);
                     experiments.add(experiment);
                 }
             }
             
             in.close();
         } catch (FileNotFoundException e) {
-            System.err.println("Experiments.txt was not found");
+            System.err.println(experimentsFile + " was not found");
         }
 
         return experiments;
@@ -74,13 +132,31 @@ public class Main {
      * @return ArrayList of ExperimentTree objects representing expression trees.
      */
     public static ArrayList<ExperimentTree> makeExperimentTrees(ArrayList<InfixPostfix> experiments) {
+        return makeExperimentTrees(experiments, null);
+    }
+    
+    /**
+     * Creates ExperimentTree objects from a list of InfixPostfix expressions,
+     * taking the compiled programs from the cache when it holds them.
+     *
+     * @param experiments ArrayList of InfixPostfix objects.
+     * @param cache       The cache of compiled expressions, or null.
+     * @return ArrayList of ExperimentTree objects representing expression trees.
+     */
+    public static ArrayList<ExperimentTree> makeExperimentTrees(ArrayList<InfixPostfix> experiments,
+            ExpressionCache cache) {
         
         ArrayList<ExperimentTree> experimentTrees = new ArrayList<ExperimentTree>();
 
         for (int i = 0; i < experiments.size(); i++) {
             if (experiments.get(i).postfixRepresentation != "") {
-                ExperimentTree expressionTree = new ExperimentTree(experiments.get(i).postfixRepresentation);
-                expressionTree.createTree();
+                ExperimentTree expressionTree;
+                if (cache != null) {
+                    expressionTree = cache.tree(experiments.get(i));
+                } else {
+                    expressionTree = new ExperimentTree(experiments.get(i).postfixRepresentation);
+                    expressionTree.createTree();
+                }
                 experimentTrees.add(expressionTree);
             }
         }
@@ -94,7 +170,7 @@ public class Main {
      * @param size                  The size of the experiments.
      * @return BinarySearchTree object containing the binary search tree.
      */
-    private static BinarySearchTree makeBinarySearchTree(ArrayList<Double> experimentEvaluations, int size) {
+    static BinarySearchTree makeBinarySearchTree(ArrayList<Double> experimentEvaluations, int size) {
         BinarySearchTree tree = new BinarySearchTree();
         for (int i = 0; i < size; i++) {
             tree.insert(new BinaryNode(experimentEvaluations.get(i)));
@@ -0,0 +1,421 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The MappedBindings class reads variable bindings straight out of a binary
+ * snapshot file mapped into memory, so a process can start using millions of
+ * bindings without parsing Values.txt or rebuilding a Table.
+ *
+ * <p>A snapshot file holds three regions after a fixed header:
+ *
+ * <ul>
+ * <li>the header: the magic number, the format version, the number of
+ * entries, the number of buckets (a power of two) and the offset of each
+ * region, all as 32-bit ints;</li>
+ * <li>the name region: the name of every entry, as UTF-16 chars, one after
+ * another;</li>
+ * <li>the entry region: for every entry, its name hash, the char offset and
+ * length of its name, and its value, stored bucket by bucket; and</li>
+ * <li>the bucket region: for every bucket, the index of its first entry,
+ * followed by the total number of entries.</li>
+ * </ul>
+ *
+ * <p>Names are hashed with the SymbolTable hash, so lookups ignore case as the
+ * Table does. A lookup hashes the name, reads the range of entries in its
+ * bucket and compares the stored hash and name in place; nothing is copied
+ * out of the file. Lookups by SymbolTable id resolve the id's name once and
+ * remember the entry it maps to. Usage:
+ *
+ * <pre>
+ * java MappedBindings Values.txt values.bin
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class MappedBindings implements Bindings {
+
+    // Fields
+
+    /**
+     * The magic number at the start of every snapshot file, "SVB1".
+     */
+    static final int MAGIC = 0x53564231;
+
+    /**
+     * The version of the file format.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * The size of the header, in bytes.
+     */
+    static final int HEADER_BYTES = 32;
+
+    /**
+     * The number of ints stored for each entry.
+     */
+    static final int ENTRY_INTS = 4;
+
+    /**
+     * The names of all entries.
+     */
+    final CharBuffer names;
+
+    /**
+     * The entries, ENTRY_INTS ints each: hash, name offset, name length and
+     * value.
+     */
+    final IntBuffer entries;
+
+    /**
+     * The index of the first entry of each bucket, plus the entry count.
+     */
+    final IntBuffer buckets;
+
+    /**
+     * The number of entries.
+     */
+    final int entryCount;
+
+    /**
+     * The bucket mask, the number of buckets minus one.
+     */
+    final int mask;
+
+    /**
+     * The entry found for each SymbolTable id plus one, -1 if the id has no
+     * entry, or 0 if it has not been resolved yet. Races between readers only
+     * cause an id to be resolved again.
+     */
+    int[] bySymbol = new int[0];
+
+    /**
+     * The symbol table ids are resolved against.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    // Main
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java MappedBindings <values file> <snapshot file>");
+            return;
+        }
+        long start = System.nanoTime();
+        HashBasedSet set = new HashBasedSet(args[0]);
+        set.createMap();
+        long loaded = System.nanoTime();
+        int count = write(set, args[1]);
+        long written = System.nanoTime();
+        MappedBindings bindings = open(args[1]);
+        long opened = System.nanoTime();
+
+        System.out.printf("Wrote %d bindings to %s%n", count, args[1]);
+        System.out.printf("Parse %s: %.1f ms, write: %.1f ms, open: %.3f ms%n",
+                args[0], (loaded - start) / 1e6, (written - loaded) / 1e6,
+                (opened - written) / 1e6);
+        System.out.println(bindings.size() + " bindings mapped");
+    }
+
+    // Constructors
+
+    /**
+     * Constructs a MappedBindings object over a buffer holding a snapshot
+     * file, checking the header, the region bounds, and that the bucket
+     * starts and name offsets increase and stay within their regions, so a
+     * lookup never reads outside the file.
+     *
+     * @param buffer The contents of the snapshot file.
+     * @throws IOException If the buffer does not hold a valid snapshot.
+     */
+    MappedBindings(ByteBuffer buffer) throws IOException {
+        int length = buffer.capacity();
+        if (length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a bindings snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+
+        entryCount = buffer.getInt(8);
+        int bucketCount = buffer.getInt(12);
+        int namesOffset = buffer.getInt(16);
+        int namesLength = buffer.getInt(20);
+        int entriesOffset = buffer.getInt(24);
+        int bucketsOffset = buffer.getInt(28);
+
+        if (entryCount < 0 || bucketCount <= 0 || Integer.bitCount(bucketCount) != 1
+                || namesOffset != HEADER_BYTES || namesLength < 0
+                || entriesOffset != namesOffset + 2L * namesLength
+                || bucketsOffset != entriesOffset + 4L * ENTRY_INTS * entryCount
+                || length != bucketsOffset + 4L * (bucketCount + 1)) {
+            throw new IOException("Corrupt bindings snapshot");
+        }
+
+        names = region(buffer, namesOffset, 2 * namesLength).asCharBuffer();
+        entries = region(buffer, entriesOffset, 4 * ENTRY_INTS * entryCount).asIntBuffer();
+        buckets = region(buffer, bucketsOffset, 4 * (bucketCount + 1)).asIntBuffer();
+        mask = bucketCount - 1;
+
+        if (buckets.get(0) != 0 || buckets.get(bucketCount) != entryCount) {
+            throw new IOException("Corrupt bindings snapshot");
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            if (buckets.get(b + 1) < buckets.get(b)) {
+                throw new IOException("Corrupt bindings snapshot: bucket " + b + " ends before it starts");
+            }
+        }
+        long nameEnd = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int offset = entries.get(entry * ENTRY_INTS + 1);
+            int nameLength = entries.get(entry * ENTRY_INTS + 2);
+            if (offset < nameEnd || nameLength < 0 || (long) offset + nameLength > namesLength) {
+                throw new IOException("Corrupt bindings snapshot: name of entry " + entry + " out of place");
+            }
+            nameEnd = (long) offset + nameLength;
+        }
+    }
+
+    // Methods
+
+    /**
+     * Maps a snapshot file into memory. Opening reads the bucket and entry
+     * index once to check it, but no name is read until it is looked up.
+     *
+     * @param path The path of the snapshot file.
+     * @return The bindings held in the file.
+     * @throws IOException If the file cannot be read or is not a valid
+     *                     snapshot.
+     */
+    public static MappedBindings open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + path);
+            }
+            return new MappedBindings(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the bindings of a HashBasedSet to a snapshot file.
+     *
+     * @param set  The set to write.
+     * @param path The path of the snapshot file.
+     * @return The number of bindings written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static int write(HashBasedSet set, String path) throws IOException {
+        return write(set.table, path);
+    }
+
+    /**
+     * Writes the bindings of a Table to a snapshot file. A variable held by
+     * more than one node is written once, with the value its SymbolTable id
+     * maps to.
+     *
+     * @param table The table to write.
+     * @param path  The path of the snapshot file.
+     * @return The number of bindings written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static int write(Table table, String path) throws IOException {
+        ArrayList<TableNode> nodes = new ArrayList<>();
+        boolean[] written = new boolean[table.bySymbol.length];
+
+        for (int i = 0; i < table.size; i++) {
+            TableNode ptr = table.table[i].next; // Skip the dummy node
+            for (int j = 0; j < table.numberOfNodes[i]; j++) {
+                if (ptr.symbol < 0) {
+                    nodes.add(ptr);
+                } else if (!written[ptr.symbol]) {
+                    written[ptr.symbol] = true;
+                    nodes.add(table.bySymbol[ptr.symbol]);
+                }
+                ptr = ptr.next;
+            }
+        }
+
+        int count = nodes.size();
+        int bucketCount = HashFunction.tableSizeFor(count);
+        int[] hashes = new int[count];
+        int[] starts = new int[bucketCount + 1];
+        long namesLength = 0;
+
+        for (int i = 0; i < count; i++) {
+            String name = nodes.get(i).expression;
+            hashes[i] = SymbolTable.hash(name, 0, name.length());
+            starts[(hashes[i] & (bucketCount - 1)) + 1]++;
+            namesLength += name.length();
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            starts[b + 1] += starts[b];
+        }
+
+        // Place every entry in its bucket's range
+        int[] order = new int[count];
+        int[] next = Arrays.copyOf(starts, bucketCount);
+        for (int i = 0; i < count; i++) {
+            order[next[hashes[i] & (bucketCount - 1)]++] = i;
+        }
+
+        long entriesOffset = HEADER_BYTES + 2 * namesLength;
+        long bucketsOffset = entriesOffset + 4L * ENTRY_INTS * count;
+        if (bucketsOffset + 4L * (bucketCount + 1) > Integer.MAX_VALUE) {
+            throw new IOException("Too many bindings for one snapshot");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(count);
+            out.writeInt(bucketCount);
+            out.writeInt(HEADER_BYTES);
+            out.writeInt((int) namesLength);
+            out.writeInt((int) entriesOffset);
+            out.writeInt((int) bucketsOffset);
+
+            int[] nameOffsets = new int[count];
+            int offset = 0;
+            for (int i : order) {
+                String name = nodes.get(i).expression;
+                nameOffsets[i] = offset;
+                out.writeChars(name);
+                offset += name.length();
+            }
+            for (int i : order) {
+                out.writeInt(hashes[i]);
+                out.writeInt(nameOffsets[i]);
+                out.writeInt(nodes.get(i).expression.length());
+                out.writeInt(nodes.get(i).getValue());
+            }
+            for (int start : starts) {
+                out.writeInt(start);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves the number of bindings in the snapshot.
+     *
+     * @return The number of bindings.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    @Override
+    public boolean contains(String variable) {
+        return find(variable) >= 0;
+    }
+
+    @Override
+    public boolean contains(int symbol) {
+        return resolve(symbol) >= 0;
+    }
+
+    @Override
+    public double getValueFor(String variable) {
+        int entry = find(variable);
+        return entry >= 0 ? (double) entries.get(entry * ENTRY_INTS + 3) : -1.0;
+    }
+
+    @Override
+    public double getValueFor(int symbol) {
+        int entry = resolve(symbol);
+        return entry >= 0 ? (double) entries.get(entry * ENTRY_INTS + 3) : -1.0;
+    }
+
+    @Override
+    public double valueOrNaN(int symbol) {
+        int entry = resolve(symbol);
+        return entry >= 0 ? (double) entries.get(entry * ENTRY_INTS + 3) : Double.NaN;
+    }
+
+    /**
+     * Finds the entry of the variable with the given SymbolTable id, resolving
+     * its name the first time.
+     *
+     * @param symbol The id of the variable.
+     * @return The index of the entry, or -1 if the variable is not held.
+     */
+    private int resolve(int symbol) {
+        if (symbol < 0 || symbol >= symbols.size()) {
+            return -1;
+        }
+        int[] resolved = bySymbol;
+        if (symbol >= resolved.length) {
+            resolved = Arrays.copyOf(resolved, Math.max(symbol + 1, symbols.size()));
+            bySymbol = resolved;
+        }
+        if (resolved[symbol] == 0) {
+            resolved[symbol] = find(symbols.nameOf(symbol)) + 1;
+            if (resolved[symbol] == 0) {
+                resolved[symbol] = -1;
+            }
+        }
+        return resolved[symbol] > 0 ? resolved[symbol] - 1 : -1;
+    }
+
+    /**
+     * Finds the entry of a variable by walking the entries of its bucket.
+     *
+     * @param variable The variable name.
+     * @return The index of the entry, or -1 if the variable is not held.
+     */
+    private int find(String variable) {
+        int hash = SymbolTable.hash(variable, 0, variable.length());
+        int bucket = hash & mask;
+
+        for (int entry = buckets.get(bucket); entry < buckets.get(bucket + 1); entry++) {
+            int base = entry * ENTRY_INTS;
+            if (entries.get(base) == hash && entries.get(base + 2) == variable.length()
+                    && matches(entries.get(base + 1), variable)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the name stored at the given offset equals a variable
+     * name, ignoring case.
+     *
+     * @param offset   The char offset of the stored name.
+     * @param variable The variable name, of the same length.
+     * @return true if they are equal ignoring case; false otherwise.
+     */
+    private boolean matches(int offset, String variable) {
+        for (int i = 0; i < variable.length(); i++) {
+            if (HashStrategy.fold(names.get(offset + i)) != HashStrategy.fold(variable.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Slices a region out of the snapshot buffer.
+     *
+     * @param buffer The snapshot buffer.
+     * @param offset The offset of the region, in bytes.
+     * @param length The length of the region, in bytes.
+     * @return The region.
+     */
+    private static ByteBuffer region(ByteBuffer buffer, int offset, int length) {
+        return buffer.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+}
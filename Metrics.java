@@ -0,0 +1,172 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The Metrics class is a small registry of the timers and counters of the
+ * expression pipeline. Every stage has a LatencyHistogram: converting infix to
+ * postfix, building the expression tree, evaluating it, and inserting the
+ * evaluation into the binary search tree. Two counters keep track of the
+ * expressions processed and the expressions that failed.
+ * 
+ * <p>Metrics are turned on with the system property structures.metrics, as in
+ * "java -Dstructures.metrics=true Main". The switch is a constant, so when
+ * metrics are off the JIT compiler removes the timing code entirely. While a
+ * job runs the metrics can be read through JMX under
+ * "Structures:type=Metrics", and report formats them for printing.
+ * 
+ * @author ColinKula
+ */
+
+public class Metrics implements MetricsMBean {
+
+    // Fields
+
+    /**
+     * Whether metrics are recorded, read once from the system property
+     * structures.metrics.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("structures.metrics");
+
+    /**
+     * The time taken by InfixPostfix.infixToPostfix.
+     */
+    public static final LatencyHistogram CONVERT = new LatencyHistogram("infix to postfix");
+
+    /**
+     * The time taken by ExperimentTree.createTree.
+     */
+    public static final LatencyHistogram BUILD = new LatencyHistogram("build tree");
+
+    /**
+     * The time taken by ExperimentTree.evaluatePostfix.
+     */
+    public static final LatencyHistogram EVALUATE = new LatencyHistogram("evaluate");
+
+    /**
+     * The time taken by BinarySearchTree.insert.
+     */
+    public static final LatencyHistogram INSERT = new LatencyHistogram("tree insert");
+
+    /**
+     * The number of expressions evaluated.
+     */
+    public static final LongAdder PROCESSED = new LongAdder();
+
+    /**
+     * The number of expressions that failed to convert, build or evaluate.
+     */
+    public static final LongAdder FAILED = new LongAdder();
+
+    /**
+     * The stages, in pipeline order.
+     */
+    static final LatencyHistogram[] STAGES = {CONVERT, BUILD, EVALUATE, INSERT};
+
+    // Methods
+
+    /**
+     * Returns the current time when metrics are on, to be passed to
+     * LatencyHistogram.recordSince at the end of a stage.
+     *
+     * @return The current time in nanoseconds, or 0 if metrics are off.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time passed since start in the given stage, if metrics are
+     * on.
+     *
+     * @param stage The stage that finished.
+     * @param start The time returned by start when the stage began.
+     */
+    public static void stop(LatencyHistogram stage, long start) {
+        if (ENABLED) {
+            stage.recordSince(start);
+        }
+    }
+
+    /**
+     * Counts an expression that failed to convert, build or evaluate, if
+     * metrics are on.
+     */
+    public static void failed() {
+        if (ENABLED) {
+            FAILED.increment();
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under the name
+     * "Structures:type=Metrics", if metrics are on.
+     */
+    public static void register() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("Structures:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Metrics could not be registered: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats the counters and the latency distribution of every stage.
+     *
+     * @return The report.
+     */
+    public static String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Expressions processed: %d, failed: %d%n",
+                PROCESSED.sum(), FAILED.sum()));
+        builder.append(String.format("%-18s %10s %10s %10s %10s %10s %10s %10s%n",
+                "Stage (us)", "Count", "Mean", "p50", "p90", "p99", "p99.9", "Max"));
+
+        for (LatencyHistogram stage : STAGES) {
+            builder.append(String.format("%-18s %10d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                    stage.name, stage.getCount(), stage.getMean() / 1e3,
+                    stage.getValueAtPercentile(50) / 1e3, stage.getValueAtPercentile(90) / 1e3,
+                    stage.getValueAtPercentile(99) / 1e3, stage.getValueAtPercentile(99.9) / 1e3,
+                    stage.getMax() / 1e3));
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public long getExpressionsProcessed() {
+        return PROCESSED.sum();
+    }
+
+    @Override
+    public long getExpressionsFailed() {
+        return FAILED.sum();
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram stage : STAGES) {
+            stage.reset();
+        }
+        PROCESSED.reset();
+        FAILED.reset();
+    }
+
+}
@@ -0,0 +1,36 @@
+/**
+ * The MetricsMBean interface is the management interface of Metrics, through
+ * which the pipeline metrics can be read with JMX tools while a job runs.
+ * 
+ * @author ColinKula
+ */
+
+public interface MetricsMBean {
+
+    /**
+     * @return Whether metrics are being recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * @return The number of expressions evaluated.
+     */
+    long getExpressionsProcessed();
+
+    /**
+     * @return The number of expressions that failed to convert, build or
+     *         evaluate.
+     */
+    long getExpressionsFailed();
+
+    /**
+     * @return The formatted report of every stage.
+     */
+    String getReport();
+
+    /**
+     * Clears every timer and counter.
+     */
+    void reset();
+
+}
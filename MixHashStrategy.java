@@ -0,0 +1,101 @@
+/**
+ * The MixHashStrategy class is a fast, well-distributed string hash in the
+ * style of xxHash and wyhash. Characters are packed four at a time into a
+ * 64-bit word, each word is multiplied into the running state, and a final
+ * avalanche step makes every input bit affect every output bit.
+ *
+ * <p>Because the low bits of the result are as well mixed as the high bits,
+ * the hash can be compressed to a power-of-two table size with a bit mask
+ * instead of a remainder.
+ *
+ * @author ColinKula
+ */
+
+public class MixHashStrategy implements HashStrategy {
+
+    // Fields
+
+    /**
+     * The multiplier applied to every packed word.
+     */
+    static final long PRIME_1 = 0x9E3779B185EBCA87L;
+
+    /**
+     * The multiplier applied to the running state.
+     */
+    static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    /**
+     * The seed the running state starts from.
+     */
+    final long seed;
+
+    // Constructors
+
+    /**
+     * Constructs a MixHashStrategy with the default seed.
+     */
+    public MixHashStrategy() {
+        this(0x27D4EB2F165667C5L);
+    }
+
+    /**
+     * Constructs a MixHashStrategy with the given seed. Different seeds give
+     * unrelated hash codes for the same names.
+     *
+     * @param seed The seed the running state starts from.
+     */
+    public MixHashStrategy(long seed) {
+        this.seed = seed;
+    }
+
+    // Methods
+
+    /**
+     * Computes the hash code of the given expression.
+     *
+     * @param expression The expression to be hashed.
+     * @return The computed hash code.
+     */
+    @Override
+    public int hashCode(String expression) {
+        int length = expression.length();
+        long hash = seed + length * PRIME_1;
+        int i = 0;
+
+        for (; i + 4 <= length; i += 4) {
+            long word = HashStrategy.fold(expression.charAt(i))
+                    | (long) HashStrategy.fold(expression.charAt(i + 1)) << 16
+                    | (long) HashStrategy.fold(expression.charAt(i + 2)) << 32
+                    | (long) HashStrategy.fold(expression.charAt(i + 3)) << 48;
+            hash = Long.rotateLeft(hash ^ (word * PRIME_1), 31) * PRIME_2;
+        }
+
+        if (i < length) {
+            long word = 0;
+            for (int shift = 0; i < length; i++, shift += 16) {
+                word |= (long) HashStrategy.fold(expression.charAt(i)) << shift;
+            }
+            hash = Long.rotateLeft(hash ^ (word * PRIME_1), 31) * PRIME_2;
+        }
+
+        return (int) avalanche(hash);
+    }
+
+    /**
+     * Mixes the bits of the running state so that every bit of the input
+     * affects every bit of the result.
+     *
+     * @param hash The running state.
+     * @return The mixed state.
+     */
+    static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,602 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * The OffHeapBindings class is a variable store that keeps its keys and values
+ * outside the Java heap, for sets with tens of millions of bindings where
+ * TableNode objects, String keys and the HashMap of HashBasedSet would fill
+ * the heap and lengthen garbage collection.
+ *
+ * <p>The bindings live in an open-addressed hash table of fixed-size slots
+ * with linear probing, stored in direct ByteBuffers. Each slot holds:
+ *
+ * <ul>
+ * <li>a reference to the key in the key arena, 0 if the slot is empty or -1
+ * if its binding was removed (8 bytes);</li>
+ * <li>the SymbolTable hash of the key (4 bytes);</li>
+ * <li>the key length in chars, shifted left once, with the low bit set if the
+ * value is a double (4 bytes); and</li>
+ * <li>the value, as an int or as the bits of a double (8 bytes).</li>
+ * </ul>
+ *
+ * <p>Keys are stored as UTF-16 chars in an arena of direct pages and compared
+ * ignoring case, as the Table compares them. Both regions are split into
+ * pages so that the store is not limited to the 2 GB of a single buffer. The
+ * table is rebuilt into fresh pages when it is three quarters full, which also
+ * drops the keys of removed bindings. The heap only holds the arrays of page
+ * references, a few hundred bytes even for millions of bindings.
+ *
+ * <p>A direct ByteBuffer is otherwise only freed once the collector finds it
+ * unreachable, which a heap this small rarely prompts. The pages a rehash
+ * replaces are therefore freed at once, and so are all pages when the store
+ * is closed, after which it cannot be used.
+ *
+ * <p>java.lang.foreign.MemorySegment would be the natural home for this
+ * layout, but it is not final in the JDK this project builds with, so direct
+ * ByteBuffers are used. Usage:
+ *
+ * <pre>
+ * java OffHeapBindings [count]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class OffHeapBindings implements Bindings, AutoCloseable {
+
+    // Fields
+
+    /**
+     * The size of a slot, in bytes.
+     */
+    static final int SLOT_BYTES = 24;
+
+    /**
+     * The log2 of the number of slots in a full slot page.
+     */
+    static final int SLOT_PAGE_SHIFT = 20;
+
+    /**
+     * The size of a key arena page, in bytes.
+     */
+    static final int ARENA_PAGE_BYTES = 1 << 24;
+
+    /**
+     * The key reference of a slot whose binding was removed.
+     */
+    static final long REMOVED = -1;
+
+    /**
+     * Frees the memory of a direct ByteBuffer, or null if the JDK does not
+     * allow it and pages are left to the collector.
+     */
+    static final MethodHandle FREE = freeHandle();
+
+    /**
+     * The pages of slots.
+     */
+    ByteBuffer[] slotPages;
+
+    /**
+     * The number of slots, a power of two.
+     */
+    int capacity;
+
+    /**
+     * The number of bindings.
+     */
+    int size;
+
+    /**
+     * The number of slots holding removed bindings.
+     */
+    int removed;
+
+    /**
+     * The pages of the key arena.
+     */
+    ByteBuffer[] arenaPages;
+
+    /**
+     * The number of arena pages in use.
+     */
+    int arenaPageCount;
+
+    /**
+     * The next free byte in the last arena page.
+     */
+    int arenaPosition;
+
+    /**
+     * The symbol table ids are resolved against.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    // Main
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+
+        OffHeapBindings bindings = new OffHeapBindings();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            name.setLength(0);
+            name.append('v').append(i);
+            if (i % 2 == 0) {
+                bindings.update(name, i);
+            } else {
+                bindings.update(name, i + 0.5);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%d bindings in %.1f ms%n", bindings.size(), elapsed / 1e6);
+        System.out.printf("Off-heap: %.1f MB, heap growth: %.1f MB%n",
+                bindings.offHeapBytes() / 1048576.0, (heapAfter - heapBefore) / 1048576.0);
+        System.out.println("v1 = " + bindings.getValueFor("V1"));
+        bindings.close();
+    }
+
+    // Constructors
+
+    /**
+     * Constructs an empty OffHeapBindings store.
+     */
+    public OffHeapBindings() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty OffHeapBindings store with room for the given number
+     * of bindings before it has to grow.
+     *
+     * @param expectedSize The expected number of bindings.
+     */
+    public OffHeapBindings(int expectedSize) {
+        allocate(HashFunction.tableSizeFor(Math.max(16, expectedSize / 3 * 4 + 1)));
+    }
+
+    // Methods
+
+    /**
+     * Reads every "name = value" line of the given file into the store.
+     *
+     * @param valuesFile The path of the file holding the variables.
+     */
+    public void createMap(String valuesFile) {
+        try {
+            Scanner in = new Scanner(new File(valuesFile));
+            while (in.hasNextLine()) {
+                update(in.nextLine());
+            }
+            in.close();
+        } catch (FileNotFoundException e) {
+            System.err.println(valuesFile + " was not found");
+        }
+    }
+
+    /**
+     * Updates the binding described by a line in the format of Values.txt,
+     * "name = value". A value with a decimal point or an exponent is stored as
+     * a double, any other as an int.
+     *
+     * @param line The line describing the binding.
+     * @throws IllegalArgumentException If the line is not "name = value" or
+     *                                  the value is not a number.
+     */
+    public void update(String line) {
+        int i = line.indexOf(' ');
+        if (i <= 0 || !line.startsWith(" = ", i)) {
+            throw new IllegalArgumentException("Expected name = value: " + line);
+        }
+        String value = line.substring(i + 3);
+        if (value.indexOf('.') >= 0 || value.indexOf('e') >= 0 || value.indexOf('E') >= 0) {
+            update(line.subSequence(0, i), Double.parseDouble(value));
+        } else {
+            update(line.subSequence(0, i), Integer.parseInt(value));
+        }
+    }
+
+    /**
+     * Sets a variable to an int value, adding it if it is not in the store.
+     *
+     * @param variable The variable name.
+     * @param value    The value.
+     */
+    public void update(CharSequence variable, int value) {
+        put(variable, value, false);
+    }
+
+    /**
+     * Sets a variable to a double value, adding it if it is not in the store.
+     * The value must be finite, since valueOrNaN answers NaN for a variable
+     * that is not in the store.
+     *
+     * @param variable The variable name.
+     * @param value    The value.
+     * @throws IllegalArgumentException If the value is NaN or infinite.
+     */
+    public void update(CharSequence variable, double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Value of " + variable + " must be finite: " + value);
+        }
+        put(variable, Double.doubleToRawLongBits(value), true);
+    }
+
+    /**
+     * Removes a variable from the store.
+     *
+     * @param variable The variable name.
+     */
+    public void remove(CharSequence variable) {
+        int slot = probe(variable, SymbolTable.hash(variable, 0, variable.length()));
+        if (slot >= 0) {
+            slotPage(slot).putLong(slotOffset(slot), REMOVED);
+            size--;
+            removed++;
+        }
+    }
+
+    @Override
+    public boolean contains(String variable) {
+        return probe(variable, SymbolTable.hash(variable, 0, variable.length())) >= 0;
+    }
+
+    @Override
+    public boolean contains(int symbol) {
+        return symbol >= 0 && symbol < symbols.size() && contains(symbols.nameOf(symbol));
+    }
+
+    @Override
+    public double getValueFor(String variable) {
+        int slot = probe(variable, SymbolTable.hash(variable, 0, variable.length()));
+        return slot >= 0 ? valueAt(slot) : -1.0;
+    }
+
+    @Override
+    public double getValueFor(int symbol) {
+        return symbol >= 0 && symbol < symbols.size() ? getValueFor(symbols.nameOf(symbol)) : -1.0;
+    }
+
+    /**
+     * Retrieves the value of the variable with the specified SymbolTable id
+     * in one lookup, rather than the two of contains and getValueFor. The
+     * lookup resolves the id to its name, hashes the name and probes for it.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or NaN if it is not in the store.
+     */
+    @Override
+    public double valueOrNaN(int symbol) {
+        if (symbol < 0 || symbol >= symbols.size()) {
+            return Double.NaN;
+        }
+        String variable = symbols.nameOf(symbol);
+        int slot = probe(variable, SymbolTable.hash(variable, 0, variable.length()));
+        return slot >= 0 ? valueAt(slot) : Double.NaN;
+    }
+
+    /**
+     * Reads the value stored in a slot, as a double or an int.
+     *
+     * @param slot The slot.
+     * @return The value.
+     */
+    private double valueAt(int slot) {
+        ByteBuffer page = slotPage(slot);
+        int offset = slotOffset(slot);
+        long bits = page.getLong(offset + 16);
+        return (page.getInt(offset + 12) & 1) != 0 ? Double.longBitsToDouble(bits) : (double) (int) bits;
+    }
+
+    /**
+     * Checks whether the value of a variable is stored as a double.
+     *
+     * @param variable The variable name.
+     * @return true if the variable holds a double; false if it holds an int
+     *         or is not in the store.
+     */
+    public boolean isDouble(String variable) {
+        int slot = probe(variable, SymbolTable.hash(variable, 0, variable.length()));
+        return slot >= 0 && (slotPage(slot).getInt(slotOffset(slot) + 12) & 1) != 0;
+    }
+
+    /**
+     * Retrieves the number of bindings in the store.
+     *
+     * @return The number of bindings.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the number of bytes allocated outside the heap.
+     *
+     * @return The off-heap bytes.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer page : slotPages) {
+            bytes += page.capacity();
+        }
+        for (int i = 0; i < arenaPageCount; i++) {
+            bytes += arenaPages[i].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Stores a value for a variable, adding the variable if needed.
+     *
+     * @param variable The variable name.
+     * @param bits     The value, as an int or the bits of a double.
+     * @param isDouble Whether the value is a double.
+     */
+    private void put(CharSequence variable, long bits, boolean isDouble) {
+        if ((size + removed + 1) * 4L > capacity * 3L) {
+            rehash(size + 1 > capacity / 2 ? capacity * 2 : capacity);
+        }
+        int hash = SymbolTable.hash(variable, 0, variable.length());
+        int slot = probe(variable, hash);
+
+        if (slot < 0) {
+            slot = -1 - slot;
+            ByteBuffer page = slotPage(slot);
+            int offset = slotOffset(slot);
+            if (page.getLong(offset) == REMOVED) {
+                removed--;
+            }
+            page.putLong(offset, storeKey(variable));
+            page.putInt(offset + 8, hash);
+            size++;
+        }
+
+        ByteBuffer page = slotPage(slot);
+        int offset = slotOffset(slot);
+        page.putInt(offset + 12, variable.length() << 1 | (isDouble ? 1 : 0));
+        page.putLong(offset + 16, bits);
+    }
+
+    /**
+     * Probes for a variable.
+     *
+     * @param variable The variable name.
+     * @param hash     The hash of the name.
+     * @return The slot of the variable, or -1 minus the slot it should be
+     *         inserted at if it is not in the store.
+     */
+    private int probe(CharSequence variable, int hash) {
+        int mask = capacity - 1;
+        int insertAt = -1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            ByteBuffer page = slotPage(slot);
+            int offset = slotOffset(slot);
+            long key = page.getLong(offset);
+
+            if (key == 0) {
+                return -1 - (insertAt >= 0 ? insertAt : slot);
+            }
+            if (key == REMOVED) {
+                if (insertAt < 0) {
+                    insertAt = slot;
+                }
+            } else if (page.getInt(offset + 8) == hash
+                    && page.getInt(offset + 12) >>> 1 == variable.length()
+                    && keyMatches(key, variable)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the key stored at the given reference equals a name,
+     * ignoring case.
+     *
+     * @param key      The key reference.
+     * @param variable The name, of the same length as the key.
+     * @return true if they are equal ignoring case; false otherwise.
+     */
+    private boolean keyMatches(long key, CharSequence variable) {
+        ByteBuffer page = arenaPages[(int) ((key - 1) >>> 32)];
+        int offset = (int) (key - 1);
+        for (int i = 0; i < variable.length(); i++) {
+            if (HashStrategy.fold(page.getChar(offset + 2 * i)) != HashStrategy.fold(variable.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a name into the key arena.
+     *
+     * @param variable The name.
+     * @return The reference of the stored key: its page shifted left by 32 bits
+     *         plus its offset, plus one so that it is never 0.
+     */
+    private long storeKey(CharSequence variable) {
+        int bytes = 2 * variable.length();
+        if (arenaPageCount == 0 || arenaPosition + bytes > arenaPages[arenaPageCount - 1].capacity()) {
+            addArenaPage(bytes);
+        }
+        ByteBuffer page = arenaPages[arenaPageCount - 1];
+        int offset = arenaPosition;
+        for (int i = 0; i < variable.length(); i++) {
+            page.putChar(offset + 2 * i, variable.charAt(i));
+        }
+        arenaPosition += bytes;
+        return ((long) (arenaPageCount - 1) << 32 | offset) + 1;
+    }
+
+    /**
+     * Starts a new arena page with room for at least the given number of
+     * bytes.
+     *
+     * @param bytes The number of bytes needed.
+     */
+    private void addArenaPage(int bytes) {
+        if (arenaPageCount == arenaPages.length) {
+            arenaPages = Arrays.copyOf(arenaPages, arenaPages.length * 2);
+        }
+        int pageBytes = Math.max(bytes, (int) Math.min(ARENA_PAGE_BYTES, capacity * 16L));
+        arenaPages[arenaPageCount++] = ByteBuffer.allocateDirect(pageBytes).order(ByteOrder.nativeOrder());
+        arenaPosition = 0;
+    }
+
+    /**
+     * Allocates empty slot pages and a fresh key arena.
+     *
+     * @param slots The number of slots, a power of two.
+     */
+    private void allocate(int slots) {
+        capacity = slots;
+        int slotsPerPage = Math.min(slots, 1 << SLOT_PAGE_SHIFT);
+        slotPages = new ByteBuffer[slots / slotsPerPage];
+        for (int i = 0; i < slotPages.length; i++) {
+            slotPages[i] = ByteBuffer.allocateDirect(slotsPerPage * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        }
+        arenaPages = new ByteBuffer[4];
+        arenaPageCount = 0;
+        arenaPosition = 0;
+    }
+
+    /**
+     * Rebuilds the table with the given number of slots, copying the live
+     * bindings and their keys into fresh pages.
+     *
+     * @param slots The new number of slots, a power of two.
+     */
+    private void rehash(int slots) {
+        ByteBuffer[] oldSlots = slotPages;
+        ByteBuffer[] oldArena = arenaPages;
+        int oldCapacity = capacity;
+        allocate(slots);
+        int mask = capacity - 1;
+        StringBuilder name = new StringBuilder();
+
+        for (int old = 0; old < oldCapacity; old++) {
+            ByteBuffer page = oldSlots[old >>> SLOT_PAGE_SHIFT];
+            int offset = (old & ((1 << SLOT_PAGE_SHIFT) - 1)) * SLOT_BYTES;
+            long key = page.getLong(offset);
+            if (key == 0 || key == REMOVED) {
+                continue;
+            }
+
+            int hash = page.getInt(offset + 8);
+            int lengthAndType = page.getInt(offset + 12);
+            ByteBuffer keyPage = oldArena[(int) ((key - 1) >>> 32)];
+            int keyOffset = (int) (key - 1);
+            name.setLength(0);
+            for (int i = 0; i < lengthAndType >>> 1; i++) {
+                name.append(keyPage.getChar(keyOffset + 2 * i));
+            }
+
+            int slot = hash & mask;
+            while (slotPage(slot).getLong(slotOffset(slot)) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            ByteBuffer target = slotPage(slot);
+            int targetOffset = slotOffset(slot);
+            target.putLong(targetOffset, storeKey(name));
+            target.putInt(targetOffset + 8, hash);
+            target.putInt(targetOffset + 12, lengthAndType);
+            target.putLong(targetOffset + 16, page.getLong(offset + 16));
+        }
+        removed = 0;
+        free(oldSlots, oldSlots.length);
+        free(oldArena, oldArena.length);
+    }
+
+    /**
+     * Frees every page of the store. The store cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (slotPages != null) {
+            free(slotPages, slotPages.length);
+            free(arenaPages, arenaPageCount);
+            slotPages = null;
+            arenaPages = null;
+            capacity = 0;
+            size = 0;
+            removed = 0;
+            arenaPageCount = 0;
+        }
+    }
+
+    /**
+     * Frees the memory of the first pages of an array.
+     *
+     * @param pages The pages; entries may be null.
+     * @param count The number of pages to free.
+     */
+    private static void free(ByteBuffer[] pages, int count) {
+        for (int i = 0; i < count; i++) {
+            if (FREE != null && pages[i] != null) {
+                try {
+                    FREE.invokeExact(pages[i]);
+                } catch (Throwable e) {
+                    // Left to the collector
+                }
+                pages[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Looks up sun.misc.Unsafe.invokeCleaner, the only way the JDK this
+     * project builds with frees a direct ByteBuffer on demand.
+     *
+     * @return The handle, bound to the Unsafe instance, or null if it is not
+     *         available.
+     */
+    private static MethodHandle freeHandle() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the page holding a slot.
+     *
+     * @param slot The slot index.
+     * @return The page.
+     */
+    private ByteBuffer slotPage(int slot) {
+        return slotPages[slot >>> SLOT_PAGE_SHIFT];
+    }
+
+    /**
+     * Finds the offset of a slot within its page.
+     *
+     * @param slot The slot index.
+     * @return The offset, in bytes.
+     */
+    private static int slotOffset(int slot) {
+        return (slot & ((1 << SLOT_PAGE_SHIFT) - 1)) * SLOT_BYTES;
+    }
+
+}
@@ -0,0 +1,322 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ParseCache class keeps the parsed form of recently seen infix
+ * expressions in memory, so an expression that repeats is converted to
+ * postfix and built into a tree only once.
+ *
+ * <p>The cache is keyed by the infix text and bounded both by a number of
+ * entries and by an estimate of the bytes the entries hold. When either bound
+ * is passed, the least recently used entries are evicted. It is split into
+ * segments, each a LinkedHashMap in access order guarded by its own lock, so
+ * threads looking up different expressions rarely wait on each other; each
+ * segment gets an equal share of the bounds, which makes the eviction order
+ * LRU within a segment. Expressions are parsed outside the lock, so a slow
+ * parse never holds up other lookups.
+ *
+ * <p>The InfixPostfix and ExperimentTree of an entry are shared by everyone
+ * who looks the expression up, and must be treated as read only. Evaluating a
+ * built tree does not change it, so it can be evaluated from many threads.
+ *
+ * <p>Unlike the ExpressionCache, which keeps compiled expressions on disk
+ * across runs, the ParseCache lives only as long as the process.
+ *
+ * @author ColinKula
+ */
+
+public class ParseCache {
+
+    // Fields
+
+    /**
+     * The number of segments used by caches large enough to split. Must be a
+     * power of two.
+     */
+    static final int SEGMENTS = 16;
+
+    /**
+     * The estimated bytes of an entry apart from its text and nodes: the map
+     * entry, the Entry, the InfixPostfix, the ExperimentTree and the strings.
+     */
+    static final int ENTRY_OVERHEAD = 240;
+
+    /**
+     * The estimated bytes of one ExperimentNode and its program code.
+     */
+    static final int NODE_BYTES = 44;
+
+    /**
+     * A parsed expression.
+     */
+    public static final class Entry {
+
+        /**
+         * The infix and postfix forms of the expression.
+         */
+        public final InfixPostfix experiment;
+
+        /**
+         * The expression tree, already created.
+         */
+        public final ExperimentTree tree;
+
+        /**
+         * The estimated number of bytes the entry holds.
+         */
+        final long bytes;
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param experiment The infix and postfix forms.
+         * @param tree       The created tree.
+         */
+        Entry(InfixPostfix experiment, ExperimentTree tree) {
+            this.experiment = experiment;
+            this.tree = tree;
+            this.bytes = ENTRY_OVERHEAD
+                    + 2L * (experiment.infixPresentation.length() + experiment.postfixRepresentation.length())
+                    + (long) NODE_BYTES * tree.nodeCount;
+        }
+    }
+
+    /**
+     * A part of the cache with its own lock and its own share of the bounds.
+     */
+    static final class Segment {
+
+        /**
+         * The entries, from least to most recently used.
+         */
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * The lock guarding the entries and the byte count.
+         */
+        final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * The estimated bytes held by the entries.
+         */
+        long bytes;
+    }
+
+    /**
+     * The segments of the cache.
+     */
+    final Segment[] segments;
+
+    /**
+     * The largest number of entries a segment holds.
+     */
+    final int maxEntriesPerSegment;
+
+    /**
+     * The largest estimated number of bytes a segment holds.
+     */
+    final long maxBytesPerSegment;
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that had to parse the expression.
+     */
+    final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of entries evicted to stay within the bounds.
+     */
+    final LongAdder evictions = new LongAdder();
+
+    // Constructors
+
+    /**
+     * Constructs a ParseCache bounded by a number of entries only.
+     *
+     * @param maxEntries The largest number of entries to keep.
+     */
+    public ParseCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a ParseCache bounded by a number of entries and an estimate
+     * of the bytes they hold.
+     *
+     * @param maxEntries The largest number of entries to keep.
+     * @param maxBytes   The largest estimated number of bytes to keep.
+     * @throws IllegalArgumentException If a bound is not positive.
+     */
+    public ParseCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive");
+        }
+        int count = maxEntries >= SEGMENTS * 4 ? SEGMENTS : 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        maxEntriesPerSegment = Math.max(1, maxEntries / count);
+        maxBytesPerSegment = maxBytes == Long.MAX_VALUE ? maxBytes : Math.max(1, maxBytes / count);
+    }
+
+    // Methods
+
+    /**
+     * Returns the parsed form of an infix expression, from the cache when it
+     * is there, or by converting it and creating its tree when it is not.
+     *
+     * @param infix The infix expression.
+     * @return The cached entry, with a created tree.
+     * @throws RuntimeException If the expression cannot be parsed; nothing is
+     *                          cached for it.
+     */
+    public Entry parse(String infix) {
+        Segment segment = segmentFor(infix);
+        segment.lock.lock();
+        try {
+            Entry entry = segment.entries.get(infix);
+            if (entry != null) {
+                hits.increment();
+                return entry;
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+
+        misses.increment();
+        InfixPostfix experiment = new InfixPostfix(infix);
+        ExperimentTree tree = new ExperimentTree(experiment.postfixRepresentation);
+        tree.createTree();
+        Entry parsed = new Entry(experiment, tree);
+
+        segment.lock.lock();
+        try {
+            // Another thread may have parsed the same expression meanwhile
+            Entry existing = segment.entries.putIfAbsent(infix, parsed);
+            if (existing != null) {
+                return existing;
+            }
+            segment.bytes += parsed.bytes;
+            evict(segment, parsed);
+            return parsed;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries of a segment until it is within
+     * its bounds, keeping the entry just added.
+     *
+     * @param segment The segment, locked by the caller.
+     * @param added   The entry just added.
+     */
+    private void evict(Segment segment, Entry added) {
+        Iterator<Entry> iterator = segment.entries.values().iterator();
+        while ((segment.entries.size() > maxEntriesPerSegment || segment.bytes > maxBytesPerSegment)
+                && segment.entries.size() > 1) {
+            Entry eldest = iterator.next();
+            if (eldest == added) {
+                continue;
+            }
+            iterator.remove();
+            segment.bytes -= eldest.bytes;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Finds the segment an expression belongs to.
+     *
+     * @param infix The infix expression.
+     * @return The segment.
+     */
+    private Segment segmentFor(String infix) {
+        int h = infix.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Retrieves the number of entries in the cache.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Retrieves the estimated number of bytes held by the cache.
+     *
+     * @return The estimated bytes.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                bytes += segment.bytes;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups that had to parse the expression.
+     *
+     * @return The number of misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the number of entries evicted to stay within the bounds.
+     *
+     * @return The number of evictions.
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Describes how the cache has been used.
+     *
+     * @return The report.
+     */
+    public String report() {
+        long hitCount = hits();
+        long lookups = hitCount + misses();
+        return String.format("Parse cache: %d entries, %.1f KB, %d hits, %d misses (%.1f%% hit rate), "
+                + "%d evictions", size(), estimatedBytes() / 1024.0, hitCount, misses(),
+                lookups == 0 ? 0.0 : 100.0 * hitCount / lookups, evictions());
+    }
+
+}
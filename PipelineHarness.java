@@ -0,0 +1,752 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+/**
+ * The PipelineHarness class drives the full Main pipeline over a pair of
+ * Values.txt and Experiments.txt files, such as the ones written by
+ * WorkloadGenerator, and reports how it performs.
+ *
+ * <p>The pipeline runs in the same phases as Main: loading the variables into
+ * a HashBasedSet, converting every experiment from infix to postfix, building
+ * the expression trees, evaluating them, and sorting the evaluations into a
+ * BinarySearchTree. For each phase the harness reports the elapsed time, the
+ * lines processed per second and the heap in use afterwards, followed by the
+ * peak heap of the whole run and the statistics of the variable table.
+ * Printing is left out unless "-print" is given. The other options switch
+ * parts of the pipeline to other structures or modes; each is described on the
+ * field it sets. Usage:
+ *
+ * <pre>
+ * java PipelineHarness [-dir workload] [-print] [-stack megabytes] [-bindings file]
+ *                      [-cache file] [-tiered file] [-hot entries] [-freeze] [-arena]
+ *                      [-watch seconds] [-memory] [-parse-cache entries]
+ *                      [-format text|csv|binary] [-out file] [-summary k] [-summary-error e]
+ *                      [-stress tokens]
+ * </pre>
+ *
+ * <p>The pipeline runs on its own thread with a large stack, because the
+ * binary search tree recursion gets as deep as the tree on skewed loads.
+ *
+ * @author ColinKula
+ */
+
+public class PipelineHarness {
+
+    // Fields
+
+    /**
+     * The directory holding Values.txt and Experiments.txt.
+     */
+    String directory = "workload";
+
+    /**
+     * Whether the experiments are printed the way Main prints them.
+     */
+    boolean print = false;
+
+    /**
+     * The format the experiments are printed in through a ResultSink: "text",
+     * "csv" or "binary".
+     */
+    String format = "text";
+
+    /**
+     * The file the experiments are printed to, or null to print them to the
+     * console.
+     */
+    String outputFile;
+
+    /**
+     * The largest number of entries in the ParseCache repeated expressions are
+     * taken from, or 0 to parse every line. With a cache, conversion and tree
+     * building run as one phase.
+     */
+    int parseCacheEntries;
+
+    /**
+     * The MappedBindings snapshot the variables are mapped from, or null to
+     * parse Values.txt. The snapshot is written first if it does not exist.
+     */
+    String bindingsFile;
+
+    /**
+     * The SortedBindingsFile the variables are spilled to and looked up in
+     * through TieredBindings, or null to keep them in memory. The file is
+     * written from Values.txt first if it does not exist.
+     */
+    String tieredFile;
+
+    /**
+     * The largest number of bindings kept in memory when they are tiered.
+     */
+    int hotEntries = 1024;
+
+    /**
+     * Whether the loaded variables are frozen into FrozenBindings, a minimal
+     * perfect hash, and looked up there.
+     */
+    boolean freeze = false;
+
+    /**
+     * Whether the trees are built in an ExperimentForest of parallel arrays
+     * instead of as ExperimentNode objects, with its bytes per node reported.
+     */
+    boolean arena = false;
+
+    /**
+     * The number of seconds Values.txt is watched for after the run, or 0 to
+     * not watch it. Each edit is applied through a ValuesWatcher, which
+     * evaluates again only the experiments it affects.
+     */
+    int watchSeconds;
+
+    /**
+     * Whether the Footprint of every structure is reported by component and
+     * checked by building the structure again between two heap measurements.
+     * The run fails if an estimate is further than FOOTPRINT_TOLERANCE from
+     * its measurement.
+     */
+    boolean memory = false;
+
+    /**
+     * How far, as a fraction of the measured bytes, a footprint estimate may
+     * be from the heap its structure was measured to retain.
+     */
+    static final double FOOTPRINT_TOLERANCE = 0.10;
+
+    /**
+     * The number of footprint estimates found outside FOOTPRINT_TOLERANCE.
+     */
+    int footprintFailures;
+
+    /**
+     * The ExpressionCache file compiled expressions are kept in, or null to
+     * compile every expression. The cache is saved at the end of the run.
+     */
+    String cacheFile;
+
+    /**
+     * The number of smallest and largest evaluations to summarize in place of
+     * sorting every evaluation, or 0 to sort them. The EvaluationSummary is
+     * built on several threads and merged.
+     */
+    int summaryExtremes;
+
+    /**
+     * The rank error of the quantiles of the summary.
+     */
+    double summaryError = 0.01;
+
+    /**
+     * The stack size of the thread the stress mode runs on.
+     */
+    static final long STRESS_STACK_BYTES = 256 << 10;
+
+    /**
+     * The number of distinct variables the stress expressions use.
+     */
+    static final int STRESS_VARIABLES = 1000;
+
+    /**
+     * The number of tokens in the largest expression of the stress mode, or 0
+     * to run the pipeline instead. The stress mode converts, builds, prints
+     * and evaluates single expressions on a small stack and reports the time
+     * per token of each stage.
+     */
+    int stressTokens;
+
+    /**
+     * The names of the phases that have been run, in order.
+     */
+    ArrayList<String> phases = new ArrayList<>();
+
+    /**
+     * The time each phase took, in nanoseconds.
+     */
+    ArrayList<Long> phaseNanos = new ArrayList<>();
+
+    /**
+     * The number of lines each phase processed.
+     */
+    ArrayList<Integer> phaseLines = new ArrayList<>();
+
+    /**
+     * The heap in use after each phase, in bytes.
+     */
+    ArrayList<Long> phaseHeap = new ArrayList<>();
+
+    /**
+     * The start of the phase that is currently running.
+     */
+    long phaseStart;
+
+    // Main
+
+    public static void main(String[] args) throws InterruptedException {
+        PipelineHarness harness = new PipelineHarness();
+        long stackMegabytes = 512;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-dir")) {
+                harness.directory = args[++i];
+            } else if (args[i].equals("-print")) {
+                harness.print = true;
+            } else if (args[i].equals("-format")) {
+                harness.format = args[++i];
+                harness.print = true;
+            } else if (args[i].equals("-out")) {
+                harness.outputFile = args[++i];
+                harness.print = true;
+            } else if (args[i].equals("-bindings")) {
+                harness.bindingsFile = args[++i];
+            } else if (args[i].equals("-tiered")) {
+                harness.tieredFile = args[++i];
+            } else if (args[i].equals("-hot")) {
+                harness.hotEntries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-freeze")) {
+                harness.freeze = true;
+            } else if (args[i].equals("-arena")) {
+                harness.arena = true;
+            } else if (args[i].equals("-watch")) {
+                harness.watchSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-memory")) {
+                harness.memory = true;
+            } else if (args[i].equals("-cache")) {
+                harness.cacheFile = args[++i];
+            } else if (args[i].equals("-parse-cache")) {
+                harness.parseCacheEntries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-summary")) {
+                harness.summaryExtremes = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-summary-error")) {
+                harness.summaryError = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-stress")) {
+                harness.stressTokens = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-stack")) {
+                stackMegabytes = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        if (harness.stressTokens > 0) {
+            // A small stack, to show that no stage recurses once per token
+            Thread stress = new Thread(null, harness::stress, "stress", STRESS_STACK_BYTES);
+            stress.start();
+            stress.join();
+            return;
+        }
+
+        Thread pipeline = new Thread(null, harness::run, "pipeline", stackMegabytes << 20);
+        pipeline.start();
+        pipeline.join();
+        if (harness.footprintFailures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Methods
+
+    /**
+     * Runs every phase of the pipeline and prints the report.
+     */
+    public void run() {
+        Metrics.register();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+
+        HashBasedSet set = null;
+        MappedBindings mapped = null;
+        if (bindingsFile != null && new File(bindingsFile).exists()) {
+            startPhase();
+            mapped = openBindings();
+            endPhase("map values", mapped.size());
+        } else if (tieredFile != null && new File(tieredFile).exists()) {
+            startPhase();
+            try {
+                set = HashBasedSet.openTiered(tieredFile, hotEntries);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            endPhase("open tiered", set.getTiered().coldSize());
+        } else {
+            startPhase();
+            set = new HashBasedSet(directory + "/Values.txt");
+            set.createMap();
+            endPhase("load values", set.map.size());
+            if (bindingsFile != null) {
+                writeBindings(set);
+            }
+            if (tieredFile != null) {
+                startPhase();
+                try {
+                    endPhase("spill to disk", set.spillToDisk(tieredFile, hotEntries));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (freeze) {
+                startPhase();
+                endPhase("freeze", set.freeze().size());
+            }
+        }
+
+        ExpressionCache cache = null;
+        ParseCache parseCache = null;
+        ExperimentForest forest = null;
+        ArrayList<InfixPostfix> experiments;
+        ArrayList<ExperimentTree> experimentTrees;
+        if (parseCacheEntries > 0) {
+            startPhase();
+            parseCache = new ParseCache(parseCacheEntries);
+            experiments = new ArrayList<>();
+            experimentTrees = new ArrayList<>();
+            parseExperiments(parseCache, experiments, experimentTrees);
+            endPhase("parse (cached)", experiments.size());
+        } else {
+            startPhase();
+            cache = cacheFile != null ? new ExpressionCache(cacheFile) : null;
+            experiments = Main.makeExperiments(directory + "/Experiments.txt", cache);
+            endPhase("infix to postfix", experiments.size());
+
+            startPhase();
+            if (arena) {
+                forest = new ExperimentForest();
+                experimentTrees = makeForestTrees(forest, experiments);
+            } else {
+                experimentTrees = Main.makeExperimentTrees(experiments, cache);
+            }
+            endPhase("build trees", experimentTrees.size());
+        }
+
+        startPhase();
+        ArrayList<Double> experimentEvaluations = new ArrayList<>(experimentTrees.size());
+        if (mapped != null) {
+            for (int i = 0; i < experimentTrees.size(); i++) {
+                experimentEvaluations.add(experimentTrees.get(i).evaluatePostfix(mapped));
+            }
+        } else if (set.getTiered() != null || set.getFrozen() != null) {
+            for (int i = 0; i < experimentTrees.size(); i++) {
+                experimentEvaluations.add(experimentTrees.get(i).evaluatePostfix(set));
+            }
+        } else {
+            try (BindingsSnapshot bindings = set.snapshot()) {
+                for (int i = 0; i < experimentTrees.size(); i++) {
+                    experimentEvaluations.add(experimentTrees.get(i).evaluatePostfix(bindings));
+                }
+            }
+        }
+        endPhase("evaluate", experimentTrees.size());
+
+        BinarySearchTree binarySearchTree = null;
+        EvaluationSummary summary = null;
+        if (summaryExtremes > 0) {
+            startPhase();
+            summary = summarize(experimentEvaluations);
+            endPhase("summarize", experimentEvaluations.size());
+        } else {
+            startPhase();
+            binarySearchTree = Main.makeBinarySearchTree(experimentEvaluations, experimentEvaluations.size());
+            endPhase("sort", experimentEvaluations.size());
+        }
+
+        if (print) {
+            startPhase();
+            try (ResultSink sink = ResultSink.open(format,
+                    outputFile == null ? System.out : new FileOutputStream(outputFile), outputFile != null)) {
+                for (int i = 0; i < experimentTrees.size(); i++) {
+                    sink.experiment(i + 1, experiments.get(i), experimentTrees.get(i),
+                            experimentEvaluations.get(i));
+                }
+                if (summary != null) {
+                    sink.summary(summary);
+                } else {
+                    sink.sorted(binarySearchTree);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (outputFile == null) {
+                System.out.println();
+            }
+            endPhase("print", experimentTrees.size());
+        }
+
+        report(System.nanoTime() - start, experiments.size());
+        if (summary != null && !print) {
+            System.out.println("\nSummary of all evaluations:\n" + summary);
+        }
+        if (set != null && set.getTiered() != null) {
+            System.out.println("\n" + set.getTiered().report());
+        } else if (set != null && set.getFrozen() != null) {
+            System.out.println("\n" + set.getFrozen().report());
+        } else if (set != null) {
+            System.out.println("\nVariable table:\n" + set.getStatistics().snapshot());
+        }
+        if (forest != null) {
+            System.out.println("\n" + forest.report());
+        }
+        if (parseCache != null) {
+            System.out.println("\n" + parseCache.report());
+        }
+        if (cache != null) {
+            System.out.println("\n" + cache.report());
+            try {
+                cache.save();
+            } catch (IOException e) {
+                System.err.println("Could not write " + cacheFile + ": " + e.getMessage());
+            }
+        }
+        if (Metrics.ENABLED) {
+            System.out.println("\n" + Metrics.report());
+        }
+        if (memory) {
+            memory(set, experiments, experimentTrees, experimentEvaluations, binarySearchTree);
+        }
+        if (watchSeconds > 0) {
+            if (set == null || set.getTiered() != null) {
+                System.err.println("Only variables loaded from Values.txt can be watched");
+            } else {
+                watch(set, experimentTrees, experimentEvaluations);
+            }
+        }
+    }
+
+    /**
+     * Prints the estimated footprint of the structures the run built, then
+     * builds each of them again between two measurements of the heap and
+     * prints the estimate of the copy next to the heap it retains. Each
+     * estimate is taken after the heap is measured, while the copy is still
+     * reachable, and counted as a failure if it is further than
+     * FOOTPRINT_TOLERANCE from the measurement.
+     *
+     * @param set         The loaded variables, or null if they were mapped.
+     * @param experiments The experiments.
+     * @param trees       The trees of the experiments.
+     * @param evaluations The evaluation of every experiment.
+     * @param sorted      The sorted evaluations, or null if they were
+     *                    summarized.
+     */
+    private void memory(HashBasedSet set, ArrayList<InfixPostfix> experiments, ArrayList<ExperimentTree> trees,
+            ArrayList<Double> evaluations, BinarySearchTree sorted) {
+        System.out.println("\nMemory footprint:");
+        if (set != null) {
+            System.out.println(set.footprint());
+        }
+        System.out.println(ExperimentTree.footprint(trees));
+        if (sorted != null) {
+            System.out.println(sorted.footprint());
+        }
+
+        System.out.printf("%n%-20s %14s %14s %8s %s%n", "Rebuilt", "Estimated", "Measured", "Error", "Check");
+        footprintFailures = 0;
+        if (set != null && set.getTiered() == null) {
+            long before = Footprint.usedHeap();
+            HashBasedSet copy = new HashBasedSet(directory + "/Values.txt");
+            copy.createMap();
+            if (set.getFrozen() != null) {
+                copy.freeze();
+            }
+            long measured = Footprint.usedHeap() - before;
+            checkMeasured(copy.footprint(), measured);
+        }
+        long before = Footprint.usedHeap();
+        ArrayList<ExperimentTree> treesCopy = arena ? makeForestTrees(new ExperimentForest(), experiments)
+                : Main.makeExperimentTrees(experiments, null);
+        long measured = Footprint.usedHeap() - before;
+        checkMeasured(ExperimentTree.footprint(treesCopy), measured);
+        if (sorted != null) {
+            before = Footprint.usedHeap();
+            BinarySearchTree sortedCopy = Main.makeBinarySearchTree(evaluations, evaluations.size());
+            measured = Footprint.usedHeap() - before;
+            checkMeasured(sortedCopy.footprint(), measured);
+        }
+        System.out.printf(footprintFailures == 0 ? "Every estimate is within %.0f%% of its measurement%n"
+                : "%2$d estimates are further than %1$.0f%% from their measurement%n",
+                100 * FOOTPRINT_TOLERANCE, footprintFailures);
+    }
+
+    /**
+     * Prints the estimated footprint of a structure next to the heap it was
+     * measured to retain, and counts it as a failure if the two differ by
+     * more than FOOTPRINT_TOLERANCE.
+     *
+     * @param estimate The estimated footprint.
+     * @param measured The measured bytes.
+     */
+    private void checkMeasured(Footprint estimate, long measured) {
+        long estimated = estimate.bytes();
+        double error = measured == 0 ? (estimated == 0 ? 0.0 : 1.0) : (double) (estimated - measured) / measured;
+        boolean passed = Math.abs(error) <= FOOTPRINT_TOLERANCE;
+        if (!passed) {
+            footprintFailures++;
+        }
+        System.out.printf("%-20s %14d %14d %7.1f%% %s%n", estimate.name, estimated, measured,
+                100 * error, passed ? "PASS" : "FAIL");
+    }
+
+    /**
+     * Watches Values.txt for the number of seconds given, printing every
+     * reload, then prints the watcher's report.
+     *
+     * @param set         The loaded variables.
+     * @param trees       The experiments.
+     * @param evaluations The evaluation of every experiment.
+     */
+    private void watch(HashBasedSet set, ArrayList<ExperimentTree> trees, ArrayList<Double> evaluations) {
+        System.out.println("\nWatching " + directory + "/Values.txt for " + watchSeconds + " seconds");
+        try (ValuesWatcher watcher = new ValuesWatcher(set, directory + "/Values.txt", trees, evaluations,
+                System.out::println)) {
+            watcher.start();
+            Thread.sleep(watchSeconds * 1000L);
+            System.out.println(watcher.report());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds the trees of the experiments in a forest.
+     *
+     * @param forest      The forest to build the trees in.
+     * @param experiments The experiments.
+     * @return The trees, viewing the forest.
+     */
+    private static ArrayList<ExperimentTree> makeForestTrees(ExperimentForest forest,
+            ArrayList<InfixPostfix> experiments) {
+        ArrayList<ExperimentTree> trees = new ArrayList<>(experiments.size());
+        for (InfixPostfix experiment : experiments) {
+            if (!experiment.postfixRepresentation.isEmpty()) {
+                trees.add(forest.createTree(experiment.postfixRepresentation));
+            }
+        }
+        return trees;
+    }
+
+    /**
+     * Maps the bindings snapshot.
+     *
+     * @return The mapped bindings.
+     */
+    private MappedBindings openBindings() {
+        try {
+            return MappedBindings.open(bindingsFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the variables to the bindings snapshot, for later runs to map.
+     *
+     * @param set The loaded variables.
+     */
+    private void writeBindings(HashBasedSet set) {
+        try {
+            MappedBindings.write(set, bindingsFile);
+        } catch (IOException e) {
+            System.err.println("Could not write " + bindingsFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Summarizes the evaluations on several threads, each building a summary
+     * of its share, and merges the summaries.
+     *
+     * @param evaluations The evaluations.
+     * @return The merged summary.
+     */
+    private EvaluationSummary summarize(ArrayList<Double> evaluations) {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        EvaluationSummary[] summaries = new EvaluationSummary[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int from = (int) ((long) evaluations.size() * t / threads);
+            int to = (int) ((long) evaluations.size() * (t + 1) / threads);
+            summaries[t] = new EvaluationSummary(summaryExtremes, summaryError);
+            EvaluationSummary summary = summaries[t];
+            workers[t] = new Thread(() -> {
+                for (int i = from; i < to; i++) {
+                    summary.add(evaluations.get(i));
+                }
+            });
+            workers[t].start();
+        }
+
+        EvaluationSummary merged = new EvaluationSummary(summaryExtremes, summaryError);
+        for (int t = 0; t < threads; t++) {
+            try {
+                workers[t].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while summarizing", e);
+            }
+            merged.merge(summaries[t]);
+        }
+        return merged;
+    }
+
+    /**
+     * Runs the stress mode: converts, builds, prints and evaluates single
+     * expressions of a quarter, half and all of the stress token count, and
+     * prints the time each stage takes per token. Half of each expression is
+     * nested parentheses, which makes the operator stack and the tree as deep
+     * as the expression is long, and the other half is a flat chain of
+     * operators. Times per token that stay level as the expressions double
+     * show that every stage is linear.
+     */
+    public void stress() {
+        ConcurrentHashBasedSet bindings = new ConcurrentHashBasedSet(STRESS_VARIABLES);
+        for (int i = 0; i < STRESS_VARIABLES; i++) {
+            bindings.put("v" + i, i % 7 + 1);
+        }
+
+        System.out.printf("%-12s %12s %12s %12s %12s %12s%n",
+                "Tokens", "Convert", "Build", "Print", "Evaluate", "ns/token");
+        for (int tokens = Math.max(stressTokens / 4, 1); ; tokens = Math.min(tokens * 2, stressTokens)) {
+            String infix = stressExpression(tokens);
+
+            long start = System.nanoTime();
+            InfixPostfix experiment = new InfixPostfix(infix);
+            long converted = System.nanoTime();
+            ExperimentTree tree = new ExperimentTree(experiment.postfixRepresentation);
+            tree.createTree();
+            long built = System.nanoTime();
+            int prefixLength = tree.appendPrefix(new StringBuilder(infix.length())).length();
+            long printed = System.nanoTime();
+            double evaluation = tree.evaluatePostfix(bindings);
+            long evaluated = System.nanoTime();
+
+            if (prefixLength != experiment.postfixRepresentation.length() || Double.isNaN(evaluation)) {
+                throw new IllegalStateException("Stress expression of " + tokens + " tokens failed");
+            }
+            System.out.printf("%-12d %9.1f ms %9.1f ms %9.1f ms %9.1f ms %12.1f%n", tree.nodeCount,
+                    (converted - start) / 1e6, (built - converted) / 1e6, (printed - built) / 1e6,
+                    (evaluated - printed) / 1e6, (evaluated - start) / (double) tree.nodeCount);
+            if (tokens == stressTokens) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Builds a stress expression of about the given number of operands and
+     * operators: a chain nested in parentheses, each operand opening the
+     * next level, multiplied by a flat chain.
+     *
+     * @param tokens The number of operands and operators.
+     * @return The infix expression.
+     */
+    static String stressExpression(int tokens) {
+        String operators = "+-*";
+        int nested = Math.max(tokens / 4, 1);
+        int flat = Math.max((tokens - 4 * nested) / 2, 0) + nested;
+        StringBuilder infix = new StringBuilder(tokens * 6);
+
+        infix.append('(');
+        for (int i = 0; i < nested; i++) {
+            infix.append('v').append(i % STRESS_VARIABLES).append(operators.charAt(i % 3)).append('(');
+        }
+        infix.append('v').append(nested % STRESS_VARIABLES);
+        for (int i = 0; i <= nested; i++) {
+            infix.append(')');
+        }
+
+        infix.append('*').append('(');
+        for (int i = 0; i < flat; i++) {
+            infix.append('v').append(i % STRESS_VARIABLES).append(operators.charAt(i % 3));
+        }
+        infix.append('v').append(flat % STRESS_VARIABLES).append(')');
+        return infix.toString();
+    }
+
+    /**
+     * Converts the experiments and builds their trees through a ParseCache, so
+     * each distinct line is parsed only once.
+     *
+     * @param parseCache      The cache to parse through.
+     * @param experiments     The list the experiments are added to.
+     * @param experimentTrees The list the trees are added to.
+     */
+    private void parseExperiments(ParseCache parseCache, ArrayList<InfixPostfix> experiments,
+            ArrayList<ExperimentTree> experimentTrees) {
+        try (Scanner in = new Scanner(new File(directory + "/Experiments.txt"))) {
+            while (in.hasNextLine()) {
+                String line = in.nextLine();
+                if (!line.isEmpty()) {
+                    ParseCache.Entry entry = parseCache.parse(line);
+                    experiments.add(entry.experiment);
+                    experimentTrees.add(entry.tree);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println(directory + "/Experiments.txt was not found");
+        }
+    }
+
+    /**
+     * Marks the start of a phase.
+     */
+    private void startPhase() {
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Records the end of a phase along with the number of lines it processed
+     * and the heap in use afterwards.
+     *
+     * @param name  The name of the phase.
+     * @param lines The number of lines the phase processed.
+     */
+    private void endPhase(String name, int lines) {
+        phaseNanos.add(System.nanoTime() - phaseStart);
+        phases.add(name);
+        phaseLines.add(lines);
+        Runtime runtime = Runtime.getRuntime();
+        phaseHeap.add(runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Prints the time, throughput and heap use of every phase, followed by the
+     * totals for the whole run.
+     *
+     * @param totalNanos  The time the whole run took, in nanoseconds.
+     * @param experiments The number of experiments that were run.
+     */
+    private void report(long totalNanos, int experiments) {
+        System.out.printf("%n%-18s %10s %12s %14s %12s%n",
+                "Phase", "Lines", "Time (ms)", "Lines/sec", "Heap (MB)");
+
+        for (int i = 0; i < phases.size(); i++) {
+            long nanos = phaseNanos.get(i);
+            System.out.printf("%-18s %10d %12.1f %14.0f %12.1f%n",
+                    phases.get(i), phaseLines.get(i), nanos / 1e6,
+                    phaseLines.get(i) * 1e9 / Math.max(nanos, 1),
+                    phaseHeap.get(i) / 1048576.0);
+        }
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        System.out.printf("%-18s %10d %12.1f %14.0f %12.1f%n", "total",
+                experiments, totalNanos / 1e6,
+                experiments * 1e9 / Math.max(totalNanos, 1), peak / 1048576.0);
+        System.out.println("Peak heap is summed over the heap memory pools.");
+    }
+
+}
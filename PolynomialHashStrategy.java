@@ -0,0 +1,37 @@
+/**
+ * The PolynomialHashStrategy class is the original hashing algorithm of the
+ * HashFunction class, computing hash += hash * 31 + c for every character.
+ *
+ * <p>Since the hash is multiplied by 32 at every step, each character is
+ * shifted five bits further left, and characters more than six places from
+ * the end of a name no longer affect the hash at all. Names that share a long
+ * suffix therefore collide. The strategy is kept so that it can be compared
+ * with MixHashStrategy.
+ *
+ * @author ColinKula
+ */
+
+public class PolynomialHashStrategy implements HashStrategy {
+
+    // Methods
+
+    /**
+     * Computes the hash code of the given expression using the original
+     * polynomial algorithm.
+     *
+     * @param expression The expression to be hashed.
+     * @return The computed hash code.
+     */
+    @Override
+    public int hashCode(String expression) {
+        int hash = 0;
+        final int primeMultiplier = 31;
+
+        for (int i = 0; i < expression.length(); i++) {
+            hash += hash * primeMultiplier + HashStrategy.fold(expression.charAt(i));
+        }
+
+        return hash;
+    }
+
+}
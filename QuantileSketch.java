@@ -0,0 +1,388 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The QuantileSketch class estimates the quantiles of a stream of values in
+ * a small, bounded amount of memory, following the KLL sketch of Karnin, Lang
+ * and Liberty.
+ *
+ * <p>Values are kept in a stack of compactors. Every value enters level 0,
+ * where it stands for itself; a value at level h stands for 2^h values. When a
+ * level holds more than its capacity, it is sorted and every other value,
+ * starting at a random one of the first two, moves up a level while the rest
+ * are dropped. The top level has capacity k and each level below it two
+ * thirds of the one above, so the sketch keeps O(k) values however many it
+ * has seen, and a quantile is off by about 2 / k of the count in rank.
+ *
+ * <p>Sketches with the same k can be merged, such as those filled by separate
+ * threads, and the merged sketch has the same accuracy as one that saw all
+ * the values. NaN values are ignored; the smallest and largest values are
+ * kept exactly.
+ *
+ * @author ColinKula
+ */
+
+public class QuantileSketch {
+
+    // Fields
+
+    /**
+     * The default capacity of the top level, for a rank error of about 1%.
+     */
+    static final int DEFAULT_K = 200;
+
+    /**
+     * The smallest capacity of any level.
+     */
+    static final int MIN_CAPACITY = 2;
+
+    /**
+     * The ratio of the capacity of a level to the one above it.
+     */
+    static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+    /**
+     * The rank error of a sketch, times k.
+     */
+    static final double ERROR_FACTOR = 2.0;
+
+    /**
+     * The capacity of the top level, which sets the accuracy.
+     */
+    final int k;
+
+    /**
+     * The values kept at each level; level h holds values of weight 2^h.
+     */
+    double[][] levels = new double[1][];
+
+    /**
+     * The number of values kept at each level.
+     */
+    int[] sizes = new int[1];
+
+    /**
+     * The number of values kept over all levels.
+     */
+    int retained;
+
+    /**
+     * The sum of the capacities of all levels; the sketch compacts when it
+     * keeps this many values.
+     */
+    int totalCapacity;
+
+    /**
+     * The number of values seen.
+     */
+    long count;
+
+    /**
+     * The smallest value seen.
+     */
+    double min = Double.POSITIVE_INFINITY;
+
+    /**
+     * The largest value seen.
+     */
+    double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * The random source choosing which half of a level moves up.
+     */
+    final SplittableRandom random;
+
+    /**
+     * The kept values in order with their cumulative weights, built when a
+     * quantile is asked for and dropped when a value is added.
+     */
+    double[] sortedValues;
+
+    /**
+     * The cumulative weights of sortedValues.
+     */
+    long[] cumulativeWeights;
+
+    // Constructors
+
+    /**
+     * Constructs an empty QuantileSketch with a rank error of about 1%.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Constructs an empty QuantileSketch with the given top level capacity.
+     *
+     * @param k The capacity of the top level; the rank error is about 2 / k.
+     * @throws IllegalArgumentException If k is less than 8.
+     */
+    public QuantileSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8");
+        }
+        this.k = k;
+        this.random = new SplittableRandom(k);
+        levels[0] = new double[k];
+        totalCapacity = capacity(0);
+    }
+
+    // Methods
+
+    /**
+     * Constructs an empty QuantileSketch with about the given rank error.
+     *
+     * @param error The rank error, as a fraction of the count, such as 0.01.
+     * @return The sketch.
+     * @throws IllegalArgumentException If the error is not between 0 and 1.
+     */
+    public static QuantileSketch withError(double error) {
+        if (!(error > 0 && error < 1)) {
+            throw new IllegalArgumentException("Error must be between 0 and 1");
+        }
+        return new QuantileSketch(Math.max(8, (int) Math.ceil(ERROR_FACTOR / error)));
+    }
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value The value.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        append(0, value);
+        sortedValues = null;
+        if (retained >= totalCapacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds every value another sketch has seen.
+     *
+     * @param other The sketch to merge in.
+     * @throws IllegalArgumentException If the other sketch has another k.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Cannot merge sketches with different k");
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sortedValues = null;
+        compress();
+    }
+
+    /**
+     * Estimates the value at the given quantile.
+     *
+     * @param q The quantile, from 0 for the smallest value to 1 for the
+     *          largest.
+     * @return The estimated value, or NaN if the sketch is empty.
+     * @throws IllegalArgumentException If q is not between 0 and 1.
+     */
+    public double quantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q == 0) {
+            return min;
+        }
+        if (q == 1) {
+            return max;
+        }
+        sort();
+        long target = (long) Math.ceil(q * count);
+        int index = Arrays.binarySearch(cumulativeWeights, target);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return sortedValues[Math.min(index, sortedValues.length - 1)];
+    }
+
+    /**
+     * Estimates the fraction of the values seen that are at most the given
+     * value.
+     *
+     * @param value The value.
+     * @return The estimated fraction, from 0 to 1.
+     */
+    public double rank(double value) {
+        if (count == 0) {
+            return 0;
+        }
+        sort();
+        int index = upperBound(value);
+        return index == 0 ? 0 : (double) cumulativeWeights[index - 1] / count;
+    }
+
+    /**
+     * Retrieves the number of values seen.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Retrieves the number of values the sketch keeps.
+     *
+     * @return The number of kept values.
+     */
+    public int retained() {
+        return retained;
+    }
+
+    /**
+     * Retrieves the expected rank error of the sketch.
+     *
+     * @return The rank error, as a fraction of the count.
+     */
+    public double error() {
+        return ERROR_FACTOR / k;
+    }
+
+    /**
+     * Retrieves the capacity of a level, which shrinks by two thirds per level
+     * below the top.
+     *
+     * @param level The level.
+     * @return The capacity.
+     */
+    private int capacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    /**
+     * Appends a value to a level, adding the level and growing its array as
+     * needed.
+     *
+     * @param level The level.
+     * @param value The value.
+     */
+    private void append(int level, double value) {
+        if (level >= levels.length) {
+            int old = levels.length;
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            for (int h = old; h <= level; h++) {
+                levels[h] = new double[k];
+            }
+            totalCapacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                totalCapacity += capacity(h);
+            }
+        }
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    /**
+     * Compacts the lowest level that is at its capacity, until the sketch
+     * keeps fewer values than the sum of the capacities.
+     */
+    private void compress() {
+        while (retained >= totalCapacity) {
+            int h = 0;
+            while (sizes[h] < capacity(h)) {
+                h++;
+            }
+            compact(h);
+        }
+    }
+
+    /**
+     * Sorts a level and moves every other value up a level, starting at a
+     * random one of the first two.
+     *
+     * @param h The level.
+     */
+    private void compact(int h) {
+        double[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+
+        // An odd value out stays behind, so the compacted values pair up
+        int kept = size & 1;
+        int offset = kept + (random.nextBoolean() ? 1 : 0);
+        sizes[h] = kept;
+        retained -= size - kept;
+        for (int i = offset; i < size; i += 2) {
+            append(h + 1, level[i]);
+        }
+    }
+
+    /**
+     * Builds the sorted view of the kept values with their cumulative weights.
+     */
+    private void sort() {
+        if (sortedValues != null) {
+            return;
+        }
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n++] = 1L << h;
+            }
+        }
+
+        // Sort the values and carry the weights along
+        Integer[] order = new Integer[retained];
+        for (int i = 0; i < retained; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        sortedValues = new double[retained];
+        cumulativeWeights = new long[retained];
+        long total = 0;
+        for (int i = 0; i < retained; i++) {
+            sortedValues[i] = values[order[i]];
+            total += weights[order[i]];
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * Finds the number of sorted values that are at most the given value.
+     *
+     * @param value The value.
+     * @return The number of values.
+     */
+    private int upperBound(double value) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Double.compare(sortedValues[middle], value) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+}
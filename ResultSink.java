@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The ResultSink interface receives the results of a run: every experiment
+ * with its notations and evaluation, and then the sorted evaluations or a
+ * summary of them. Sinks render each result into a reused buffer and write it
+ * out asynchronously through an AsyncOutput, instead of printing it piece by
+ * piece.
+ *
+ * <p>The formats are "text", which looks the way Main has always printed its
+ * results, "csv" and "binary".
+ *
+ * @author ColinKula
+ */
+
+public interface ResultSink extends AutoCloseable {
+
+    /**
+     * Writes the results of one experiment.
+     *
+     * @param number     The number of the experiment, starting at 1.
+     * @param experiment The infix and postfix forms of the experiment.
+     * @param tree       The expression tree of the experiment.
+     * @param evaluation The evaluation of the experiment.
+     * @throws IOException If the output has failed.
+     */
+    void experiment(int number, InfixPostfix experiment, ExperimentTree tree, double evaluation)
+            throws IOException;
+
+    /**
+     * Writes the evaluations in sorted order.
+     *
+     * @param tree The binary search tree holding the evaluations.
+     * @throws IOException If the output has failed.
+     */
+    void sorted(BinarySearchTree tree) throws IOException;
+
+    /**
+     * Writes a summary of the evaluations, in place of the sorted
+     * evaluations when exact ordering is not needed.
+     *
+     * @param summary The summary of the evaluations.
+     * @throws IOException If the output has failed.
+     */
+    void summary(EvaluationSummary summary) throws IOException;
+
+    /**
+     * Writes out everything and stops the output thread.
+     *
+     * @throws IOException If the output has failed.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Opens a sink of the given format.
+     *
+     * @param format      The format: "text", "csv" or "binary".
+     * @param out         The stream to write to.
+     * @param closeStream Whether closing the sink also closes the stream.
+     * @return The sink.
+     * @throws IllegalArgumentException If the format is unknown.
+     */
+    static ResultSink open(String format, OutputStream out, boolean closeStream) {
+        AsyncOutput output = new AsyncOutput(out, closeStream);
+        switch (format) {
+            case "text":
+                return new TextResultSink(output);
+            case "csv":
+                return new CsvResultSink(output);
+            case "binary":
+                return new BinaryResultSink(output);
+            default:
+                throw new IllegalArgumentException("Unknown result format: " + format);
+        }
+    }
+
+}
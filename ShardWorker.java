@@ -0,0 +1,228 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ShardWorker class is a process holding one shard of the variables of a
+ * ShardedHashBasedSet in a ConcurrentHashBasedSet, served over a local TCP
+ * socket. The coordinator decides which variables the shard holds; the
+ * worker only stores and answers. Once it listens, the worker prints
+ * "Listening on port n" so a coordinator that started it knows where to
+ * connect. The protocol is line based, with every batch sent as a count
+ * followed by that many lines:
+ *
+ * <pre>
+ * PUT n        followed by n "name = value" lines; "OK n"
+ * REMOVE n     followed by n names; "OK n"
+ * GET n        followed by n names; "OK n" and the value of each name, or
+ *              "-" for a name the shard does not hold
+ * DUMP         "OK n" and every binding of the shard as "name = value"
+ * STATS        "OK bindings n gets n names n"
+ * QUIT         closes the connection
+ * SHUTDOWN     "OK", then the worker exits
+ * </pre>
+ *
+ * <p>Every connection runs on its own virtual thread. Usage:
+ *
+ * <pre>
+ * java ShardWorker [-port 0]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class ShardWorker implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * The bindings of the shard.
+     */
+    final ConcurrentHashBasedSet set = new ConcurrentHashBasedSet();
+
+    /**
+     * The socket the worker listens on.
+     */
+    final ServerSocket serverSocket;
+
+    /**
+     * The number of GET batches answered.
+     */
+    final AtomicLong gets = new AtomicLong();
+
+    /**
+     * The number of names looked up by GET batches.
+     */
+    final AtomicLong names = new AtomicLong();
+
+    // Main
+
+    public static void main(String[] args) throws IOException {
+        int port = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        ShardWorker worker = new ShardWorker(port);
+        System.out.println("Listening on port " + worker.getPort());
+        System.out.flush();
+        worker.acceptLoop();
+    }
+
+    // Constructors
+
+    /**
+     * Constructs a ShardWorker listening on the loopback address.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public ShardWorker(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+    }
+
+    // Methods
+
+    /**
+     * Retrieves the port the worker listens on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections.
+     *
+     * @throws IOException If the socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Accepts connections and serves each on a virtual thread, until the
+     * worker is closed.
+     */
+    void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("shard-connection").start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Could not accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of one connection until the coordinator quits.
+     *
+     * @param socket The connection.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                        socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("QUIT")) {
+                if (line.startsWith("PUT ")) {
+                    int count = Integer.parseInt(line, 4, line.length(), 10);
+                    for (int i = 0; i < count; i++) {
+                        set.update(in.readLine());
+                    }
+                    out.write("OK " + count);
+                } else if (line.startsWith("REMOVE ")) {
+                    int count = Integer.parseInt(line, 7, line.length(), 10);
+                    for (int i = 0; i < count; i++) {
+                        set.remove(in.readLine());
+                    }
+                    out.write("OK " + count);
+                } else if (line.startsWith("GET ")) {
+                    get(Integer.parseInt(line, 4, line.length(), 10), in, out);
+                } else if (line.equals("DUMP")) {
+                    dump(out);
+                } else if (line.equals("STATS")) {
+                    out.write("OK bindings " + set.size() + " gets " + gets + " names " + names);
+                } else if (line.equals("SHUTDOWN")) {
+                    out.write("OK");
+                    out.newLine();
+                    out.flush();
+                    close();
+                    return;
+                } else {
+                    out.write("ERROR unknown command");
+                }
+                out.newLine();
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The coordinator went away or sent a malformed batch
+        }
+    }
+
+    /**
+     * Answers a GET batch.
+     *
+     * @param count The number of names.
+     * @param in    The connection input.
+     * @param out   The connection output.
+     * @throws IOException If the connection fails.
+     */
+    private void get(int count, BufferedReader in, BufferedWriter out) throws IOException {
+        // Read the whole batch first, so a coordinator writing to several
+        // shards before reading any answer cannot block on a full socket
+        String[] batch = new String[count];
+        for (int i = 0; i < count; i++) {
+            batch[i] = in.readLine();
+        }
+        gets.incrementAndGet();
+        names.addAndGet(count);
+        out.write("OK " + count);
+        for (String name : batch) {
+            out.newLine();
+            if (set.contains(name)) {
+                out.write(Integer.toString((int) set.getValueFor(name)));
+            } else {
+                out.write('-');
+            }
+        }
+    }
+
+    /**
+     * Writes every binding of the shard.
+     *
+     * @param out The connection output.
+     * @throws IOException If the connection fails.
+     */
+    private void dump(BufferedWriter out) throws IOException {
+        ArrayList<String> bindings = new ArrayList<>(set.size());
+        set.forEach((name, value) -> bindings.add(name + " = " + value));
+        out.write("OK " + bindings.size());
+        for (String binding : bindings) {
+            out.newLine();
+            out.write(binding);
+        }
+    }
+
+}
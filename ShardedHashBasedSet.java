@@ -0,0 +1,754 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ShardedHashBasedSet class partitions the variables over several
+ * ShardWorker processes, for more bindings than one JVM holds. It acts as the
+ * coordinator: a ConsistentHashRing assigns every variable name to a shard,
+ * and the coordinator sends each shard the bindings it owns and the lookups
+ * it can answer, over loopback TCP connections.
+ *
+ * <p>Lookups are batched by shard. evaluate gathers the operands of all the
+ * given experiments, sends one GET per shard with every name that shard owns,
+ * writing to all shards before reading any answer, and evaluates the
+ * experiments against the combined answers. Lookups made through the
+ * Bindings methods outside such a batch fetch a single name.
+ *
+ * <p>Shards can be started, connected and removed while the set is in use.
+ * Adding a shard moves to it only the bindings the ring now assigns to it,
+ * and removing one moves its bindings to the shards that now own them, so
+ * about 1 / N of the bindings move either way. All methods are synchronized,
+ * so a change of shards waits for the batch in progress and the next batch
+ * sees the new shards.
+ *
+ * <p>The set assumes it is the only coordinator writing to its shards.
+ * Usage of the loopback demonstration, which compares every evaluation with
+ * one made against a local HashBasedSet as shards are added and removed:
+ *
+ * <pre>
+ * java ShardedHashBasedSet [-dir workload] [-shards 3] [-add 1] [-remove 1]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class ShardedHashBasedSet implements Bindings, AutoCloseable {
+
+    // Fields
+
+    /**
+     * A connection to a shard.
+     */
+    static final class Shard {
+
+        /**
+         * The id of the shard on the ring.
+         */
+        final int id;
+
+        /**
+         * The worker process, or null if the worker was started elsewhere.
+         */
+        final Process process;
+
+        /**
+         * The connection to the worker.
+         */
+        final Socket socket;
+
+        /**
+         * The connection input.
+         */
+        final BufferedReader in;
+
+        /**
+         * The connection output.
+         */
+        final BufferedWriter out;
+
+        /**
+         * Connects to a worker on the loopback address.
+         *
+         * @param id      The id of the shard.
+         * @param process The worker process, or null.
+         * @param port    The port the worker listens on.
+         * @throws IOException If the connection fails.
+         */
+        Shard(int id, Process process, int port) throws IOException {
+            this.id = id;
+            this.process = process;
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Sends a command followed by a batch of lines, without waiting for
+         * the answer.
+         *
+         * @param command The command, such as "PUT".
+         * @param lines   The lines of the batch.
+         * @throws IOException If the connection fails.
+         */
+        void send(String command, List<String> lines) throws IOException {
+            out.write(command + " " + lines.size());
+            for (String line : lines) {
+                out.newLine();
+                out.write(line);
+            }
+            out.newLine();
+            out.flush();
+        }
+
+        /**
+         * Reads the status line of an answer.
+         *
+         * @return The number after "OK".
+         * @throws IOException If the connection fails or the worker reports an
+         *                     error.
+         */
+        int status() throws IOException {
+            String status = in.readLine();
+            if (status == null || !status.startsWith("OK")) {
+                throw new IOException("Shard " + id + " failed: " + status);
+            }
+            return status.length() > 3 ? Integer.parseInt(status, 3, status.length(), 10) : 0;
+        }
+
+        /**
+         * Reads every binding of the shard.
+         *
+         * @return The bindings, as "name = value".
+         * @throws IOException If the connection fails.
+         */
+        List<String> dump() throws IOException {
+            out.write("DUMP");
+            out.newLine();
+            out.flush();
+            int count = status();
+            ArrayList<String> bindings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                bindings.add(in.readLine());
+            }
+            return bindings;
+        }
+
+        /**
+         * Shuts down the worker if this coordinator started it, and closes the
+         * connection.
+         *
+         * @throws IOException If the connection cannot be closed.
+         */
+        void close() throws IOException {
+            try {
+                out.write(process != null ? "SHUTDOWN" : "QUIT");
+                out.newLine();
+                out.flush();
+            } finally {
+                socket.close();
+            }
+            if (process != null) {
+                try {
+                    if (!process.waitFor(WORKER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroy();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroy();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * How long a worker gets to start or to shut down.
+     */
+    static final long WORKER_TIMEOUT_SECONDS = 30;
+
+    /**
+     * The ring assigning names to shards.
+     */
+    final ConsistentHashRing ring = new ConsistentHashRing();
+
+    /**
+     * The shards, by id.
+     */
+    final TreeMap<Integer, Shard> shards = new TreeMap<>();
+
+    /**
+     * The id the next shard gets.
+     */
+    int nextShardId;
+
+    /**
+     * The symbol table variable names are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    /**
+     * The values fetched from the shards, by SymbolTable id.
+     */
+    int[] viewValues = new int[0];
+
+    /**
+     * The ids whose value has been fetched.
+     */
+    final BitSet fetched = new BitSet();
+
+    /**
+     * The fetched ids some shard holds a value for.
+     */
+    final BitSet present = new BitSet();
+
+    /**
+     * The number of batches of lookups.
+     */
+    long batches;
+
+    /**
+     * The number of GET round trips to shards.
+     */
+    long roundTrips;
+
+    /**
+     * The number of names looked up.
+     */
+    long namesFetched;
+
+    /**
+     * The number of bindings moved between shards.
+     */
+    long bindingsMoved;
+
+    // Main
+
+    public static void main(String[] args) throws IOException {
+        String directory = "workload";
+        int shardCount = 3;
+        int add = 1;
+        int remove = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-dir")) {
+                directory = args[++i];
+            } else if (args[i].equals("-shards")) {
+                shardCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-add")) {
+                add = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-remove")) {
+                remove = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        HashBasedSet local = new HashBasedSet(directory + "/Values.txt");
+        local.createMap();
+        ArrayList<InfixPostfix> experiments = Main.makeExperiments(directory + "/Experiments.txt", null);
+        ArrayList<ExperimentTree> trees = Main.makeExperimentTrees(experiments);
+        double[] expected = new double[trees.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = evaluate(trees.get(i), local);
+        }
+
+        try (ShardedHashBasedSet set = new ShardedHashBasedSet()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < shardCount; i++) {
+                set.startShard();
+            }
+            int loaded = set.load(directory + "/Values.txt");
+            System.out.printf("Started %d shards and loaded %d bindings in %.1f ms%n",
+                    shardCount, loaded, (System.nanoTime() - start) / 1e6);
+            set.check(trees, expected);
+
+            for (int i = 0; i < add; i++) {
+                long moved = set.bindingsMoved;
+                start = System.nanoTime();
+                int shard = set.startShard();
+                System.out.printf("Added shard %d, moving %d bindings, in %.1f ms%n",
+                        shard, set.bindingsMoved - moved, (System.nanoTime() - start) / 1e6);
+                set.check(trees, expected);
+            }
+            for (int i = 0; i < remove && set.shards.size() > 1; i++) {
+                long moved = set.bindingsMoved;
+                start = System.nanoTime();
+                int shard = set.shards.firstKey();
+                set.removeShard(shard);
+                System.out.printf("Removed shard %d, moving %d bindings, in %.1f ms%n",
+                        shard, set.bindingsMoved - moved, (System.nanoTime() - start) / 1e6);
+                set.check(trees, expected);
+            }
+            System.out.println(set.report());
+        }
+    }
+
+    // Methods
+
+    /**
+     * Evaluates the experiments and prints how many differ from the expected
+     * evaluations, for the demonstration.
+     *
+     * @param trees    The experiments.
+     * @param expected The expected evaluation of every experiment.
+     */
+    private void check(List<ExperimentTree> trees, double[] expected) {
+        long start = System.nanoTime();
+        double[] evaluations = evaluate(trees);
+        long nanos = System.nanoTime() - start;
+        int wrong = 0;
+        for (int i = 0; i < evaluations.length; i++) {
+            if (Double.compare(evaluations[i], expected[i]) != 0) {
+                wrong++;
+            }
+        }
+        System.out.printf("  %d shards: evaluated %d experiments in %.1f ms, %d differ from a local set%n",
+                shards.size(), evaluations.length, nanos / 1e6, wrong);
+    }
+
+    /**
+     * Starts a ShardWorker process on this machine and adds it as a shard.
+     *
+     * @return The id of the new shard.
+     * @throws IOException If the worker cannot be started or reached.
+     */
+    public synchronized int startShard() throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "ShardWorker", "-port", "0");
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    process.getInputStream(), StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("Listening on port ")) {
+                throw new IOException("Shard worker did not start: " + line);
+            }
+            return addShard(new Shard(nextShardId, process, Integer.parseInt(line.substring(18))));
+        } catch (IOException | RuntimeException e) {
+            process.destroy();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a ShardWorker that is already running as a shard.
+     *
+     * @param port The port the worker listens on, on the loopback address.
+     * @return The id of the new shard.
+     * @throws IOException If the worker cannot be reached.
+     */
+    public synchronized int connectShard(int port) throws IOException {
+        return addShard(new Shard(nextShardId, null, port));
+    }
+
+    /**
+     * Copies to a connected shard the bindings it will own, then places it on
+     * the ring and drops the old copies. A failure before the shard is on the
+     * ring leaves every binding where lookups find it. Copies that cannot be
+     * dropped afterwards are no longer routed to, and later moves skip them.
+     *
+     * @param shard The shard.
+     * @return The id of the shard.
+     * @throws IOException If bindings cannot be copied; the shard is then not
+     *                     added.
+     */
+    private int addShard(Shard shard) throws IOException {
+        ConsistentHashRing grown = ring.copy();
+        grown.addShard(shard.id);
+        HashMap<Integer, ArrayList<String>> namesByShard = new HashMap<>();
+        ArrayList<String> moved = new ArrayList<>();
+        try {
+            for (Shard other : shards.values()) {
+                ArrayList<String> names = new ArrayList<>();
+                for (String binding : other.dump()) {
+                    String name = binding.substring(0, binding.indexOf(' '));
+                    if (ring.shardFor(name) == other.id && grown.shardFor(name) == shard.id) {
+                        moved.add(binding);
+                        names.add(name);
+                    }
+                }
+                if (!names.isEmpty()) {
+                    namesByShard.put(other.id, names);
+                }
+            }
+            if (!moved.isEmpty()) {
+                shard.send("PUT", moved);
+                shard.status();
+            }
+        } catch (IOException e) {
+            shard.socket.close();
+            throw e;
+        }
+
+        nextShardId++;
+        ring.addShard(shard.id);
+        shards.put(shard.id, shard);
+        bindingsMoved += moved.size();
+
+        for (Map.Entry<Integer, ArrayList<String>> names : namesByShard.entrySet()) {
+            Shard other = shards.get(names.getKey());
+            try {
+                other.send("REMOVE", names.getValue());
+                other.status();
+            } catch (IOException e) {
+                System.err.println("Shard " + other.id + " kept " + names.getValue().size()
+                        + " moved bindings: " + e.getMessage());
+            }
+        }
+        return shard.id;
+    }
+
+    /**
+     * Copies the bindings of a shard to the shards that will own them, then
+     * takes it off the ring and shuts its worker down if this set started it.
+     * A failure while copying leaves the shard on the ring with all of its
+     * bindings.
+     *
+     * @param id The id of the shard.
+     * @throws IOException If bindings cannot be copied, or the shard cannot
+     *                     be closed once it is off the ring.
+     * @throws IllegalArgumentException If there is no such shard.
+     * @throws IllegalStateException If it is the last shard.
+     */
+    public synchronized void removeShard(int id) throws IOException {
+        Shard shard = shards.get(id);
+        if (shard == null) {
+            throw new IllegalArgumentException("No shard " + id);
+        }
+        if (shards.size() == 1) {
+            throw new IllegalStateException("The last shard cannot be removed");
+        }
+        ConsistentHashRing shrunk = ring.copy();
+        shrunk.removeShard(id);
+        HashMap<Integer, ArrayList<String>> byShard = new HashMap<>();
+        int moved = 0;
+        for (String binding : shard.dump()) {
+            String name = binding.substring(0, binding.indexOf(' '));
+            if (ring.shardFor(name) == id) { // Skip copies left by an earlier move
+                byShard.computeIfAbsent(shrunk.shardFor(name), k -> new ArrayList<>()).add(binding);
+                moved++;
+            }
+        }
+        send("PUT", byShard);
+
+        ring.removeShard(id);
+        shards.remove(id);
+        bindingsMoved += moved;
+        shard.close();
+    }
+
+    /**
+     * Sends every "name = value" line of a file to the shards that own the
+     * names, one batch per shard.
+     *
+     * @param valuesFile The path of the file.
+     * @return The number of bindings sent.
+     * @throws IOException If the file cannot be read or a shard fails.
+     * @throws IllegalStateException If there are no shards.
+     */
+    public synchronized int load(String valuesFile) throws IOException {
+        requireShards();
+        HashMap<Integer, ArrayList<String>> byShard = new HashMap<>();
+        int count = 0;
+        for (String line : Files.readAllLines(Path.of(valuesFile))) {
+            int i = line.indexOf(" = ");
+            if (i > 0) {
+                byShard.computeIfAbsent(ring.shardFor(line.substring(0, i)), k -> new ArrayList<>()).add(line);
+                count++;
+            }
+        }
+        send("PUT", byShard);
+        fetched.clear();
+        return count;
+    }
+
+    /**
+     * Sets the value of a variable on the shard that owns it.
+     *
+     * @param variable The variable name.
+     * @param value    The value.
+     * @throws IOException If the shard fails.
+     */
+    public synchronized void put(String variable, int value) throws IOException {
+        requireShards();
+        Shard shard = shards.get(ring.shardFor(variable));
+        shard.send("PUT", List.of(variable + " = " + value));
+        shard.status();
+        remember(symbols.intern(variable), value, true);
+    }
+
+    /**
+     * Removes a variable from the shard that owns it.
+     *
+     * @param variable The variable name.
+     * @throws IOException If the shard fails.
+     */
+    public synchronized void remove(String variable) throws IOException {
+        requireShards();
+        Shard shard = shards.get(ring.shardFor(variable));
+        shard.send("REMOVE", List.of(variable));
+        shard.status();
+        remember(symbols.intern(variable), 0, false);
+    }
+
+    /**
+     * Evaluates experiments against the current bindings of the shards,
+     * fetching every operand they use in one batch per shard. An experiment
+     * whose operands are missing evaluates to NaN.
+     *
+     * @param trees The experiments.
+     * @return The evaluation of every experiment.
+     * @throws UncheckedIOException If a shard fails.
+     */
+    public synchronized double[] evaluate(List<ExperimentTree> trees) {
+        fetched.clear();
+        BitSet wanted = new BitSet();
+        for (ExperimentTree tree : trees) {
+            tree.forEachSymbol(wanted::set);
+        }
+        fetch(wanted);
+
+        double[] evaluations = new double[trees.size()];
+        for (int i = 0; i < evaluations.length; i++) {
+            evaluations[i] = evaluate(trees.get(i), this);
+        }
+        return evaluations;
+    }
+
+    /**
+     * Evaluates an experiment, giving NaN if its operands are missing.
+     *
+     * @param tree The experiment.
+     * @param set  The bindings.
+     * @return The evaluation.
+     */
+    private static double evaluate(ExperimentTree tree, Bindings set) {
+        try {
+            return tree.evaluatePostfix(set);
+        } catch (EmptyStackException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Fetches the values of the given ids that are not fetched yet, one GET
+     * per shard. Every shard is sent its batch before any answer is read.
+     *
+     * @param wanted The SymbolTable ids.
+     * @throws UncheckedIOException If a shard fails.
+     */
+    private void fetch(BitSet wanted) {
+        requireShards();
+        HashMap<Integer, ArrayList<String>> byShard = new HashMap<>();
+        HashMap<Integer, ArrayList<Integer>> idsByShard = new HashMap<>();
+        for (int symbol = wanted.nextSetBit(0); symbol >= 0; symbol = wanted.nextSetBit(symbol + 1)) {
+            if (!fetched.get(symbol)) {
+                String name = symbols.nameOf(symbol);
+                int shard = ring.shardFor(name);
+                byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(name);
+                idsByShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(symbol);
+            }
+        }
+        if (byShard.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (Map.Entry<Integer, ArrayList<String>> batch : byShard.entrySet()) {
+                shards.get(batch.getKey()).send("GET", batch.getValue());
+            }
+            for (Map.Entry<Integer, ArrayList<Integer>> batch : idsByShard.entrySet()) {
+                Shard shard = shards.get(batch.getKey());
+                shard.status();
+                for (int symbol : batch.getValue()) {
+                    String value = shard.in.readLine();
+                    if (value == null) {
+                        throw new IOException("Shard " + shard.id + " closed the connection");
+                    }
+                    boolean found = !value.equals("-");
+                    remember(symbol, found ? Integer.parseInt(value) : 0, found);
+                }
+                namesFetched += batch.getValue().size();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        batches++;
+        roundTrips += byShard.size();
+    }
+
+    /**
+     * Sends a batch to each of several shards and waits for every answer.
+     *
+     * @param command The command, such as "PUT".
+     * @param byShard The lines of the batch for each shard.
+     * @throws IOException If a shard fails.
+     */
+    private void send(String command, Map<Integer, ArrayList<String>> byShard) throws IOException {
+        for (Map.Entry<Integer, ArrayList<String>> batch : byShard.entrySet()) {
+            shards.get(batch.getKey()).send(command, batch.getValue());
+        }
+        for (int shard : byShard.keySet()) {
+            shards.get(shard).status();
+        }
+    }
+
+    /**
+     * Records the value of an id in the fetched view.
+     *
+     * @param symbol The id.
+     * @param value  The value.
+     * @param found  Whether some shard holds the id.
+     */
+    private void remember(int symbol, int value, boolean found) {
+        if (symbol >= viewValues.length) {
+            viewValues = Arrays.copyOf(viewValues, Math.max(symbol + 1, viewValues.length * 2));
+        }
+        viewValues[symbol] = value;
+        fetched.set(symbol);
+        present.set(symbol, found);
+    }
+
+    /**
+     * Fetches a single id if it is not fetched yet.
+     *
+     * @param symbol The id.
+     */
+    private void fetchOne(int symbol) {
+        if (!fetched.get(symbol)) {
+            BitSet wanted = new BitSet();
+            wanted.set(symbol);
+            fetch(wanted);
+        }
+    }
+
+    /**
+     * Checks that there is at least one shard.
+     *
+     * @throws IllegalStateException If there are no shards.
+     */
+    private void requireShards() {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("The set has no shards");
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String variable) {
+        return contains(symbols.intern(variable));
+    }
+
+    @Override
+    public synchronized boolean contains(int symbol) {
+        if (symbol < 0) {
+            return false;
+        }
+        fetchOne(symbol);
+        return present.get(symbol);
+    }
+
+    /**
+     * Retrieves the value of the specified variable.
+     *
+     * @param variable The variable name.
+     * @return The value of the variable, or -1.0 if no shard holds it.
+     */
+    @Override
+    public synchronized double getValueFor(String variable) {
+        return getValueFor(symbols.intern(variable));
+    }
+
+    /**
+     * Retrieves the value of the variable with the specified SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or -1.0 if no shard holds it.
+     */
+    @Override
+    public synchronized double getValueFor(int symbol) {
+        if (symbol < 0) {
+            return -1.0;
+        }
+        fetchOne(symbol);
+        return present.get(symbol) ? viewValues[symbol] : -1.0;
+    }
+
+    @Override
+    public synchronized double valueOrNaN(int symbol) {
+        if (symbol < 0) {
+            return Double.NaN;
+        }
+        fetchOne(symbol);
+        return present.get(symbol) ? viewValues[symbol] : Double.NaN;
+    }
+
+    /**
+     * Describes the shards and how lookups were batched.
+     *
+     * @return The report.
+     */
+    public synchronized String report() {
+        StringBuilder sizes = new StringBuilder();
+        for (Shard shard : shards.values()) {
+            String stats;
+            try {
+                shard.out.write("STATS");
+                shard.out.newLine();
+                shard.out.flush();
+                stats = shard.in.readLine();
+            } catch (IOException e) {
+                stats = "unreachable";
+            }
+            sizes.append(String.format("%n  shard %d: %s", shard.id, stats));
+        }
+        return String.format("Sharded set: %d shards, %d lookup batches, %d round trips, "
+                + "%d names fetched (%.1f per round trip), %d bindings moved%s",
+                shards.size(), batches, roundTrips, namesFetched,
+                roundTrips > 0 ? (double) namesFetched / roundTrips : 0.0, bindingsMoved, sizes);
+    }
+
+    /**
+     * Closes every shard, shutting down the workers this set started.
+     *
+     * @throws IOException If a connection cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Shard shard : shards.values()) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (int id : shards.keySet()) {
+            ring.removeShard(id);
+        }
+        shards.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
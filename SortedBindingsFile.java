@@ -0,0 +1,542 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The SortedBindingsFile class keeps variable bindings on disk, sorted by
+ * name, for bindings that do not all fit in memory. Only a sparse index of
+ * the first name of every block and a BloomFilter of all the names are held
+ * in memory; a lookup reads the one block its name can be in.
+ *
+ * <p>A file holds four regions:
+ *
+ * <ul>
+ * <li>the header: the magic number, the format version, the number of
+ * entries, the number of blocks and the entries per block as 32-bit ints,
+ * then the offsets of the index and the filter as 64-bit longs;</li>
+ * <li>the blocks: every entry in name order, as the name length (a short),
+ * the name as UTF-16 chars and the value (an int);</li>
+ * <li>the index: for every block, its offset and length in bytes and its
+ * first name; and</li>
+ * <li>the BloomFilter of all the names.</li>
+ * </ul>
+ *
+ * <p>Names are ordered and compared ignoring case, as the Table compares
+ * them. Blocks are read with positional reads, so lookups from several
+ * threads do not interfere.
+ *
+ * @author ColinKula
+ */
+
+public class SortedBindingsFile implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * The magic number at the start of every file, "SSB1".
+     */
+    static final int MAGIC = 0x53534231;
+
+    /**
+     * The version of the file format.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * The size of the header, in bytes.
+     */
+    static final int HEADER_BYTES = 36;
+
+    /**
+     * The number of entries in a block.
+     */
+    static final int BLOCK_ENTRIES = 64;
+
+    /**
+     * The false positive rate of the BloomFilter written with the file.
+     */
+    static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * The value find returns for a name that is not in the file.
+     */
+    static final long MISSING = Long.MIN_VALUE;
+
+    /**
+     * Writes a sorted bindings file from entries given in name order, one
+     * block at a time, so the entries never need to be in memory at once.
+     */
+    static final class Writer implements AutoCloseable {
+
+        /**
+         * The path of the file.
+         */
+        final String path;
+
+        /**
+         * The stream the blocks, index and filter are written to.
+         */
+        final DataOutputStream out;
+
+        /**
+         * The filter of the names written.
+         */
+        final BloomFilter names;
+
+        /**
+         * The first name of every block.
+         */
+        final ArrayList<String> firstNames = new ArrayList<>();
+
+        /**
+         * The offset of every block.
+         */
+        long[] offsets = new long[16];
+
+        /**
+         * The length of every block, in bytes.
+         */
+        int[] lengths = new int[16];
+
+        /**
+         * The number of entries written.
+         */
+        int count;
+
+        /**
+         * The offset the next byte is written at.
+         */
+        long offset = HEADER_BYTES;
+
+        /**
+         * Creates the file and reserves room for its header.
+         *
+         * @param path          The path of the file.
+         * @param expectedCount The most entries that will be written, which
+         *                      sizes the filter.
+         * @throws IOException If the file cannot be created.
+         */
+        Writer(String path, long expectedCount) throws IOException {
+            this.path = path;
+            this.names = new BloomFilter(expectedCount, FALSE_POSITIVE_RATE);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+            // The offsets are not known yet; the header is written at the end
+            out.write(new byte[HEADER_BYTES]);
+        }
+
+        /**
+         * Writes an entry. Names must come in order, ignoring case, with no
+         * name twice.
+         *
+         * @param name  The name.
+         * @param value The value.
+         * @throws IOException If the file cannot be written.
+         */
+        void add(String name, int value) throws IOException {
+            int block = firstNames.size() - 1;
+            if (count % BLOCK_ENTRIES == 0) {
+                block++;
+                if (block == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, block * 2);
+                    lengths = Arrays.copyOf(lengths, block * 2);
+                }
+                offsets[block] = offset;
+                firstNames.add(name);
+            }
+            out.writeShort(name.length());
+            out.writeChars(name);
+            out.writeInt(value);
+            names.add(name);
+            offset += 6 + 2L * name.length();
+            lengths[block] = (int) (offset - offsets[block]);
+            count++;
+        }
+
+        /**
+         * Writes the index, the filter and the header, and closes the file.
+         *
+         * @return The number of entries written.
+         * @throws IOException If the file cannot be written.
+         */
+        int finish() throws IOException {
+            int blockCount = firstNames.size();
+            long indexOffset = offset;
+            for (int b = 0; b < blockCount; b++) {
+                String first = firstNames.get(b);
+                out.writeLong(offsets[b]);
+                out.writeInt(lengths[b]);
+                out.writeShort(first.length());
+                out.writeChars(first);
+                offset += 14 + 2L * first.length();
+            }
+
+            long filterOffset = offset;
+            ByteBuffer filter = ByteBuffer.allocate(names.serializedSize());
+            names.writeTo(filter);
+            out.write(filter.array());
+            out.close();
+
+            try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(count).putInt(blockCount)
+                        .putInt(BLOCK_ENTRIES).putLong(indexOffset).putLong(filterOffset).flip();
+                channel.write(header, 0);
+            }
+            return count;
+        }
+
+        /**
+         * Closes the file, leaving it incomplete if finish was not called.
+         *
+         * @throws IOException If the file cannot be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * The file, kept open for reading blocks.
+     */
+    final FileChannel channel;
+
+    /**
+     * The number of entries.
+     */
+    final int entryCount;
+
+    /**
+     * The first name of every block.
+     */
+    final String[] firstNames;
+
+    /**
+     * The offset of every block.
+     */
+    final long[] blockOffsets;
+
+    /**
+     * The length of every block, in bytes.
+     */
+    final int[] blockLengths;
+
+    /**
+     * The filter of all the names in the file.
+     */
+    final BloomFilter filter;
+
+    /**
+     * The number of blocks read.
+     */
+    long blockReads;
+
+    // Constructors
+
+    /**
+     * Constructs a SortedBindingsFile over an open file, reading its header,
+     * index and filter.
+     *
+     * @param channel The file.
+     * @throws IOException If the file cannot be read or is not a valid sorted
+     *                     bindings file.
+     */
+    private SortedBindingsFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = read(0, HEADER_BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a sorted bindings file");
+        }
+        entryCount = header.getInt();
+        int blockCount = header.getInt();
+        header.getInt(); // Entries per block, informational
+        long indexOffset = header.getLong();
+        long filterOffset = header.getLong();
+        if (entryCount < 0 || blockCount < 0 || indexOffset < HEADER_BYTES || filterOffset < indexOffset
+                || filterOffset > channel.size() || filterOffset - indexOffset > Integer.MAX_VALUE
+                || channel.size() - filterOffset > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt sorted bindings file");
+        }
+
+        ByteBuffer index = read(indexOffset, (int) (filterOffset - indexOffset));
+        firstNames = new String[blockCount];
+        blockOffsets = new long[blockCount];
+        blockLengths = new int[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            blockOffsets[b] = index.getLong();
+            blockLengths[b] = index.getInt();
+            firstNames[b] = readName(index);
+        }
+        filter = BloomFilter.readFrom(read(filterOffset, (int) (channel.size() - filterOffset)));
+    }
+
+    // Methods
+
+    /**
+     * Opens a sorted bindings file.
+     *
+     * @param path The path of the file.
+     * @return The file, ready for lookups.
+     * @throws IOException If the file cannot be read or is not valid.
+     */
+    public static SortedBindingsFile open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+        try {
+            return new SortedBindingsFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the bindings of a Table to a sorted bindings file. A variable
+     * held by more than one node is written once, with the value its
+     * SymbolTable id maps to.
+     *
+     * @param table The table to write.
+     * @param path  The path of the file.
+     * @return The number of bindings written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static int write(Table table, String path) throws IOException {
+        ArrayList<TableNode> nodes = new ArrayList<>();
+        boolean[] written = new boolean[table.bySymbol.length];
+        for (int i = 0; i < table.size; i++) {
+            TableNode ptr = table.table[i].next; // Skip the dummy node
+            for (int j = 0; j < table.numberOfNodes[i]; j++) {
+                if (ptr.symbol < 0) {
+                    nodes.add(ptr);
+                } else if (!written[ptr.symbol]) {
+                    written[ptr.symbol] = true;
+                    nodes.add(table.bySymbol[ptr.symbol]);
+                }
+                ptr = ptr.next;
+            }
+        }
+        nodes.sort((a, b) -> compareFolded(a.expression, b.expression));
+
+        try (Writer writer = new Writer(path, nodes.size())) {
+            for (TableNode node : nodes) {
+                writer.add(node.expression, node.getValue());
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Writes the bindings of this file, with changes applied, to a new file.
+     * The blocks of this file are read one at a time and merged with the
+     * sorted changes, so only the changes are held in memory.
+     *
+     * @param changes The changed bindings, from name to value; a null value
+     *                removes the name.
+     * @param path    The path of the new file.
+     * @return The number of bindings written.
+     * @throws IOException If this file cannot be read or the new one written.
+     */
+    public int merge(Map<String, Integer> changes, String path) throws IOException {
+        ArrayList<String> changed = new ArrayList<>(changes.keySet());
+        changed.sort(SortedBindingsFile::compareFolded);
+        int next = 0;
+
+        try (Writer writer = new Writer(path, (long) entryCount + changed.size())) {
+            for (int b = 0; b < firstNames.length; b++) {
+                ByteBuffer entries = read(blockOffsets[b], blockLengths[b]);
+                while (entries.hasRemaining()) {
+                    String name = readName(entries);
+                    int value = entries.getInt();
+                    while (next < changed.size() && compareFolded(changed.get(next), name) < 0) {
+                        addChange(writer, changed.get(next++), changes);
+                    }
+                    if (next < changed.size() && compareFolded(changed.get(next), name) == 0) {
+                        addChange(writer, changed.get(next++), changes);
+                    } else {
+                        writer.add(name, value);
+                    }
+                }
+            }
+            while (next < changed.size()) {
+                addChange(writer, changed.get(next++), changes);
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Writes a changed binding, unless the change removes it.
+     *
+     * @param writer  The writer.
+     * @param name    The name.
+     * @param changes The changed bindings.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void addChange(Writer writer, String name, Map<String, Integer> changes) throws IOException {
+        Integer value = changes.get(name);
+        if (value != null) {
+            writer.add(name, value);
+        }
+    }
+
+    /**
+     * Looks up the value of a name.
+     *
+     * @param name The name, compared ignoring case.
+     * @return The value, or MISSING if the name is not in the file.
+     * @throws IOException If the block cannot be read.
+     */
+    public long find(CharSequence name) throws IOException {
+        // The last block whose first name is not after the name
+        int low = 0;
+        int high = firstNames.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compareFolded(firstNames[middle], name) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (block < 0) {
+            return MISSING;
+        }
+
+        ByteBuffer entries = read(blockOffsets[block], blockLengths[block]);
+        synchronized (this) {
+            blockReads++;
+        }
+        while (entries.hasRemaining()) {
+            int length = entries.getShort();
+            int start = entries.position();
+            int comparison = compareFolded(entries, start, length, name);
+            entries.position(start + 2 * length);
+            int value = entries.getInt();
+            if (comparison == 0) {
+                return value;
+            } else if (comparison > 0) {
+                break;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Retrieves the filter of all the names in the file.
+     *
+     * @return The filter.
+     */
+    public BloomFilter filter() {
+        return filter;
+    }
+
+    /**
+     * Retrieves the number of bindings in the file.
+     *
+     * @return The number of bindings.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Retrieves the number of blocks read by lookups.
+     *
+     * @return The number of block reads.
+     */
+    public synchronized long blockReads() {
+        return blockReads;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads a range of the file.
+     *
+     * @param position The offset of the range.
+     * @param length   The length of the range.
+     * @return A buffer holding the range.
+     * @throws IOException If the range cannot be read.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of sorted bindings file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Reads a name stored as its length followed by its chars.
+     *
+     * @param in The buffer.
+     * @return The name.
+     */
+    private static String readName(ByteBuffer in) {
+        char[] chars = new char[in.getShort()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares two names ignoring case.
+     *
+     * @param a The first name.
+     * @param b The second name.
+     * @return A negative number, zero or a positive number as a is before,
+     *         equal to or after b.
+     */
+    static int compareFolded(CharSequence a, CharSequence b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int difference = HashStrategy.fold(a.charAt(i)) - HashStrategy.fold(b.charAt(i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Compares a name stored in a buffer with another name, ignoring case.
+     *
+     * @param in     The buffer.
+     * @param start  The offset of the stored name's chars.
+     * @param length The length of the stored name.
+     * @param name   The other name.
+     * @return A negative number, zero or a positive number as the stored name
+     *         is before, equal to or after the other.
+     */
+    private static int compareFolded(ByteBuffer in, int start, int length, CharSequence name) {
+        int common = Math.min(length, name.length());
+        for (int i = 0; i < common; i++) {
+            int difference = HashStrategy.fold(in.getChar(start + 2 * i)) - HashStrategy.fold(name.charAt(i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - name.length();
+    }
+
+}
@@ -0,0 +1,543 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * The StructureBenchmark class is a self-contained microbenchmark suite for
+ * the hot paths of every structure in the project: HashFunction, Table,
+ * HashBasedSet, InfixPostfix, ExperimentTree and BinarySearchTree.
+ *
+ * <p>Each benchmark runs over every combination of size and key distribution.
+ * A benchmark is warmed up first and then timed for a fixed interval. Next to
+ * the throughput, the bytes allocated per operation and the number of garbage
+ * collections during the measurement are reported, read from the same
+ * per-thread allocation counters the JMH GC profiler uses.
+ *
+ * <p>The project classes live in the default package, which JMH cannot
+ * generate harness code for, so the harness is kept in plain Java and only
+ * needs the JDK. Usage:
+ *
+ * <pre>
+ * java StructureBenchmark [-sizes 16,256,4096] [-dists sequential,random,suffix]
+ *                         [-warmup ms] [-time ms] [filter]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class StructureBenchmark {
+
+    // Fields
+
+    /**
+     * The key distributions the benchmarks can run over. "sequential" names
+     * the keys x0, x1, ...; "random" uses random letters followed by random
+     * digits; "suffix" uses long names that only differ in their first
+     * letters and share a common suffix.
+     */
+    static final String[] DISTRIBUTIONS = {"sequential", "random", "suffix"};
+
+    /**
+     * The operators used when generating expressions.
+     */
+    static final char[] OPERATORS = {'+', '-', '*', '/', '^'};
+
+    /**
+     * Receives benchmark results so the JIT cannot remove the measured work.
+     */
+    static volatile double sink;
+
+    /**
+     * Accumulates results inside the measured loop before being published to
+     * the sink.
+     */
+    static double accumulator;
+
+    /**
+     * The warmup time for each benchmark, in milliseconds.
+     */
+    long warmupMillis = 300;
+
+    /**
+     * The measurement time for each benchmark, in milliseconds.
+     */
+    long measureMillis = 700;
+
+    /**
+     * A single operation under measurement. The argument is the running
+     * operation index, which benchmarks use to pick their next input. It
+     * wraps back to 0 after Integer.MAX_VALUE, so it is never negative.
+     */
+    interface Operation {
+        void run(int i);
+    }
+
+    /**
+     * Builds the operation for one benchmark from its size and key
+     * distribution. All setup happens here, outside of the measurement.
+     */
+    interface Setup {
+        Operation create(int size, String distribution);
+    }
+
+    // Main
+
+    public static void main(String[] args) {
+        StructureBenchmark benchmark = new StructureBenchmark();
+        int[] sizes = {16, 256, 4096};
+        String[] distributions = DISTRIBUTIONS;
+        String filter = "";
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-sizes")) {
+                String[] parts = args[++i].split(",");
+                sizes = new int[parts.length];
+                for (int j = 0; j < parts.length; j++) {
+                    sizes[j] = Integer.parseInt(parts[j].trim());
+                }
+            } else if (args[i].equals("-dists")) {
+                distributions = args[++i].split(",");
+            } else if (args[i].equals("-warmup")) {
+                benchmark.warmupMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-time")) {
+                benchmark.measureMillis = Long.parseLong(args[++i]);
+            } else {
+                filter = args[i];
+            }
+        }
+
+        System.out.printf("%-26s %7s %-11s %14s %12s %10s %5s%n",
+                "Benchmark", "Size", "Keys", "ops/s", "ns/op", "B/op", "GCs");
+
+        String[] names = {"HashFunction.hash(legacy)", "HashFunction.hash(mix)", "Table.add", "Table.getValueFor",
+            "HashBasedSet.update", "InfixPostfix.convert",
+            "ExperimentTree.createTree", "ExperimentTree.evaluate",
+            "BinarySearchTree.insert", "BinarySearchTree.search",
+            "BinarySearchTree.remove"};
+        Setup[] setups = {StructureBenchmark::hashFunctionHash, StructureBenchmark::mixHash,
+            StructureBenchmark::tableAdd, StructureBenchmark::tableGetValueFor,
+            StructureBenchmark::hashBasedSetUpdate, StructureBenchmark::infixPostfix,
+            StructureBenchmark::createTree, StructureBenchmark::evaluatePostfix,
+            StructureBenchmark::treeInsert, StructureBenchmark::treeSearch,
+            StructureBenchmark::treeRemove};
+
+        for (int b = 0; b < names.length; b++) {
+            if (!names[b].contains(filter)) {
+                continue;
+            }
+            for (int size : sizes) {
+                for (String distribution : distributions) {
+                    benchmark.run(names[b], size, distribution, setups[b]);
+                }
+            }
+        }
+    }
+
+    // Methods
+
+    /**
+     * Warms up and measures a single benchmark, then prints one result line.
+     *
+     * @param name         The name of the benchmark.
+     * @param size         The size parameter.
+     * @param distribution The key distribution.
+     * @param setup        Creates the operation to be measured.
+     */
+    public void run(String name, int size, String distribution, Setup setup) {
+        Operation operation = setup.create(size, distribution);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        runFor(operation, warmupMillis);
+
+        long gcBefore = gcCount();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long operations = runFor(operation, measureMillis);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long gcs = gcCount() - gcBefore;
+        sink = accumulator;
+
+        System.out.printf("%-26s %7d %-11s %14.1f %12.1f %10.1f %5d%n",
+                name, size, distribution,
+                operations * 1e9 / elapsed, (double) elapsed / operations,
+                (double) allocated / operations, gcs);
+    }
+
+    /**
+     * Runs the operation repeatedly until the given time has passed. The clock
+     * is only checked every few operations to keep its cost out of the
+     * measurement.
+     *
+     * @param operation The operation to run.
+     * @param millis    The time to run for, in milliseconds.
+     * @return The number of operations that were run.
+     */
+    private long runFor(Operation operation, long millis) {
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        long count = 0;
+        int i = 0;
+        int batch = 1;
+
+        while (System.nanoTime() < deadline) {
+            for (int j = 0; j < batch; j++) {
+                operation.run(i);
+                i = (i + 1) & Integer.MAX_VALUE;
+            }
+            count += batch;
+            if (batch < 1024) {
+                batch *= 2;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Sums the collection counts of all garbage collectors.
+     *
+     * @return The total number of collections so far.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    // Inputs
+
+    /**
+     * Generates variable names following the given key distribution. Every
+     * name is a run of letters followed by a run of digits, which is the form
+     * the expression parser splits operands on. A random name that was already
+     * drawn is drawn again, and the suffix names get more letters when four
+     * cannot tell count names apart, so no name repeats.
+     *
+     * @param count        The number of names to generate.
+     * @param distribution The key distribution.
+     * @param random       The source of randomness.
+     * @return The generated, distinct names.
+     */
+    static String[] names(int count, String distribution, Random random) {
+        String[] names = new String[count];
+        HashSet<String> drawn = new HashSet<>();
+        int suffixLetters = 4;
+        for (long combinations = 26 * 26 * 26 * 26; combinations < count; combinations *= 26) {
+            suffixLetters++;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (distribution.equals("random")) {
+                // Three letters repeat often, and the digits of two names can
+                // line up, as 1 followed by 23 and 12 followed by 3 do
+                do {
+                    names[i] = letters(random.nextInt(Integer.MAX_VALUE), 3 + random.nextInt(6))
+                            + i + random.nextInt(1000);
+                } while (!drawn.add(names[i]));
+            } else if (distribution.equals("suffix")) {
+                names[i] = letters(i, suffixLetters) + "measurementsample" + 1;
+            } else {
+                names[i] = "x" + i;
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Encodes a number as a fixed-length run of lowercase letters.
+     *
+     * @param number The number to encode.
+     * @param length The number of letters.
+     * @return The encoded letters.
+     */
+    static String letters(int number, int length) {
+        char[] letters = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            letters[i] = (char) ('a' + number % 26);
+            number /= 26;
+        }
+        return new String(letters);
+    }
+
+    /**
+     * Generates an infix expression over the given names with the given number
+     * of operands, using random operators and parentheses.
+     *
+     * @param names    The operand names to choose from.
+     * @param operands The number of operands in the expression.
+     * @param random   The source of randomness.
+     * @return The infix expression.
+     */
+    static String expression(String[] names, int operands, Random random) {
+        StringBuilder builder = new StringBuilder();
+        int open = 0;
+
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                builder.append(OPERATORS[random.nextInt(OPERATORS.length)]);
+            }
+            if (i < operands - 1 && random.nextInt(4) == 0) {
+                builder.append('(');
+                open++;
+            }
+            builder.append(names[random.nextInt(names.length)]);
+            if (open > 0 && random.nextInt(3) == 0) {
+                builder.append(')');
+                open--;
+            }
+        }
+        while (open-- > 0) {
+            builder.append(')');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Creates a set holding the given names with values 1 to 9. The map is
+     * filled first and synchronized with the table once.
+     *
+     * @param names The variable names.
+     * @return The filled set.
+     */
+    static HashBasedSet set(String[] names) {
+        HashBasedSet set = new HashBasedSet(names.length);
+        for (int i = 0; i < names.length; i++) {
+            set.updateInMap(names[i] + " = " + (i % 9 + 1), i);
+        }
+        set.mapToTable();
+        return set;
+    }
+
+    /**
+     * Creates a hash function for the given number of names, set up the way
+     * HashBasedSet sets it up.
+     *
+     * @param count The number of names.
+     * @return The hash function.
+     */
+    static HashFunction hashFunction(int count) {
+        return new HashFunction(HashFunction.tableSizeFor(count), new MixHashStrategy());
+    }
+
+    /**
+     * Creates a table holding the given names, hashed with the HashFunction
+     * HashBasedSet would use.
+     *
+     * @param names The variable names.
+     * @return The filled table.
+     */
+    static Table table(String[] names) {
+        HashFunction hashFunction = hashFunction(names.length);
+        Table table = new Table(hashFunction.modulo, hashFunction);
+        for (int i = 0; i < names.length; i++) {
+            TableNode node = new TableNode();
+            node.setExpression(names[i]);
+            node.setValue(i);
+            hashFunction.setExpression(names[i]);
+            table.add(node, hashFunction.hash());
+        }
+        return table;
+    }
+
+    /**
+     * Generates the values inserted into the binary search trees. Integral
+     * values are used so that BinarySearchTree.remove can find them again.
+     *
+     * @param count        The number of values.
+     * @param distribution "sequential" for ascending values, otherwise a
+     *                     shuffled permutation.
+     * @param random       The source of randomness.
+     * @return The values.
+     */
+    static double[] values(int count, String distribution, Random random) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        if (!distribution.equals("sequential")) {
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                double swap = values[i];
+                values[i] = values[j];
+                values[j] = swap;
+            }
+        }
+        return values;
+    }
+
+    // Benchmarks
+
+    /**
+     * HashFunction.hash with the original polynomial hash over the generated
+     * names; size is the modulo.
+     */
+    static Operation hashFunctionHash(int size, String distribution) {
+        String[] names = names(size, distribution, new Random(42));
+        HashFunction hashFunction = new HashFunction(size);
+        return i -> {
+            hashFunction.setExpression(names[i % names.length]);
+            accumulator += hashFunction.hash();
+        };
+    }
+
+    /**
+     * HashFunction.hash with MixHashStrategy over the generated names; size is
+     * rounded up to a power of two for the modulo.
+     */
+    static Operation mixHash(int size, String distribution) {
+        String[] names = names(size, distribution, new Random(42));
+        HashFunction hashFunction = hashFunction(size);
+        return i -> {
+            hashFunction.setExpression(names[i % names.length]);
+            accumulator += hashFunction.hash();
+        };
+    }
+
+    /**
+     * Table.add into a table of the given size, started over every size
+     * operations so the chains stay at their steady state length.
+     */
+    static Operation tableAdd(int size, String distribution) {
+        String[] names = names(size, distribution, new Random(42));
+        int[] indices = new int[size];
+        HashFunction hashFunction = hashFunction(size);
+        for (int i = 0; i < size; i++) {
+            hashFunction.setExpression(names[i]);
+            indices[i] = hashFunction.hash();
+        }
+        Table[] table = {new Table(hashFunction.modulo, hashFunction)};
+        return i -> {
+            int k = i % size;
+            if (k == 0) {
+                table[0] = new Table(hashFunction.modulo, hashFunction);
+            }
+            TableNode node = new TableNode();
+            node.setExpression(names[k]);
+            node.setValue(k);
+            table[0].add(node, indices[k]);
+        };
+    }
+
+    /**
+     * Table.getValueFor on a table holding size names.
+     */
+    static Operation tableGetValueFor(int size, String distribution) {
+        String[] names = names(size, distribution, new Random(42));
+        Table table = table(names);
+        return i -> accumulator += table.getValueFor(names[Math.floorMod(i * 7919, names.length)]);
+    }
+
+    /**
+     * HashBasedSet.update on a set holding size bindings.
+     */
+    static Operation hashBasedSetUpdate(int size, String distribution) {
+        String[] names = names(size, distribution, new Random(42));
+        HashBasedSet set = set(names);
+        String[] lines = new String[size];
+        for (int i = 0; i < size; i++) {
+            lines[i] = names[i] + " = " + (i % 9 + 1);
+        }
+        return i -> set.update(lines[i % size], i);
+    }
+
+    /**
+     * InfixPostfix conversion of expressions with size operands.
+     */
+    static Operation infixPostfix(int size, String distribution) {
+        Random random = new Random(42);
+        String[] names = names(Math.min(size, 64), distribution, random);
+        String[] expressions = new String[16];
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = expression(names, size, random);
+        }
+        return i -> accumulator += new InfixPostfix(expressions[i & 15])
+                .postfixRepresentation.length();
+    }
+
+    /**
+     * ExperimentTree.createTree for expressions with size operands.
+     */
+    static Operation createTree(int size, String distribution) {
+        Random random = new Random(42);
+        String[] names = names(Math.min(size, 64), distribution, random);
+        String[] postfix = new String[16];
+        for (int i = 0; i < postfix.length; i++) {
+            postfix[i] = new InfixPostfix(expression(names, size, random)).postfixRepresentation;
+        }
+        return i -> {
+            ExperimentTree tree = new ExperimentTree(postfix[i & 15]);
+            tree.createTree();
+            accumulator += tree.root.operator;
+        };
+    }
+
+    /**
+     * ExperimentTree.evaluatePostfix for expressions with size operands,
+     * against a set holding every operand.
+     */
+    static Operation evaluatePostfix(int size, String distribution) {
+        Random random = new Random(42);
+        String[] names = names(Math.min(size, 64), distribution, random);
+        HashBasedSet set = set(names);
+        ExperimentTree[] trees = new ExperimentTree[16];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i] = new ExperimentTree(
+                    new InfixPostfix(expression(names, size, random)).postfixRepresentation);
+            trees[i].createTree();
+        }
+        return i -> accumulator += trees[i & 15].evaluatePostfix(set);
+    }
+
+    /**
+     * BinarySearchTree.insert into a tree that grows to size values and is
+     * then started over.
+     */
+    static Operation treeInsert(int size, String distribution) {
+        double[] values = values(size, distribution, new Random(42));
+        BinarySearchTree[] tree = {new BinarySearchTree()};
+        return i -> {
+            int k = i % size;
+            if (k == 0) {
+                tree[0] = new BinarySearchTree();
+            }
+            tree[0].insert(new BinaryNode(values[k]));
+        };
+    }
+
+    /**
+     * BinarySearchTree.search on a tree holding size values.
+     */
+    static Operation treeSearch(int size, String distribution) {
+        double[] values = values(size, distribution, new Random(42));
+        BinarySearchTree tree = new BinarySearchTree();
+        for (double value : values) {
+            tree.insert(new BinaryNode(value));
+        }
+        return i -> accumulator += tree.search(values[Math.floorMod(i * 7919, size)]) ? 1 : 0;
+    }
+
+    /**
+     * BinarySearchTree.remove on a tree holding size values. Each removed
+     * value is inserted again so the tree keeps its size.
+     */
+    static Operation treeRemove(int size, String distribution) {
+        double[] values = values(size, distribution, new Random(42));
+        BinarySearchTree tree = new BinarySearchTree();
+        for (double value : values) {
+            tree.insert(new BinaryNode(value));
+        }
+        return i -> {
+            double value = values[Math.floorMod(i * 7919, size)];
+            tree.remove((int) value);
+            tree.insert(new BinaryNode(value));
+        };
+    }
+
+}
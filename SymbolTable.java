@@ -0,0 +1,283 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The SymbolTable class interns variable names and gives each distinct name a
+ * dense integer id, starting at 0. Names are interned once, when Values.txt or
+ * an expression is loaded, and from then on tables, expression trees and
+ * evaluation work with the ids, so no strings are hashed or compared on the
+ * hot path.
+ *
+ * <p>Names are compared ignoring case, as the Table compares them, and a name
+ * keeps the spelling it was first interned with. A name can be interned
+ * straight from a range of a larger string, such as an operand inside a
+ * postfix expression, without building a String for it first.
+ *
+ * <p>The names are kept in an open-addressed hash table of ids. Interning is
+ * synchronized, but lookups take no lock: the arrays are published together
+ * in an Index, a new name is written before the slot that points to it, and
+ * growing the arrays publishes a new Index holding larger copies once the new
+ * name is in them.
+ *
+ * @author ColinKula
+ */
+
+public class SymbolTable {
+
+    // Fields
+
+    /**
+     * The symbol table shared by every HashBasedSet and ExperimentTree, so
+     * that a name has the same id everywhere in the process.
+     */
+    static final SymbolTable GLOBAL = new SymbolTable();
+
+    /**
+     * The arrays of the symbol table, replaced together when they grow.
+     */
+    static final class Index {
+
+        /**
+         * The name of each id, in the spelling it was first interned with.
+         */
+        final String[] names;
+
+        /**
+         * The hash of each id's name, kept so that the slots can be rebuilt
+         * without hashing the names again.
+         */
+        final int[] hashes;
+
+        /**
+         * The open-addressed slots, each holding an id plus one, or 0 if
+         * empty.
+         */
+        final AtomicIntegerArray slots;
+
+        Index(String[] names, int[] hashes, AtomicIntegerArray slots) {
+            this.names = names;
+            this.hashes = hashes;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * The current arrays.
+     */
+    volatile Index index = new Index(new String[16], new int[16], new AtomicIntegerArray(32));
+
+    /**
+     * The number of names interned.
+     */
+    volatile int count;
+
+    // Methods
+
+    /**
+     * Retrieves the symbol table shared by the whole process.
+     *
+     * @return The shared symbol table.
+     */
+    public static SymbolTable global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Interns a name and returns its id.
+     *
+     * @param name The name to intern.
+     * @return The id of the name.
+     */
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Interns the name found between start and end of the given text and
+     * returns its id. A String is only created if the name is new.
+     *
+     * @param text  The text holding the name.
+     * @param start The index of the first character of the name.
+     * @param end   The index after the last character of the name.
+     * @return The id of the name.
+     */
+    public int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int id = find(index, text, start, end, hash);
+        if (id >= 0) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = find(index, text, start, end, hash);
+            if (id < 0) {
+                id = add(text.subSequence(start, end).toString(), hash);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Looks up the id of a name without interning it. Takes no lock.
+     *
+     * @param name The name to look up.
+     * @return The id of the name, or -1 if it was never interned.
+     */
+    public int lookup(String name) {
+        return find(index, name, 0, name.length(), hash(name, 0, name.length()));
+    }
+
+    /**
+     * Retrieves the name of an id.
+     *
+     * @param id The id.
+     * @return The name, in the spelling it was first interned with.
+     */
+    public String nameOf(int id) {
+        return index.names[id];
+    }
+
+    /**
+     * Retrieves the number of names interned. Ids run from 0 to size - 1.
+     *
+     * @return The number of names.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Probes the slots of the given index for a range of characters.
+     *
+     * @param current The index to probe.
+     * @param text    The text holding the name.
+     * @param start   The index of the first character of the name.
+     * @param end     The index after the last character of the name.
+     * @param hash    The hash of the name.
+     * @return The id of the name, or -1 if it is not in the index.
+     */
+    private static int find(Index current, CharSequence text, int start, int end, int hash) {
+        AtomicIntegerArray slots = current.slots;
+        int mask = slots.length() - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots.get(slot) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (current.hashes[id] == hash && matches(current.names[id], text, start, end)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Adds a new name, growing the arrays first if needed. Called while
+     * holding the lock. Grown arrays are only published once the name is in
+     * them, so a lookup never sees an id its arrays do not hold.
+     *
+     * @param name The name to add.
+     * @param hash The hash of the name.
+     * @return The id given to the name.
+     */
+    private int add(String name, int hash) {
+        Index current = index;
+        int id = count;
+
+        if (id == current.names.length || (id + 1) * 2 > current.slots.length()) {
+            current = grow(current, id);
+        }
+        current.names[id] = name;
+        current.hashes[id] = hash;
+
+        AtomicIntegerArray slots = current.slots;
+        int mask = slots.length() - 1;
+        int slot = hash & mask;
+        while (slots.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots.set(slot, id + 1);
+
+        count = id + 1;
+        index = current;
+        return id;
+    }
+
+    /**
+     * Copies the arrays into larger ones with room for at least one more name,
+     * rebuilding the slots.
+     *
+     * @param current The index to grow.
+     * @param count   The number of names in the index.
+     * @return The grown index.
+     */
+    private static Index grow(Index current, int count) {
+        int capacity = Math.max(current.names.length, Integer.highestOneBit(count + 1) * 2);
+        String[] names = Arrays.copyOf(current.names, capacity);
+        int[] hashes = Arrays.copyOf(current.hashes, capacity);
+        AtomicIntegerArray rebuilt = new AtomicIntegerArray(capacity * 2);
+        int mask = rebuilt.length() - 1;
+
+        for (int id = 0; id < count; id++) {
+            int slot = hashes[id] & mask;
+            while (rebuilt.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            rebuilt.set(slot, id + 1);
+        }
+        return new Index(names, hashes, rebuilt);
+    }
+
+    /**
+     * Hashes a range of characters, ignoring case.
+     *
+     * @param text  The text holding the name.
+     * @param start The index of the first character.
+     * @param end   The index after the last character.
+     * @return The hash.
+     */
+    static int hash(CharSequence text, int start, int end) {
+        long hash = MixHashStrategy.PRIME_2 + (end - start);
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ HashStrategy.fold(text.charAt(i))) * MixHashStrategy.PRIME_1;
+        }
+        return (int) MixHashStrategy.avalanche(hash);
+    }
+
+    /**
+     * Hashes a name into 64 bits, ignoring case, for structures that need
+     * more bits than hash gives, such as filters and perfect hashes.
+     *
+     * @param name The name.
+     * @return The hash.
+     */
+    static long hash64(CharSequence name) {
+        long hash = MixHashStrategy.PRIME_1 + name.length();
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ HashStrategy.fold(name.charAt(i))) * MixHashStrategy.PRIME_2;
+        }
+        return MixHashStrategy.avalanche(hash);
+    }
+
+    /**
+     * Checks whether a name equals a range of characters, ignoring case.
+     *
+     * @param name  The name.
+     * @param text  The text holding the range.
+     * @param start The index of the first character.
+     * @param end   The index after the last character.
+     * @return true if they are equal ignoring case; false otherwise.
+     */
+    static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (HashStrategy.fold(name.charAt(i)) != HashStrategy.fold(text.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * The Table class represents a table data structure used in conjunction with
@@ -10,12 +11,38 @@ import java.util.ArrayList;
  * whether a variable is present, retrieving the numerical value of a variable,
  * and obtaining all numerical values stored in the table.
  * 
+ * <p>When the table is given the HashFunction its nodes were added with,
+ * lookups only walk the slot the variable hashes to. Without one, every slot
+ * is searched.
+ * 
+ * <p>Nodes that carry a SymbolTable id are also indexed by that id, so they
+ * can be found with a single array read and no string work at all.
+ * 
+ * <p>A slot whose chain grows to TREEIFY_THRESHOLD nodes is also indexed by a
+ * BucketTree, a balanced tree ordered by full hash code and then by name, so
+ * names that collide heavily cost about log n visits to look up instead of n.
+ * The chain is kept alongside the tree, and the tree is dropped once the
+ * chain shrinks to UNTREEIFY_THRESHOLD nodes, so short chains are walked as
+ * before. Slots are only treeified when the table has a hash function.
+ * 
  * @author ColinKula
  */
 
 public class Table {
     // Fields
 
+    /**
+     * The chain length at which a slot is indexed by a BucketTree.
+     */
+    static final int TREEIFY_THRESHOLD = 8;
+
+    /**
+     * The chain length at which the BucketTree of a slot is dropped, below
+     * TREEIFY_THRESHOLD so a slot at the threshold is not rebuilt on every
+     * change.
+     */
+    static final int UNTREEIFY_THRESHOLD = 6;
+
     /**
      * The size of the table, determined by the hash set size.
      */
@@ -31,6 +58,28 @@ public class Table {
      */
     int []numberOfNodes;
 
+    /**
+     * The hash function used to find the slot of a variable, or null if every
+     * slot has to be searched.
+     */
+    HashFunction hashFunction;
+
+    /**
+     * The statistics lookups are recorded in, or null if they are not kept.
+     */
+    TableStatistics statistics;
+
+    /**
+     * The nodes indexed by their SymbolTable id. Ids without a node are null.
+     */
+    TableNode []bySymbol = new TableNode[0];
+
+    /**
+     * The BucketTree of every treeified slot, or null if no slot has been
+     * treeified. Slots that are not treeified are null.
+     */
+    BucketTree []trees;
+
     // Constructors
 
     /**
@@ -51,8 +100,38 @@ public class Table {
         }
     }
 
+    /**
+     * Constructs a Table object with the specified size whose lookups use the
+     * given hash function to go straight to the slot of a variable. The nodes
+     * must be added at the index that hash function computes.
+     *
+     * @param size         The size of the table.
+     * @param hashFunction The hash function the nodes are added with.
+     */
+    public Table(int size, HashFunction hashFunction) {
+        this(size);
+        this.hashFunction = hashFunction;
+    }
+
     // Methods
 
+    /**
+     * Creates a Table object like Table(size, hashFunction) that records its
+     * shape and lookups in the given statistics. The statistics are attached
+     * once the table is constructed.
+     *
+     * @param size         The size of the table.
+     * @param hashFunction The hash function the nodes are added with.
+     * @param statistics   The statistics to record in.
+     * @return The table.
+     */
+    public static Table withStatistics(int size, HashFunction hashFunction, TableStatistics statistics) {
+        Table table = new Table(size, hashFunction);
+        table.statistics = statistics;
+        statistics.attach(table);
+        return table;
+    }
+
     /**
      * Adds a TableNode to the table at the specified index, updating the linked
      * list of nodes in that position.
@@ -64,6 +143,121 @@ public class Table {
         node.next = table[index].next;
         table[index].next = node;
         numberOfNodes[index]++;
+
+        if (node.symbol >= 0) {
+            if (node.symbol >= bySymbol.length) {
+                bySymbol = Arrays.copyOf(bySymbol,
+                        Math.max(node.symbol + 1, bySymbol.length * 2));
+            }
+            bySymbol[node.symbol] = node;
+        }
+
+        if (hashFunction != null) {
+            if (trees != null && trees[index] != null) {
+                trees[index].put(node, hashFunction.fullHash(node.expression));
+            } else if (numberOfNodes[index] >= TREEIFY_THRESHOLD) {
+                treeify(index);
+            }
+        }
+    }
+
+    /**
+     * Indexes the chain of a slot by a BucketTree.
+     *
+     * @param index The index in the table array.
+     */
+    private void treeify(int index) {
+        if (trees == null) {
+            trees = new BucketTree[size];
+        }
+        trees[index] = BucketTree.of(table[index].next, numberOfNodes[index], hashFunction);
+    }
+
+    /**
+     * Keeps the BucketTree of a slot in step with the removal of a node from
+     * its chain: the tree is dropped once the chain is short, and otherwise
+     * indexes the next node of the same name in place of the removed one.
+     *
+     * @param node  The node removed.
+     * @param index The index in the table array.
+     */
+    private void updateTree(TableNode node, int index) {
+        if (numberOfNodes[index] <= UNTREEIFY_THRESHOLD) {
+            trees[index] = null;
+            return;
+        }
+        int hash = hashFunction.fullHash(node.expression);
+        BucketNode indexed = trees[index].find(node.expression, hash);
+        if (indexed == null || indexed.entry != node) {
+            return;
+        }
+        TableNode ptr = table[index].next;
+        for (int j = 0; j < numberOfNodes[index]; j++) {
+            if (ptr.expression.equalsIgnoreCase(node.expression)) {
+                indexed.entry = ptr;
+                return;
+            }
+            ptr = ptr.next;
+        }
+        trees[index].remove(node.expression, hash);
+    }
+
+    /**
+     * Removes a node from the table at the specified index. If other nodes
+     * in that slot hold the same SymbolTable id, the one nearest the head of
+     * the slot, which a lookup by name finds first, takes the removed node's
+     * place in the index by id.
+     *
+     * @param node  The TableNode to be removed.
+     * @param index The index in the table array the node was added at.
+     * @return true if the node was in that slot; false otherwise.
+     */
+    public boolean remove(TableNode node, int index) {
+        TableNode previous = table[index];
+        for (int j = 0; j < numberOfNodes[index]; j++) {
+            if (previous.next == node) {
+                previous.next = node.next;
+                node.next = null;
+                numberOfNodes[index]--;
+                if (node.symbol >= 0 && bySymbol[node.symbol] == node) {
+                    bySymbol[node.symbol] = null;
+                    TableNode ptr = table[index].next;
+                    for (int k = 0; k < numberOfNodes[index]; k++) {
+                        if (ptr.symbol == node.symbol) {
+                            bySymbol[node.symbol] = ptr;
+                            break;
+                        }
+                        ptr = ptr.next;
+                    }
+                }
+                if (trees != null && trees[index] != null) {
+                    updateTree(node, index);
+                }
+                return true;
+            }
+            previous = previous.next;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the node in the specified slot that was added for an expression
+     * of the set, by its variable and value.
+     *
+     * @param index  The index in the table array.
+     * @param symbol The SymbolTable id of the variable.
+     * @param value  The value.
+     * @return The node, or null if the slot has none.
+     */
+    TableNode findNode(int index, int symbol, int value) {
+        TableNode ptr = table[index].next; // Skip the dummy node
+        for (int j = 0; j < numberOfNodes[index]; j++) {
+            if (ptr.symbol == symbol && ptr.getValue() == value) {
+                return ptr;
+            }
+            ptr = ptr.next;
+        }
+        return null;
     }
 
     /**
@@ -94,17 +288,7 @@ public class Table {
      * @return true if the variable is found in the table; false otherwise.
      */
     public boolean contains(String variable) {
-        for (int i = 0; i < size; i++) {
-            TableNode ptr = table[i].next; // Skip the dummy node
-
-            for (int j = 0; j < numberOfNodes[i]; j++) {
-                if (ptr.expression.equalsIgnoreCase(variable)) {
-                    return true; // Variable found
-                }
-                ptr = ptr.next;
-            }
-        }
-        return false; // Variable not found
+        return find(variable, true) != null;
     }
 
     /**
@@ -116,17 +300,116 @@ public class Table {
      *         variable is not found.
      */
     public double getValueFor(String variable) {
-        for (int i = 0; i < size; i++) {
-            TableNode ptr = table[i].next; // Skip the dummy node
-            for (int j = 0; j < numberOfNodes[i]; j++) {
-                if (ptr.expression.equalsIgnoreCase(variable)) {
-                    // Variable found, return its val
-                    return (double) ptr.getValue(); 
+        TableNode node = find(variable, false);
+        return node != null ? (double) node.getValue() : -1.0;
+    }
+
+    /**
+     * Checks whether the table contains the variable with the specified
+     * SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return true if the variable is found in the table; false otherwise.
+     */
+    public boolean contains(int symbol) {
+        boolean found = symbol >= 0 && symbol < bySymbol.length && bySymbol[symbol] != null;
+        if (statistics != null) {
+            statistics.recordContains(found);
+        }
+        return found;
+    }
+
+    /**
+     * Retrieves the numerical value of the variable with the specified
+     * SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return The numerical value associated with the variable, or -1.0 if the
+     *         variable is not found.
+     */
+    public double getValueFor(int symbol) {
+        TableNode node = symbol >= 0 && symbol < bySymbol.length ? bySymbol[symbol] : null;
+        if (statistics != null) {
+            statistics.recordValueFor(node != null);
+        }
+        return node != null ? (double) node.getValue() : -1.0;
+    }
+
+    /**
+     * Retrieves the numerical value of the variable with the specified
+     * SymbolTable id in a single lookup.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or NaN if it is not in the table.
+     */
+    public double valueOrNaN(int symbol) {
+        TableNode node = symbol >= 0 && symbol < bySymbol.length ? bySymbol[symbol] : null;
+        if (statistics != null) {
+            statistics.recordValueFor(node != null);
+        }
+        return node != null ? (double) node.getValue() : Double.NaN;
+    }
+
+    /**
+     * Finds the node of the specified variable. With a hash function only the
+     * slot the variable hashes to is searched, through its BucketTree if it
+     * has one; otherwise every slot is walked. The lookup is recorded in the
+     * statistics, if the table has any.
+     *
+     * @param variable    The variable name to find.
+     * @param forContains Whether the lookup is made by contains rather than
+     *                    getValueFor.
+     * @return The node holding the variable, or null if it is not found.
+     */
+    private TableNode find(String variable, boolean forContains) {
+        int first = 0;
+        int last = size - 1;
+        int visits = 0;
+        int hash = 0;
+        TableNode found = null;
+        BucketTree tree = null;
+
+        if (hashFunction != null) {
+            hash = hashFunction.fullHash(variable);
+            first = hashFunction.compress(hash);
+            last = first;
+            tree = trees != null ? trees[first] : null;
+        }
+
+        if (tree != null) {
+            BucketNode node = tree.root;
+            while (node != null) {
+                visits++;
+                int order = BucketTree.compare(hash, variable, node);
+                if (order == 0) {
+                    found = node.entry; // Variable found
+                    break;
                 }
-                ptr = ptr.next;
+                node = order < 0 ? node.leftChild : node.rightChild;
+            }
+        } else {
+            for (int i = first; i <= last && found == null; i++) {
+                TableNode ptr = table[i].next; // Skip the dummy node
+
+                for (int j = 0; j < numberOfNodes[i]; j++) {
+                    visits++;
+                    if (ptr.expression.equalsIgnoreCase(variable)) {
+                        found = ptr; // Variable found
+                        break;
+                    }
+                    ptr = ptr.next;
+                }
+            }
+        }
+
+        if (statistics != null) {
+            if (forContains) {
+                statistics.recordContains(found != null, visits);
+            } else {
+                statistics.recordValueFor(found != null, visits);
             }
         }
-        return -1.0;
+        return found;
     }
 
     /**
@@ -150,4 +433,43 @@ public class Table {
         return allValues;
     }
 
+    /**
+     * Estimates the heap retained by the table: the slot array with a dummy
+     * node in every slot, the node counts, the index by SymbolTable id and the
+     * nodes of the bindings, and the trees of treeified slots. The names of
+     * the nodes belong to the SymbolTable.
+     *
+     * @return The footprint, with one entry per node.
+     */
+    public Footprint footprint() {
+        int nodes = 0;
+        for (int i = 0; i < size; i++) {
+            nodes += numberOfNodes[i];
+        }
+        int treeNodes = 0;
+        int treeified = 0;
+        if (trees != null) {
+            for (BucketTree tree : trees) {
+                if (tree != null) {
+                    treeNodes += tree.size;
+                    treeified++;
+                }
+            }
+        }
+        long node = Footprint.object(2 * Footprint.REFERENCE + 2 * 4);
+        Footprint footprint = new Footprint("Table", nodes)
+                .add("table", Footprint.object(5 * Footprint.REFERENCE + 4)
+                        + Footprint.object(2 * Footprint.REFERENCE + 2 * 4), 2)
+                .add("table slots", Footprint.array(size, Footprint.REFERENCE) + size * node, size)
+                .add("table counts", Footprint.array(size, 4), size)
+                .add("table by symbol", Footprint.array(bySymbol.length, Footprint.REFERENCE), bySymbol.length)
+                .add("table nodes", nodes * node, nodes);
+        if (trees != null) {
+            footprint.add("bucket trees", Footprint.array(size, Footprint.REFERENCE)
+                    + treeified * Footprint.object(Footprint.REFERENCE + 4)
+                    + treeNodes * Footprint.object(2 * 4 + 3 * Footprint.REFERENCE), treeNodes);
+        }
+        return footprint;
+    }
+
 }
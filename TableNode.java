@@ -24,6 +24,11 @@ public class TableNode {
      */
     int value;
     
+    /**
+     * The SymbolTable id of the expression, or -1 if it has none.
+     */
+    int symbol = -1;
+    
     /**
      * Reference to the next node in the linked list.
      */
@@ -76,4 +81,22 @@ public class TableNode {
         this.value = value;
     }
 
+    /**
+     * Gets the SymbolTable id of the expression stored in the node.
+     *
+     * @return The id, or -1 if the node has none.
+     */
+    public int getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Sets the SymbolTable id of the expression stored in the node.
+     *
+     * @param symbol The id of the expression.
+     */
+    public void setSymbol(int symbol) {
+        this.symbol = symbol;
+    }
+
 }
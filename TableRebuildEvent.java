@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The TableRebuildEvent class is a Java Flight Recorder event emitted every
+ * time HashBasedSet.mapToTable rebuilds the table from the hash map.
+ * 
+ * @author ColinKula
+ */
+
+@Name("structures.TableRebuild")
+@Label("Table Rebuild")
+@Category({"Structures", "Tables"})
+@Description("Rebuild of the table of a HashBasedSet from its hash map")
+public class TableRebuildEvent extends Event {
+
+    // Fields
+
+    /**
+     * The number of nodes added to the new table.
+     */
+    @Label("Entries")
+    int entries;
+
+    /**
+     * The number of slots in the new table.
+     */
+    @Label("Slots")
+    int slots;
+
+    /**
+     * The length of the longest chain in the new table.
+     */
+    @Label("Max Chain Length")
+    int maxChainLength;
+
+}
@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The TableStatistics class keeps live statistics about a Table: its load
+ * factor, the distribution of its chain lengths, the number of nodes visited
+ * per lookup, and the hits and misses of contains and getValueFor. Lookups
+ * are counted whether they are made on the Table or on a BindingsSnapshot of
+ * the HashBasedSet that owns it. Lookups by SymbolTable id read one array
+ * slot instead of walking a chain, so they are counted apart and leave the
+ * probe average to the lookups by name.
+ * 
+ * <p>The lookup counters are striped LongAdder objects, so recording a lookup
+ * costs a few uncontended additions and the statistics can stay on in
+ * production. The shape of the table is only computed when it is asked for.
+ * The statistics outlive the table they describe: a HashBasedSet keeps one
+ * TableStatistics object and attaches every table it rebuilds to it.
+ * 
+ * <p>The statistics can be read programmatically with snapshot, or through
+ * JMX once they are registered with register.
+ * 
+ * @author ColinKula
+ */
+
+public class TableStatistics implements TableStatisticsMBean {
+
+    // Fields
+
+    /**
+     * The chain lengths each slot of the histogram covers.
+     */
+    public static final String[] HISTOGRAM_LABELS =
+        {"0", "1", "2", "3-4", "5-8", "9-16", "17-32", "33+"};
+
+    /**
+     * The table the statistics currently describe.
+     */
+    volatile Table table;
+
+    /**
+     * The number of contains calls that found the variable.
+     */
+    final LongAdder containsHits = new LongAdder();
+
+    /**
+     * The number of contains calls that did not find the variable.
+     */
+    final LongAdder containsMisses = new LongAdder();
+
+    /**
+     * The number of getValueFor calls that found the variable.
+     */
+    final LongAdder valueForHits = new LongAdder();
+
+    /**
+     * The number of getValueFor calls that did not find the variable.
+     */
+    final LongAdder valueForMisses = new LongAdder();
+
+    /**
+     * The total number of nodes visited by all lookups.
+     */
+    final LongAdder probes = new LongAdder();
+
+    /**
+     * The number of lookups made by SymbolTable id, which visit no nodes.
+     */
+    final LongAdder symbolLookups = new LongAdder();
+
+    // Methods
+
+    /**
+     * Attaches the statistics to a table, replacing the table they described
+     * before. The lookup counters are kept.
+     *
+     * @param table The table to describe.
+     */
+    public void attach(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Records a call to contains.
+     *
+     * @param found  Whether the variable was found.
+     * @param visits The number of nodes visited.
+     */
+    public void recordContains(boolean found, int visits) {
+        (found ? containsHits : containsMisses).increment();
+        probes.add(visits);
+    }
+
+    /**
+     * Records a call to getValueFor.
+     *
+     * @param found  Whether the variable was found.
+     * @param visits The number of nodes visited.
+     */
+    public void recordValueFor(boolean found, int visits) {
+        (found ? valueForHits : valueForMisses).increment();
+        probes.add(visits);
+    }
+
+    /**
+     * Records a call to contains by SymbolTable id.
+     *
+     * @param found Whether the variable was found.
+     */
+    public void recordContains(boolean found) {
+        (found ? containsHits : containsMisses).increment();
+        symbolLookups.increment();
+    }
+
+    /**
+     * Records a call to getValueFor or valueOrNaN by SymbolTable id.
+     *
+     * @param found Whether the variable was found.
+     */
+    public void recordValueFor(boolean found) {
+        (found ? valueForHits : valueForMisses).increment();
+        symbolLookups.increment();
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under the name
+     * "Structures:type=Table,name=" followed by the given name.
+     *
+     * @param name The name the table is known by.
+     * @return The object name the statistics were registered under, or null if
+     *         they could not be registered.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("Structures:type=Table,name=" + name);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            }
+            return objectName;
+        } catch (JMException e) {
+            System.err.println("Table statistics could not be registered: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Takes a consistent copy of the statistics. The shape of the table is
+     * computed from its per-slot node counts.
+     *
+     * @return The snapshot.
+     */
+    public TableStatisticsSnapshot snapshot() {
+        Table current = table;
+        long entries = 0;
+        int maxChain = 0;
+        long[] histogram = new long[HISTOGRAM_LABELS.length];
+        int slots = 0;
+
+        if (current != null) {
+            slots = current.size;
+            for (int i = 0; i < slots; i++) {
+                int chain = current.numberOfNodes[i];
+                entries += chain;
+                maxChain = Math.max(maxChain, chain);
+                histogram[histogramSlot(chain)]++;
+            }
+        }
+
+        return new TableStatisticsSnapshot(entries, slots, maxChain, histogram,
+                containsHits.sum(), containsMisses.sum(), valueForHits.sum(),
+                valueForMisses.sum(), probes.sum(), symbolLookups.sum());
+    }
+
+    /**
+     * Finds the histogram slot that covers the given chain length.
+     *
+     * @param chain The chain length.
+     * @return The index into HISTOGRAM_LABELS.
+     */
+    static int histogramSlot(int chain) {
+        if (chain <= 2) {
+            return chain;
+        }
+        return Math.min(HISTOGRAM_LABELS.length - 1,
+                33 - Integer.numberOfLeadingZeros(chain - 1));
+    }
+
+    @Override
+    public long getEntries() {
+        return snapshot().entries;
+    }
+
+    @Override
+    public int getSlots() {
+        Table current = table;
+        return current != null ? current.size : 0;
+    }
+
+    @Override
+    public double getLoadFactor() {
+        return snapshot().getLoadFactor();
+    }
+
+    @Override
+    public int getMaxChainLength() {
+        return snapshot().maxChainLength;
+    }
+
+    @Override
+    public long[] getChainLengthHistogram() {
+        return snapshot().chainLengthHistogram.clone();
+    }
+
+    @Override
+    public double getAverageProbesPerLookup() {
+        return snapshot().getAverageProbesPerLookup();
+    }
+
+    @Override
+    public long getSymbolLookups() {
+        return symbolLookups.sum();
+    }
+
+    @Override
+    public long getContainsHits() {
+        return containsHits.sum();
+    }
+
+    @Override
+    public long getContainsMisses() {
+        return containsMisses.sum();
+    }
+
+    @Override
+    public long getValueForHits() {
+        return valueForHits.sum();
+    }
+
+    @Override
+    public long getValueForMisses() {
+        return valueForMisses.sum();
+    }
+
+    @Override
+    public void reset() {
+        containsHits.reset();
+        containsMisses.reset();
+        valueForHits.reset();
+        valueForMisses.reset();
+        probes.reset();
+        symbolLookups.reset();
+    }
+
+}
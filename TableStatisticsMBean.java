@@ -0,0 +1,74 @@
+/**
+ * The TableStatisticsMBean interface is the management interface of
+ * TableStatistics, through which the statistics of a live Table can be read
+ * with JMX tools such as JConsole.
+ * 
+ * @author ColinKula
+ */
+
+public interface TableStatisticsMBean {
+
+    /**
+     * @return The number of nodes stored in the table.
+     */
+    long getEntries();
+
+    /**
+     * @return The number of slots in the table.
+     */
+    int getSlots();
+
+    /**
+     * @return The number of nodes per slot.
+     */
+    double getLoadFactor();
+
+    /**
+     * @return The length of the longest chain.
+     */
+    int getMaxChainLength();
+
+    /**
+     * @return The number of slots whose chain length falls in each range of
+     *         TableStatistics.HISTOGRAM_LABELS.
+     */
+    long[] getChainLengthHistogram();
+
+    /**
+     * @return The average number of nodes visited per lookup by name.
+     */
+    double getAverageProbesPerLookup();
+
+    /**
+     * @return The number of lookups made by SymbolTable id, which visit no
+     *         nodes.
+     */
+    long getSymbolLookups();
+
+    /**
+     * @return The number of calls to contains that found the variable.
+     */
+    long getContainsHits();
+
+    /**
+     * @return The number of calls to contains that did not find the variable.
+     */
+    long getContainsMisses();
+
+    /**
+     * @return The number of calls to getValueFor that found the variable.
+     */
+    long getValueForHits();
+
+    /**
+     * @return The number of calls to getValueFor that did not find the
+     *         variable.
+     */
+    long getValueForMisses();
+
+    /**
+     * Sets the lookup counters back to zero.
+     */
+    void reset();
+
+}
@@ -0,0 +1,139 @@
+/**
+ * The TableStatisticsSnapshot class is an immutable copy of the statistics of
+ * a Table, taken by TableStatistics.snapshot.
+ * 
+ * @author ColinKula
+ */
+
+public class TableStatisticsSnapshot {
+
+    // Fields
+
+    /**
+     * The number of nodes stored in the table.
+     */
+    final long entries;
+
+    /**
+     * The number of slots in the table.
+     */
+    final int slots;
+
+    /**
+     * The length of the longest chain.
+     */
+    final int maxChainLength;
+
+    /**
+     * The number of slots whose chain length falls in each range of
+     * TableStatistics.HISTOGRAM_LABELS.
+     */
+    final long[] chainLengthHistogram;
+
+    /**
+     * The number of contains calls that found the variable.
+     */
+    final long containsHits;
+
+    /**
+     * The number of contains calls that did not find the variable.
+     */
+    final long containsMisses;
+
+    /**
+     * The number of getValueFor calls that found the variable.
+     */
+    final long valueForHits;
+
+    /**
+     * The number of getValueFor calls that did not find the variable.
+     */
+    final long valueForMisses;
+
+    /**
+     * The total number of nodes visited by all lookups.
+     */
+    final long probes;
+
+    /**
+     * The number of lookups made by SymbolTable id, which visit no nodes.
+     */
+    final long symbolLookups;
+
+    // Constructors
+
+    /**
+     * Constructs a snapshot from the given values.
+     */
+    TableStatisticsSnapshot(long entries, int slots, int maxChainLength,
+            long[] chainLengthHistogram, long containsHits, long containsMisses,
+            long valueForHits, long valueForMisses, long probes,
+            long symbolLookups) {
+        this.entries = entries;
+        this.slots = slots;
+        this.maxChainLength = maxChainLength;
+        this.chainLengthHistogram = chainLengthHistogram;
+        this.containsHits = containsHits;
+        this.containsMisses = containsMisses;
+        this.valueForHits = valueForHits;
+        this.valueForMisses = valueForMisses;
+        this.probes = probes;
+        this.symbolLookups = symbolLookups;
+    }
+
+    // Methods
+
+    /**
+     * Computes the number of nodes per slot.
+     *
+     * @return The load factor, or 0 if the table has no slots.
+     */
+    public double getLoadFactor() {
+        return slots == 0 ? 0 : (double) entries / slots;
+    }
+
+    /**
+     * Computes the total number of lookups made through contains and
+     * getValueFor.
+     *
+     * @return The number of lookups.
+     */
+    public long getLookups() {
+        return containsHits + containsMisses + valueForHits + valueForMisses;
+    }
+
+    /**
+     * Computes the average number of nodes visited per lookup by name. Lookups
+     * by SymbolTable id visit no nodes and are left out.
+     *
+     * @return The average probes per lookup, or 0 if there were no lookups by
+     *         name.
+     */
+    public double getAverageProbesPerLookup() {
+        long lookups = getLookups() - symbolLookups;
+        return lookups == 0 ? 0 : (double) probes / lookups;
+    }
+
+    /**
+     * Formats the snapshot as a short multi-line report.
+     *
+     * @return The report.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Entries: %d, Slots: %d, Load factor: %.2f, Max chain: %d%n",
+                entries, slots, getLoadFactor(), maxChainLength));
+        builder.append("Chain lengths:");
+        for (int i = 0; i < chainLengthHistogram.length; i++) {
+            builder.append(' ').append(TableStatistics.HISTOGRAM_LABELS[i])
+                    .append('=').append(chainLengthHistogram[i]);
+        }
+        builder.append(String.format("%ncontains: %d hits, %d misses; getValueFor: %d hits, %d misses%n",
+                containsHits, containsMisses, valueForHits, valueForMisses));
+        builder.append(String.format("Average probes per lookup: %.2f (%d lookups by id)",
+                getAverageProbesPerLookup(), symbolLookups));
+        return builder.toString();
+    }
+
+}
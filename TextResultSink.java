@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The TextResultSink class writes results in the text format Main has always
+ * printed: a block of notations and the evaluation for every experiment, and
+ * then the inorder representation of all evaluations, or their summary.
+ *
+ * @author ColinKula
+ */
+
+public class TextResultSink implements ResultSink {
+
+    // Fields
+
+    /**
+     * The line separator, as System.out.println uses it.
+     */
+    static final String NEWLINE = System.lineSeparator();
+
+    /**
+     * The output the rendered text is written to.
+     */
+    final AsyncOutput output;
+
+    /**
+     * The buffer each result is rendered into, reused for every result.
+     */
+    final StringBuilder buffer = new StringBuilder(256);
+
+    // Constructors
+
+    /**
+     * Constructs a TextResultSink writing to the given output.
+     *
+     * @param output The output to write to.
+     */
+    public TextResultSink(AsyncOutput output) {
+        this.output = output;
+    }
+
+    // Methods
+
+    @Override
+    public void experiment(int number, InfixPostfix experiment, ExperimentTree tree, double evaluation)
+            throws IOException {
+        buffer.setLength(0);
+        buffer.append(NEWLINE).append("Experiment #").append(number).append(':').append(NEWLINE);
+        buffer.append("Infix Notation: ").append(experiment.infixPresentation).append(NEWLINE);
+        tree.appendPrefix(buffer.append("Prefix Notation: "));
+        buffer.append(NEWLINE).append("Postfix Notation: ").append(experiment.postfixRepresentation)
+                .append(NEWLINE);
+        buffer.append("Evaluation = ").append(evaluation).append(NEWLINE);
+        output.write(buffer);
+    }
+
+    @Override
+    public void sorted(BinarySearchTree tree) throws IOException {
+        buffer.setLength(0);
+        buffer.append(NEWLINE).append("Inorder representation of all evaluations: ").append(NEWLINE);
+        try {
+            tree.forEachInorder(value -> {
+                buffer.append(value).append(' ');
+                if (buffer.length() >= AsyncOutput.BUFFER_BYTES) {
+                    writeBuffer();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        output.write(buffer);
+    }
+
+    @Override
+    public void summary(EvaluationSummary summary) throws IOException {
+        buffer.setLength(0);
+        buffer.append(NEWLINE).append("Summary of all evaluations: ").append(NEWLINE);
+        output.write(summary.appendTo(buffer, NEWLINE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    /**
+     * Writes and empties the buffer from inside a traversal.
+     */
+    private void writeBuffer() {
+        try {
+            output.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+    }
+
+}
@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The TieredBindings class holds more variable bindings than fit in memory by
+ * keeping them in tiers:
+ *
+ * <ul>
+ * <li>a BloomFilter of every name on disk, which answers a lookup of a name
+ * that is not defined without any I/O;</li>
+ * <li>a hot tier of recently used bindings in memory, bounded in size, from
+ * which the least recently used binding is evicted when it is full; and</li>
+ * <li>a cold tier of every binding, in a SortedBindingsFile on disk, read a
+ * block at a time when a lookup misses the hot tier.</li>
+ * </ul>
+ *
+ * <p>A lookup that reaches the cold tier puts what it found in the hot tier,
+ * including that the name is not there when the filter let it through by
+ * mistake, so the contains and getValueFor calls an evaluation makes for an
+ * operand read the disk at most once between them. Bindings changed after
+ * the file was written are kept in memory in front of every tier. Once there
+ * are maxChanges of them, they are merged with the cold tier into a new
+ * file, which becomes the cold tier and is kept after the bindings are
+ * closed; the file that was opened is never written.
+ *
+ * <p>All methods are synchronized, so the bindings can be shared by threads.
+ *
+ * @author ColinKula
+ */
+
+public class TieredBindings implements Bindings, AutoCloseable {
+
+    // Fields
+
+    /**
+     * The number of changes kept in memory before they are merged with the
+     * cold tier, unless told otherwise.
+     */
+    static final int MAX_CHANGES = 1 << 16;
+
+    /**
+     * The path of the file that was opened. Merged files are written next to
+     * it.
+     */
+    final String path;
+
+    /**
+     * The cold tier.
+     */
+    SortedBindingsFile cold;
+
+    /**
+     * The filter of every name in the cold tier.
+     */
+    BloomFilter filter;
+
+    /**
+     * The hot tier, from SymbolTable id to value, in access order; a null
+     * value records that the name is not in the cold tier.
+     */
+    final LinkedHashMap<Integer, Integer> hot;
+
+    /**
+     * The largest number of bindings in the hot tier.
+     */
+    final int hotCapacity;
+
+    /**
+     * The bindings changed since the cold tier was written, from SymbolTable
+     * id to value; a null value records a removal.
+     */
+    final HashMap<Integer, Integer> changes = new HashMap<>();
+
+    /**
+     * The number of changes kept in memory before they are merged with the
+     * cold tier.
+     */
+    int maxChanges = MAX_CHANGES;
+
+    /**
+     * The symbol table variable names are interned in.
+     */
+    SymbolTable symbols = SymbolTable.global();
+
+    /**
+     * The number of lookups answered by the hot tier or the changes.
+     */
+    long hotHits;
+
+    /**
+     * The number of lookups the filter answered without I/O.
+     */
+    long filterRejections;
+
+    /**
+     * The number of lookups that read the cold tier.
+     */
+    long coldReads;
+
+    /**
+     * The number of cold reads that did not find the name, because the filter
+     * gave a false positive.
+     */
+    long falsePositives;
+
+    /**
+     * The number of bindings evicted from the hot tier.
+     */
+    long evictions;
+
+    /**
+     * The number of times the changes were merged with the cold tier.
+     */
+    long merges;
+
+    // Constructors
+
+    /**
+     * Constructs TieredBindings over a sorted bindings file.
+     *
+     * @param cold        The cold tier.
+     * @param path        The path of the cold tier's file.
+     * @param hotCapacity The largest number of bindings in the hot tier.
+     */
+    TieredBindings(SortedBindingsFile cold, String path, int hotCapacity) {
+        this.cold = cold;
+        this.path = path;
+        this.filter = cold.filter();
+        this.hotCapacity = Math.max(hotCapacity, 1);
+        this.hot = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                if (size() > TieredBindings.this.hotCapacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Methods
+
+    /**
+     * Opens TieredBindings over a sorted bindings file.
+     *
+     * @param path        The path of the file.
+     * @param hotCapacity The largest number of bindings in the hot tier.
+     * @return The bindings.
+     * @throws IOException If the file cannot be read or is not valid.
+     */
+    public static TieredBindings open(String path, int hotCapacity) throws IOException {
+        return new TieredBindings(SortedBindingsFile.open(path), path, hotCapacity);
+    }
+
+    @Override
+    public synchronized boolean contains(String variable) {
+        int symbol = symbols.lookup(variable);
+        return symbol >= 0 ? find(symbol) != null : findUninterned(variable) != null;
+    }
+
+    @Override
+    public synchronized boolean contains(int symbol) {
+        return find(symbol) != null;
+    }
+
+    /**
+     * Retrieves the value of the specified variable.
+     *
+     * @param variable The variable name.
+     * @return The value of the variable, or -1.0 if it is not defined.
+     */
+    @Override
+    public synchronized double getValueFor(String variable) {
+        int symbol = symbols.lookup(variable);
+        Integer value = symbol >= 0 ? find(symbol) : findUninterned(variable);
+        return value != null ? value : -1.0;
+    }
+
+    /**
+     * Retrieves the value of the variable with the specified SymbolTable id.
+     *
+     * @param symbol The id of the variable.
+     * @return The value of the variable, or -1.0 if it is not defined.
+     */
+    @Override
+    public synchronized double getValueFor(int symbol) {
+        Integer value = find(symbol);
+        return value != null ? value : -1.0;
+    }
+
+    @Override
+    public synchronized double valueOrNaN(int symbol) {
+        Integer value = find(symbol);
+        return value != null ? value : Double.NaN;
+    }
+
+    /**
+     * Sets the value of a variable. The change is kept in memory in front of
+     * the tiers until the changes are merged with the cold tier.
+     *
+     * @param variable The variable name.
+     * @param value    The value.
+     * @throws UncheckedIOException If the changes cannot be merged.
+     */
+    public synchronized void put(String variable, int value) {
+        int symbol = symbols.intern(variable);
+        changes.put(symbol, value);
+        hot.remove(symbol);
+        mergeIfFull();
+    }
+
+    /**
+     * Removes a variable. The removal is kept in memory in front of the
+     * tiers until the changes are merged with the cold tier.
+     *
+     * @param variable The variable name.
+     * @throws UncheckedIOException If the changes cannot be merged.
+     */
+    public synchronized void remove(String variable) {
+        int symbol = symbols.intern(variable);
+        changes.put(symbol, null);
+        hot.remove(symbol);
+        mergeIfFull();
+    }
+
+    /**
+     * Merges the changes with the cold tier once there are maxChanges of
+     * them. The merged file is written to a temporary file, moved to
+     * path.merged and opened as the new cold tier. The hot tier stays valid,
+     * since every changed name was dropped from it.
+     *
+     * @throws UncheckedIOException If the merged file cannot be written or
+     *                              opened; the changes are then kept.
+     */
+    private void mergeIfFull() {
+        if (changes.size() < maxChanges) {
+            return;
+        }
+        HashMap<String, Integer> named = new HashMap<>();
+        for (Map.Entry<Integer, Integer> change : changes.entrySet()) {
+            named.put(symbols.nameOf(change.getKey()), change.getValue());
+        }
+        Path merged = Path.of(path + ".merged");
+        Path temporary = Path.of(path + ".merged.tmp");
+        try {
+            cold.merge(named, temporary.toString());
+            Files.move(temporary, merged, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            SortedBindingsFile next = SortedBindingsFile.open(merged.toString());
+            cold.close();
+            cold = next;
+            filter = next.filter();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        changes.clear();
+        merges++;
+    }
+
+    /**
+     * Finds the value of a variable, going through the tiers in order.
+     *
+     * @param symbol The id of the variable.
+     * @return The value, or null if the variable is not defined.
+     */
+    private Integer find(int symbol) {
+        if (changes.containsKey(symbol)) {
+            hotHits++;
+            return changes.get(symbol);
+        }
+        if (hot.containsKey(symbol)) {
+            hotHits++;
+            return hot.get(symbol);
+        }
+        String name = symbols.nameOf(symbol);
+        if (!filter.mightContain(name)) {
+            filterRejections++;
+            return null;
+        }
+        Integer value = readCold(name);
+        hot.put(symbol, value);
+        return value;
+    }
+
+    /**
+     * Finds the value of a variable whose name was never interned, so it can
+     * be in neither the changes nor the hot tier.
+     *
+     * @param variable The variable name.
+     * @return The value, or null if the variable is not defined.
+     */
+    private Integer findUninterned(String variable) {
+        if (!filter.mightContain(variable)) {
+            filterRejections++;
+            return null;
+        }
+        return readCold(variable);
+    }
+
+    /**
+     * Reads the value of a variable from the cold tier.
+     *
+     * @param name The variable name.
+     * @return The value, or null if the variable is not there.
+     */
+    private Integer readCold(String name) {
+        coldReads++;
+        long value;
+        try {
+            value = cold.find(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (value == SortedBindingsFile.MISSING) {
+            falsePositives++;
+            return null;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Retrieves the number of bindings in the cold tier.
+     *
+     * @return The number of bindings on disk.
+     */
+    public synchronized int coldSize() {
+        return cold.size();
+    }
+
+    /**
+     * Describes how the tiers have been used.
+     *
+     * @return The report.
+     */
+    public synchronized String report() {
+        long lookups = hotHits + filterRejections + coldReads;
+        return String.format("Tiered bindings: %d on disk, %d of %d hot, %d changed, %d merges%n"
+                + "Lookups: %d, hot hits: %d, filter rejections: %d, cold reads: %d "
+                + "(%d false positives), evictions: %d%n"
+                + "Filter: %.1f bits per name, expected false positive rate %.2f%%",
+                cold.size(), hot.size(), hotCapacity, changes.size(), merges, lookups, hotHits,
+                filterRejections, coldReads, falsePositives, evictions, filter.bitsPerName(),
+                100 * filter.falsePositiveRate());
+    }
+
+    /**
+     * Closes the cold tier. A merged file is kept, so the bindings merged into
+     * it can be opened again with HashBasedSet.openTiered; changes not merged
+     * yet are lost.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        cold.close();
+    }
+
+}
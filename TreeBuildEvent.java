@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The TreeBuildEvent class is a Java Flight Recorder event emitted for every
+ * expression tree built by ExperimentTree.createTree.
+ * 
+ * @author ColinKula
+ */
+
+@Name("structures.TreeBuild")
+@Label("Expression Tree Build")
+@Category({"Structures", "Expressions"})
+@Description("Construction of an expression tree from a postfix expression")
+public class TreeBuildEvent extends Event {
+
+    // Fields
+
+    /**
+     * The number of characters in the postfix expression.
+     */
+    @Label("Expression Length")
+    int expressionLength;
+
+    /**
+     * The number of nodes in the built tree.
+     */
+    @Label("Node Count")
+    int nodeCount;
+
+}
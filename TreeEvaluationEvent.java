@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The TreeEvaluationEvent class is a Java Flight Recorder event emitted for
+ * every evaluation made by ExperimentTree.evaluatePostfix.
+ * 
+ * @author ColinKula
+ */
+
+@Name("structures.TreeEvaluation")
+@Label("Expression Evaluation")
+@Category({"Structures", "Expressions"})
+@Description("Evaluation of an expression tree against a set of variables")
+public class TreeEvaluationEvent extends Event {
+
+    // Fields
+
+    /**
+     * The number of characters in the postfix expression.
+     */
+    @Label("Expression Length")
+    int expressionLength;
+
+    /**
+     * The number of nodes in the evaluated tree.
+     */
+    @Label("Node Count")
+    int nodeCount;
+
+    /**
+     * The result of the evaluation.
+     */
+    @Label("Result")
+    double result;
+
+}
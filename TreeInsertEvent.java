@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The TreeInsertEvent class is a Java Flight Recorder event emitted for every
+ * node inserted by BinarySearchTree.insert.
+ * 
+ * @author ColinKula
+ */
+
+@Name("structures.TreeInsert")
+@Label("Binary Search Tree Insert")
+@Category({"Structures", "Trees"})
+@Description("Insertion of a value into a binary search tree")
+public class TreeInsertEvent extends Event {
+
+    // Fields
+
+    /**
+     * The inserted value.
+     */
+    @Label("Value")
+    double value;
+
+    /**
+     * The depth the node was inserted at, where the root has depth 0.
+     */
+    @Label("Depth")
+    int depth;
+
+}
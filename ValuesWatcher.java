@@ -0,0 +1,394 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The ValuesWatcher class keeps a HashBasedSet and the evaluations of a list
+ * of experiments up to date with Values.txt while the file is edited, without
+ * reloading the set or re-evaluating every experiment.
+ *
+ * <p>A WatchService on the directory of the file reports when it is written
+ * or replaced. Once the events settle, the file is read and diffed against the
+ * expressions in the set: lines that are no longer there are removed, and new
+ * lines are added, through HashBasedSet.applyChanges, which only touches the
+ * table nodes of those lines. Only the experiments that use a variable whose
+ * binding changed are then evaluated again; which experiments use which
+ * variable is indexed by SymbolTable id when the watcher is created.
+ *
+ * <p>Reloads run on the watcher's own thread, which start launches once the
+ * watcher is constructed. Reload, evaluation and report are synchronized on
+ * the watcher, so other threads reading the set while it is watched should
+ * synchronize on the watcher too.
+ *
+ * @author ColinKula
+ */
+
+public class ValuesWatcher implements AutoCloseable {
+
+    // Fields
+
+    /**
+     * How long the file must go without events before it is reloaded, so an
+     * editor's several writes are applied as one change.
+     */
+    static final long QUIET_MILLIS = 50;
+
+    /**
+     * The set kept up to date with the file.
+     */
+    final HashBasedSet set;
+
+    /**
+     * The file watched.
+     */
+    final Path valuesFile;
+
+    /**
+     * The experiments evaluated against the set.
+     */
+    final List<ExperimentTree> experiments;
+
+    /**
+     * The current evaluation of every experiment.
+     */
+    final double[] evaluations;
+
+    /**
+     * The experiments that use each variable, indexed by SymbolTable id.
+     * Ids of variables no experiment uses have no entry or a null one.
+     */
+    final int[][] dependents;
+
+    /**
+     * Where a line describing every reload is sent, or null.
+     */
+    final Consumer<String> reports;
+
+    /**
+     * The service watching the directory of the file.
+     */
+    final WatchService watchService;
+
+    /**
+     * The thread waiting for changes to the file, or null until start is
+     * called.
+     */
+    Thread watcher;
+
+    /**
+     * The number of reloads.
+     */
+    long reloads;
+
+    /**
+     * The lines added over all reloads.
+     */
+    long linesAdded;
+
+    /**
+     * The lines removed over all reloads.
+     */
+    long linesRemoved;
+
+    /**
+     * The experiments evaluated again over all reloads.
+     */
+    long reevaluated;
+
+    /**
+     * The time spent applying changes and evaluating, in nanoseconds.
+     */
+    long reloadNanos;
+
+    // Constructors
+
+    /**
+     * Prepares to watch a values file for changes. Nothing is reloaded until
+     * start is called.
+     *
+     * @param set         The set loaded from the file.
+     * @param valuesFile  The path of the file.
+     * @param experiments The experiments to keep evaluated.
+     * @param evaluations The current evaluation of every experiment.
+     * @param reports     Where a line describing every reload is sent, or
+     *                    null.
+     * @throws IOException If the directory of the file cannot be watched.
+     */
+    public ValuesWatcher(HashBasedSet set, String valuesFile, List<ExperimentTree> experiments,
+            List<Double> evaluations, Consumer<String> reports) throws IOException {
+        this.set = set;
+        this.valuesFile = Path.of(valuesFile).toAbsolutePath();
+        this.experiments = experiments;
+        this.evaluations = new double[experiments.size()];
+        for (int i = 0; i < this.evaluations.length; i++) {
+            this.evaluations[i] = evaluations.get(i);
+        }
+        this.dependents = indexDependents(experiments);
+        this.reports = reports;
+
+        this.watchService = this.valuesFile.getFileSystem().newWatchService();
+        this.valuesFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    // Methods
+
+    /**
+     * Starts the thread that waits for changes to the file and reloads it.
+     *
+     * @throws IllegalStateException If the watcher was already started.
+     */
+    public synchronized void start() {
+        if (watcher != null) {
+            throw new IllegalStateException("The watcher is already started");
+        }
+        watcher = new Thread(this::watchLoop, "values-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Indexes which experiments use each variable.
+     *
+     * @param experiments The experiments.
+     * @return The experiments using each SymbolTable id, without repeats.
+     */
+    private static int[][] indexDependents(List<ExperimentTree> experiments) {
+        int[] counts = new int[SymbolTable.global().size()];
+        int[] lastSeen = new int[counts.length];
+        Arrays.fill(lastSeen, -1);
+        for (int i = 0; i < experiments.size(); i++) {
+            int experiment = i;
+            experiments.get(i).forEachSymbol(symbol -> {
+                if (lastSeen[symbol] != experiment) {
+                    lastSeen[symbol] = experiment;
+                    counts[symbol]++;
+                }
+            });
+        }
+
+        int[][] dependents = new int[counts.length][];
+        Arrays.fill(lastSeen, -1);
+        for (int i = 0; i < experiments.size(); i++) {
+            int experiment = i;
+            experiments.get(i).forEachSymbol(symbol -> {
+                if (lastSeen[symbol] != experiment) {
+                    lastSeen[symbol] = experiment;
+                    if (dependents[symbol] == null) {
+                        dependents[symbol] = new int[counts[symbol]];
+                        counts[symbol] = 0;
+                    }
+                    dependents[symbol][counts[symbol]++] = experiment;
+                }
+            });
+        }
+        return dependents;
+    }
+
+    /**
+     * Waits for the file to change and reloads it, until the watcher is
+     * closed.
+     */
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = drain(key);
+                // Let the writes settle before reading the file
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    touched |= drain(key);
+                }
+                if (touched) {
+                    try {
+                        reload();
+                    } catch (UncheckedIOException e) {
+                        if (reports != null) {
+                            reports.accept("Could not reload " + valuesFile + ": " + e.getCause().getMessage());
+                        }
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // The watcher was closed
+        }
+    }
+
+    /**
+     * Takes the events of a watch key and resets it.
+     *
+     * @param key The key.
+     * @return true if any event was for the watched file.
+     */
+    private boolean drain(WatchKey key) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || valuesFile.getFileName().equals(context)) {
+                touched = true;
+            }
+        }
+        key.reset();
+        return touched;
+    }
+
+    /**
+     * Reads the file, applies the lines that were added or removed since the
+     * last reload, and evaluates again the experiments that use a variable
+     * whose binding changed. Lines that are not of the form "name = value" are
+     * skipped, since the file may be caught in the middle of being written.
+     *
+     * @return The number of experiments evaluated again.
+     * @throws UncheckedIOException If the file cannot be read.
+     */
+    public synchronized int reload() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(valuesFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long start = System.nanoTime();
+        HashSet<String> current = new HashSet<>(lines.size() * 2);
+        HashMap<String, Integer> added = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (isBinding(line) && current.add(line) && !set.map.containsKey(line)) {
+                added.put(line, i + 1);
+            }
+        }
+        ArrayList<String> removed = new ArrayList<>();
+        for (String line : set.map.keySet()) {
+            if (!current.contains(line)) {
+                removed.add(line);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return 0;
+        }
+
+        BitSet changed = set.applyChanges(removed, added);
+        BitSet affected = new BitSet(evaluations.length);
+        for (int symbol = changed.nextSetBit(0); symbol >= 0; symbol = changed.nextSetBit(symbol + 1)) {
+            if (symbol < dependents.length && dependents[symbol] != null) {
+                for (int experiment : dependents[symbol]) {
+                    affected.set(experiment);
+                }
+            }
+        }
+        for (int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1)) {
+            evaluations[i] = evaluate(experiments.get(i));
+        }
+        long nanos = System.nanoTime() - start;
+
+        int count = affected.cardinality();
+        reloads++;
+        linesAdded += added.size();
+        linesRemoved += removed.size();
+        reevaluated += count;
+        reloadNanos += nanos;
+        if (reports != null) {
+            reports.accept(String.format("Reloaded %s: %d lines added, %d removed, %d variables changed, "
+                    + "%d of %d experiments evaluated again in %.2f ms",
+                    valuesFile.getFileName(), added.size(), removed.size(), changed.cardinality(), count,
+                    evaluations.length, nanos / 1e6));
+        }
+        return count;
+    }
+
+    /**
+     * Evaluates an experiment, giving NaN if a variable it needs was removed.
+     *
+     * @param experiment The experiment.
+     * @return The evaluation.
+     */
+    private double evaluate(ExperimentTree experiment) {
+        try {
+            return experiment.evaluatePostfix(set);
+        } catch (EmptyStackException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Checks whether a line of the file is a binding the set can hold, of the
+     * form "name = value".
+     *
+     * @param line The line.
+     * @return true if the line is a binding.
+     */
+    static boolean isBinding(String line) {
+        int i = line.indexOf(" = ");
+        if (i <= 0 || line.indexOf(' ') != i || i + 3 == line.length()) {
+            return false;
+        }
+        try {
+            Integer.parseInt(line, i + 3, line.length(), 10);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves the current evaluation of an experiment.
+     *
+     * @param experiment The index of the experiment.
+     * @return The evaluation, or NaN if a variable it needs is missing.
+     */
+    public synchronized double evaluation(int experiment) {
+        return evaluations[experiment];
+    }
+
+    /**
+     * Describes the reloads so far.
+     *
+     * @return The report.
+     */
+    public synchronized String report() {
+        return String.format("Values watcher: %d reloads, %d lines added, %d removed, "
+                + "%d experiments evaluated again (%.1f per reload), %.2f ms per reload",
+                reloads, linesAdded, linesRemoved, reevaluated,
+                reloads > 0 ? (double) reevaluated / reloads : 0.0,
+                reloads > 0 ? reloadNanos / 1e6 / reloads : 0.0);
+    }
+
+    /**
+     * Stops watching the file.
+     *
+     * @throws IOException If the watch service cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        Thread thread;
+        synchronized (this) {
+            thread = watcher;
+        }
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
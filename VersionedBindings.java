@@ -0,0 +1,312 @@
+import java.util.BitSet;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The VersionedBindings class keeps multiple versions of a set of variable
+ * bindings, so that readers can evaluate against one consistent version while
+ * writers keep committing new ones.
+ * 
+ * <p>Every variable has a chain of BindingVersion objects, newest first,
+ * indexed by its SymbolTable id. A commit adds a new version to the chains of
+ * the variables it changes and then advances the current version, so a
+ * reader pinned to an older version never sees it. A snapshot is only a
+ * pinned version number; reading a variable walks its chain to the newest
+ * version at or before the pin, without taking a lock.
+ * 
+ * <p>Commits, pins and releases share one lock, so a writer waits for a
+ * snapshot being opened or closed, though never for a reader still holding
+ * one. Pruning is lazy: when a commit adds a version to a chain, it drops the
+ * versions of that chain older than the newest one visible to the oldest
+ * pinned snapshot. Releasing a snapshot prunes nothing, so the versions it
+ * held stay until their variable is next committed. commit(Table) compares
+ * every chain with the table while holding the lock, so a writer that knows
+ * which variables changed should pass them to commit(BitSet, Table).
+ * 
+ * @author ColinKula
+ */
+
+public class VersionedBindings {
+
+    // Fields
+
+    /**
+     * The newest version of each variable's binding, indexed by SymbolTable
+     * id.
+     */
+    volatile AtomicReferenceArray<BindingVersion> heads = new AtomicReferenceArray<>(16);
+
+    /**
+     * The latest committed version.
+     */
+    volatile long current;
+
+    /**
+     * The number of open snapshots pinned to each version.
+     */
+    final TreeMap<Long, Integer> pins = new TreeMap<>();
+
+    /**
+     * The symbol table the ids belong to.
+     */
+    final SymbolTable symbols;
+
+    // Constructors
+
+    /**
+     * Constructs an empty VersionedBindings store for the given symbol table.
+     *
+     * @param symbols The symbol table the ids belong to.
+     */
+    public VersionedBindings(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    // Methods
+
+    /**
+     * Commits the contents of a table as a new version. Only the variables
+     * whose binding differs from the latest version get a new entry, and no
+     * version is created if nothing changed.
+     *
+     * @param table The table holding the bindings to commit.
+     * @return The latest version after the commit.
+     */
+    public synchronized long commit(Table table) {
+        long next = current + 1;
+        boolean changed = false;
+        ensureCapacity(Math.max(table.bySymbol.length, symbols.size()));
+        AtomicReferenceArray<BindingVersion> chains = heads;
+        long oldestPinned = oldestPinned();
+
+        for (int symbol = 0; symbol < chains.length(); symbol++) {
+            changed |= advance(chains, symbol, table, next, oldestPinned);
+        }
+
+        if (changed) {
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * Commits the bindings of the given variables in a table as one new
+     * version, so a snapshot sees either all of the changes or none of them.
+     * Variables whose binding did not change get no new entry, and no version
+     * is created if none changed.
+     *
+     * @param changed The ids of the variables that may have changed.
+     * @param table   The table holding the bindings to commit.
+     * @return The latest version after the commit.
+     */
+    public synchronized long commit(BitSet changed, Table table) {
+        long next = current + 1;
+        boolean any = false;
+        ensureCapacity(changed.length());
+        AtomicReferenceArray<BindingVersion> chains = heads;
+        long oldestPinned = oldestPinned();
+
+        for (int symbol = changed.nextSetBit(0); symbol >= 0; symbol = changed.nextSetBit(symbol + 1)) {
+            any |= advance(chains, symbol, table, next, oldestPinned);
+        }
+
+        if (any) {
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * Adds a version to the chain of a variable if its binding in the table
+     * differs from the latest version, and prunes the chain. Called while
+     * holding the lock.
+     *
+     * @param chains       The chains.
+     * @param symbol       The id of the variable.
+     * @param table        The table holding the binding.
+     * @param next         The version being committed.
+     * @param oldestPinned The oldest version a reader can be pinned to.
+     * @return true if a version was added.
+     */
+    private static boolean advance(AtomicReferenceArray<BindingVersion> chains, int symbol, Table table,
+            long next, long oldestPinned) {
+        TableNode node = symbol < table.bySymbol.length ? table.bySymbol[symbol] : null;
+        BindingVersion head = chains.get(symbol);
+        boolean wasPresent = head != null && head.present;
+        boolean changed = node != null ? !wasPresent || head.value != node.getValue() : wasPresent;
+
+        if (changed) {
+            head = new BindingVersion(next, node != null ? node.getValue() : 0, node != null, head);
+            chains.set(symbol, head);
+        }
+        prune(head, oldestPinned);
+        return changed;
+    }
+
+    /**
+     * Commits a change to a single variable as a new version.
+     *
+     * @param symbol  The id of the variable.
+     * @param value   The new numerical value.
+     * @param present Whether the variable is bound; false to remove it.
+     * @return The new version.
+     */
+    public synchronized long commit(int symbol, int value, boolean present) {
+        ensureCapacity(symbol + 1);
+        BindingVersion head = new BindingVersion(current + 1, value, present, heads.get(symbol));
+        heads.set(symbol, head);
+        prune(head, oldestPinned());
+        current = head.version;
+        return current;
+    }
+
+    /**
+     * Opens a snapshot pinned to the latest version. The snapshot must be
+     * closed so that later commits can prune the versions it holds.
+     *
+     * @return The snapshot.
+     */
+    public BindingsSnapshot snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Opens a snapshot pinned to the latest version that records its lookups
+     * in the given statistics.
+     *
+     * @param statistics The statistics to record lookups in, or null.
+     * @return The snapshot.
+     */
+    public synchronized BindingsSnapshot snapshot(TableStatistics statistics) {
+        long version = current;
+        pins.merge(version, 1, Integer::sum);
+        return new BindingsSnapshot(this, version, statistics);
+    }
+
+    /**
+     * Releases a pin taken by snapshot.
+     *
+     * @param version The pinned version.
+     */
+    synchronized void release(long version) {
+        pins.computeIfPresent(version, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Finds the binding of a variable as of the given version, without taking
+     * a lock.
+     *
+     * @param symbol  The id of the variable.
+     * @param version The version to read.
+     * @return The newest binding at or before the version, or null if the
+     *         variable had none.
+     */
+    BindingVersion find(int symbol, long version) {
+        AtomicReferenceArray<BindingVersion> chains = heads;
+        if (symbol < 0 || symbol >= chains.length()) {
+            return null;
+        }
+        BindingVersion entry = chains.get(symbol);
+        while (entry != null && entry.version > version) {
+            entry = entry.older;
+        }
+        return entry;
+    }
+
+    /**
+     * Retrieves the number of versions in a variable's chain, for checking
+     * that old versions are pruned.
+     *
+     * @param symbol The id of the variable.
+     * @return The number of versions kept.
+     */
+    public int versionCount(int symbol) {
+        AtomicReferenceArray<BindingVersion> chains = heads;
+        int count = 0;
+        if (symbol >= 0 && symbol < chains.length()) {
+            for (BindingVersion entry = chains.get(symbol); entry != null; entry = entry.older) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Estimates the heap retained by the version chains of every variable.
+     *
+     * @return The footprint, with one entry per variable that has a chain.
+     */
+    public Footprint footprint() {
+        AtomicReferenceArray<BindingVersion> chains = heads;
+        int variables = 0;
+        long versions = 0;
+        for (int i = 0; i < chains.length(); i++) {
+            if (chains.get(i) != null) {
+                variables++;
+                versions += versionCount(i);
+            }
+        }
+        return new Footprint("Versioned bindings", variables)
+                .add("versions", Footprint.object(3 * Footprint.REFERENCE + 8)
+                        + Footprint.object(9 * Footprint.REFERENCE)
+                        + Footprint.object(Footprint.REFERENCE)
+                        + Footprint.array(chains.length(), Footprint.REFERENCE), 3)
+                .add("version chains", versions * Footprint.object(8 + 4 + 1 + Footprint.REFERENCE), versions);
+    }
+
+    /**
+     * Retrieves the latest committed version.
+     *
+     * @return The latest version.
+     */
+    public long currentVersion() {
+        return current;
+    }
+
+    /**
+     * Finds the oldest version a snapshot is pinned to. Called while holding
+     * the lock.
+     *
+     * @return The oldest pinned version, or the latest version if there are
+     *         no snapshots.
+     */
+    private long oldestPinned() {
+        return pins.isEmpty() ? current : Math.min(pins.firstKey(), current);
+    }
+
+    /**
+     * Drops every version in a chain older than the newest version at or
+     * before the given one, since no reader can reach them any more.
+     *
+     * @param head         The newest version of the chain.
+     * @param oldestPinned The oldest version a reader can be pinned to.
+     */
+    private static void prune(BindingVersion head, long oldestPinned) {
+        for (BindingVersion entry = head; entry != null; entry = entry.older) {
+            if (entry.version <= oldestPinned) {
+                entry.older = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Grows the chain array to hold at least the given number of ids. Called
+     * while holding the lock.
+     *
+     * @param capacity The number of ids needed.
+     */
+    private void ensureCapacity(int capacity) {
+        AtomicReferenceArray<BindingVersion> chains = heads;
+        if (capacity <= chains.length()) {
+            return;
+        }
+        AtomicReferenceArray<BindingVersion> grown = new AtomicReferenceArray<>(
+                Math.max(capacity, chains.length() * 2));
+        for (int i = 0; i < chains.length(); i++) {
+            grown.set(i, chains.get(i));
+        }
+        heads = grown;
+    }
+
+}
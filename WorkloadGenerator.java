@@ -0,0 +1,324 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The WorkloadGenerator class writes synthetic Values.txt and Experiments.txt
+ * files at any scale, so the pipeline can be run locally against loads the
+ * size of production.
+ *
+ * <p>Variables are written one per line as "name = value", where every name
+ * is a run of letters followed by a run of digits. Expressions are random
+ * binary trees over those variables, written in infix notation with only the
+ * parentheses their precedence requires. The operator mix is given as weights,
+ * and expressions can share subexpressions with each other or repeat earlier
+ * expressions outright. Usage:
+ *
+ * <pre>
+ * java WorkloadGenerator [-out dir] [-vars n] [-exprs n] [-depth n]
+ *                        [-ops +:4,-:2,*:3,/:1,^:0] [-sharing p] [-repeat p]
+ *                        [-maxValue n] [-seed n]
+ * </pre>
+ *
+ * @author ColinKula
+ */
+
+public class WorkloadGenerator {
+
+    // Fields
+
+    /**
+     * The directory the files are written to.
+     */
+    String outputDirectory = "workload";
+
+    /**
+     * The number of variables written to Values.txt.
+     */
+    int variableCount = 1000;
+
+    /**
+     * The number of expressions written to Experiments.txt.
+     */
+    int expressionCount = 10000;
+
+    /**
+     * The maximum depth of each expression tree.
+     */
+    int maxDepth = 6;
+
+    /**
+     * The operators expressions are built from.
+     */
+    char[] operators = {'+', '-', '*', '/', '^'};
+
+    /**
+     * The relative weight of each operator in operators.
+     */
+    int[] operatorWeights = {4, 2, 3, 1, 0};
+
+    /**
+     * The probability that a subexpression is taken from the pool of earlier
+     * subexpressions instead of being generated.
+     */
+    double sharing = 0.1;
+
+    /**
+     * The probability that an expression repeats an earlier expression.
+     */
+    double repeat = 0.0;
+
+    /**
+     * The largest value assigned to a variable. Values start at 1.
+     */
+    int maxValue = 100;
+
+    /**
+     * The source of randomness, seeded so workloads can be reproduced.
+     */
+    Random random = new Random(1);
+
+    /**
+     * The variable names, generated once per run.
+     */
+    String[] names;
+
+    /**
+     * Earlier subexpressions that later expressions can share.
+     */
+    ArrayList<String> pool = new ArrayList<>();
+
+    /**
+     * The precedence of each subexpression in the pool.
+     */
+    ArrayList<Integer> poolPrecedence = new ArrayList<>();
+
+    /**
+     * The number of subexpressions kept in the pool.
+     */
+    static final int POOL_SIZE = 4096;
+
+    // Main
+
+    public static void main(String[] args) throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-out")) {
+                generator.outputDirectory = args[++i];
+            } else if (args[i].equals("-vars")) {
+                generator.variableCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-exprs")) {
+                generator.expressionCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-depth")) {
+                generator.maxDepth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-ops")) {
+                generator.setOperatorMix(args[++i]);
+            } else if (args[i].equals("-sharing")) {
+                generator.sharing = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-repeat")) {
+                generator.repeat = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-maxValue")) {
+                generator.maxValue = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                generator.random = new Random(Long.parseLong(args[++i]));
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        generator.generate();
+        System.out.println("Wrote " + generator.variableCount + " variables and "
+                + generator.expressionCount + " expressions to "
+                + generator.outputDirectory);
+    }
+
+    // Methods
+
+    /**
+     * Parses an operator mix of the form "+:4,-:2,*:3,/:1,^:0". Operators that
+     * are left out get a weight of zero.
+     *
+     * @param mix The operator mix.
+     */
+    public void setOperatorMix(String mix) {
+        operatorWeights = new int[operators.length];
+
+        for (String part : mix.split(",")) {
+            char operator = part.charAt(0);
+            int weight = Integer.parseInt(part.substring(part.indexOf(':') + 1).trim());
+            for (int i = 0; i < operators.length; i++) {
+                if (operators[i] == operator) {
+                    operatorWeights[i] = weight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes Values.txt and Experiments.txt into the output directory.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    public void generate() throws IOException {
+        File directory = new File(outputDirectory);
+        directory.mkdirs();
+        names = new String[variableCount];
+
+        try (BufferedWriter out = new BufferedWriter(
+                new FileWriter(new File(directory, "Values.txt")), 1 << 16)) {
+            for (int i = 0; i < variableCount; i++) {
+                names[i] = name(i);
+                if (i > 0) {
+                    out.newLine();
+                }
+                out.write(names[i] + " = " + (1 + random.nextInt(maxValue)));
+            }
+        }
+
+        ArrayList<String> written = new ArrayList<>();
+        try (BufferedWriter out = new BufferedWriter(
+                new FileWriter(new File(directory, "Experiments.txt")), 1 << 16)) {
+            for (int i = 0; i < expressionCount; i++) {
+                String expression;
+                if (!written.isEmpty() && random.nextDouble() < repeat) {
+                    expression = written.get(random.nextInt(written.size()));
+                } else {
+                    expression = expression(0, new int[1]);
+                    if (written.size() < POOL_SIZE) {
+                        written.add(expression);
+                    } else {
+                        written.set(random.nextInt(POOL_SIZE), expression);
+                    }
+                }
+                if (i > 0) {
+                    out.newLine();
+                }
+                out.write(expression);
+            }
+        }
+    }
+
+    /**
+     * Creates the name of the variable with the given index: the index written
+     * in base 26 as letters, followed by a short run of digits.
+     *
+     * @param index The index of the variable.
+     * @return The variable name.
+     */
+    public String name(int index) {
+        StringBuilder builder = new StringBuilder();
+        int number = index;
+        do {
+            builder.append((char) ('a' + number % 26));
+            number /= 26;
+        } while (number > 0);
+        builder.append(random.nextInt(100));
+        return builder.toString();
+    }
+
+    /**
+     * Generates the infix form of a random expression tree. The precedence of
+     * the top operator is returned through precedence so that the caller can
+     * decide whether parentheses are needed; operands have precedence 4.
+     *
+     * @param depth      The depth of the tree being generated.
+     * @param precedence Receives the precedence of the generated expression.
+     * @return The infix expression.
+     */
+    String expression(int depth, int[] precedence) {
+        boolean leaf = depth >= maxDepth || (depth > 0 && random.nextInt(3) == 0);
+
+        if (leaf || totalWeight() == 0) {
+            precedence[0] = 4;
+            return names[random.nextInt(names.length)];
+        }
+
+        if (depth > 0 && !pool.isEmpty() && random.nextDouble() < sharing) {
+            int shared = random.nextInt(pool.size());
+            precedence[0] = poolPrecedence.get(shared);
+            return pool.get(shared);
+        }
+
+        char operator = pickOperator();
+        int operatorPrecedence = precedence(operator);
+        int[] childPrecedence = new int[1];
+
+        String left = expression(depth + 1, childPrecedence);
+        if (childPrecedence[0] < operatorPrecedence
+                || (operator == '^' && childPrecedence[0] == operatorPrecedence)) {
+            left = "(" + left + ")";
+        }
+
+        String right = expression(depth + 1, childPrecedence);
+        if (childPrecedence[0] < operatorPrecedence
+                || (operator != '^' && childPrecedence[0] == operatorPrecedence)) {
+            right = "(" + right + ")";
+        }
+
+        String expression = left + operator + right;
+        precedence[0] = operatorPrecedence;
+
+        if (depth > 0) {
+            if (pool.size() < POOL_SIZE) {
+                pool.add(expression);
+                poolPrecedence.add(operatorPrecedence);
+            } else {
+                int replaced = random.nextInt(POOL_SIZE);
+                pool.set(replaced, expression);
+                poolPrecedence.set(replaced, operatorPrecedence);
+            }
+        }
+
+        return expression;
+    }
+
+    /**
+     * Picks an operator at random according to the operator weights.
+     *
+     * @return The chosen operator.
+     */
+    char pickOperator() {
+        int pick = random.nextInt(totalWeight());
+        for (int i = 0; i < operators.length; i++) {
+            pick -= operatorWeights[i];
+            if (pick < 0) {
+                return operators[i];
+            }
+        }
+        return operators[0];
+    }
+
+    /**
+     * Sums the operator weights.
+     *
+     * @return The total weight.
+     */
+    int totalWeight() {
+        int total = 0;
+        for (int weight : operatorWeights) {
+            total += weight;
+        }
+        return total;
+    }
+
+    /**
+     * Determines the precedence of an operator, matching InfixPostfix.
+     *
+     * @param operator The operator.
+     * @return The precedence value of the operator.
+     */
+    static int precedence(char operator) {
+        if (operator == '^') {
+            return 3;
+        } else if (operator == '*' || operator == '/') {
+            return 2;
+        }
+        return 1;
+    }
+
+}